@@ -1,6 +1,6 @@
 import React, { useState, useEffect, useCallback } from 'react';
 import { Card, Tag, Button, Space, Descriptions, Empty, Spin, Progress, Tabs, Image, Modal, List, message } from 'antd';
-import { EyeOutlined, DownloadOutlined, DeleteOutlined, ReloadOutlined, FileImageOutlined } from '@ant-design/icons';
+import { EyeOutlined, DownloadOutlined, DeleteOutlined, ReloadOutlined, FileImageOutlined, StopOutlined } from '@ant-design/icons';
 import invoiceService from '../../services/invoiceService';
 import InvoiceList from '../result/InvoiceList';
 import type { TaskStatusResponse, InvoiceInfo } from '../../types/api';
@@ -87,22 +87,76 @@ const TaskItem: React.FC<TaskItemProps> = ({ taskId, onDelete }) => {
     fetchTaskStatus();
   }, [fetchTaskStatus]);
 
+  const isActive = taskStatus?.status === 'PROCESSING' || taskStatus?.status === 'PENDING';
+
   useEffect(() => {
-    // 如果任务正在处理中，每5秒自动刷新一次
-    if (taskStatus?.status === 'PROCESSING' || taskStatus?.status === 'PENDING') {
-      const interval = setInterval(() => {
-        fetchTaskStatus();
-      }, 5000);
-      
-      return () => clearInterval(interval);
+    // 任务处理中时订阅服务端推送；推送不可用时每5秒自动刷新一次
+    if (!isActive) {
+      return;
     }
-  }, [taskStatus?.status, fetchTaskStatus]);
+    let interval: ReturnType<typeof setInterval> | undefined;
+    const unsubscribe = invoiceService.subscribeTaskEvents(taskId, {
+      onStatus: (status) => setTaskStatus(prev => ({ ...status, invoices: status.invoices ?? prev?.invoices })),
+      onProgress: (event) => setTaskStatus(prev => prev && invoiceService.applyTaskEvent(prev, event)),
+      onPage: (event) => setTaskStatus(prev => prev && invoiceService.applyTaskEvent(prev, event)),
+      onDone: (status) => {
+        setTaskStatus(status);
+        updateTaskStatus(taskId, status.status, {
+          totalInvoices: status.totalInvoices,
+          completedAt: status.completedAt,
+        });
+      },
+      onNotFound: fetchTaskStatus,
+      onUnavailable: () => {
+        interval = setInterval(() => {
+          fetchTaskStatus();
+        }, 5000);
+      },
+    });
+
+    return () => {
+      unsubscribe();
+      if (interval) {
+        clearInterval(interval);
+      }
+    };
+  }, [isActive, taskId, fetchTaskStatus]);
 
   const handleDelete = () => {
     removeTask(taskId);
     onDelete?.(taskId);
   };
 
+  const handleCancel = async () => {
+    try {
+      const response = await invoiceService.cancelTask(taskId);
+      const status = response.data;
+      setTaskStatus(status);
+      updateTaskStatus(taskId, status.status, { completedAt: status.completedAt });
+      message.success('任务已取消');
+    } catch (error) {
+      console.error('取消任务失败:', error);
+      message.error('取消任务失败');
+    }
+  };
+
+  const handleRetry = async () => {
+    try {
+      const response = await invoiceService.retryFailedPages(taskId);
+      const status = response.data;
+      setTaskStatus(prev => ({ ...status, invoices: status.invoices ?? prev?.invoices }));
+      updateTaskStatus(taskId, status.status);
+      message.success('已开始重试失败页面');
+    } catch (error) {
+      console.error('重试失败页面失败:', error);
+      message.error('重试失败页面失败');
+    }
+  };
+
+  const failedPages = taskStatus?.pages?.filter(page => page.status === 'FAILED' || page.status === 'CUT') ?? [];
+  const canRetry = (taskStatus?.status === 'COMPLETED' || taskStatus?.status === 'FAILED')
+    && !!taskStatus?.pages?.some(page => page.status !== 'DONE');
+
   if (loading) {
     return (
       <Card>
@@ -124,6 +178,7 @@ const TaskItem: React.FC<TaskItemProps> = ({ taskId, onDelete }) => {
     PROCESSING: 'processing',
     COMPLETED: 'success',
     FAILED: 'error',
+    CANCELLED: 'warning',
   }[taskStatus.status];
 
   const statusText = {
@@ -131,6 +186,7 @@ const TaskItem: React.FC<TaskItemProps> = ({ taskId, onDelete }) => {
     PROCESSING: '处理中',
     COMPLETED: '已完成',
     FAILED: '失败',
+    CANCELLED: '已取消',
   }[taskStatus.status];
 
   return (
@@ -151,6 +207,24 @@ const TaskItem: React.FC<TaskItemProps> = ({ taskId, onDelete }) => {
           >
             刷新
           </Button>
+          {isActive && (
+            <Button
+              icon={<StopOutlined />}
+              onClick={handleCancel}
+              size="small"
+            >
+              取消
+            </Button>
+          )}
+          {canRetry && (
+            <Button
+              icon={<ReloadOutlined />}
+              onClick={handleRetry}
+              size="small"
+            >
+              重试失败页面
+            </Button>
+          )}
           <Button
             icon={<DeleteOutlined />}
             onClick={handleDelete}
@@ -195,7 +269,8 @@ const TaskItem: React.FC<TaskItemProps> = ({ taskId, onDelete }) => {
         )}
       </Descriptions>
 
-      {taskStatus.status === 'COMPLETED' && taskStatus.invoices && taskStatus.invoices.length > 0 && (
+      {(taskStatus.status === 'COMPLETED' || taskStatus.status === 'PROCESSING')
+        && taskStatus.invoices && taskStatus.invoices.length > 0 && (
         <div style={{ marginTop: '16px' }}>
           <Tabs
             activeKey={activeTab}
@@ -339,7 +414,17 @@ const TaskItem: React.FC<TaskItemProps> = ({ taskId, onDelete }) => {
         </div>
       )}
 
-      {taskStatus.status === 'FAILED' && (
+      {failedPages.length > 0 && (
+        <div style={{ marginTop: '16px', color: '#ff4d4f' }}>
+          {failedPages.map(page => (
+            <div key={page.page}>
+              第 {page.page} 页{page.status === 'CUT' ? '未处理' : '识别失败'}：{page.error}
+            </div>
+          ))}
+        </div>
+      )}
+
+      {taskStatus.status === 'FAILED' && !canRetry && (
         <div style={{ marginTop: '16px', color: '#ff4d4f' }}>
           任务处理失败，请重新上传文件
         </div>
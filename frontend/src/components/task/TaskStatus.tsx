@@ -31,14 +31,38 @@ const TaskStatus: React.FC<TaskStatusProps> = ({ taskId, onComplete }) => {
 
   useEffect(() => {
     fetchTaskStatus();
-    const interval = setInterval(() => {
-      if (taskStatus?.status === 'PROCESSING' || taskStatus?.status === 'PENDING') {
-        fetchTaskStatus();
-      }
-    }, 2000); // 每2秒轮询一次
+  }, [taskId]);
+
+  const isActive = taskStatus?.status === 'PROCESSING' || taskStatus?.status === 'PENDING';
 
-    return () => clearInterval(interval);
-  }, [taskId, taskStatus?.status]);
+  useEffect(() => {
+    // 任务处理中时订阅服务端推送；推送不可用时每2秒轮询一次
+    if (!isActive) {
+      return;
+    }
+    let interval: ReturnType<typeof setInterval> | undefined;
+    const unsubscribe = invoiceService.subscribeTaskEvents(taskId, {
+      onStatus: setTaskStatus,
+      onProgress: (event) => setTaskStatus(prev => prev && invoiceService.applyTaskEvent(prev, event)),
+      onDone: (status) => {
+        setTaskStatus(status);
+        if (status.status === 'COMPLETED' && onComplete) {
+          onComplete(status);
+        }
+      },
+      onNotFound: fetchTaskStatus,
+      onUnavailable: () => {
+        interval = setInterval(fetchTaskStatus, 2000);
+      },
+    });
+
+    return () => {
+      unsubscribe();
+      if (interval) {
+        clearInterval(interval);
+      }
+    };
+  }, [taskId, isActive]);
 
   if (!taskStatus) {
     return <div>加载中...</div>;
@@ -49,6 +73,7 @@ const TaskStatus: React.FC<TaskStatusProps> = ({ taskId, onComplete }) => {
     PROCESSING: 'processing',
     COMPLETED: 'success',
     FAILED: 'error',
+    CANCELLED: 'warning',
   }[taskStatus.status];
 
   return (
@@ -69,7 +94,12 @@ const TaskStatus: React.FC<TaskStatusProps> = ({ taskId, onComplete }) => {
           状态: <Tag color={statusColor}>{taskStatus.status}</Tag>
         </div>
         {taskStatus.status === 'PROCESSING' && (
-          <Progress percent={taskStatus.progress} />
+          <>
+            <Progress percent={taskStatus.progress} />
+            {!!taskStatus.invoices?.length && (
+              <div>已识别 {taskStatus.invoices.length} 张发票</div>
+            )}
+          </>
         )}
         {taskStatus.status === 'COMPLETED' && (
           <div>
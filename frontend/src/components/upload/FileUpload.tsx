@@ -5,6 +5,9 @@ import type { UploadFile } from 'antd/es/upload/interface';
 import invoiceService from '../../services/invoiceService';
 import { saveTask } from '../../utils/taskStorage';
 
+const MULTIPART_LIMIT = 50 * 1024 * 1024;
+const STREAM_LIMIT = 2 * 1024 * 1024 * 1024;
+
 interface FileUploadProps {
   onSuccess?: (response: any) => void;
   onError?: (error: any) => void;
@@ -35,11 +38,10 @@ const FileUpload: React.FC<FileUploadProps> = ({
       let response;
       if (async) {
         console.log('发起异步识别请求...');
-        response = await invoiceService.recognizeAndCropAsync(
-          file,
-          cropPadding,
-          outputFormat
-        );
+        // 超过 multipart 上限的大文件使用流式上传
+        response = file.size >= MULTIPART_LIMIT
+          ? await invoiceService.recognizeAndCropStream(file, cropPadding, outputFormat)
+          : await invoiceService.recognizeAndCropAsync(file, cropPadding, outputFormat);
         console.log('异步识别请求已提交:', response);
         // 保存异步任务到localStorage
         if (response?.data?.taskId) {
@@ -50,7 +52,9 @@ const FileUpload: React.FC<FileUploadProps> = ({
             filename: file.name,
           });
         }
-        message.success('任务已提交，请前往任务列表查看进度');
+        message.success(response?.data?.duplicate
+          ? '相同文件已提交过，已复用已有任务，请前往任务列表查看进度'
+          : '任务已提交，请前往任务列表查看进度');
       } else {
         console.log('发起同步识别请求...');
         response = await invoiceService.recognizeAndCrop(
@@ -91,8 +95,8 @@ const FileUpload: React.FC<FileUploadProps> = ({
   const beforeUpload = (file: File) => {
     console.log('beforeUpload 触发:', file.name);
     // 文件格式验证 - 检查 MIME 类型和文件扩展名
-    const validMimeTypes = ['application/pdf', 'image/jpeg', 'image/png', 'image/jpg'];
-    const validExtensions = ['.pdf', '.jpg', '.jpeg', '.png'];
+    const validMimeTypes = ['application/pdf', 'application/ofd', 'image/jpeg', 'image/png', 'image/jpg'];
+    const validExtensions = ['.pdf', '.ofd', '.jpg', '.jpeg', '.png'];
     const fileExtension = '.' + file.name.split('.').pop()?.toLowerCase();
     
     const isValidType = validMimeTypes.includes(file.type) || 
@@ -100,15 +104,15 @@ const FileUpload: React.FC<FileUploadProps> = ({
     
     if (!isValidType) {
       console.warn('文件格式不支持:', file.name, file.type);
-      message.error(`不支持的文件格式：${file.name}。只支持 PDF、JPG、PNG 格式的文件`);
+      message.error(`不支持的文件格式：${file.name}。只支持 PDF、OFD、JPG、PNG 格式的文件`);
       return false;
     }
 
-    // 文件大小验证（50MB）
-    const isLt50M = file.size / 1024 / 1024 < 50;
-    if (!isLt50M) {
+    // 文件大小验证：同步模式 50MB，异步模式通过流式上传支持大文件
+    const limit = async ? STREAM_LIMIT : MULTIPART_LIMIT;
+    if (file.size >= limit) {
       console.warn('文件太大:', file.name, file.size);
-      message.error('文件大小不能超过 50MB');
+      message.error(`文件大小不能超过 ${async ? '2GB' : '50MB'}`);
       return false;
     }
 
@@ -121,7 +125,7 @@ const FileUpload: React.FC<FileUploadProps> = ({
       fileList={fileList}
       beforeUpload={beforeUpload}
       onChange={({ fileList: newFileList }) => setFileList(newFileList)}
-      accept=".pdf,.jpg,.jpeg,.png"
+      accept=".pdf,.ofd,.jpg,.jpeg,.png"
       maxCount={1}
     >
       <Button icon={<UploadOutlined />} loading={loading}>
@@ -30,6 +30,18 @@ const HomePage: React.FC = () => {
       return;
     }
 
+    // 同步识别等待超时：处理转为后台任务，先展示已完成页面的发票
+    if (invoiceData?.partial) {
+      setResult(invoiceData);
+      saveTask({
+        taskId: invoiceData.taskId,
+        status: 'PROCESSING',
+        createdAt: new Date().toISOString(),
+      });
+      message.info(`处理时间较长，已转为后台任务（已识别 ${invoiceData.totalInvoices} 张），请前往任务列表查看进度`);
+      return;
+    }
+
     if (invoiceData?.invoices && invoiceData.invoices.length > 0) {
       console.log('设置结果，发票数量:', invoiceData.invoices.length);
       setResult(invoiceData);
@@ -63,6 +63,12 @@ apiClient.interceptors.response.use(
         code,
         message: message || statusText || '请求失败'
       };
+      // 服务繁忙（队列已满），附带建议的重试等待时间
+      if (status === 429) {
+        const retryAfter = Number(error.response.headers?.['retry-after']);
+        error.apiError.retryAfter = Number.isFinite(retryAfter) ? retryAfter : undefined;
+        error.apiError.message = message || '服务繁忙，请稍后重试';
+      }
     } else if (error.request) {
       console.error('网络错误: 请求已发出但没有收到响应', error.request);
       // 检查是否是超时错误
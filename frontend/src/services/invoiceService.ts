@@ -3,10 +3,21 @@ import type {
   ApiResponse, 
   InvoiceRecognizeResponse, 
   AsyncTaskResponse,
+  BatchStatusResponse,
   TaskStatusResponse,
+  TaskProgressEvent,
   HealthResponse
 } from '../types/api';
 
+export interface TaskEventHandlers {
+  onStatus?: (status: TaskStatusResponse) => void;     // 订阅时的状态快照
+  onProgress?: (event: TaskProgressEvent) => void;
+  onPage?: (event: TaskProgressEvent) => void;         // 单页识别完成
+  onDone?: (status: TaskStatusResponse) => void;       // 完成或失败，连接随后关闭
+  onNotFound?: () => void;
+  onUnavailable?: () => void;                          // 无法建立推送连接，调用方应回退为轮询
+}
+
 class InvoiceService {
   /**
    * 同步识别与裁切
@@ -31,7 +42,8 @@ class InvoiceService {
   async recognizeAndCropAsync(
     file: File,
     cropPadding: number = 10,
-    outputFormat: string = 'jpg'
+    outputFormat: string = 'jpg',
+    idempotencyKey?: string
   ): Promise<ApiResponse<AsyncTaskResponse>> {
     const formData = new FormData();
     formData.append('file', file);
@@ -39,7 +51,52 @@ class InvoiceService {
     formData.append('outputFormat', outputFormat);
 
     // 不要手动设置 Content-Type，让浏览器自动设置（包含 boundary）
-    return apiClient.post('/recognize-and-crop/async', formData);
+    // 重试同一次上传时传入相同的 idempotencyKey，服务端返回已有任务
+    return apiClient.post('/recognize-and-crop/async', formData, {
+      headers: idempotencyKey ? { 'Idempotency-Key': idempotencyKey } : undefined,
+    });
+  }
+
+  /**
+   * 流式上传识别（请求体为文件本身，适用于超过 50MB 的大文件）
+   */
+  async recognizeAndCropStream(
+    file: File,
+    cropPadding: number = 10,
+    outputFormat: string = 'jpg',
+    idempotencyKey?: string
+  ): Promise<ApiResponse<AsyncTaskResponse>> {
+    return apiClient.post('/recognize-and-crop/stream', file, {
+      params: { filename: file.name, cropPadding, outputFormat },
+      headers: {
+        'Content-Type': 'application/octet-stream',
+        ...(idempotencyKey ? { 'Idempotency-Key': idempotencyKey } : {}),
+      },
+      timeout: 0,
+    });
+  }
+
+  /**
+   * 批量识别与裁切（多个文件或 ZIP 压缩包，每个文件成为一个子任务）
+   */
+  async recognizeAndCropBatch(
+    files: File[],
+    cropPadding: number = 10,
+    outputFormat: string = 'jpg'
+  ): Promise<ApiResponse<BatchStatusResponse>> {
+    const formData = new FormData();
+    files.forEach(file => formData.append('files', file));
+    formData.append('cropPadding', cropPadding.toString());
+    formData.append('outputFormat', outputFormat);
+
+    return apiClient.post('/recognize-and-crop/batch', formData);
+  }
+
+  /**
+   * 查询批量任务状态
+   */
+  async getBatchStatus(batchId: string): Promise<ApiResponse<BatchStatusResponse>> {
+    return apiClient.get(`/batch/${batchId}`);
   }
 
   /**
@@ -49,6 +106,79 @@ class InvoiceService {
     return apiClient.get(`/task/${taskId}`);
   }
 
+  /**
+   * 取消任务（排队中的页面不再识别，已生成的文件会被删除）
+   */
+  async cancelTask(taskId: string): Promise<ApiResponse<TaskStatusResponse>> {
+    return apiClient.delete(`/task/${taskId}`);
+  }
+
+  /**
+   * 重试失败页面（只重新处理未成功的页面）
+   */
+  async retryFailedPages(taskId: string): Promise<ApiResponse<TaskStatusResponse>> {
+    return apiClient.post(`/task/${taskId}/retry`);
+  }
+
+  /**
+   * 订阅任务进度推送（SSE），返回取消订阅的函数
+   * 断线后浏览器会自动重连，重连时服务端重新推送状态快照
+   */
+  subscribeTaskEvents(taskId: string, handlers: TaskEventHandlers): () => void {
+    if (typeof EventSource === 'undefined') {
+      handlers.onUnavailable?.();
+      return () => {};
+    }
+
+    const source = new EventSource(`${apiClient.defaults.baseURL}/task/${taskId}/events`);
+    const parse = (event: MessageEvent) => JSON.parse(event.data);
+    let finished = false;
+    const finish = () => {
+      finished = true;
+      source.close();
+    };
+
+    source.addEventListener('status', (event) => handlers.onStatus?.(parse(event as MessageEvent)));
+    source.addEventListener('progress', (event) => handlers.onProgress?.(parse(event as MessageEvent)));
+    source.addEventListener('page', (event) => handlers.onPage?.(parse(event as MessageEvent)));
+    source.addEventListener('done', (event) => {
+      finish();
+      handlers.onDone?.(parse(event as MessageEvent));
+    });
+    source.addEventListener('not-found', () => {
+      finish();
+      handlers.onNotFound?.();
+    });
+    source.onerror = () => {
+      // CONNECTING 表示浏览器正在自动重连；CLOSED 表示无法连接（如代理不支持 SSE）
+      if (!finished && source.readyState === EventSource.CLOSED) {
+        finish();
+        handlers.onUnavailable?.();
+      }
+    };
+
+    return finish;
+  }
+
+  /**
+   * 将 progress / page 事件合并到任务状态
+   */
+  applyTaskEvent(status: TaskStatusResponse, event: TaskProgressEvent): TaskStatusResponse {
+    const next: TaskStatusResponse = {
+      ...status,
+      status: event.status ?? status.status,
+      progress: event.progress ?? status.progress,
+      currentPage: event.currentPage ?? status.currentPage,
+      totalPages: event.totalPages ?? status.totalPages,
+      statusMessage: event.statusMessage ?? status.statusMessage,
+    };
+    if (event.page !== undefined && event.invoices) {
+      const others = (status.invoices || []).filter(inv => inv.page !== event.page);
+      next.invoices = [...others, ...event.invoices].sort((a, b) => a.page - b.page || a.index - b.index);
+    }
+    return next;
+  }
+
   /**
    * 获取裁切后图片预览URL
    */
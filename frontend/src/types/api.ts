@@ -14,6 +14,13 @@ export interface InvoiceInfo {
   downloadUrl?: string;       // 裁切后图片下载URL
   originalImageUrl?: string;  // 原始图片预览URL
   filename: string;
+  merchantName?: string;      // 商家名称
+  invoiceType?: string;       // 发票种类代码（来自二维码）
+  invoiceCode?: string;       // 发票代码
+  invoiceNumber?: string;     // 发票号码
+  amount?: number;            // 金额（不含税）
+  invoiceDate?: string;       // 开票日期
+  checkCode?: string;         // 校验码
 }
 
 export interface InvoiceRecognizeResponse {
@@ -21,17 +28,27 @@ export interface InvoiceRecognizeResponse {
   totalInvoices: number;
   invoices: InvoiceInfo[];
   processingTime: number;
+  // 等待超时时为 true：仅包含已完成页面的发票，处理仍在后台进行
+  partial?: boolean;
+  cutPages?: number[];         // 超过处理截止时间而未处理的页码
 }
 
 export interface AsyncTaskResponse {
   taskId: string;
   status: string;
   estimatedTime?: number;
+  duplicate?: boolean;         // 重复提交，taskId 为已有任务
+  // 以下字段仅流式上传返回
+  size?: number;
+  sha256?: string;
+  fileType?: string;
+  totalPages?: number;
 }
 
 export interface TaskStatusResponse {
+  version?: number;            // 状态版本号（ETag），可作为 since 参数只获取新增的发票
   taskId: string;
-  status: 'PENDING' | 'PROCESSING' | 'COMPLETED' | 'FAILED';
+  status: 'PENDING' | 'PROCESSING' | 'COMPLETED' | 'FAILED' | 'CANCELLED';
   progress: number;
   currentPage?: number;
   totalPages?: number;
@@ -40,6 +57,57 @@ export interface TaskStatusResponse {
   invoices?: InvoiceInfo[];
   createdAt: string;
   completedAt?: string;
+  pages?: PageState[];         // 逐页状态
+  failedPages?: number;        // 失败页数，可重试
+  cutPages?: number[];         // 超过处理截止时间而未处理的页码，可重试
+  deadline?: string;           // 处理截止时间
+}
+
+// 批量任务中的单个文件
+export interface BatchTaskItem {
+  taskId?: string;
+  filename: string;
+  status?: TaskStatusResponse['status'] | 'EXPIRED';
+  progress?: number;
+  totalInvoices?: number;
+  failedPages?: number;
+  error?: string;              // 未能创建子任务的原因
+}
+
+export interface BatchStatusResponse {
+  batchId: string;
+  status: 'PROCESSING' | 'COMPLETED' | 'FAILED';
+  progress: number;
+  totalFiles: number;
+  pendingFiles: number;
+  processingFiles: number;
+  completedFiles: number;
+  failedFiles: number;
+  cancelledFiles: number;
+  totalInvoices: number;
+  createdAt: string;
+  tasks: BatchTaskItem[];
+  rejected: BatchTaskItem[];
+}
+
+// 单页处理状态
+export interface PageState {
+  page: number;
+  status: 'PENDING' | 'DONE' | 'FAILED' | 'CUT';  // CUT：超过处理截止时间未处理
+  invoiceCount?: number;
+  error?: string;
+}
+
+// 任务进度推送事件（progress 只含进度字段，page 附带该页的发票）
+export interface TaskProgressEvent {
+  taskId: string;
+  status?: TaskStatusResponse['status'];
+  progress?: number;
+  currentPage?: number;
+  totalPages?: number;
+  statusMessage?: string;
+  page?: number;
+  invoices?: InvoiceInfo[];
 }
 
 export interface HealthResponse {
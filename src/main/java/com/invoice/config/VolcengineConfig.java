@@ -4,6 +4,10 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @ConfigurationProperties(prefix = "volcengine")
 @Data
@@ -12,6 +16,10 @@ public class VolcengineConfig {
     private String baseUrl = "https://uniapi.ruijie.com.cn/v1";
     private ModelConfig model = new ModelConfig();
     private boolean enableSelfVerify = false;
+    private ResponseMode responseMode = ResponseMode.TEXT;
+    private TimeoutConfig timeout = new TimeoutConfig();
+    private List<EndpointConfig> endpoints = new ArrayList<>();
+    private HealthConfig health = new HealthConfig();
 
     public String getArkApiKey() {
         // 优先从环境变量读取
@@ -20,6 +28,54 @@ public class VolcengineConfig {
             : System.getenv("ARK_API_KEY");
     }
 
+    public boolean isStructuredOutput() {
+        return responseMode == ResponseMode.STRUCTURED;
+    }
+
+    /**
+     * 视觉模型返回格式
+     * STRUCTURED：请求携带 JSON Schema（response_format），直接绑定为对象
+     * TEXT：自由文本，由 ApiResponseParser 扫描提取（兼容不支持 response_format 的接口）
+     */
+    public enum ResponseMode {
+        STRUCTURED,
+        TEXT
+    }
+
+    /**
+     * 单次调用的超时上限；任务设置了截止时间时，整个调用不超过剩余时间
+     */
+    @Data
+    public static class TimeoutConfig {
+        private Duration connect = Duration.ofSeconds(60);
+        private Duration write = Duration.ofSeconds(60);
+        private Duration read = Duration.ofSeconds(300);   // 视觉模型处理可能较慢
+    }
+
+    /**
+     * 模型接入点（上游地址 + API Key），多个接入点按负载分配调用
+     * 未配置时使用 base-url / ark-api-key / model.name 作为唯一接入点
+     */
+    @Data
+    public static class EndpointConfig {
+        private String name;
+        private String baseUrl;              // 为空时使用 base-url
+        private String arkApiKey;            // 为空时使用 ark-api-key
+        private String model;                // 为空时使用 model.name
+        private int weight = 1;
+        private int maxConcurrency = 0;      // 同时进行的调用数上限，0 表示不限（由页面工作线程数限制）
+        private int requestsPerMinute = 0;   // 每分钟调用数上限（Key 的配额），0 表示不限
+    }
+
+    /**
+     * 接入点健康检查：连续失败达到阈值后暂停使用 cooldown，之后再试
+     */
+    @Data
+    public static class HealthConfig {
+        private int failureThreshold = 3;
+        private Duration cooldown = Duration.ofSeconds(30);
+    }
+
     @Data
     public static class ModelConfig {
         private String name = "doubao-seed-1-6-vision-250815";
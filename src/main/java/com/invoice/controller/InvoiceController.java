@@ -2,21 +2,37 @@ package com.invoice.controller;
 
 import com.invoice.dto.ApiResponse;
 import com.invoice.dto.AsyncTaskResponse;
+import com.invoice.dto.BatchStatusResponse;
 import com.invoice.dto.HealthResponse;
 import com.invoice.dto.InvoiceRecognizeResponse;
+import com.invoice.dto.PipelineStatsResponse;
 import com.invoice.dto.TaskStatusResponse;
+import com.invoice.dto.TaskStoreStatsResponse;
+import com.invoice.exception.QueueFullException;
+import com.invoice.exception.TaskCancelledException;
+import com.invoice.service.BatchJobService;
 import com.invoice.service.InvoiceService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import jakarta.servlet.http.HttpServletRequest;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @RestController
@@ -27,16 +43,33 @@ public class InvoiceController {
     @Autowired
     private InvoiceService invoiceService;
     
+    @Autowired
+    private BatchJobService batchJobService;
+    
+    // 同步识别的默认等待时长，超时后返回已完成页面的结果（202），处理在后台继续
+    @Value("${app.sync.wait-timeout:120s}")
+    private Duration syncWaitTimeout;
+    
+    // waitSeconds 参数的上限，应小于前端与代理的超时时间
+    @Value("${app.sync.max-wait-timeout:290s}")
+    private Duration syncMaxWaitTimeout;
+    
     /**
      * 同步识别与裁切
+     * 请求线程在提交任务后即释放，结果由任务完成时写回；
+     * 超过等待时长时返回 202、任务编号与已完成页面的发票，可继续通过任务接口查询；
+     * deadlineSeconds 为处理时限，超过后尚未开始的页面不再处理，结果中的 cutPages 列出这些页面
      */
     @PostMapping(value = "/recognize-and-crop", 
                  consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<ApiResponse<InvoiceRecognizeResponse>> recognizeAndCrop(
+    public DeferredResult<ResponseEntity<ApiResponse<InvoiceRecognizeResponse>>> recognizeAndCrop(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "cropPadding", defaultValue = "10") Integer cropPadding,
-            @RequestParam(value = "outputFormat", defaultValue = "jpg") String outputFormat) {
+            @RequestParam(value = "outputFormat", defaultValue = "jpg") String outputFormat,
+            @RequestParam(value = "deadlineSeconds", required = false) Integer deadlineSeconds,
+            @RequestParam(value = "waitSeconds", required = false) Integer waitSeconds) {
         
+        InvoiceService.InteractiveTask task;
         try {
             log.info("收到识别请求 - 文件名: {}, 大小: {} bytes, cropPadding: {}, outputFormat: {}", 
                 file.getOriginalFilename(), file.getSize(), cropPadding, outputFormat);
@@ -44,64 +77,78 @@ public class InvoiceController {
             // 验证文件
             if (file == null || file.isEmpty()) {
                 log.warn("文件为空或未提供");
-                return ResponseEntity.badRequest()
-                    .body(ApiResponse.error(400, "文件不能为空"));
+                return immediate(ResponseEntity.badRequest()
+                    .body(ApiResponse.error(400, "文件不能为空")));
             }
             
-            // 调用服务
-            InvoiceRecognizeResponse response = invoiceService.recognizeAndCrop(
-                file, cropPadding, outputFormat);
-            
-            // 为每个发票添加预览URL和下载URL
-            String taskId = response.getTaskId();
-            
-            // 使用相对路径而非绝对路径，以避免在 HTTPS 代理下出现协议不匹配问题
-            String baseApiUrl = "/api/v1/invoice";
-            
-            response.getInvoices().forEach(invoice -> {
-                // 设置裁切后图片预览URL
-                String croppedPreviewUrl = String.format("%s/preview/cropped/%s", 
-                    baseApiUrl, invoice.getFilename());
-                invoice.setImageUrl(croppedPreviewUrl);
-                
-                // 设置裁切后图片下载URL
-                String croppedDownloadUrl = String.format("%s/download/%s", 
-                    baseApiUrl, invoice.getFilename());
-                invoice.setDownloadUrl(croppedDownloadUrl);
-                
-                // 设置原始图片预览URL
-                String originalPreviewUrl = String.format("%s/preview/original/%s?page=%d", 
-                    baseApiUrl, taskId, invoice.getPage());
-                invoice.setOriginalImageUrl(originalPreviewUrl);
-            });
-            
-            return ResponseEntity.ok(ApiResponse.success(response));
+            // 提交任务（发票的预览URL和下载URL在逐页生成结果时已设置）
+            task = invoiceService.submitInteractiveTask(file, cropPadding, outputFormat, deadlineSeconds);
             
+        } catch (QueueFullException e) {
+            throw e;
         } catch (Exception e) {
             log.error("识别失败", e);
-            return ResponseEntity.status(500)
-                .body(ApiResponse.error(500, "处理失败: " + e.getMessage()));
+            return immediate(ResponseEntity.status(500)
+                .body(ApiResponse.error(500, "处理失败: " + e.getMessage())));
         }
+        
+        Duration wait = syncWaitTimeout;
+        if (waitSeconds != null && waitSeconds > 0) {
+            wait = Duration.ofSeconds(Math.min(waitSeconds, syncMaxWaitTimeout.getSeconds()));
+        }
+        String taskId = task.getTaskId();
+        DeferredResult<ResponseEntity<ApiResponse<InvoiceRecognizeResponse>>> result =
+            new DeferredResult<>(wait.toMillis());
+        result.onTimeout(() -> {
+            log.info("同步识别等待超时，转为后台任务: {}", taskId);
+            result.setResult(ResponseEntity.accepted()
+                .location(URI.create("/api/v1/invoice/task/" + taskId))
+                .body(ApiResponse.success(invoiceService.getPartialResult(taskId))));
+        });
+        task.getFuture().whenComplete((response, error) -> {
+            if (error == null) {
+                result.setResult(ResponseEntity.ok(ApiResponse.success(response)));
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+            if (cause instanceof TaskCancelledException || cause instanceof CancellationException) {
+                result.setResult(ResponseEntity.status(409).body(ApiResponse.error(409, "任务已取消")));
+            } else {
+                log.error("识别失败", cause);
+                result.setResult(ResponseEntity.status(500)
+                    .body(ApiResponse.error(500, "处理失败: " + cause.getMessage())));
+            }
+        });
+        return result;
+    }
+    
+    private static <T> DeferredResult<T> immediate(T value) {
+        DeferredResult<T> result = new DeferredResult<>();
+        result.setResult(value);
+        return result;
     }
     
     /**
      * 异步识别与裁切
+     * 相同 Idempotency-Key，或时间窗口内相同文件与参数的重复提交，返回已有任务（duplicate 为 true）
      */
     @PostMapping(value = "/recognize-and-crop/async",
                  consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<ApiResponse<AsyncTaskResponse>> recognizeAndCropAsync(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "cropPadding", defaultValue = "10") Integer cropPadding,
-            @RequestParam(value = "outputFormat", defaultValue = "jpg") String outputFormat) {
+            @RequestParam(value = "outputFormat", defaultValue = "jpg") String outputFormat,
+            @RequestParam(value = "deadlineSeconds", required = false) Integer deadlineSeconds,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         
         try {
-            String taskId = invoiceService.submitAsyncTask(file, cropPadding, outputFormat);
-            AsyncTaskResponse response = new AsyncTaskResponse();
-            response.setTaskId(taskId);
-            response.setStatus("PROCESSING");
-            
+            AsyncTaskResponse response = invoiceService.submitAsyncTask(
+                file, cropPadding, outputFormat, deadlineSeconds, idempotencyKey);
             return ResponseEntity.ok(ApiResponse.success(response));
             
+        } catch (QueueFullException e) {
+            throw e;
         } catch (Exception e) {
             log.error("提交任务失败", e);
             return ResponseEntity.status(500)
@@ -109,16 +156,107 @@ public class InvoiceController {
         }
     }
     
+    /**
+     * 流式上传识别（异步）
+     * 请求体为文件本身（非 multipart），边接收边写入磁盘，不受 multipart 大小限制，适用于几百 MB 的扫描件；
+     * 文件类型按文件头识别，filename 仅用于显示（OFD 需带 .ofd 扩展名）
+     */
+    @PostMapping(value = "/recognize-and-crop/stream",
+                 consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.APPLICATION_PDF_VALUE,
+                             MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE,
+                             "image/bmp", "application/ofd"})
+    public ResponseEntity<ApiResponse<AsyncTaskResponse>> recognizeAndCropStream(
+            HttpServletRequest request,
+            @RequestParam(value = "filename", required = false) String filename,
+            @RequestParam(value = "cropPadding", defaultValue = "10") Integer cropPadding,
+            @RequestParam(value = "outputFormat", defaultValue = "jpg") String outputFormat,
+            @RequestParam(value = "deadlineSeconds", required = false) Integer deadlineSeconds,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        
+        try {
+            log.info("收到流式上传请求 - 文件名: {}, 大小: {} bytes, cropPadding: {}, outputFormat: {}", 
+                filename, request.getContentLengthLong(), cropPadding, outputFormat);
+            AsyncTaskResponse response = invoiceService.submitStreamingTask(
+                filename, request.getInputStream(), request.getContentLengthLong(), cropPadding, outputFormat,
+                deadlineSeconds, idempotencyKey);
+            return ResponseEntity.ok(ApiResponse.success(response));
+            
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(ApiResponse.error(400, e.getMessage()));
+        } catch (TaskCancelledException e) {
+            return ResponseEntity.status(409)
+                .body(ApiResponse.error(409, "任务已取消"));
+        } catch (QueueFullException | MaxUploadSizeExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("流式上传失败", e);
+            return ResponseEntity.status(500)
+                .body(ApiResponse.error(500, "提交任务失败: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * 批量识别与裁切
+     * files 可包含多个发票文件或 ZIP 压缩包，每个文件成为一个子任务，通过批量任务查询汇总进度
+     */
+    @PostMapping(value = "/recognize-and-crop/batch",
+                 consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<ApiResponse<BatchStatusResponse>> recognizeAndCropBatch(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "cropPadding", defaultValue = "10") Integer cropPadding,
+            @RequestParam(value = "outputFormat", defaultValue = "jpg") String outputFormat,
+            @RequestParam(value = "deadlineSeconds", required = false) Integer deadlineSeconds) {
+        
+        try {
+            log.info("收到批量识别请求 - 文件数: {}, cropPadding: {}, outputFormat: {}", 
+                files.size(), cropPadding, outputFormat);
+            BatchStatusResponse response = batchJobService.submit(files, cropPadding, outputFormat, deadlineSeconds);
+            return ResponseEntity.ok(ApiResponse.success(response));
+            
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(ApiResponse.error(400, e.getMessage()));
+        } catch (QueueFullException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("提交批量任务失败", e);
+            return ResponseEntity.status(500)
+                .body(ApiResponse.error(500, "提交批量任务失败: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * 查询批量任务状态（各子任务状态与汇总进度）
+     */
+    @GetMapping("/batch/{batchId}")
+    public ResponseEntity<ApiResponse<BatchStatusResponse>> getBatchStatus(@PathVariable String batchId) {
+        try {
+            return ResponseEntity.ok(ApiResponse.success(batchJobService.getStatus(batchId)));
+        } catch (IllegalArgumentException e) {
+            log.warn("批量任务不存在: batchId={}", batchId);
+            return ResponseEntity.status(404)
+                .body(ApiResponse.error(404, "批量任务不存在: " + batchId));
+        }
+    }
+    
     /**
      * 查询任务状态
+     * 响应带 ETag（任务状态版本号），If-None-Match 命中时返回 304；
+     * since 为客户端已有的版本号，指定时 invoices 只包含该版本之后新增的发票
      */
     @GetMapping("/task/{taskId}")
     public ResponseEntity<ApiResponse<TaskStatusResponse>> getTaskStatus(
-            @PathVariable String taskId) {
+            @PathVariable String taskId,
+            @RequestParam(value = "since", required = false) Long since) {
         
         try {
-            TaskStatusResponse response = invoiceService.getTaskStatus(taskId);
-            return ResponseEntity.ok(ApiResponse.success(response));
+            TaskStatusResponse response = invoiceService.getTaskStatus(taskId, since);
+            // 304 由 Spring 根据 ETag 与 If-None-Match 自动处理
+            return ResponseEntity.ok()
+                .eTag("W/\"" + response.getVersion() + "\"")
+                .cacheControl(CacheControl.noCache())
+                .body(ApiResponse.success(response));
             
         } catch (IllegalArgumentException e) {
             log.warn("任务不存在: taskId={}, error={}", taskId, e.getMessage());
@@ -131,6 +269,78 @@ public class InvoiceController {
         }
     }
     
+    /**
+     * 取消任务
+     * 丢弃排队中的页面、中断进行中的模型调用并删除任务文件；任务已结束时原样返回其状态
+     */
+    @DeleteMapping("/task/{taskId}")
+    public ResponseEntity<ApiResponse<TaskStatusResponse>> cancelTask(@PathVariable String taskId) {
+        try {
+            TaskStatusResponse response = invoiceService.cancelTask(taskId);
+            return ResponseEntity.ok(ApiResponse.success(response));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("任务不存在: taskId={}, error={}", taskId, e.getMessage());
+            return ResponseEntity.status(404)
+                .body(ApiResponse.error(404, "任务不存在: " + taskId));
+        } catch (Exception e) {
+            log.error("取消任务失败: taskId={}, error={}", taskId, e.getMessage(), e);
+            return ResponseEntity.status(500)
+                .body(ApiResponse.error(500, "取消失败: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * 重试失败页面
+     * 只重新处理已结束任务中未成功的页面，其余页面的结果保持不变；进度可通过查询或订阅接口获取
+     */
+    @PostMapping("/task/{taskId}/retry")
+    public ResponseEntity<ApiResponse<TaskStatusResponse>> retryFailedPages(@PathVariable String taskId) {
+        try {
+            TaskStatusResponse response = invoiceService.retryFailedPages(taskId);
+            return ResponseEntity.ok(ApiResponse.success(response));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("任务不存在: taskId={}, error={}", taskId, e.getMessage());
+            return ResponseEntity.status(404)
+                .body(ApiResponse.error(404, "任务不存在: " + taskId));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409)
+                .body(ApiResponse.error(409, e.getMessage()));
+        } catch (QueueFullException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("重试失败页面失败: taskId={}, error={}", taskId, e.getMessage(), e);
+            return ResponseEntity.status(500)
+                .body(ApiResponse.error(500, "重试失败: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * 订阅任务进度推送（Server-Sent Events）
+     * 事件：status（快照）、progress、page（单页结果）、done（最终状态）、not-found
+     */
+    @GetMapping(value = "/task/{taskId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeTaskEvents(@PathVariable String taskId) {
+        return invoiceService.subscribeTaskEvents(taskId);
+    }
+    
+    /**
+     * 任务状态存储统计（命中率、淘汰数量等）
+     */
+    @GetMapping("/tasks/stats")
+    public ResponseEntity<ApiResponse<TaskStoreStatsResponse>> getTaskStoreStats() {
+        return ResponseEntity.ok(ApiResponse.success(invoiceService.getTaskStoreStats()));
+    }
+    
+    /**
+     * 页面流水线统计（各阶段队列深度、线程数、平均耗时）
+     */
+    @GetMapping("/pipeline/stats")
+    public ResponseEntity<ApiResponse<PipelineStatsResponse>> getPipelineStats() {
+        return ResponseEntity.ok(ApiResponse.success(invoiceService.getPipelineStats()));
+    }
+    
     /**
      * 预览原始图片
      */
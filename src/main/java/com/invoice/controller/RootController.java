@@ -26,7 +26,15 @@ public class RootController {
         info.put("endpoints", Arrays.asList(
             "POST /api/v1/invoice/recognize-and-crop - 同步识别与裁切",
             "POST /api/v1/invoice/recognize-and-crop/async - 异步识别与裁切",
-            "GET /api/v1/invoice/task/{taskId} - 查询任务状态",
+            "POST /api/v1/invoice/recognize-and-crop/stream - 流式上传识别（请求体为文件本身，适用于大文件）",
+            "POST /api/v1/invoice/recognize-and-crop/batch - 批量识别与裁切（多个文件或 ZIP 压缩包）",
+            "GET /api/v1/invoice/batch/{batchId} - 查询批量任务状态",
+            "GET /api/v1/invoice/task/{taskId}?since={version} - 查询任务状态（支持 ETag 与增量）",
+            "DELETE /api/v1/invoice/task/{taskId} - 取消任务",
+            "POST /api/v1/invoice/task/{taskId}/retry - 重试失败页面",
+            "GET /api/v1/invoice/task/{taskId}/events - 订阅任务进度推送（SSE）",
+            "GET /api/v1/invoice/tasks/stats - 任务状态存储统计",
+            "GET /api/v1/invoice/pipeline/stats - 页面流水线统计",
             "GET /api/v1/invoice/preview/original/{taskId}?page=1 - 预览原始图片",
             "GET /api/v1/invoice/preview/cropped/{filename} - 预览裁切后的图片",
             "GET /api/v1/invoice/download/{filename} - 下载裁切后的图片",
@@ -1,5 +1,6 @@
 package com.invoice.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 @Data
@@ -7,6 +8,20 @@ public class AsyncTaskResponse {
     private String taskId;
     private String status;
     private Integer estimatedTime;
+    
+    // 重复提交时为 true，taskId 为已有任务
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean duplicate;
+    
+    // 以下字段仅流式上传返回
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long size;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String sha256;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String fileType;          // 按文件头识别出的类型
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer totalPages;       // 接收过程中统计的 PDF 页数（估计值）
 }
 
 
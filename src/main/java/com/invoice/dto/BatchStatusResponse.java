@@ -0,0 +1,39 @@
+package com.invoice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量任务状态（汇总各子任务）
+ */
+@Data
+public class BatchStatusResponse {
+    private String batchId;
+    private String status;             // PROCESSING / COMPLETED；没有可处理的文件时为 FAILED
+    private Integer progress;          // 各子任务进度的平均值，已结束的子任务计 100
+    private Integer totalFiles;
+    private Integer pendingFiles;      // 尚未开始处理（包括等待批量任务并行名额的文件）
+    private Integer processingFiles;
+    private Integer completedFiles;
+    private Integer failedFiles;
+    private Integer cancelledFiles;
+    private Integer totalInvoices;
+    private String createdAt;
+    private List<Item> tasks = new ArrayList<>();
+    private List<Item> rejected = new ArrayList<>();   // 未能创建子任务的文件（类型不支持、超出大小等）
+
+    @Data
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Item {
+        private String taskId;
+        private String filename;
+        private String status;         // 子任务状态；任务状态已过期时为 EXPIRED
+        private Integer progress;
+        private Integer totalInvoices;
+        private Integer failedPages;
+        private String error;
+    }
+}
@@ -1,5 +1,6 @@
 package com.invoice.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.invoice.model.InvoiceInfo;
 import lombok.Data;
 import java.util.List;
@@ -11,6 +12,14 @@ public class InvoiceRecognizeResponse {
     private List<InvoiceInfo> invoices;
     private Double processingTime;
     private String originalFileUrl;
+    
+    // 等待超时时为 true：仅包含已完成页面的发票，处理仍在后台进行，可通过 taskId 查询
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean partial;
+    
+    // 超过处理截止时间而未处理的页码
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<Integer> cutPages;
 }
 
 
@@ -0,0 +1,49 @@
+package com.invoice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * 单页处理状态
+ * 快照中的页面状态只整体替换、不修改
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PageState {
+    public static final String PENDING = "PENDING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+    public static final String CUT = "CUT";
+
+    private static final String CUT_REASON = "超过处理截止时间，未处理";
+
+    private int page;
+    private String status;             // PENDING / DONE / FAILED / CUT（超过截止时间未处理）
+    private Integer invoiceCount;      // 识别到的发票数（DONE 时）
+    private String error;              // 失败原因（FAILED、CUT 时）
+
+    public static PageState of(int page, String status) {
+        PageState state = new PageState();
+        state.page = page;
+        state.status = status;
+        return state;
+    }
+
+    public static PageState done(int page, int invoiceCount) {
+        PageState state = of(page, DONE);
+        state.invoiceCount = invoiceCount;
+        return state;
+    }
+
+    public static PageState failed(int page, String error) {
+        PageState state = of(page, FAILED);
+        state.error = error;
+        return state;
+    }
+
+    public static PageState cut(int page) {
+        PageState state = of(page, CUT);
+        state.error = CUT_REASON;
+        return state;
+    }
+}
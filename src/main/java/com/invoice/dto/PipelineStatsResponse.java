@@ -0,0 +1,45 @@
+package com.invoice.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class PipelineStatsResponse {
+    private List<Stage> stages = new ArrayList<>();
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    @Data
+    public static class Stage {
+        private String name;
+        private int threads;
+        private int activeThreads;
+        private int queueDepth;
+        private int queueCapacity;      // 0 表示不限（识别阶段由任务队列限制总量）
+        private int maxQueueDepth;      // 启动以来的最大排队数
+        private long completedCount;
+        private long blockedSubmitCount; // 队列满、上游等待的次数
+        private double averageMillis;
+    }
+
+    /**
+     * 模型接入点负载（不含 API Key）
+     */
+    @Data
+    public static class Endpoint {
+        private String name;
+        private String model;
+        private int weight;
+        private int outstanding;            // 进行中的调用数
+        private int maxConcurrency;         // 0 表示不限
+        private int requestsPerMinute;      // 0 表示不限
+        private int requestsLastMinute;     // 仅在设置了每分钟上限时统计
+        private boolean healthy;            // 未处于暂停期
+        private int consecutiveFailures;
+        private long completedCount;
+        private long failedCount;
+        private long rateLimitedCount;
+        private boolean structuredOutput;   // 仍按结构化输出模式调用
+    }
+}
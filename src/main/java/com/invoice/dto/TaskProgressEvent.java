@@ -0,0 +1,24 @@
+package com.invoice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.invoice.model.InvoiceInfo;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 任务进度推送事件（SSE）
+ * progress 事件只包含进度字段；page 事件附带该页识别到的发票
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TaskProgressEvent {
+    private String taskId;
+    private String status;
+    private Integer progress;
+    private Integer currentPage;
+    private Integer totalPages;
+    private String statusMessage;
+    private Integer page;
+    private List<InvoiceInfo> invoices;
+}
@@ -1,11 +1,14 @@
 package com.invoice.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.invoice.model.InvoiceInfo;
 import lombok.Data;
+import java.util.ArrayList;
 import java.util.List;
 
 @Data
 public class TaskStatusResponse {
+    private long version;              // 快照版本号，每次更新递增
     private String taskId;
     private String status;
     private Integer progress;
@@ -16,6 +19,48 @@ public class TaskStatusResponse {
     private List<InvoiceInfo> invoices;
     private String createdAt;
     private String completedAt;
+    private List<PageState> pages;     // 逐页状态（按页码排序）
+    private Integer failedPages;       // 失败页数，可通过重试接口只重新处理这些页面
+    private List<Integer> cutPages;    // 超过处理截止时间而未处理的页码，可重试
+    private String deadline;           // 处理截止时间，未设置时为 null
+    
+    @JsonIgnore
+    private Long deadlineAt;           // 处理截止时间（epoch 毫秒），供处理过程中的检查点使用
+    
+    // 处理参数，重试失败页面时沿用
+    @JsonIgnore
+    private String sourcePath;
+    @JsonIgnore
+    private Integer cropPadding;
+    @JsonIgnore
+    private String outputFormat;
+    
+    /**
+     * 复制快照（发票列表、页面状态列表复制为新列表）
+     */
+    public TaskStatusResponse copy() {
+        TaskStatusResponse copy = new TaskStatusResponse();
+        copy.version = version;
+        copy.taskId = taskId;
+        copy.status = status;
+        copy.progress = progress;
+        copy.currentPage = currentPage;
+        copy.totalPages = totalPages;
+        copy.statusMessage = statusMessage;
+        copy.totalInvoices = totalInvoices;
+        copy.invoices = invoices != null ? new ArrayList<>(invoices) : null;
+        copy.createdAt = createdAt;
+        copy.completedAt = completedAt;
+        copy.pages = pages != null ? new ArrayList<>(pages) : null;
+        copy.failedPages = failedPages;
+        copy.cutPages = cutPages;
+        copy.deadline = deadline;
+        copy.deadlineAt = deadlineAt;
+        copy.sourcePath = sourcePath;
+        copy.cropPadding = cropPadding;
+        copy.outputFormat = outputFormat;
+        return copy;
+    }
 }
 
 
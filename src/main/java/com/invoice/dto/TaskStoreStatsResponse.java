@@ -0,0 +1,16 @@
+package com.invoice.dto;
+
+import lombok.Data;
+
+@Data
+public class TaskStoreStatsResponse {
+    private long size;
+    private long weight;
+    private long maxWeight;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long expiredCount;      // 过期淘汰
+    private long evictedCount;      // 超出权重上限淘汰
+    private long deletedFileCount;  // 淘汰时删除的任务文件数
+}
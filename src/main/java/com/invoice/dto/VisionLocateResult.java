@@ -0,0 +1,22 @@
+package com.invoice.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 结构化输出模式下视觉模型的返回内容，与请求中的 JSON Schema 对应
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VisionLocateResult {
+    private List<Item> invoices;
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Item {
+        private String merchantName;
+        private double[] bbox;       // 归一化坐标 (0-1000)：x1, y1, x2, y2
+    }
+}
@@ -0,0 +1,13 @@
+package com.invoice.exception;
+
+/**
+ * 已超过任务的处理截止时间，尚未开始的页面不再处理，进行中的模型调用被中断
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("已超过处理截止时间");
+    }
+}
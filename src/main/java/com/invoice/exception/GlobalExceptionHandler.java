@@ -2,6 +2,7 @@ package com.invoice.exception;
 
 import com.invoice.dto.ApiResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -23,6 +24,17 @@ public class GlobalExceptionHandler {
             .body(ApiResponse.error(400, "文件大小超过限制"));
     }
     
+    /**
+     * 处理任务队列已满，返回 429 与 Retry-After
+     */
+    @ExceptionHandler(QueueFullException.class)
+    public ResponseEntity<ApiResponse<Void>> handleQueueFull(QueueFullException e) {
+        log.warn("任务队列已满: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+            .body(ApiResponse.error(429, e.getMessage()));
+    }
+    
     /**
      * 处理参数验证异常
      */
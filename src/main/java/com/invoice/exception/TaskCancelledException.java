@@ -0,0 +1,13 @@
+package com.invoice.exception;
+
+/**
+ * 任务已被取消，处理线程在检查点抛出以尽快结束
+ */
+public class TaskCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TaskCancelledException(String taskId) {
+        super("任务已取消: " + taskId);
+    }
+}
@@ -0,0 +1,114 @@
+package com.invoice.model;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 单张发票的定位结果（识别流水线内部使用）
+ * 坐标使用 int 原始类型，避免 List<Integer> 装箱；坐标顺序非法时在 setBox 中立即失败
+ */
+@Data
+public class Detection {
+    @Setter(AccessLevel.NONE)
+    private int x1;
+    @Setter(AccessLevel.NONE)
+    private int y1;
+    @Setter(AccessLevel.NONE)
+    private int x2;
+    @Setter(AccessLevel.NONE)
+    private int y2;
+
+    private double confidence = 0.9;
+    private int page;
+    private String merchantName;
+    private String source;             // vision / text-layer / qr / ofd
+
+    // 二维码中心点（仅二维码定位结果有效）
+    private int anchorX = -1;
+    private int anchorY = -1;
+
+    // 发票字段（来自二维码或 OFD 标签）
+    private String invoiceType;
+    private String invoiceCode;
+    private String invoiceNumber;
+    private BigDecimal amount;
+    private String invoiceDate;
+    private String checkCode;
+
+    public Detection() {
+    }
+
+    public Detection(int x1, int y1, int x2, int y2) {
+        setBox(x1, y1, x2, y2);
+    }
+
+    /**
+     * 设置边界框
+     *
+     * @throws IllegalArgumentException x2 <= x1 或 y2 <= y1 时
+     */
+    public void setBox(int x1, int y1, int x2, int y2) {
+        if (x2 <= x1 || y2 <= y1) {
+            throw new IllegalArgumentException(
+                String.format("坐标顺序错误: [%d,%d,%d,%d]", x1, y1, x2, y2));
+        }
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+    }
+
+    public boolean contains(int x, int y) {
+        return x >= x1 && x <= x2 && y >= y1 && y <= y2;
+    }
+
+    public boolean hasInvoiceFields() {
+        return invoiceNumber != null;
+    }
+
+    /**
+     * 复制全部字段（多个任务共享同一识别结果时，各自修改副本）
+     */
+    public Detection copy() {
+        Detection copy = new Detection();
+        copy.x1 = x1;
+        copy.y1 = y1;
+        copy.x2 = x2;
+        copy.y2 = y2;
+        copy.confidence = confidence;
+        copy.page = page;
+        copy.merchantName = merchantName;
+        copy.source = source;
+        copy.anchorX = anchorX;
+        copy.anchorY = anchorY;
+        copy.copyFieldsFrom(this);
+        return copy;
+    }
+
+    /**
+     * 复制发票字段（不含坐标）
+     */
+    public void copyFieldsFrom(Detection other) {
+        this.invoiceType = other.invoiceType;
+        this.invoiceCode = other.invoiceCode;
+        this.invoiceNumber = other.invoiceNumber;
+        this.amount = other.amount;
+        this.invoiceDate = other.invoiceDate;
+        this.checkCode = other.checkCode;
+    }
+
+    /**
+     * 对外输出的 bbox 列表
+     */
+    public List<Integer> toBboxList() {
+        return List.of(x1, y1, x2, y2);
+    }
+
+    public String boxToString() {
+        return "[" + x1 + ", " + y1 + ", " + x2 + ", " + y2 + "]";
+    }
+}
@@ -1,6 +1,8 @@
 package com.invoice.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import java.math.BigDecimal;
 import java.util.List;
 
 @Data
@@ -14,6 +16,17 @@ public class InvoiceInfo {
     private String downloadUrl;        // 裁切后图片下载URL
     private String originalImageUrl;   // 原始图片预览URL
     private String filename;
+    
+    // 以下字段来自发票二维码，未识别到二维码时为空
+    private String invoiceType;        // 发票种类代码
+    private String invoiceCode;        // 发票代码（数电发票为空）
+    private String invoiceNumber;      // 发票号码
+    private BigDecimal amount;         // 金额（不含税）
+    private String invoiceDate;        // 开票日期 yyyy-MM-dd
+    private String checkCode;          // 校验码
+    
+    @JsonIgnore
+    private long addedVersion;         // 加入任务状态时的版本号，用于增量查询
 }
 
 
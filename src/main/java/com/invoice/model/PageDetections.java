@@ -0,0 +1,88 @@
+package com.invoice.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 单页的发票定位结果
+ * 以数组存储，加入时统一设置页码
+ */
+public class PageDetections implements Iterable<Detection> {
+    private final int page;
+    private Detection[] items;
+    private int size;
+
+    public PageDetections(int page) {
+        this(page, 4);
+    }
+
+    public PageDetections(int page, int capacity) {
+        this.page = page;
+        this.items = new Detection[Math.max(1, capacity)];
+    }
+
+    public void add(Detection detection) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        detection.setPage(page);
+        items[size++] = detection;
+    }
+
+    public void addAll(PageDetections other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.items[i]);
+        }
+    }
+
+    /**
+     * 深复制（各条定位结果同样复制）
+     */
+    public PageDetections copy() {
+        PageDetections copy = new PageDetections(page, size);
+        for (int i = 0; i < size; i++) {
+            copy.add(items[i].copy());
+        }
+        return copy;
+    }
+
+    public Detection get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return items[index];
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<Detection> iterator() {
+        return new Iterator<>() {
+            private int cursor;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < size;
+            }
+
+            @Override
+            public Detection next() {
+                if (cursor >= size) {
+                    throw new NoSuchElementException();
+                }
+                return items[cursor++];
+            }
+        };
+    }
+}
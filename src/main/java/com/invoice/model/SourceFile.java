@@ -0,0 +1,26 @@
+package com.invoice.model;
+
+import java.nio.file.Path;
+
+/**
+ * 已写入原始文件目录的上传文件
+ * 上传内容只写入一次，之后各处理环节都从该路径读取，不在内存中保留整个文件
+ */
+public class SourceFile {
+    private final Path path;
+    private final String filename;       // 上传时的文件名
+    private final String contentType;
+    private final long size;
+
+    public SourceFile(Path path, String filename, String contentType, long size) {
+        this.path = path;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.size = size;
+    }
+
+    public Path getPath() { return path; }
+    public String getFilename() { return filename; }
+    public String getContentType() { return contentType; }
+    public long getSize() { return size; }
+}
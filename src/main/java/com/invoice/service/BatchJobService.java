@@ -0,0 +1,334 @@
+package com.invoice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.invoice.dto.BatchStatusResponse;
+import com.invoice.dto.TaskStatusResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 批量任务：一次请求上传多个文件或 ZIP 压缩包，每个文件成为一个子任务
+ *
+ * 批量任务整体占用一个排队名额（提交时预留，最后一个子任务结束后归还），队列已满时整批返回 429；
+ * 子任务按文件从小到大排序后，经该名额以 parallelism 个为上限逐个送入任务队列，避免一个批量任务占满队列，
+ * 各子任务的页面再由页面调度器与其他任务轮询执行。
+ * ZIP 按流逐个条目解压到原始文件目录，不整体读入内存。
+ */
+@Slf4j
+@Service
+public class BatchJobService {
+
+    private final InvoiceService invoiceService;
+    private final JobQueue jobQueue;
+    private final TaskStore taskStore;
+    private final Cache<String, Batch> batches;
+
+    private final int maxFiles;
+    private final int parallelism;
+    private final long maxEntryBytes;
+    private final Charset zipCharset;
+    private final Set<String> allowedExtensions = new HashSet<>();
+
+    public BatchJobService(@Value("${app.batch.max-files:500}") int maxFiles,
+                           @Value("${app.batch.parallelism:2}") int parallelism,
+                           @Value("${app.batch.max-entry-size:50MB}") DataSize maxEntrySize,
+                           @Value("${app.batch.zip-charset:GBK}") String zipCharset,
+                           @Value("${app.task-store.active-ttl:24h}") Duration activeTtl,
+                           @Value("${app.allowed-extensions.pdf:pdf}") List<String> pdfExtensions,
+                           @Value("${app.allowed-extensions.ofd:ofd}") List<String> ofdExtensions,
+                           @Value("${app.allowed-extensions.image:jpg,jpeg,png,bmp,gif}") List<String> imageExtensions,
+                           InvoiceService invoiceService,
+                           JobQueue jobQueue,
+                           TaskStore taskStore) {
+        this.maxFiles = maxFiles;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxEntryBytes = maxEntrySize.toBytes();
+        this.zipCharset = Charset.forName(zipCharset);
+        this.invoiceService = invoiceService;
+        this.jobQueue = jobQueue;
+        this.taskStore = taskStore;
+        this.batches = Caffeine.newBuilder()
+            .expireAfterAccess(activeTtl)
+            .build();
+        for (List<String> extensions : List.of(pdfExtensions, ofdExtensions, imageExtensions)) {
+            extensions.forEach(extension -> allowedExtensions.add(extension.trim().toLowerCase()));
+        }
+        log.info("批量任务初始化完成，单批最多 {} 个文件，并行子任务: {}, 压缩包条目上限: {}",
+            maxFiles, this.parallelism, maxEntrySize);
+    }
+
+    /**
+     * 提交批量任务
+     *
+     * @param files 发票文件或 ZIP 压缩包，可混合
+     * @param deadlineSeconds 各子任务的处理时限（秒，从批量任务提交时起算），为空时使用默认时限
+     * @throws IllegalArgumentException 没有文件或文件数超出上限
+     * @throws com.invoice.exception.QueueFullException 任务队列已满
+     */
+    public BatchStatusResponse submit(List<MultipartFile> files, int cropPadding, String outputFormat,
+                                      Integer deadlineSeconds) throws IOException {
+        if (files == null || files.isEmpty()) {
+            throw new IllegalArgumentException("文件不能为空");
+        }
+        String batchId = UUID.randomUUID().toString();
+        JobQueue.Reservation slot = jobQueue.reserve(batchId, JobQueue.Priority.BULK);
+
+        Batch batch = new Batch(batchId, Instant.now().toString(), slot);
+        List<InvoiceService.StagedTask> staged = new ArrayList<>();
+        try {
+            for (MultipartFile file : files) {
+                String filename = file.getOriginalFilename();
+                if (file.isEmpty()) {
+                    batch.reject(filename, "文件为空");
+                } else if (isZip(filename, file.getContentType())) {
+                    try (InputStream in = file.getInputStream()) {
+                        unpack(in, batch, staged, cropPadding, outputFormat, deadlineSeconds);
+                    }
+                } else if (!allowedExtensions.contains(extension(filename))) {
+                    batch.reject(filename, "不支持的文件类型");
+                } else {
+                    checkFileCount(staged);
+                    staged.add(invoiceService.stageAsyncTask(UUID.randomUUID().toString(), file,
+                        cropPadding, outputFormat, deadlineSeconds));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            staged.forEach(invoiceService::discardStagedTask);
+            slot.release();
+            throw e;
+        }
+
+        // 小文件优先：平均完成时间最短，客户端更早拿到第一批结果
+        staged.sort(Comparator.comparingLong(InvoiceService.StagedTask::getSize));
+        batch.init(staged);
+        batches.put(batchId, batch);
+        log.info("批量任务已提交: {}, 子任务 {} 个, 拒绝 {} 个文件", batchId, staged.size(), batch.rejected.size());
+        feed(batch);
+        return toResponse(batch);
+    }
+
+    /**
+     * 查询批量任务状态
+     *
+     * @throws IllegalArgumentException 批量任务不存在或已过期
+     */
+    public BatchStatusResponse getStatus(String batchId) {
+        Batch batch = batches.getIfPresent(batchId);
+        if (batch == null) {
+            throw new IllegalArgumentException("批量任务不存在: " + batchId);
+        }
+        return toResponse(batch);
+    }
+
+    /**
+     * 按流解压 ZIP，每个支持的条目保存为一个子任务；目录、隐藏文件与不支持的类型跳过
+     * 条目名只用于显示与判断类型，不参与拼接路径
+     */
+    private void unpack(InputStream in, Batch batch, List<InvoiceService.StagedTask> staged,
+                        int cropPadding, String outputFormat, Integer deadlineSeconds) throws IOException {
+        // 带 UTF-8 标记的条目按 UTF-8 解码，其余按 zip-charset（Windows 中文系统打包的默认为 GBK）
+        ZipInputStream zip = new ZipInputStream(in, zipCharset);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String filename = Paths.get(entry.getName().replace('\\', '/')).getFileName().toString();
+            if (filename.startsWith(".") || entry.getName().startsWith("__MACOSX/")) {
+                continue;
+            }
+            if (!allowedExtensions.contains(extension(filename))) {
+                batch.reject(filename, "不支持的文件类型");
+                continue;
+            }
+            checkFileCount(staged);
+
+            // 多读一个字节用于判断是否超出上限（条目声明的大小不可信）
+            BoundedInputStream bounded = new BoundedInputStream(zip, maxEntryBytes + 1);
+            bounded.setPropagateClose(false);
+            InvoiceService.StagedTask task = invoiceService.stageAsyncTask(UUID.randomUUID().toString(),
+                filename, contentTypeOf(filename), bounded, cropPadding, outputFormat, deadlineSeconds);
+            if (task.getSize() > maxEntryBytes) {
+                invoiceService.discardStagedTask(task);
+                batch.reject(filename, "文件超过大小上限");
+                continue;
+            }
+            staged.add(task);
+        }
+    }
+
+    /**
+     * 在并行名额内把待处理的子任务送入任务队列，子任务结束后继续送入下一个；全部结束后归还排队名额
+     */
+    private void feed(Batch batch) {
+        InvoiceService.StagedTask next;
+        while ((next = batch.nextToStart(parallelism)) != null) {
+            InvoiceService.StagedTask task = next;
+            invoiceService.startAsyncTask(task, batch.slot).getFuture()
+                .whenComplete((result, e) -> {
+                    batch.finished();
+                    feed(batch);
+                });
+        }
+        if (batch.isDone()) {
+            batch.slot.release();
+        }
+    }
+
+    private BatchStatusResponse toResponse(Batch batch) {
+        BatchStatusResponse response = new BatchStatusResponse();
+        response.setBatchId(batch.batchId);
+        response.setCreatedAt(batch.createdAt);
+        int pending = 0, processing = 0, completed = 0, failed = 0, cancelled = 0;
+        int progressSum = 0, totalInvoices = 0;
+        for (InvoiceService.StagedTask task : batch.children) {
+            BatchStatusResponse.Item item = new BatchStatusResponse.Item();
+            item.setTaskId(task.getTaskId());
+            item.setFilename(task.getFilename());
+            TaskStatusResponse status = taskStore.peek(task.getTaskId());
+            if (status == null) {
+                item.setStatus("EXPIRED");
+                progressSum += 100;
+                response.getTasks().add(item);
+                continue;
+            }
+            item.setStatus(status.getStatus());
+            item.setProgress(status.getProgress());
+            item.setTotalInvoices(status.getTotalInvoices());
+            item.setFailedPages(status.getFailedPages());
+            switch (status.getStatus()) {
+                case "PENDING" -> pending++;
+                case "PROCESSING" -> processing++;
+                case "COMPLETED" -> completed++;
+                case "FAILED" -> failed++;
+                case "CANCELLED" -> cancelled++;
+                default -> { }
+            }
+            progressSum += TaskStore.isFinished(status) ? 100
+                : status.getProgress() != null ? status.getProgress() : 0;
+            totalInvoices += status.getTotalInvoices() != null ? status.getTotalInvoices() : 0;
+            response.getTasks().add(item);
+        }
+        int total = batch.children.size();
+        response.setTotalFiles(total);
+        response.setPendingFiles(pending);
+        response.setProcessingFiles(processing);
+        response.setCompletedFiles(completed);
+        response.setFailedFiles(failed);
+        response.setCancelledFiles(cancelled);
+        response.setTotalInvoices(totalInvoices);
+        response.setProgress(total == 0 ? 100 : progressSum / total);
+        response.setStatus(total == 0 ? "FAILED" : pending + processing > 0 ? "PROCESSING" : "COMPLETED");
+        response.getRejected().addAll(batch.rejected);
+        return response;
+    }
+
+    private void checkFileCount(List<InvoiceService.StagedTask> staged) {
+        if (staged.size() >= maxFiles) {
+            throw new IllegalArgumentException("批量任务最多包含 " + maxFiles + " 个文件");
+        }
+    }
+
+    private static boolean isZip(String filename, String contentType) {
+        if (contentType != null && contentType.toLowerCase().contains("zip")) {
+            return true;
+        }
+        return filename != null && filename.toLowerCase().endsWith(".zip");
+    }
+
+    private static String extension(String filename) {
+        if (filename == null || !filename.contains(".")) {
+            return "";
+        }
+        return filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
+    }
+
+    /**
+     * 压缩包条目没有 Content-Type，按扩展名推断（处理流程据此区分 PDF、OFD 与图片）
+     */
+    private static String contentTypeOf(String filename) {
+        String extension = extension(filename);
+        switch (extension) {
+            case "pdf":
+                return "application/pdf";
+            case "ofd":
+                return "application/ofd";
+            default:
+                try {
+                    String probed = Files.probeContentType(Paths.get(filename));
+                    return probed != null ? probed : "image/" + ("jpg".equals(extension) ? "jpeg" : extension);
+                } catch (IOException e) {
+                    return "image/" + extension;
+                }
+        }
+    }
+
+    /**
+     * 批量任务（子任务按送入顺序排列）
+     */
+    private static class Batch {
+        private final String batchId;
+        private final String createdAt;
+        private final List<InvoiceService.StagedTask> children = new ArrayList<>();
+        private final List<BatchStatusResponse.Item> rejected = new ArrayList<>();
+        private final ArrayDeque<InvoiceService.StagedTask> waiting = new ArrayDeque<>();
+        private final JobQueue.Reservation slot;
+        private int running;
+
+        Batch(String batchId, String createdAt, JobQueue.Reservation slot) {
+            this.batchId = batchId;
+            this.createdAt = createdAt;
+            this.slot = slot;
+        }
+
+        void init(List<InvoiceService.StagedTask> tasks) {
+            children.addAll(tasks);
+            waiting.addAll(tasks);
+        }
+
+        void reject(String filename, String error) {
+            BatchStatusResponse.Item item = new BatchStatusResponse.Item();
+            item.setFilename(filename);
+            item.setError(error);
+            rejected.add(item);
+        }
+
+        synchronized InvoiceService.StagedTask nextToStart(int parallelism) {
+            if (running >= parallelism || waiting.isEmpty()) {
+                return null;
+            }
+            running++;
+            return waiting.poll();
+        }
+
+        synchronized void finished() {
+            running--;
+        }
+
+        synchronized boolean isDone() {
+            return running == 0 && waiting.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.invoice.service;
+
+import com.invoice.dto.PipelineStatsResponse;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 页面级公平调度（差额轮询，Deficit Round Robin）
+ * 每个任务有独立的页面队列，工作线程按轮询从各任务取页面，每轮每个任务获得 quantum 个页面的额度。
+ * 大文件不会阻塞随后提交的小文件：小文件的页面与大文件的页面交替执行；只有一个任务时它独占全部吞吐。
+ *
+ * 分发线程拿到许可后按轮询取出页面，为每个页面（一次模型调用）启动一个线程，虚拟线程模式下为虚拟线程；
+ * 许可数 page-workers 即同时进行的模型调用上限。
+ */
+@Slf4j
+@Service
+public class FairPageScheduler {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<String, TaskQueue> queues = new HashMap<>();
+    private final ArrayDeque<TaskQueue> ring = new ArrayDeque<>();
+    private final ExecutorService workerPool;
+    private final Semaphore workerPermits;
+    private final int quantum;
+    private final int pageWorkers;
+    private final AtomicInteger runningPages = new AtomicInteger();
+    private final AtomicLong completedPages = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private int queuedPages;
+    private int maxQueuedPages;
+
+    public FairPageScheduler(@Value("${app.scheduler.page-workers:0}") int pageWorkers,
+                             @Value("${app.scheduler.quantum:1}") int quantum,
+                             PipelineExecutors executors,
+                             VisionEndpointPool endpointPool) {
+        this.quantum = Math.max(1, quantum);
+        // 未指定时按模型接入点可同时进行的调用数，增加接入点即增加页面吞吐
+        this.pageWorkers = pageWorkers > 0 ? pageWorkers : endpointPool.getTotalConcurrency();
+        this.workerPermits = new Semaphore(this.pageWorkers);
+        this.workerPool = executors.blockingExecutor("page-");
+        workerPool.execute(this::dispatchLoop);
+        log.info("页面调度器初始化完成，同时处理页面: {}, 每轮额度: {}", this.pageWorkers, this.quantum);
+    }
+
+    /**
+     * 返回提交到指定任务页面队列的执行器
+     */
+    public Executor forTask(String taskId) {
+        return page -> enqueue(taskId, page);
+    }
+
+    public int getQueuedPages() {
+        lock.lock();
+        try {
+            return queuedPages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除任务尚未执行的页面（任务取消时）
+     * 返回被移除的页面，由调用方执行以结束对应的 future（页面在检查点发现任务已取消后立即结束）
+     */
+    public List<Runnable> cancel(String taskId) {
+        lock.lock();
+        try {
+            TaskQueue queue = queues.remove(taskId);
+            if (queue == null) {
+                return Collections.emptyList();
+            }
+            ring.remove(queue);
+            queuedPages -= queue.pages.size();
+            queue.active = false;
+            List<Runnable> pages = new ArrayList<>(queue.pages);
+            queue.pages.clear();
+            return pages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 作为流水线识别阶段的统计
+     */
+    public PipelineStatsResponse.Stage stats() {
+        PipelineStatsResponse.Stage stats = new PipelineStatsResponse.Stage();
+        stats.setName("recognize");
+        stats.setThreads(pageWorkers);
+        stats.setActiveThreads(runningPages.get());
+        lock.lock();
+        try {
+            stats.setQueueDepth(queuedPages);
+            stats.setMaxQueueDepth(maxQueuedPages);
+        } finally {
+            lock.unlock();
+        }
+        long completed = completedPages.get();
+        stats.setCompletedCount(completed);
+        stats.setAverageMillis(completed == 0 ? 0 : busyNanos.get() / 1_000_000.0 / completed);
+        return stats;
+    }
+
+    public int getActiveTasks() {
+        lock.lock();
+        try {
+            return queues.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(String taskId, Runnable page) {
+        lock.lock();
+        try {
+            TaskQueue queue = queues.computeIfAbsent(taskId, TaskQueue::new);
+            queue.pages.add(page);
+            queuedPages++;
+            maxQueuedPages = Math.max(maxQueuedPages, queuedPages);
+            if (!queue.active) {
+                queue.active = true;
+                ring.addLast(queue);
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取下一个页面：队首任务额度不足时补充 quantum，额度用完后移到队尾
+     */
+    private Runnable take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (ring.isEmpty()) {
+                notEmpty.await();
+            }
+            TaskQueue queue = ring.peekFirst();
+            if (queue.deficit < 1) {
+                queue.deficit += quantum;
+            }
+            queue.deficit--;
+            queuedPages--;
+            Runnable page = queue.pages.poll();
+            if (queue.pages.isEmpty()) {
+                // 队列已空：移出轮询并丢弃剩余额度
+                ring.pollFirst();
+                queues.remove(queue.taskId);
+                queue.active = false;
+                queue.deficit = 0;
+            } else if (queue.deficit < 1) {
+                ring.pollFirst();
+                ring.addLast(queue);
+            }
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Runnable page;
+            try {
+                workerPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                page = take();
+            } catch (InterruptedException e) {
+                workerPermits.release();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            runningPages.incrementAndGet();
+            try {
+                workerPool.execute(() -> run(page));
+            } catch (RejectedExecutionException e) {
+                // 正在关闭
+                return;
+            }
+        }
+    }
+
+    private void run(Runnable page) {
+        long start = System.nanoTime();
+        try {
+            page.run();
+        } catch (Throwable e) {
+            log.error("页面处理异常: {}", e.getMessage(), e);
+        } finally {
+            busyNanos.addAndGet(System.nanoTime() - start);
+            completedPages.incrementAndGet();
+            runningPages.decrementAndGet();
+            workerPermits.release();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workerPool.shutdownNow();
+    }
+
+    private static class TaskQueue {
+        private final String taskId;
+        private final ArrayDeque<Runnable> pages = new ArrayDeque<>();
+        private int deficit;
+        private boolean active;
+
+        TaskQueue(String taskId) {
+            this.taskId = taskId;
+        }
+    }
+}
@@ -145,6 +145,38 @@ public class FileCleanupService {
         return new CleanupResult(deletedCount.get(), deletedSize.get());
     }
     
+    /**
+     * 删除指定任务的所有文件（原始文件、页面图片、临时文件、裁切结果）
+     * 任务文件统一以 {taskId}_ 为前缀
+     *
+     * @return 删除的文件数
+     */
+    public int deleteTaskFiles(String taskId) {
+        String prefix = taskId + "_";
+        int deleted = 0;
+        for (String folder : new String[]{uploadFolder, outputFolder, tempFolder}) {
+            Path directory = Paths.get(folder);
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            try (java.util.stream.Stream<Path> files = Files.walk(directory, 2)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (Files.isRegularFile(file) && file.getFileName().toString().startsWith(prefix)) {
+                        try {
+                            Files.delete(file);
+                            deleted++;
+                        } catch (IOException e) {
+                            log.warn("删除任务文件失败: {}", file, e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("遍历目录失败: {}", directory, e);
+            }
+        }
+        return deleted;
+    }
+    
     /**
      * 清理结果
      */
@@ -0,0 +1,111 @@
+package com.invoice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.invoice.dto.TaskStatusResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 重复提交识别
+ *
+ * 在时间窗口内，相同的 Idempotency-Key，或相同文件内容（SHA-256）加相同处理参数的提交，
+ * 返回已有任务的编号而不再创建新任务；已有任务失败、取消或已过期时允许重新提交。
+ * 提交键在创建任务前登记，并发的相同提交也只会创建一个任务。
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    private final TaskStore taskStore;
+    private final boolean contentDedup;
+
+    // 提交键 -> 任务编号
+    private final Cache<String, String> submissions;
+    // 已登记、尚未写入任务存储的任务（登记与创建任务之间的短暂窗口内同样视为有效）
+    private final Cache<String, Boolean> claiming = Caffeine.newBuilder()
+        .expireAfterWrite(Duration.ofMinutes(1))
+        .build();
+
+    public IdempotencyService(@Value("${app.idempotency.window:1h}") Duration window,
+                              @Value("${app.idempotency.max-entries:10000}") long maxEntries,
+                              @Value("${app.idempotency.content-dedup:true}") boolean contentDedup,
+                              TaskStore taskStore) {
+        this.taskStore = taskStore;
+        this.contentDedup = contentDedup;
+        this.submissions = Caffeine.newBuilder()
+            .expireAfterWrite(window)
+            .maximumSize(maxEntries)
+            .build();
+        log.info("重复提交识别初始化完成，时间窗口: {}, 按内容去重: {}", window, contentDedup);
+    }
+
+    public boolean isContentDedup() {
+        return contentDedup;
+    }
+
+    /**
+     * 生成提交键
+     *
+     * @param idempotencyKey 客户端提供的 Idempotency-Key，可为空
+     * @param sha256 文件内容摘要，尚未计算时为 null
+     */
+    public List<String> keys(String idempotencyKey, String sha256, int cropPadding, String outputFormat) {
+        List<String> keys = new ArrayList<>(2);
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            keys.add("key:" + idempotencyKey.trim());
+        }
+        if (contentDedup && sha256 != null) {
+            keys.add(String.format("content:%s:%d:%s", sha256, cropPadding, outputFormat));
+        }
+        return keys;
+    }
+
+    /**
+     * 为新任务登记提交键
+     * 任一键已对应仍有效的其他任务时不登记新任务，所有键改为指向该任务
+     *
+     * @return 已有任务的编号；没有重复时返回 null，提交键已指向 taskId
+     */
+    public synchronized String claim(List<String> keys, String taskId) {
+        for (String key : keys) {
+            String existing = submissions.getIfPresent(key);
+            if (existing != null && !existing.equals(taskId) && isLive(existing)) {
+                keys.forEach(k -> submissions.put(k, existing));
+                log.info("重复提交，复用任务: {}", existing);
+                return existing;
+            }
+        }
+        keys.forEach(key -> submissions.put(key, taskId));
+        if (!keys.isEmpty()) {
+            claiming.put(taskId, Boolean.TRUE);
+        }
+        return null;
+    }
+
+    /**
+     * 任务未能创建时撤销登记
+     */
+    public synchronized void release(List<String> keys, String taskId) {
+        keys.forEach(key -> submissions.asMap().remove(key, taskId));
+        claiming.invalidate(taskId);
+    }
+
+    /**
+     * 排队中、处理中或已完成的任务可以复用；刚登记、尚未创建的任务同样复用
+     */
+    private boolean isLive(String taskId) {
+        TaskStatusResponse taskStatus = taskStore.peek(taskId);
+        if (taskStatus == null) {
+            return claiming.getIfPresent(taskId) != null;
+        }
+        claiming.invalidate(taskId);
+        String status = taskStatus.getStatus();
+        return "PENDING".equals(status) || "PROCESSING".equals(status) || "COMPLETED".equals(status);
+    }
+}
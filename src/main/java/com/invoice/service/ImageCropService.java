@@ -1,5 +1,6 @@
 package com.invoice.service;
 
+import com.invoice.model.Detection;
 import com.invoice.util.BboxValidator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,7 +14,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriter;
 import javax.imageio.ImageWriteParam;
@@ -30,15 +30,24 @@ public class ImageCropService {
     /**
      * 使用 BufferedImage 裁切发票
      */
-    public BufferedImage cropInvoice(BufferedImage image, List<Integer> bbox, 
+    public BufferedImage cropInvoice(BufferedImage image, Detection detection, 
                                     String outputPath) throws IOException {
-        return cropInvoice(image, bbox, defaultPadding, outputPath);
+        return cropInvoice(image, detection, defaultPadding, outputPath);
     }
     
     /**
      * 使用 BufferedImage 裁切发票（带边距）
      */
-    public BufferedImage cropInvoice(BufferedImage image, List<Integer> bbox, 
+    public BufferedImage cropInvoice(BufferedImage image, Detection detection, 
+                                    int padding, String outputPath) throws IOException {
+        return cropInvoice(image, detection.getX1(), detection.getY1(), detection.getX2(), detection.getY2(),
+            padding, outputPath);
+    }
+    
+    /**
+     * 按像素坐标裁切（带边距）
+     */
+    public BufferedImage cropInvoice(BufferedImage image, int bboxX1, int bboxY1, int bboxX2, int bboxY2,
                                     int padding, String outputPath) throws IOException {
         if (image == null) {
             throw new IllegalArgumentException("图片不能为空");
@@ -48,19 +57,20 @@ public class ImageCropService {
         int height = image.getHeight();
         
         // 验证坐标
-        BboxValidator.BboxValidationResult validation = BboxValidator.validateBbox(bbox, width, height);
+        BboxValidator.BboxValidationResult validation =
+            BboxValidator.validateBbox(bboxX1, bboxY1, bboxX2, bboxY2, width, height);
         if (!validation.isValid()) {
-            throw new IllegalArgumentException("无效的边界框坐标: " + bbox + 
+            throw new IllegalArgumentException(
+                String.format("无效的边界框坐标: [%d, %d, %d, %d]", bboxX1, bboxY1, bboxX2, bboxY2) + 
                 (validation.getMessage() != null ? ", " + validation.getMessage() : ""));
         }
         
-        List<Integer> correctedBbox = validation.getCorrectedBbox();
-        int x1 = correctedBbox.get(0);
-        int y1 = correctedBbox.get(1);
-        int x2 = correctedBbox.get(2);
-        int y2 = correctedBbox.get(3);
+        int x1 = validation.getX1();
+        int y1 = validation.getY1();
+        int x2 = validation.getX2();
+        int y2 = validation.getY2();
         
-        log.debug("原始坐标: bbox={}, 图片尺寸: {}x{}", bbox, width, height);
+        log.debug("原始坐标: bbox=[{}, {}, {}, {}], 图片尺寸: {}x{}", bboxX1, bboxY1, bboxX2, bboxY2, width, height);
         log.debug("修正后坐标: [x1={}, y1={}, x2={}, y2={}]", x1, y1, x2, y2);
         
         // 添加边距
@@ -117,48 +127,57 @@ public class ImageCropService {
         
         // 保存（如果指定了输出路径）
         if (outputPath != null) {
-            Path outputDir = Paths.get(outputPath).getParent();
-            if (outputDir != null) {
-                Files.createDirectories(outputDir);
-            }
-            
-            // 转换为标准RGB格式，避免颜色空间问题
-            BufferedImage rgbCropped = convertToRGB(cropped);
-            
-            // 使用最高质量保存，避免压缩导致质量损失
-            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-            ImageWriteParam param = writer.getDefaultWriteParam();
-            if (param.canWriteCompressed()) {
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(1.0f); // 最高质量
-            }
-            
-            try (FileImageOutputStream output = new FileImageOutputStream(new File(outputPath))) {
-                writer.setOutput(output);
-                writer.write(null, new IIOImage(rgbCropped, null, null), param);
-            } finally {
-                writer.dispose();
-            }
-            
-            // 验证保存后的图片尺寸
-            BufferedImage savedImage = ImageIO.read(new File(outputPath));
-            if (savedImage != null) {
-                if (savedImage.getWidth() != croppedWidth || savedImage.getHeight() != croppedHeight) {
-                    log.error("保存后的图片尺寸不匹配！裁切后: {}x{}, 保存后: {}x{}", 
-                        croppedWidth, croppedHeight, savedImage.getWidth(), savedImage.getHeight());
-                } else {
-                    log.debug("保存后的图片尺寸验证通过: {}x{} (无缩放)", 
-                        savedImage.getWidth(), savedImage.getHeight());
-                }
-            }
-            
-            log.info("已保存裁切后的图片: {}, 尺寸: {}x{} (无缩放)", 
-                outputPath, croppedWidth, croppedHeight);
+            saveCropped(cropped, outputPath);
         }
         
         return cropped;
     }
     
+    /**
+     * 保存裁切后的图片（最高质量 JPEG）
+     */
+    public void saveCropped(BufferedImage cropped, String outputPath) throws IOException {
+        int croppedWidth = cropped.getWidth();
+        int croppedHeight = cropped.getHeight();
+        Path outputDir = Paths.get(outputPath).getParent();
+        if (outputDir != null) {
+            Files.createDirectories(outputDir);
+        }
+        
+        // 转换为标准RGB格式，避免颜色空间问题
+        BufferedImage rgbCropped = convertToRGB(cropped);
+        
+        // 使用最高质量保存，避免压缩导致质量损失
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(1.0f); // 最高质量
+        }
+        
+        try (FileImageOutputStream output = new FileImageOutputStream(new File(outputPath))) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(rgbCropped, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        
+        // 验证保存后的图片尺寸
+        BufferedImage savedImage = ImageIO.read(new File(outputPath));
+        if (savedImage != null) {
+            if (savedImage.getWidth() != croppedWidth || savedImage.getHeight() != croppedHeight) {
+                log.error("保存后的图片尺寸不匹配！裁切后: {}x{}, 保存后: {}x{}", 
+                    croppedWidth, croppedHeight, savedImage.getWidth(), savedImage.getHeight());
+            } else {
+                log.debug("保存后的图片尺寸验证通过: {}x{} (无缩放)", 
+                    savedImage.getWidth(), savedImage.getHeight());
+            }
+        }
+        
+        log.info("已保存裁切后的图片: {}, 尺寸: {}x{} (无缩放)", 
+            outputPath, croppedWidth, croppedHeight);
+    }
+    
     /**
      * 将BufferedImage转换为标准RGB格式
      * 解决"Bogus input colorspace"错误
@@ -192,13 +211,13 @@ public class ImageCropService {
     /**
      * 从文件路径读取图片并裁切
      */
-    public BufferedImage cropInvoice(String imagePath, List<Integer> bbox, 
+    public BufferedImage cropInvoice(String imagePath, Detection detection, 
                                     int padding, String outputPath) throws IOException {
         BufferedImage image = ImageIO.read(new File(imagePath));
         if (image == null) {
             throw new IllegalArgumentException("无法读取图片: " + imagePath);
         }
-        return cropInvoice(image, bbox, padding, outputPath);
+        return cropInvoice(image, detection, padding, outputPath);
     }
 }
 
@@ -1,80 +1,168 @@
 package com.invoice.service;
 
+import com.invoice.dto.AsyncTaskResponse;
 import com.invoice.dto.InvoiceRecognizeResponse;
+import com.invoice.dto.PageState;
+import com.invoice.dto.PipelineStatsResponse;
 import com.invoice.dto.TaskStatusResponse;
+import com.invoice.dto.TaskStoreStatsResponse;
+import com.invoice.dto.VisionLocateResult;
+import com.invoice.exception.DeadlineExceededException;
+import com.invoice.exception.QueueFullException;
+import com.invoice.exception.TaskCancelledException;
+import com.invoice.model.Detection;
 import com.invoice.model.InvoiceInfo;
+import com.invoice.model.PageDetections;
+import com.invoice.model.SourceFile;
 import com.invoice.util.ApiResponseParser;
+import com.invoice.util.UploadInspector;
 import com.invoice.config.VolcengineConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriter;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.IIOImage;
-import javax.imageio.stream.FileImageOutputStream;
-import org.springframework.mock.web.MockMultipartFile;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 @Slf4j
 @Service
 public class InvoiceService {
     
+    private static final String CANCELLED = "CANCELLED";
+    
+    // 使用相对路径而非绝对路径，以避免在 HTTPS 代理下出现协议不匹配问题
+    private static final String API_BASE_URL = "/api/v1/invoice";
+    
+    // 流式上传时每接收这么多字节更新一次任务状态
+    private static final long STREAM_REPORT_INTERVAL = 8L * 1024 * 1024;
+    
     private final Path originalStorageLocation;
     private final Path croppedStorageLocation;
     private final Path tempStorageLocation;
     
+    // 流式上传的文件大小上限
+    private final long streamMaxBytes;
+    
+    // 未指定截止时间的任务使用的默认处理时限，0 表示不限
+    private final Duration defaultDeadline;
+    
     private final PdfProcessor pdfProcessor;
+    private final OfdProcessor ofdProcessor;
     private final VolcengineApiService apiService;
     private final ImageCropService imageCropService;
+    private final QrCodeService qrCodeService;
     private final ApiResponseParser responseParser;
     private final VolcengineConfig volcengineConfig;
     
-    // 异步任务存储（生产环境应使用Redis或数据库）
-    private final Map<String, TaskStatusResponse> taskStore = new ConcurrentHashMap<>();
+    // 异步任务存储（有界缓存，生产环境应使用Redis或数据库）
+    private final TaskStore taskStore;
+    
+    // 任务日志（重启后恢复任务状态与未完成的任务）
+    private final TaskJournal taskJournal;
+    
+    // 任务队列（有界，同步请求优先）
+    private final JobQueue jobQueue;
+    
+    // 页面调度（各任务的页面轮询执行；工作线程数默认按模型接入点的并发上限之和，受 API 限流和配额约束）
+    private final FairPageScheduler pageScheduler;
+    
+    // 页面流水线（渲染、编码、解析、裁切、保存各阶段独立的线程池与有界队列）
+    private final PagePipeline pipeline;
+    
+    // 任务进度推送（SSE）
+    private final TaskEventService taskEvents;
+    
+    // 任务文件清理（取消任务时删除已生成的文件）
+    private final FileCleanupService fileCleanupService;
+    
+    // 重复提交识别（Idempotency-Key 与文件内容）
+    private final IdempotencyService idempotencyService;
     
-    // 并行处理线程池（限制并发数为1，因为API有严格的限流和配额限制）
-    private final ExecutorService executorService = Executors.newFixedThreadPool(1);
+    // 相同页面的并发识别合并
+    private final PageCoalescer pageCoalescer;
     
     @Autowired
     public InvoiceService(
             @Value("${app.upload-folder:uploads}") String uploadFolder,
             @Value("${app.output-folder:outputs}") String outputFolder,
             @Value("${app.temp-folder:temp}") String tempFolder,
+            @Value("${app.upload.stream-max-size:2GB}") DataSize streamMaxSize,
+            @Value("${app.deadline.default:0s}") Duration defaultDeadline,
             PdfProcessor pdfProcessor,
+            OfdProcessor ofdProcessor,
             VolcengineApiService apiService,
             ImageCropService imageCropService,
+            QrCodeService qrCodeService,
             ApiResponseParser responseParser,
-            VolcengineConfig volcengineConfig) {
+            VolcengineConfig volcengineConfig,
+            TaskStore taskStore,
+            TaskJournal taskJournal,
+            JobQueue jobQueue,
+            FairPageScheduler pageScheduler,
+            PagePipeline pipeline,
+            TaskEventService taskEvents,
+            FileCleanupService fileCleanupService,
+            IdempotencyService idempotencyService,
+            PageCoalescer pageCoalescer) {
         
         this.originalStorageLocation = Paths.get(uploadFolder, "original").toAbsolutePath().normalize();
         this.croppedStorageLocation = Paths.get(outputFolder).toAbsolutePath().normalize();
         this.tempStorageLocation = Paths.get(tempFolder).toAbsolutePath().normalize();
+        this.streamMaxBytes = streamMaxSize.toBytes();
+        this.defaultDeadline = defaultDeadline;
         
         this.pdfProcessor = pdfProcessor;
+        this.ofdProcessor = ofdProcessor;
         this.apiService = apiService;
         this.imageCropService = imageCropService;
+        this.qrCodeService = qrCodeService;
         this.responseParser = responseParser;
         this.volcengineConfig = volcengineConfig;
+        this.taskStore = taskStore;
+        this.taskJournal = taskJournal;
+        this.jobQueue = jobQueue;
+        this.pageScheduler = pageScheduler;
+        this.pipeline = pipeline;
+        this.taskEvents = taskEvents;
+        this.fileCleanupService = fileCleanupService;
+        this.idempotencyService = idempotencyService;
+        this.pageCoalescer = pageCoalescer;
         
         try {
             Files.createDirectories(this.originalStorageLocation);
@@ -86,418 +174,1512 @@ public class InvoiceService {
     }
     
     /**
-     * 同步识别与裁切发票
+     * 同步识别与裁切发票：以高优先级进入任务队列，调用方可异步等待结果而不占用请求线程
+     * 原始文件在调用线程中保存（请求结束后上传文件失效）；任务可通过任务编号查询进度或取消
+     * 
+     * @param deadlineSeconds 处理时限（秒，从提交时起算），为空时使用默认时限
+     * @throws QueueFullException 任务队列已满
+     */
+    public InteractiveTask submitInteractiveTask(MultipartFile file, 
+                                                 int cropPadding, 
+                                                 String outputFormat,
+                                                 Integer deadlineSeconds) throws Exception {
+        String taskId = UUID.randomUUID().toString();
+        jobQueue.checkCapacity(taskId, JobQueue.Priority.INTERACTIVE);
+        registerPendingTask(taskId, deadlineSeconds);
+        
+        SourceFile source;
+        try {
+            source = saveOriginalFile(taskId, file);
+        } catch (Exception e) {
+            throw finishWithError(taskId, e);
+        }
+        recordSubmitted(taskId, source, cropPadding, outputFormat);
+        
+        JobQueue.Ticket<InvoiceRecognizeResponse> ticket;
+        try {
+            ticket = jobQueue.submit(taskId, JobQueue.Priority.INTERACTIVE, () -> {
+                taskEvents.progress(taskStore.update(taskId, status -> {
+                    if (!"PENDING".equals(status.getStatus())) {
+                        return;
+                    }
+                    status.setStatus("PROCESSING");
+                    status.setProgress(10);
+                }));
+                return processFile(source, cropPadding, outputFormat, taskId, Collections.emptyMap());
+            });
+        } catch (QueueFullException e) {
+            // 保存文件期间队列被占满
+            discardStagedTask(new StagedTask(taskId, source, cropPadding, outputFormat));
+            throw e;
+        }
+        return new InteractiveTask(taskId, ticket);
+    }
+    
+    /**
+     * 未完成任务的当前结果：已完成页面的发票，处理继续在后台进行
+     */
+    public InvoiceRecognizeResponse getPartialResult(String taskId) {
+        TaskStatusResponse taskStatus = getTaskStatus(taskId);
+        List<InvoiceInfo> invoices = taskStatus.getInvoices() != null
+            ? taskStatus.getInvoices() : Collections.emptyList();
+        InvoiceRecognizeResponse response = new InvoiceRecognizeResponse();
+        response.setTaskId(taskId);
+        response.setTotalInvoices(invoices.size());
+        response.setInvoices(invoices);
+        response.setPartial(true);
+        response.setCutPages(taskStatus.getCutPages());
+        return response;
+    }
+    
+    /**
+     * 识别与裁切
+     * 
+     * @param source 已保存到原始文件目录的上传文件，各环节都从该路径读取
+     * @param donePages 已完成的页面（从任务日志恢复），页码 -> 发票列表；这些页面不再重新识别
+     */
+    private InvoiceRecognizeResponse processFile(SourceFile source, 
+                                                 int cropPadding, 
+                                                 String outputFormat,
+                                                 String taskId,
+                                                 Map<Integer, List<InvoiceInfo>> donePages) throws Exception {
+        long startTime = System.currentTimeMillis();
+        log.info("开始处理文件: {}, taskId: {}", source.getFilename(), taskId);
+
+        try {
+            checkCancelled(taskId);
+            
+            // 原始文件与处理参数在提交时已记录（recordSubmitted）
+            String sourcePath = source.getPath().toString();
+            
+            // 判断文件类型并处理
+            String contentType = source.getContentType();
+            List<InvoiceInfo> allInvoices = new ArrayList<>();
+            
+            if (ofdProcessor.isOfd(source.getFilename(), contentType)) {
+                // OFD 电子发票：直接从矢量内容定位与渲染，不调用视觉模型
+                allInvoices = processOfd(sourcePath, taskId, cropPadding, outputFormat, donePages);
+            } else if (contentType != null && contentType.equals("application/pdf")) {
+                // PDF 处理：逐页渲染，每页依次经过流水线各阶段，
+                // 第 N 页等待模型响应时，后续页面的渲染与编码同时进行
+                String pdfPath = sourcePath;
+                
+                // 原生电子发票优先通过文本层定位，命中的页面无需调用视觉模型
+                Map<Integer, PageDetections> textLayerInvoices;
+                try {
+                    textLayerInvoices = pdfProcessor.detectInvoicesFromTextLayer(pdfPath);
+                } catch (Exception e) {
+                    log.warn("文本层定位失败，全部页面使用视觉模型: {}", e.getMessage());
+                    textLayerInvoices = Collections.emptyMap();
+                }
+                final Map<Integer, PageDetections> finalTextLayerInvoices = textLayerInvoices;
+                
+                AtomicInteger completedPages = new AtomicInteger(0);
+                List<CompletableFuture<List<InvoiceInfo>>> futures = new ArrayList<>();
+                // 超过截止时间时停止渲染，记录停止的页码与总页数
+                AtomicInteger cutFrom = new AtomicInteger(0);
+                AtomicInteger renderedTotal = new AtomicInteger(0);
+
+                try {
+                    pipeline.getRender().call(() -> pdfProcessor.renderPages(pdfPath, (page, totalPages, image) -> {
+                        // 任务取消后停止渲染后续页面
+                        checkCancelled(taskId);
+                        if (page == 1) {
+                            // 更新任务状态的总页数
+                            taskStore.initPages(taskId, totalPages, donePages.keySet());
+                            taskEvents.progress(taskStore.update(taskId, status -> {
+                                status.setTotalPages(totalPages);
+                                status.setStatusMessage("正在初始化，共 " + totalPages + " 页...");
+                            }));
+                        }
+                    
+                        // 重启前已完成的页面直接使用日志中的结果，只重新保存预览图
+                        List<InvoiceInfo> journaled = donePages.get(page);
+                        if (journaled != null) {
+                            completedPages.incrementAndGet();
+                            futures.add(pipeline.getEncode().supply(() -> {
+                                saveOriginalImage(bufferedImageToBytes(image), taskId, page);
+                                return journaled;
+                            }));
+                            return;
+                        }
+                        
+                        // 截止时间已过：后续页面不再渲染
+                        if (isPastDeadline(taskId)) {
+                            cutFrom.set(page);
+                            renderedTotal.set(totalPages);
+                            throw new DeadlineExceededException();
+                        }
+                    
+                        PageWork work = new PageWork(taskId, page, totalPages, image, finalTextLayerInvoices.get(page),
+                            cropPadding, outputFormat, completedPages);
+                        futures.add(processPage(work).exceptionally(e -> {
+                            if (!isCancelled(taskId)) {
+                                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                                log.error("处理第 {} 页失败: {}", page, cause.getMessage());
+                            }
+                            return Collections.emptyList();
+                        }));
+                    }));
+                } catch (DeadlineExceededException e) {
+                    log.warn("任务 {} 已超过处理截止时间，第 {} 页起不再处理", taskId, cutFrom.get());
+                    for (int page = cutFrom.get(); page <= renderedTotal.get(); page++) {
+                        pageFailed(taskId, page, renderedTotal.get(), e);
+                    }
+                } finally {
+                    // 等待所有页面处理完成（渲染因取消中止时也要等已提交的页面结束，之后才能清理任务文件）
+                    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                        .exceptionally(e -> null).join();
+                }
+                checkCancelled(taskId);
+                
+                // 汇总结果
+                for (CompletableFuture<List<InvoiceInfo>> future : futures) {
+                    allInvoices.addAll(future.get());
+                }
+            } else if (donePages.containsKey(1)) {
+                // 重启前已完成识别
+                taskStore.initPages(taskId, 1, donePages.keySet());
+                allInvoices = donePages.get(1);
+            } else {
+                // 图片处理
+                BufferedImage image = ImageIO.read(source.getPath().toFile());
+                if (image == null) {
+                    throw new IllegalArgumentException("无法读取图片文件: " + source.getFilename());
+                }
+                
+                // 更新任务状态
+                taskStore.initPages(taskId, 1, donePages.keySet());
+                taskEvents.progress(taskStore.update(taskId, status -> {
+                    status.setTotalPages(1);
+                    status.setCurrentPage(1);
+                    status.setStatusMessage("正在识别图片内容...");
+                }));
+                
+                PageWork work = new PageWork(taskId, 1, 1, image, null,
+                    cropPadding, outputFormat, new AtomicInteger(0));
+                allInvoices = PagePipeline.await(processPage(work));
+            }
+            
+            // 构建响应
+            InvoiceRecognizeResponse response = new InvoiceRecognizeResponse();
+            response.setTaskId(taskId);
+            response.setTotalInvoices(allInvoices.size());
+            response.setInvoices(allInvoices);
+            response.setProcessingTime((System.currentTimeMillis() - startTime) / 1000.0);
+            
+            log.info("处理完成，识别到 {} 张发票，耗时: {} 秒", 
+                allInvoices.size(), response.getProcessingTime());
+            
+            // 更新任务状态为已完成（按页码排序的完整结果替换逐页追加的结果）
+            markCompleted(taskId, allInvoices);
+            TaskStatusResponse completed = taskStore.peek(taskId);
+            if (completed != null && completed.getCutPages() != null) {
+                response.setCutPages(completed.getCutPages());
+                log.warn("任务 {} 超过处理截止时间，未处理的页面: {}", taskId, completed.getCutPages());
+            }
+            
+            return response;
+            
+        } catch (Exception e) {
+            throw finishWithError(taskId, e);
+        }
+    }
+    
+    /**
+     * 将任务标记为已完成，有失败页面时在状态说明中提示可重试
+     * 
+     * @param invoices 完整结果；为 null 时按页码重新排序任务中已有的发票
+     * @throws TaskCancelledException 任务已被取消
+     */
+    private void markCompleted(String taskId, List<InvoiceInfo> invoices) {
+        String completedAt = Instant.now().toString();
+        TaskStatusResponse taskStatus = taskStore.update(taskId, status -> {
+            if (CANCELLED.equals(status.getStatus())) {
+                return;
+            }
+            List<InvoiceInfo> completedInvoices = new ArrayList<>(invoices != null ? invoices
+                : status.getInvoices() != null ? status.getInvoices() : List.of());
+            if (invoices == null) {
+                completedInvoices.sort(Comparator.comparing(InvoiceInfo::getPage)
+                    .thenComparing(InvoiceInfo::getIndex));
+            }
+            status.setStatus("COMPLETED");
+            status.setProgress(100);
+            status.setTotalInvoices(completedInvoices.size());
+            status.setInvoices(completedInvoices);
+            status.setCompletedAt(completedAt);
+            List<String> unfinished = new ArrayList<>();
+            if (status.getFailedPages() != null && status.getFailedPages() > 0) {
+                unfinished.add(status.getFailedPages() + " 页识别失败");
+            }
+            if (status.getCutPages() != null) {
+                unfinished.add(status.getCutPages().size() + " 页超过处理截止时间未处理");
+            }
+            if (!unfinished.isEmpty()) {
+                status.setStatusMessage(String.join("，", unfinished) + "，可重试失败页面");
+            }
+        });
+        if (taskStatus != null && CANCELLED.equals(taskStatus.getStatus())) {
+            throw new TaskCancelledException(taskId);
+        }
+        taskEvents.finished(taskStatus);
+        taskJournal.completed(taskId, completedAt);
+    }
+    
+    /**
+     * 处理失败或被取消时收尾，返回应向调用方抛出的异常
+     */
+    private Exception finishWithError(String taskId, Exception e) {
+        if (isCancelled(taskId)) {
+            log.info("任务已取消，停止处理: {}", taskId);
+            finishCancelled(taskId);
+            return e instanceof TaskCancelledException ? e : new TaskCancelledException(taskId);
+        }
+        log.error("处理失败", e);
+        // 更新任务状态为失败
+        markFailed(taskId);
+        taskJournal.failed(taskId, e.getMessage());
+        return e;
+    }
+    
+    /**
+     * 记录失败页面（任务已取消时不记录）；因超过截止时间未处理的页面记为 CUT
+     */
+    private void pageFailed(String taskId, int page, Integer totalPages, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof TaskCancelledException || isCancelled(taskId)) {
+            return;
+        }
+        PageState state = cause instanceof DeadlineExceededException
+            ? PageState.cut(page)
+            : PageState.failed(page, cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName());
+        taskJournal.pageFailed(taskId, page, totalPages, state.getError());
+        taskEvents.progress(taskStore.updatePage(taskId, state));
+    }
+    
+    /**
+     * 将任务标记为失败（已取消的任务保持取消状态）
+     */
+    private void markFailed(String taskId) {
+        TaskStatusResponse taskStatus = taskStore.update(taskId, status -> {
+            if (CANCELLED.equals(status.getStatus())) {
+                return;
+            }
+            status.setStatus("FAILED");
+            status.setProgress(0);
+        });
+        taskEvents.finished(taskStatus);
+    }
+    
+    /**
+     * 提交异步任务
+     * 重复提交（相同 Idempotency-Key，或相同文件内容与处理参数）时返回已有任务，不再重新处理
+     * 
+     * @param deadlineSeconds 处理时限（秒，从提交时起算），为空时使用默认时限
+     * @param idempotencyKey 客户端提供的 Idempotency-Key，可为空
+     * @throws QueueFullException 任务队列已满
+     */
+    public AsyncTaskResponse submitAsyncTask(MultipartFile file, int cropPadding, String outputFormat,
+                                             Integer deadlineSeconds, String idempotencyKey) {
+        String taskId = UUID.randomUUID().toString();
+        List<String> keys;
+        try {
+            String sha256 = idempotencyService.isContentDedup() ? sha256Of(file) : null;
+            keys = idempotencyService.keys(idempotencyKey, sha256, cropPadding, outputFormat);
+        } catch (IOException e) {
+            throw new RuntimeException("读取文件失败", e);
+        }
+        String existing = idempotencyService.claim(keys, taskId);
+        if (existing != null) {
+            return duplicateResponse(existing);
+        }
+        
+        JobQueue.Ticket<InvoiceRecognizeResponse> ticket;
+        try {
+            jobQueue.checkCapacity(taskId, JobQueue.Priority.BULK);
+            
+            StagedTask staged;
+            try {
+                staged = stageAsyncTask(taskId, file, cropPadding, outputFormat, deadlineSeconds);
+            } catch (IOException e) {
+                throw new RuntimeException("保存文件失败", e);
+            }
+            
+            try {
+                ticket = startAsyncTask(staged, null);
+            } catch (QueueFullException e) {
+                // 保存文件期间队列被占满
+                discardStagedTask(staged);
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            idempotencyService.release(keys, taskId);
+            throw e;
+        }
+        
+        AsyncTaskResponse response = new AsyncTaskResponse();
+        response.setTaskId(taskId);
+        response.setStatus("PENDING");
+        response.setEstimatedTime(ticket.getEstimatedSeconds());
+        return response;
+    }
+    
+    /**
+     * 创建等待处理的异步任务：登记 PENDING 状态，并把上传文件直接写入原始文件目录
+     * （MultipartFile 在请求结束后失效）
+     */
+    public StagedTask stageAsyncTask(String taskId, MultipartFile file,
+                                     int cropPadding, String outputFormat,
+                                     Integer deadlineSeconds) throws IOException {
+        registerPendingTask(taskId, deadlineSeconds);
+        try {
+            SourceFile source = saveOriginalFile(taskId, file);
+            recordSubmitted(taskId, source, cropPadding, outputFormat);
+            return new StagedTask(taskId, source, cropPadding, outputFormat);
+        } catch (IOException e) {
+            log.error("保存原始文件失败", e);
+            taskStore.update(taskId, status -> status.setStatus("FAILED"));
+            throw e;
+        }
+    }
+    
+    /**
+     * 创建等待处理的异步任务，内容来自流（如 ZIP 条目）
+     * 
+     * @param content 文件内容，不会被关闭
+     */
+    public StagedTask stageAsyncTask(String taskId, String filename, String contentType, InputStream content,
+                                     int cropPadding, String outputFormat,
+                                     Integer deadlineSeconds) throws IOException {
+        registerPendingTask(taskId, deadlineSeconds);
+        try {
+            Path target = originalStorageLocation.resolve(originalFilename(taskId, filename));
+            long size = Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING);
+            log.info("已保存原始文件: {}", target);
+            SourceFile source = new SourceFile(target, filename, contentType, size);
+            recordSubmitted(taskId, source, cropPadding, outputFormat);
+            return new StagedTask(taskId, source, cropPadding, outputFormat);
+        } catch (IOException e) {
+            log.error("保存原始文件失败", e);
+            taskStore.update(taskId, status -> status.setStatus("FAILED"));
+            throw e;
+        }
+    }
+    
+    /**
+     * 流式上传：请求体边接收边写入原始文件目录，同时计算 SHA-256、按文件头识别类型并统计 PDF 页数，
+     * 内存占用与文件大小无关；接收完成后任务立即进入任务队列。
+     * Idempotency-Key 重复时不读取请求体；内容与参数重复时丢弃本次接收的文件。两种情况都返回已有任务
+     * 
+     * @param filename 上传时的文件名，可为空；文件类型以文件头为准
+     * @param declaredLength 请求声明的长度，未知时为 -1
+     * @param deadlineSeconds 处理时限（秒，从开始接收时起算），为空时使用默认时限
+     * @param idempotencyKey 客户端提供的 Idempotency-Key，可为空
+     * @throws IllegalArgumentException 文件为空或类型不支持
+     * @throws MaxUploadSizeExceededException 超过流式上传大小上限
+     * @throws QueueFullException 任务队列已满
+     * @throws TaskCancelledException 接收期间任务被取消
+     */
+    public AsyncTaskResponse submitStreamingTask(String filename, InputStream content, long declaredLength,
+                                                 int cropPadding, String outputFormat,
+                                                 Integer deadlineSeconds,
+                                                 String idempotencyKey) throws IOException {
+        if (declaredLength > streamMaxBytes) {
+            throw new MaxUploadSizeExceededException(streamMaxBytes);
+        }
+        String taskId = UUID.randomUUID().toString();
+        List<String> requestKeys = idempotencyService.keys(idempotencyKey, null, cropPadding, outputFormat);
+        String existing = idempotencyService.claim(requestKeys, taskId);
+        if (existing != null) {
+            return duplicateResponse(existing);
+        }
+        
+        // 先占位检查，避免接收完大文件后才发现队列已满
+        try {
+            jobQueue.checkCapacity(taskId, JobQueue.Priority.BULK);
+        } catch (QueueFullException e) {
+            idempotencyService.release(requestKeys, taskId);
+            throw e;
+        }
+        registerPendingTask(taskId, deadlineSeconds);
+        log.info("开始接收流式上传: {}, taskId: {}, 声明大小: {} bytes", filename, taskId, declaredLength);
+        
+        Path partFile = originalStorageLocation.resolve(String.format("%s_original.part", taskId));
+        UploadInspector inspector = new UploadInspector();
+        SourceFile source;
+        try {
+            String type = receive(taskId, filename, content, partFile, inspector);
+            Path target = originalStorageLocation.resolve(String.format("%s_original.%s", taskId, type));
+            Files.move(partFile, target, StandardCopyOption.ATOMIC_MOVE);
+            String name = filename != null && !filename.isBlank() ? filename : "upload." + type;
+            source = new SourceFile(target, name, contentTypeOf(type), inspector.getSize());
+        } catch (TaskCancelledException e) {
+            idempotencyService.release(requestKeys, taskId);
+            finishCancelled(taskId);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            idempotencyService.release(requestKeys, taskId);
+            taskStore.remove(taskId);
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+        
+        String sha256 = inspector.getSha256();
+        log.info("流式上传接收完成: {}, taskId: {}, 大小: {} bytes, SHA-256: {}",
+            source.getFilename(), taskId, source.getSize(), sha256);
+        recordSubmitted(taskId, source, cropPadding, outputFormat);
+        StagedTask staged = new StagedTask(taskId, source, cropPadding, outputFormat);
+        List<String> keys = idempotencyService.keys(idempotencyKey, sha256, cropPadding, outputFormat);
+        existing = idempotencyService.claim(keys, taskId);
+        if (existing != null) {
+            discardStagedTask(staged);
+            return duplicateResponse(existing);
+        }
+        JobQueue.Ticket<InvoiceRecognizeResponse> ticket;
+        try {
+            ticket = startAsyncTask(staged, null);
+        } catch (QueueFullException e) {
+            // 接收文件期间队列被占满
+            idempotencyService.release(keys, taskId);
+            discardStagedTask(staged);
+            throw e;
+        }
+        
+        AsyncTaskResponse response = new AsyncTaskResponse();
+        response.setTaskId(taskId);
+        response.setStatus("PENDING");
+        response.setEstimatedTime(ticket.getEstimatedSeconds());
+        response.setSize(source.getSize());
+        response.setSha256(sha256);
+        response.setFileType(source.getContentType());
+        if (inspector.getPdfPages() > 0) {
+            response.setTotalPages(inspector.getPdfPages());
+        }
+        return response;
+    }
+    
+    /**
+     * 重复提交的响应：已有任务的编号与当前状态
+     */
+    private AsyncTaskResponse duplicateResponse(String taskId) {
+        TaskStatusResponse taskStatus = taskStore.peek(taskId);
+        AsyncTaskResponse response = new AsyncTaskResponse();
+        response.setTaskId(taskId);
+        response.setStatus(taskStatus != null ? taskStatus.getStatus() : "PENDING");
+        response.setDuplicate(true);
+        return response;
+    }
+    
+    /**
+     * 计算上传文件的 SHA-256（按块读取，不整体读入内存）
+     */
+    private static String sha256Of(MultipartFile file) throws IOException {
+        UploadInspector inspector = new UploadInspector();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = file.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                inspector.update(buffer, 0, read);
+            }
+        }
+        return inspector.getSha256();
+    }
+    
+    /**
+     * 把请求体写入临时的 .part 文件，定期更新接收进度并检查取消
+     * 
+     * @return 按文件头识别出的文件类型（扩展名）
+     */
+    private String receive(String taskId, String filename, InputStream content, Path partFile,
+                           UploadInspector inspector) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        String type = null;
+        long nextReport = STREAM_REPORT_INTERVAL;
+        try (OutputStream out = Files.newOutputStream(partFile)) {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                inspector.update(buffer, 0, read);
+                if (inspector.getSize() > streamMaxBytes) {
+                    throw new MaxUploadSizeExceededException(streamMaxBytes);
+                }
+                if (type == null && inspector.isHeaderComplete()) {
+                    type = requireSupportedType(inspector, filename);
+                }
+                out.write(buffer, 0, read);
+                if (inspector.getSize() >= nextReport) {
+                    nextReport += STREAM_REPORT_INTERVAL;
+                    checkCancelled(taskId);
+                    reportReceiving(taskId, inspector);
+                }
+            }
+        }
+        if (inspector.getSize() == 0) {
+            throw new IllegalArgumentException("文件不能为空");
+        }
+        return type != null ? type : requireSupportedType(inspector, filename);
+    }
+    
+    private String requireSupportedType(UploadInspector inspector, String filename) {
+        String type = inspector.detectType(filename);
+        if (type == null) {
+            throw new IllegalArgumentException("不支持的文件类型: " + (filename != null ? filename : "未知"));
+        }
+        return type;
+    }
+    
+    private void reportReceiving(String taskId, UploadInspector inspector) {
+        long receivedMb = inspector.getSize() / (1024 * 1024);
+        int pages = inspector.getPdfPages();
+        taskEvents.progress(taskStore.update(taskId, status -> {
+            if (!"PENDING".equals(status.getStatus())) {
+                return;
+            }
+            if (pages > 0) {
+                // 页数为接收过程中的估计，开始处理后以实际解析结果为准
+                status.setTotalPages(pages);
+                status.setStatusMessage(String.format("正在接收文件：已接收 %d MB，已发现 %d 页", receivedMb, pages));
+            } else {
+                status.setStatusMessage(String.format("正在接收文件：已接收 %d MB", receivedMb));
+            }
+        }));
+    }
+    
+    private static String contentTypeOf(String type) {
+        return switch (type) {
+            case "pdf" -> "application/pdf";
+            case "ofd" -> "application/ofd";
+            case "jpg" -> "image/jpeg";
+            default -> "image/" + type;
+        };
+    }
+    
+    /**
+     * 原始文件已写入最终路径：记录原始文件与处理参数，并写入任务日志。
+     * 此后即使任务仍在排队（或在批量任务中等待），服务重启时也会恢复并重新进入任务队列
+     */
+    private void recordSubmitted(String taskId, SourceFile source, int cropPadding, String outputFormat) {
+        String sourcePath = source.getPath().toString();
+        TaskStatusResponse submitted = taskStore.update(taskId, status -> {
+            status.setSourcePath(sourcePath);
+            status.setCropPadding(cropPadding);
+            status.setOutputFormat(outputFormat);
+        });
+        taskJournal.submitted(taskId, source.getFilename(), source.getContentType(),
+            sourcePath, cropPadding, outputFormat,
+            submitted != null ? submitted.getCreatedAt() : Instant.now().toString());
+    }
+    
+    private void registerPendingTask(String taskId, Integer deadlineSeconds) {
+        TaskStatusResponse taskStatus = new TaskStatusResponse();
+        taskStatus.setTaskId(taskId);
+        taskStatus.setStatus("PENDING");
+        taskStatus.setProgress(0);
+        taskStatus.setCreatedAt(Instant.now().toString());
+        setDeadline(taskStatus, resolveDeadline(deadlineSeconds));
+        taskStore.put(taskStatus);
+    }
+    
+    /**
+     * 计算截止时间（排队时间计入时限）
+     * 
+     * @param deadlineSeconds 请求指定的时限（秒），为空或不大于 0 时使用默认时限
+     * @return 截止时间；不限时返回 null
+     */
+    private Instant resolveDeadline(Integer deadlineSeconds) {
+        if (deadlineSeconds != null && deadlineSeconds > 0) {
+            return Instant.now().plusSeconds(deadlineSeconds);
+        }
+        if (defaultDeadline.isZero() || defaultDeadline.isNegative()) {
+            return null;
+        }
+        return Instant.now().plus(defaultDeadline);
+    }
+    
+    private static void setDeadline(TaskStatusResponse status, Instant deadline) {
+        status.setDeadline(deadline != null ? deadline.toString() : null);
+        status.setDeadlineAt(deadline != null ? deadline.toEpochMilli() : null);
+    }
+    
+    /**
+     * 将已保存的任务提交到任务队列
+     * 
+     * @param reservation 批量任务预留的排队名额，子任务经该名额提交；为 null 时受队列深度限制
+     * @throws QueueFullException 队列已满（仅 reservation 为 null 时）
+     */
+    public JobQueue.Ticket<InvoiceRecognizeResponse> startAsyncTask(StagedTask staged,
+                                                                    JobQueue.Reservation reservation) {
+        Callable<InvoiceRecognizeResponse> work = () -> runAsyncTask(staged);
+        return reservation == null
+            ? jobQueue.submit(staged.getTaskId(), JobQueue.Priority.BULK, work)
+            : jobQueue.submit(reservation, staged.getTaskId(), work);
+    }
+    
+    /**
+     * 放弃尚未提交的任务：移除任务状态并删除已保存的原始文件
+     */
+    public void discardStagedTask(StagedTask staged) {
+        taskStore.remove(staged.getTaskId());
+        // 已写入日志的提交记录作废，重启后不再恢复
+        taskJournal.cancelled(staged.getTaskId());
+        try {
+            Files.deleteIfExists(staged.getSource().getPath());
+        } catch (IOException e) {
+            log.warn("删除原始文件失败: {}", staged.getSource().getPath());
+        }
+    }
+    
+    /**
+     * 任务队列中执行的异步任务，失败时记录在任务状态中，不向外抛出
+     */
+    private InvoiceRecognizeResponse runAsyncTask(StagedTask staged) {
+        String taskId = staged.getTaskId();
+        try {
+            // 排队期间被取消的任务保持取消状态，由 processFile 的检查点结束
+            taskEvents.progress(taskStore.update(taskId, status -> {
+                if (!"PENDING".equals(status.getStatus())) {
+                    return;
+                }
+                status.setStatus("PROCESSING");
+                status.setProgress(10);
+            }));
+            
+            // 直接处理已保存的原始文件，不再读入内存
+            return processFile(staged.getSource(), staged.getCropPadding(), staged.getOutputFormat(),
+                taskId, Collections.emptyMap());
+        } catch (TaskCancelledException e) {
+            // 取消时任务文件已清理
+            return null;
+        } catch (Exception e) {
+            log.error("异步任务处理失败", e);
+            markFailed(taskId);
+            return null;
+        }
+    }
+    
+    /**
+     * 查询任务状态
+     */
+    public TaskStatusResponse getTaskStatus(String taskId) {
+        TaskStatusResponse taskStatus = taskStore.get(taskId);
+        if (taskStatus == null) {
+            throw new IllegalArgumentException("任务不存在: " + taskId);
+        }
+        return taskStatus;
+    }
+    
+    /**
+     * 查询任务状态，只返回指定版本之后加入的发票
+     * 
+     * @param since 客户端已有的版本号，为 null 时返回全部发票
+     */
+    public TaskStatusResponse getTaskStatus(String taskId, Long since) {
+        TaskStatusResponse taskStatus = getTaskStatus(taskId);
+        if (since == null || taskStatus.getInvoices() == null) {
+            return taskStatus;
+        }
+        TaskStatusResponse delta = taskStatus.copy();
+        delta.getInvoices().removeIf(invoice -> invoice.getAddedVersion() <= since);
+        return delta;
+    }
+    
+    /**
+     * 取消任务
+     * 仍在排队的任务直接移出队列；处理中的任务丢弃尚未开始识别的页面、中断进行中的模型调用，
+     * 正在执行的阶段在下一个检查点停止，处理线程退出时删除任务文件
+     * 
+     * @return 取消后的任务状态；任务已结束时原样返回
+     */
+    public TaskStatusResponse cancelTask(String taskId) {
+        TaskStatusResponse current = getTaskStatus(taskId);
+        if (TaskStore.isFinished(current)) {
+            return current;
+        }
+        String cancelledAt = Instant.now().toString();
+        TaskStatusResponse cancelled = taskStore.update(taskId, status -> {
+            if (TaskStore.isFinished(status)) {
+                return;
+            }
+            status.setStatus(CANCELLED);
+            status.setStatusMessage("任务已取消");
+            status.setCompletedAt(cancelledAt);
+        });
+        if (cancelled == null || !CANCELLED.equals(cancelled.getStatus())) {
+            return cancelled != null ? cancelled : current;
+        }
+        log.info("取消任务: {}", taskId);
+        
+        if (jobQueue.cancel(taskId)) {
+            // 尚未开始处理，没有处理线程会再看到这个任务
+            finishCancelled(taskId);
+            return taskStore.get(taskId);
+        }
+        
+        // 排队中的页面立即执行，在识别阶段的检查点失败，不再调用模型
+        List<Runnable> dropped = pageScheduler.cancel(taskId);
+        dropped.forEach(Runnable::run);
+        int aborted = apiService.cancelCalls(taskId);
+        log.info("任务 {} 已丢弃 {} 个排队页面，中断 {} 个模型调用", taskId, dropped.size(), aborted);
+        return cancelled;
+    }
+    
+    /**
+     * 取消收尾：删除任务文件、记录日志并通知订阅者
+     */
+    private void finishCancelled(String taskId) {
+        int deleted = fileCleanupService.deleteTaskFiles(taskId);
+        taskJournal.cancelled(taskId);
+        TaskStatusResponse taskStatus = taskStore.get(taskId);
+        if (taskStatus != null) {
+            taskEvents.finished(taskStatus);
+        }
+        log.info("任务 {} 已取消，删除文件 {} 个", taskId, deleted);
+    }
+    
+    private boolean isCancelled(String taskId) {
+        TaskStatusResponse taskStatus = taskStore.peek(taskId);
+        return taskStatus != null && CANCELLED.equals(taskStatus.getStatus());
+    }
+    
+    /**
+     * 任务截止时间（epoch 毫秒），不限时为 0
+     */
+    private long deadlineOf(String taskId) {
+        TaskStatusResponse taskStatus = taskStore.peek(taskId);
+        return taskStatus != null && taskStatus.getDeadlineAt() != null ? taskStatus.getDeadlineAt() : 0;
+    }
+    
+    private boolean isPastDeadline(String taskId) {
+        long deadlineAt = deadlineOf(taskId);
+        return deadlineAt > 0 && System.currentTimeMillis() >= deadlineAt;
+    }
+    
+    /**
+     * 页面开始前的检查点：已超过截止时间时抛出 DeadlineExceededException，该页记为未处理
+     */
+    private void checkDeadline(String taskId) {
+        if (isPastDeadline(taskId)) {
+            throw new DeadlineExceededException();
+        }
+    }
+    
+    /**
+     * 处理检查点：任务已取消时抛出 TaskCancelledException
+     */
+    private void checkCancelled(String taskId) {
+        if (isCancelled(taskId)) {
+            throw new TaskCancelledException(taskId);
+        }
+    }
+    
+    /**
+     * 重新处理已结束任务中未成功的页面（失败或未处理）
+     * PDF 与图片使用已保存的页面图片重新识别，不重新渲染整个文档；OFD 从原始文件重新解析这些页面。
+     * 任务以低优先级重新进入任务队列，期间状态为 PROCESSING，完成后合并结果
+     * 
+     * @return 重试开始后的任务状态；没有需要重试的页面时原样返回
+     * @throws IllegalStateException 任务尚未结束或已取消
+     * @throws QueueFullException 任务队列已满
+     */
+    public TaskStatusResponse retryFailedPages(String taskId) {
+        TaskStatusResponse current = getTaskStatus(taskId);
+        if (!"COMPLETED".equals(current.getStatus()) && !"FAILED".equals(current.getStatus())) {
+            throw new IllegalStateException("任务未结束或已取消，不能重试: " + taskId);
+        }
+        List<Integer> pages = new ArrayList<>();
+        if (current.getPages() != null) {
+            for (PageState state : current.getPages()) {
+                if (!PageState.DONE.equals(state.getStatus())) {
+                    pages.add(state.getPage());
+                }
+            }
+        }
+        if (pages.isEmpty()) {
+            return current;
+        }
+        jobQueue.checkCapacity(taskId, JobQueue.Priority.BULK);
+        
+        AtomicBoolean claimed = new AtomicBoolean();
+        TaskStatusResponse retrying = taskStore.update(taskId, status -> {
+            if (!status.getStatus().equals(current.getStatus())) {
+                return;
+            }
+            claimed.set(true);
+            status.setStatus("PROCESSING");
+            status.setStatusMessage("正在重试 " + pages.size() + " 个失败页面...");
+            status.setCompletedAt(null);
+            // 重试从现在起按默认时限重新计算截止时间
+            setDeadline(status, resolveDeadline(null));
+            for (int page : pages) {
+                TaskStore.setPage(status, PageState.of(page, PageState.PENDING));
+            }
+        });
+        if (!claimed.get()) {
+            throw new IllegalStateException("任务状态已变化，不能重试: " + taskId);
+        }
+        
+        try {
+            jobQueue.submit(taskId, JobQueue.Priority.BULK, () -> {
+                try {
+                    retryPages(taskId, pages);
+                } catch (TaskCancelledException e) {
+                    log.info("重试的任务已取消: {}", taskId);
+                } catch (Exception e) {
+                    log.error("重试失败页面失败: {}", taskId, e);
+                }
+                return null;
+            });
+        } catch (QueueFullException e) {
+            // 检查容量后队列被占满，恢复原状态
+            taskStore.update(taskId, status -> {
+                status.setStatus(current.getStatus());
+                status.setStatusMessage(current.getStatusMessage());
+                status.setCompletedAt(current.getCompletedAt());
+                status.setPages(current.getPages() != null ? new ArrayList<>(current.getPages()) : null);
+                status.setFailedPages(current.getFailedPages());
+            });
+            throw e;
+        }
+        log.info("任务 {} 开始重试 {} 个页面: {}", taskId, pages.size(), pages);
+        taskEvents.progress(retrying);
+        return retrying;
+    }
+    
+    /**
+     * 重试指定页面，其余页面的结果保持不变
+     */
+    private void retryPages(String taskId, List<Integer> pages) throws Exception {
+        long startTime = System.currentTimeMillis();
+        TaskStatusResponse snapshot = getTaskStatus(taskId);
+        String sourcePath = snapshot.getSourcePath();
+        int cropPadding = snapshot.getCropPadding() != null ? snapshot.getCropPadding() : 10;
+        String outputFormat = snapshot.getOutputFormat() != null ? snapshot.getOutputFormat() : "jpg";
+        int totalPages = snapshot.getTotalPages() != null
+            ? snapshot.getTotalPages() : Collections.max(pages);
+        
+        try {
+            checkCancelled(taskId);
+            if (sourcePath != null && ofdProcessor.isOfd(sourcePath, null)) {
+                // OFD 不经过视觉模型，直接重新解析失败页面，其余页面视为已完成
+                Map<Integer, List<InvoiceInfo>> donePages = new HashMap<>();
+                for (int page = 1; page <= totalPages; page++) {
+                    if (!pages.contains(page)) {
+                        donePages.put(page, List.of());
+                    }
+                }
+                processOfd(sourcePath, taskId, cropPadding, outputFormat, donePages);
+            } else {
+                // PDF 的文本层定位开销很小，重新执行以便与首次处理一致
+                Map<Integer, PageDetections> textLayerInvoices = Collections.emptyMap();
+                if (sourcePath != null && sourcePath.toLowerCase().endsWith(".pdf")) {
+                    try {
+                        textLayerInvoices = pdfProcessor.detectInvoicesFromTextLayer(sourcePath);
+                    } catch (Exception e) {
+                        log.warn("文本层定位失败，重试页面使用视觉模型: {}", e.getMessage());
+                    }
+                }
+                
+                AtomicInteger completedPages = new AtomicInteger(totalPages - pages.size());
+                List<CompletableFuture<List<InvoiceInfo>>> futures = new ArrayList<>();
+                Map<Integer, PageDetections> finalTextLayerInvoices = textLayerInvoices;
+                PdfProcessor.PageConsumer retry = (page, pageCount, image) -> {
+                    checkCancelled(taskId);
+                    PageWork work = new PageWork(taskId, page, totalPages, image, finalTextLayerInvoices.get(page),
+                        cropPadding, outputFormat, completedPages);
+                    futures.add(processPage(work).exceptionally(e -> {
+                        if (!isCancelled(taskId)) {
+                            Throwable cause = e.getCause() != null ? e.getCause() : e;
+                            log.error("重试第 {} 页失败: {}", work.page, cause.getMessage());
+                        }
+                        return Collections.emptyList();
+                    }));
+                };
+                
+                // 超过截止时间未处理的页面没有保存过页面图片，从原始文件重新渲染
+                Set<Integer> missing = new TreeSet<>();
+                try {
+                    for (int page : pages) {
+                        checkCancelled(taskId);
+                        Path pageImage = originalStorageLocation.resolve(String.format("%s_page_%d.jpg", taskId, page));
+                        BufferedImage image = Files.exists(pageImage) ? ImageIO.read(pageImage.toFile()) : null;
+                        if (image == null) {
+                            missing.add(page);
+                        } else {
+                            retry.accept(page, totalPages, image);
+                        }
+                    }
+                    if (!missing.isEmpty()) {
+                        rerenderPages(taskId, sourcePath, missing, totalPages, retry);
+                    }
+                } finally {
+                    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                        .exceptionally(e -> null).join();
+                }
+            }
+            checkCancelled(taskId);
+            
+            markCompleted(taskId, null);
+            TaskStatusResponse result = taskStore.get(taskId);
+            log.info("任务 {} 重试完成，仍失败 {} 页，耗时: {} 秒", taskId,
+                result != null ? result.getFailedPages() : null, (System.currentTimeMillis() - startTime) / 1000.0);
+        } catch (Exception e) {
+            throw finishWithError(taskId, e);
+        }
+    }
+    
+    /**
+     * 从原始文件重新渲染页面图片不存在的页面（PDF 页面或图片本身），交给 consumer 重新识别
+     * 无法从原始文件得到的页面记为失败
+     */
+    private void rerenderPages(String taskId, String sourcePath, Set<Integer> pages, int totalPages,
+                               PdfProcessor.PageConsumer consumer) throws Exception {
+        Set<Integer> rendered = ConcurrentHashMap.newKeySet();
+        if (sourcePath != null && Files.exists(Paths.get(sourcePath))) {
+            log.info("任务 {} 从原始文件重新渲染 {} 个页面: {}", taskId, pages.size(), pages);
+            if (sourcePath.toLowerCase().endsWith(".pdf")) {
+                pipeline.getRender().call(() -> pdfProcessor.renderPages(sourcePath, pages, (page, total, image) -> {
+                    rendered.add(page);
+                    consumer.accept(page, total, image);
+                }));
+            } else if (pages.contains(1)) {
+                BufferedImage image = ImageIO.read(new File(sourcePath));
+                if (image != null) {
+                    rendered.add(1);
+                    consumer.accept(1, 1, image);
+                }
+            }
+        }
+        for (int page : pages) {
+            if (!rendered.contains(page)) {
+                pageFailed(taskId, page, totalPages, new IOException("页面图片与原始文件均不可用，无法重试"));
+            }
+        }
+    }
+    
+    /**
+     * 订阅任务进度推送，任务不存在时推送 not-found 事件后关闭
      */
-    public InvoiceRecognizeResponse recognizeAndCrop(MultipartFile file, 
-                                                    int cropPadding, 
-                                                    String outputFormat) throws Exception {
-        return recognizeAndCrop(file, cropPadding, outputFormat, null);
+    public SseEmitter subscribeTaskEvents(String taskId) {
+        return taskEvents.subscribe(taskId, () -> taskStore.get(taskId));
     }
-
+    
     /**
-     * 同步识别与裁切发票（支持指定 taskId）
+     * 启动后根据任务日志恢复任务状态，未完成的任务从最后完成的页继续处理，重启前仍在排队的任务重新排队
      */
-    public InvoiceRecognizeResponse recognizeAndCrop(MultipartFile file, 
-                                                    int cropPadding, 
-                                                    String outputFormat,
-                                                    String existingTaskId) throws Exception {
-        long startTime = System.currentTimeMillis();
-        String taskId = (existingTaskId != null && !existingTaskId.isEmpty()) 
-            ? existingTaskId 
-            : UUID.randomUUID().toString();
-        
-        log.info("开始处理文件: {}, taskId: {}", file.getOriginalFilename(), taskId);
-        
-        // 如果是新任务，创建一个任务状态记录
-        boolean isNewTask = existingTaskId == null || existingTaskId.isEmpty();
-        if (isNewTask) {
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverTasks() {
+        for (TaskJournal.RecoveredTask task : taskJournal.getRecoveredTasks()) {
+            TaskJournal.Entry submitted = task.getSubmitted();
+            String taskId = submitted.getTaskId();
+            Map<Integer, List<InvoiceInfo>> donePages = task.getCompletedPages();
+            List<InvoiceInfo> invoices = new ArrayList<>();
+            donePages.values().forEach(invoices::addAll);
+            // 旧版本写入的日志中发票不带 URL
+            invoices.stream()
+                .filter(invoice -> invoice.getImageUrl() == null)
+                .forEach(invoice -> fillUrls(invoice, taskId));
+            
             TaskStatusResponse taskStatus = new TaskStatusResponse();
             taskStatus.setTaskId(taskId);
-            taskStatus.setStatus("PROCESSING");
-            taskStatus.setProgress(10);
-            taskStatus.setCreatedAt(Instant.now().toString());
-            taskStore.put(taskId, taskStatus);
-        }
-
-        try {
-            // 1. 保存原始文件
-            String originalFilename = saveOriginalFile(file, taskId);
-            
-            // 2. 判断文件类型并处理
-            String contentType = file.getContentType();
-            List<BufferedImage> images;
-            List<InvoiceInfo> allInvoices = new ArrayList<>();
+            taskStatus.setCreatedAt(submitted.getTime());
+            taskStatus.setTotalPages(task.getTotalPages());
+            taskStatus.setSourcePath(submitted.getSourcePath());
+            taskStatus.setCropPadding(submitted.getCropPadding());
+            taskStatus.setOutputFormat(submitted.getOutputFormat());
             
-            if (contentType != null && contentType.equals("application/pdf")) {
-                // PDF 处理
-                String pdfPath = originalStorageLocation.resolve(originalFilename).toString();
-                images = pdfProcessor.pdfToBufferedImages(pdfPath);
-                int totalPages = images.size();
-                
-                // 更新任务状态的总页数
-                TaskStatusResponse taskStatus = taskStore.get(taskId);
-                if (taskStatus != null) {
-                    taskStatus.setTotalPages(totalPages);
-                    taskStatus.setStatusMessage("正在初始化，共 " + totalPages + " 页...");
-                }
-
-                // 保存PDF转换后的图片
-                for (int i = 0; i < images.size(); i++) {
-                    byte[] imageBytes = bufferedImageToBytes(images.get(i));
-                    saveOriginalImage(imageBytes, taskId, i + 1);
-                }
-                
-                AtomicInteger completedPages = new AtomicInteger(0);
-                List<CompletableFuture<List<InvoiceInfo>>> futures = new ArrayList<>();
-
-                // 并行处理每一页
-                for (int pageIndex = 0; pageIndex < images.size(); pageIndex++) {
-                    final int page = pageIndex + 1;
-                    final BufferedImage image = images.get(pageIndex);
-                    
-                    CompletableFuture<List<InvoiceInfo>> future = CompletableFuture.supplyAsync(() -> {
-                        try {
-                            log.info("开始处理第 {} 页，任务ID: {}", page, taskId);
-                            
-                            // 更新当前页码信息
-                            TaskStatusResponse currentStatus = taskStore.get(taskId);
-                            if (currentStatus != null) {
-                                currentStatus.setCurrentPage(page);
-                                currentStatus.setStatusMessage("正在识别第 " + page + "/" + totalPages + " 页...");
-                            }
-
-                            // 保存临时图片用于API调用
-                            String tempImagePath = saveTempImage(image, taskId, page);
-                            
-                            // 从临时图片文件读取图片，确保与API看到的图片完全一致
-                            BufferedImage tempImage = ImageIO.read(new File(tempImagePath));
-                            if (tempImage == null) {
-                                throw new IOException("无法读取临时图片文件: " + tempImagePath);
-                            }
-                            
-                            // 调用API识别
-                            int imageWidth = tempImage.getWidth();
-                            int imageHeight = tempImage.getHeight();
-                            String apiResponse = apiService.callVolcengineVisionApi(tempImagePath, page);
-                            
-                            // 解析API响应
-                            List<Map<String, Object>> invoices = responseParser.parseApiResponse(apiResponse, page);
-                            
-                            // AI 自我校验逻辑
-                            if (volcengineConfig.isEnableSelfVerify() && !invoices.isEmpty()) {
-                                log.info("本地环境已开启第 {} 页 AI 自我校验...", page);
-                                for (Map<String, Object> invoice : invoices) {
-                                    try {
-                                        @SuppressWarnings("unchecked")
-                                        List<Integer> oldBbox = (List<Integer>) invoice.get("bbox");
-                                        List<Integer> refinedBbox = apiService.selfVerifyBbox(tempImagePath, oldBbox);
-                                        invoice.put("bbox", refinedBbox);
-                                    } catch (Exception e) {
-                                        log.warn("第 {} 页 AI 自我校验执行失败: {}", page, e.getMessage());
-                                    }
-                                }
-                            }
-                            
-                            // 检查并缩放坐标
-                            normalizeBboxCoordinates(invoices, page, imageWidth, imageHeight);
-                            
-                            // 生成图片唯一ID
-                            String imageId = String.format("%s_%d", taskId, page);
-                            
-                            // 裁切发票
-                            List<InvoiceInfo> pageInvoices = cropInvoicesFromImage(
-                                tempImage, invoices, taskId, imageId, page, cropPadding, outputFormat);
-                            
-                            // 更新进度
-                            int done = completedPages.incrementAndGet();
-                            if (currentStatus != null) {
-                                // 进度从 10% 到 90%
-                                int progress = 10 + (int)((double)done / totalPages * 80);
-                                currentStatus.setProgress(progress);
-                                currentStatus.setStatusMessage("已完成 " + done + "/" + totalPages + " 页的识别");
-                            }
-                            
-                            return pageInvoices;
-                        } catch (Exception e) {
-                            log.error("处理第 {} 页失败: {}", page, e.getMessage());
-                            return Collections.emptyList();
-                        }
-                    }, executorService);
-                    
-                    futures.add(future);
-                }
-                
-                // 等待所有页面处理完成
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-                
-                // 汇总结果
-                for (CompletableFuture<List<InvoiceInfo>> future : futures) {
-                    allInvoices.addAll(future.get());
-                }
-            } else {
-                // 图片处理
-                BufferedImage image = ImageIO.read(file.getInputStream());
-                if (image == null) {
-                    throw new IllegalArgumentException("无法读取图片文件: " + file.getOriginalFilename());
+            if (task.isFinished()) {
+                TaskJournal.Entry terminal = task.getTerminal();
+                boolean completed = TaskJournal.COMPLETED.equals(terminal.getType());
+                taskStatus.setStatus(completed ? "COMPLETED" : "FAILED");
+                taskStatus.setProgress(completed ? 100 : 0);
+                // 恢复逐页状态，失败的页面重启后仍可重试
+                donePages.forEach((page, pageInvoices) ->
+                    TaskStore.setPage(taskStatus, PageState.done(page, pageInvoices.size())));
+                task.getFailedPages().forEach((page, reason) ->
+                    TaskStore.setPage(taskStatus, PageState.failed(page, reason)));
+                if (completed) {
+                    taskStatus.setTotalInvoices(invoices.size());
+                    taskStatus.setInvoices(invoices);
+                    taskStatus.setCompletedAt(terminal.getTime());
+                } else {
+                    taskStatus.setStatusMessage(terminal.getMessage());
                 }
-                
-                // 更新任务状态
-                TaskStatusResponse taskStatus = taskStore.get(taskId);
-                if (taskStatus != null) {
-                    taskStatus.setTotalPages(1);
-                    taskStatus.setCurrentPage(1);
-                    taskStatus.setStatusMessage("正在识别图片内容...");
+                taskStore.put(taskStatus);
+                continue;
+            }
+            
+            Path source = Paths.get(submitted.getSourcePath());
+            if (!Files.exists(source)) {
+                log.warn("任务 {} 的原始文件已不存在，无法恢复: {}", taskId, source);
+                taskStatus.setStatus("FAILED");
+                taskStatus.setProgress(0);
+                taskStatus.setStatusMessage("服务重启后原始文件已丢失");
+                taskStore.put(taskStatus);
+                taskJournal.failed(taskId, taskStatus.getStatusMessage());
+                continue;
+            }
+            
+            // 没有任何页面结果的任务（重启前仍在排队或刚开始处理）重新排队，从头处理
+            boolean started = !donePages.isEmpty() || !task.getFailedPages().isEmpty();
+            log.info("恢复未完成的任务: {}, 已完成 {} 页", taskId, donePages.size());
+            taskStatus.setStatus(started ? "PROCESSING" : "PENDING");
+            taskStatus.setProgress(started ? 10 : 0);
+            taskStatus.setStatusMessage(started
+                ? "服务重启，已完成 " + donePages.size() + " 页，继续处理..."
+                : "服务重启，重新排队");
+            taskStatus.setTotalInvoices(invoices.size());
+            taskStatus.setInvoices(invoices);
+            taskStore.put(taskStatus);
+            
+            jobQueue.submitUnbounded(taskId, JobQueue.Priority.BULK, () -> {
+                taskEvents.progress(taskStore.update(taskId, status -> {
+                    if (!"PENDING".equals(status.getStatus())) {
+                        return;
+                    }
+                    status.setStatus("PROCESSING");
+                    status.setProgress(10);
+                }));
+                try {
+                    String contentType = submitted.getContentType() != null 
+                        ? submitted.getContentType() : "application/octet-stream";
+                    SourceFile sourceFile = new SourceFile(source, submitted.getFilename(), contentType,
+                        Files.size(source));
+                    processFile(sourceFile, submitted.getCropPadding(), submitted.getOutputFormat(),
+                        taskId, donePages);
+                } catch (TaskCancelledException e) {
+                    log.info("恢复的任务已取消: {}", taskId);
+                } catch (Exception e) {
+                    log.error("恢复任务失败: {}", taskId, e);
                 }
-
-                images = Collections.singletonList(image);
-                byte[] imageBytes = bufferedImageToBytes(image);
-                saveOriginalImage(imageBytes, taskId, 1);
-                
-                // 保存临时图片
-                String tempImagePath = saveTempImage(image, taskId, 1);
-                
-                // 从临时图片文件读取图片
-                BufferedImage tempImage = ImageIO.read(new File(tempImagePath));
-                if (tempImage == null) {
-                    throw new IOException("无法读取临时图片文件: " + tempImagePath);
+                return null;
+            });
+        }
+    }
+    
+    /**
+     * 任务状态存储统计
+     */
+    public TaskStoreStatsResponse getTaskStoreStats() {
+        return taskStore.stats();
+    }
+    
+    /**
+     * 页面流水线各阶段的队列深度与耗时
+     */
+    public PipelineStatsResponse getPipelineStats() {
+        PipelineStatsResponse stats = pipeline.stats();
+        stats.setEndpoints(apiService.endpointStats());
+        return stats;
+    }
+    
+    /**
+     * 处理 OFD 电子发票
+     * 每页只渲染发票区域本身（按 image.ofd.dpi），原始页面预览使用较低分辨率（image.ofd.preview-dpi）；
+     * 返回的 bbox 为原始页面预览图中的像素坐标
+     */
+    private List<InvoiceInfo> processOfd(String ofdPath, String taskId,
+                                         int padding, String outputFormat,
+                                         Map<Integer, List<InvoiceInfo>> donePages) throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<OfdProcessor.OfdPage> pages = ofdProcessor.loadPages(ofdPath);
+        int totalPages = pages.size();
+        
+        taskStore.initPages(taskId, totalPages, donePages.keySet());
+        taskEvents.progress(taskStore.update(taskId, status -> {
+            status.setTotalPages(totalPages);
+            status.setStatusMessage("正在解析 OFD，共 " + totalPages + " 页...");
+        }));
+        
+        int dpi = ofdProcessor.getDpi();
+        double previewScale = ofdProcessor.getPreviewDpi() / 25.4;
+        double paddingMm = padding * 25.4 / dpi;
+        List<InvoiceInfo> result = new ArrayList<>();
+        
+        for (OfdProcessor.OfdPage page : pages) {
+            int pageNumber = page.getPageNumber();
+            if (donePages.containsKey(pageNumber)) {
+                result.addAll(donePages.get(pageNumber));
+                continue;
+            }
+            checkCancelled(taskId);
+            if (isPastDeadline(taskId)) {
+                pageFailed(taskId, pageNumber, totalPages, new DeadlineExceededException());
+                continue;
+            }
+            try {
+                java.awt.geom.Rectangle2D region = ofdProcessor.locateInvoice(page);
+                java.awt.geom.Rectangle2D pageBox = page.getPhysicalBox() != null ? page.getPhysicalBox() : region;
+                if (region == null) {
+                    log.warn("OFD 第 {} 页没有可见内容，跳过", pageNumber);
+                    taskStore.updatePage(taskId, PageState.done(pageNumber, 0));
+                    continue;
                 }
                 
-                // 调用API识别
-                int imageWidth = tempImage.getWidth();
-                int imageHeight = tempImage.getHeight();
-                String apiResponse = apiService.callVolcengineVisionApi(tempImagePath, 1);
-                
-                // 解析API响应
-                List<Map<String, Object>> invoices = responseParser.parseApiResponse(apiResponse, 1);
-                
-                // AI 自我校验逻辑
-                if (volcengineConfig.isEnableSelfVerify() && !invoices.isEmpty()) {
-                    log.info("本地环境已开启 AI 自我校验...");
-                    for (Map<String, Object> invoice : invoices) {
-                        try {
-                            @SuppressWarnings("unchecked")
-                            List<Integer> oldBbox = (List<Integer>) invoice.get("bbox");
-                            List<Integer> refinedBbox = apiService.selfVerifyBbox(tempImagePath, oldBbox);
-                            invoice.put("bbox", refinedBbox);
-                        } catch (Exception e) {
-                            log.warn("AI 自我校验执行失败，跳过: {}", e.getMessage());
-                        }
-                    }
-                }
+                BufferedImage preview = ofdProcessor.renderRegion(page, pageBox, ofdProcessor.getPreviewDpi());
+                saveOriginalImage(bufferedImageToBytes(preview), taskId, pageNumber);
                 
-                // 进度更新到 50%
-                if (taskStatus != null) {
-                    taskStatus.setProgress(50);
-                    taskStatus.setStatusMessage("已完成内容识别，正在裁切...");
-                }
-
-                // 检查并缩放坐标
-                normalizeBboxCoordinates(invoices, 1, imageWidth, imageHeight);
+                java.awt.geom.Rectangle2D padded = new java.awt.geom.Rectangle2D.Double(
+                    region.getX() - paddingMm, region.getY() - paddingMm,
+                    region.getWidth() + paddingMm * 2, region.getHeight() + paddingMm * 2)
+                    .createIntersection(pageBox);
+                BufferedImage rendered = ofdProcessor.renderRegion(page, padded, dpi);
                 
-                // 生成图片唯一ID
-                String imageId = String.format("%s_%d", taskId, 1);
+                String imageId = String.format("%s_%d", taskId, pageNumber);
+                String filename = String.format("%s_invoice_%d_%d.%s", imageId, pageNumber, 0, outputFormat);
+                imageCropService.cropInvoice(rendered,
+                    0, 0, rendered.getWidth(), rendered.getHeight(), 0,
+                    croppedStorageLocation.resolve(filename).toString());
                 
-                // 裁切发票
-                allInvoices = cropInvoicesFromImage(tempImage, invoices, taskId, imageId, 1, cropPadding, outputFormat);
+                Detection invoice = ofdProcessor.extractFields(page);
+                invoice.setPage(pageNumber);
+                invoice.setBox(
+                    (int) Math.round((region.getMinX() - pageBox.getMinX()) * previewScale),
+                    (int) Math.round((region.getMinY() - pageBox.getMinY()) * previewScale),
+                    (int) Math.round((region.getMaxX() - pageBox.getMinX()) * previewScale),
+                    (int) Math.round((region.getMaxY() - pageBox.getMinY()) * previewScale)
+                );
+                InvoiceInfo invoiceInfo = toInvoiceInfo(invoice, 0, filename, taskId);
+                result.add(invoiceInfo);
+                taskJournal.pageCompleted(taskId, pageNumber, totalPages, List.of(invoiceInfo));
+                taskStore.addInvoices(taskId, List.of(invoiceInfo));
+                taskStore.updatePage(taskId, PageState.done(pageNumber, 1));
+                taskEvents.pageCompleted(taskId, pageNumber, List.of(invoiceInfo));
+            } catch (TaskCancelledException e) {
+                throw e;
+            } catch (Exception e) {
+                log.error("处理 OFD 第 {} 页失败: {}", pageNumber, e.getMessage());
+                pageFailed(taskId, pageNumber, totalPages, e);
             }
             
-            // 构建响应
-            InvoiceRecognizeResponse response = new InvoiceRecognizeResponse();
-            response.setTaskId(taskId);
-            response.setTotalInvoices(allInvoices.size());
-            response.setInvoices(allInvoices);
-            response.setProcessingTime((System.currentTimeMillis() - startTime) / 1000.0);
+            taskEvents.progress(taskStore.update(taskId, status -> {
+                status.setCurrentPage(pageNumber);
+                status.setProgress(10 + (int) ((double) pageNumber / totalPages * 80));
+                status.setStatusMessage("已完成 " + pageNumber + "/" + totalPages + " 页的解析");
+            }));
+        }
+        
+        log.info("OFD 处理完成，共 {} 页，{} 张发票，耗时: {} ms", 
+            totalPages, result.size(), System.currentTimeMillis() - startTime);
+        return result;
+    }
+    
+    /**
+     * 将一页提交到流水线：编码 → 识别 → 解析 → 裁切 → 保存
+     * 识别阶段在页面调度器中按任务轮询执行（受模型 API 限流约束），其余阶段各有独立的线程池与有界队列；
+     * 与其他任务中相同页面合并的识别不占用调度器线程，等待结果期间释放
+     * 
+     * @return 当前页的发票列表；任一阶段失败时异常完成，该页记为失败
+     */
+    private CompletableFuture<List<InvoiceInfo>> processPage(PageWork work) {
+        return pipeline.getEncode().supply(() -> encodePage(work))
+            .thenComposeAsync(this::recognizePage, pageScheduler.forTask(work.taskId))
+            .thenApplyAsync(PagePipeline.unchecked(this::parsePage), pipeline.getParse())
+            .thenApplyAsync(PagePipeline.unchecked(this::cropPage), pipeline.getCrop())
+            .thenApplyAsync(PagePipeline.unchecked(this::persistPage), pipeline.getPersist())
+            .whenComplete((invoices, e) -> {
+                if (e != null) {
+                    pageFailed(work.taskId, work.page, work.totalPages, e);
+                }
+            });
+    }
+    
+    /**
+     * 编码阶段：识别二维码，保存预览图与临时图片，之后释放渲染结果
+     * 等待识别的页面只保留临时图片路径，不在内存中保留整页位图（大文件的页面可能在识别阶段排队很久）；
+     * 裁切阶段再从临时图片读回，确保裁切使用的图片与API看到的完全一致
+     */
+    private PageWork encodePage(PageWork work) throws IOException {
+        checkCancelled(work.taskId);
+        checkDeadline(work.taskId);
+        log.info("开始处理第 {} 页，任务ID: {}", work.page, work.taskId);
+        // 临时图片与渲染结果尺寸相同，二维码坐标可直接用于临时图片
+        work.qrCodes = qrCodeService.detect(work.image, work.page);
+        saveOriginalImage(bufferedImageToBytes(work.image), work.taskId, work.page);
+        // 开启页面合并时在写入临时图片的同时计算摘要，不再读回文件
+        MessageDigest digest = pageCoalescer.isEnabled() ? sha256Digest() : null;
+        work.tempImagePath = saveTempImage(work.image, work.taskId, work.page, digest);
+        work.width = work.image.getWidth();
+        work.height = work.image.getHeight();
+        work.image = null;
+        if (digest != null) {
+            work.coalesceKey = coalesceKey(work, HexFormat.of().formatHex(digest.digest()));
+        }
+        return work;
+    }
+    
+    /**
+     * 页面合并键：临时图片（即发送给模型的图片）的 SHA-256 加影响识别结果的参数
+     * 页码会写入提示词，同样计入
+     */
+    private String coalesceKey(PageWork work, String sha256) {
+        return String.format("%s:%d:%s:%s:%s", sha256, work.page, apiService.getModelNames(),
+            volcengineConfig.isStructuredOutput(), volcengineConfig.isEnableSelfVerify());
+    }
+    
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+    
+    /**
+     * 识别阶段：依次尝试 PDF 文本层 → 二维码锚点（需开启 skip-vision-when-anchored）→ 视觉模型
+     * 其他任务正在识别相同页面时不再调用模型，等待其结果
+     */
+    private CompletableFuture<PageWork> recognizePage(PageWork work) {
+        try {
+            checkCancelled(work.taskId);
+            int page = work.page;
             
-            log.info("处理完成，识别到 {} 张发票，耗时: {} 秒", 
-                allInvoices.size(), response.getProcessingTime());
+            // 更新当前页码信息
+            taskEvents.progress(taskStore.update(work.taskId, status -> {
+                status.setCurrentPage(page);
+                status.setStatusMessage("正在识别第 " + page + "/" + work.totalPages + " 页...");
+            }));
             
-            // 更新任务状态为已完成
-            TaskStatusResponse taskStatus = taskStore.get(taskId);
-            if (taskStatus != null) {
-                taskStatus.setStatus("COMPLETED");
-                taskStatus.setProgress(100);
-                taskStatus.setTotalInvoices(allInvoices.size());
-                taskStatus.setInvoices(allInvoices);
-                taskStatus.setCompletedAt(Instant.now().toString());
+            if (work.textLayerInvoices != null && !work.textLayerInvoices.isEmpty()) {
+                // 文本层坐标已是渲染后的像素坐标，无需归一化
+                log.info("第 {} 页命中文本层定位，跳过视觉模型调用，发票数量: {}", page, work.textLayerInvoices.size());
+                work.invoices = work.textLayerInvoices;
+                work.pixelCoordinates = true;
+                return CompletableFuture.completedFuture(work);
             }
             
-            return response;
+            if (!work.qrCodes.isEmpty() && qrCodeService.isSkipVisionWhenAnchored()) {
+                log.info("第 {} 页发票均由二维码定位，跳过视觉模型调用，发票数量: {}", page, work.qrCodes.size());
+                work.invoices = work.qrCodes;
+                work.pixelCoordinates = true;
+                return CompletableFuture.completedFuture(work);
+            }
             
-        } catch (Exception e) {
-            log.error("处理失败", e);
-            // 更新任务状态为失败
-            TaskStatusResponse taskStatus = taskStore.get(taskId);
-            if (taskStatus != null) {
-                taskStatus.setStatus("FAILED");
-                taskStatus.setProgress(0);
+            // 调用API识别（已超过截止时间的页面不再调用模型）
+            checkDeadline(work.taskId);
+            PageCoalescer.Flight flight = work.coalesceKey != null ? pageCoalescer.acquire(work.coalesceKey) : null;
+            if (flight != null && !flight.isLeader()) {
+                return joinFlight(work, flight);
             }
-            throw e;
+            
+            PageDetections invoices;
+            try {
+                invoices = locateAndVerify(work);
+            } catch (Exception e) {
+                if (flight != null) {
+                    flight.fail(e);
+                }
+                throw e;
+            }
+            if (flight != null) {
+                flight.complete(invoices);
+            }
+            work.invoices = invoices;
+            return CompletableFuture.completedFuture(work);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
     
     /**
-     * 提交异步任务
+     * 等待其他任务中相同页面的识别结果，不占用页面调度器线程
+     * 对方识别失败（包括对方任务被取消或超过截止时间）时，重新进入页面调度器自行识别；
+     * 本任务的截止时间只作用于自己的等待
      */
-    public String submitAsyncTask(MultipartFile file, int cropPadding, String outputFormat) {
-        String taskId = UUID.randomUUID().toString();
-        
-        TaskStatusResponse taskStatus = new TaskStatusResponse();
-        taskStatus.setTaskId(taskId);
-        taskStatus.setStatus("PENDING");
-        taskStatus.setProgress(0);
-        taskStatus.setCreatedAt(Instant.now().toString());
-        taskStore.put(taskId, taskStatus);
-        
-        // 保存文件到临时目录（因为 MultipartFile 的流在请求结束后会关闭）
-        String tempFilePath;
-        try {
-            String originalFilename = file.getOriginalFilename();
-            String extension = getFileExtension(originalFilename);
-            String tempFilename = String.format("%s_temp.%s", taskId, extension);
-            Path tempFile = tempStorageLocation.resolve(tempFilename);
-            Files.copy(file.getInputStream(), tempFile, StandardCopyOption.REPLACE_EXISTING);
-            tempFilePath = tempFile.toString();
-            log.info("已保存临时文件: {}", tempFilePath);
-        } catch (IOException e) {
-            log.error("保存临时文件失败", e);
-            taskStatus.setStatus("FAILED");
-            throw new RuntimeException("保存文件失败", e);
+    private CompletableFuture<PageWork> joinFlight(PageWork work, PageCoalescer.Flight flight) {
+        log.info("第 {} 页与其他任务中相同的页面合并识别，任务ID: {}", work.page, work.taskId);
+        CompletableFuture<PageDetections> shared = flight.result();
+        long deadlineAt = deadlineOf(work.taskId);
+        if (deadlineAt > 0) {
+            shared = shared.orTimeout(Math.max(1, deadlineAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
         }
+        return shared.handle((invoices, e) -> {
+            if (e == null) {
+                work.invoices = invoices;
+                return CompletableFuture.completedFuture(work);
+            }
+            if (isPastDeadline(work.taskId)) {
+                return CompletableFuture.<PageWork>failedFuture(new DeadlineExceededException());
+            }
+            log.warn("第 {} 页合并的识别失败，改为单独识别: {}", work.page, e.getMessage());
+            work.coalesceKey = null;
+            return CompletableFuture.supplyAsync(() -> work, pageScheduler.forTask(work.taskId))
+                .thenCompose(this::recognizePage);
+        }).thenCompose(future -> future);
+    }
+    
+    /**
+     * 调用视觉模型定位发票，开启 AI 自我校验时逐个校验
+     */
+    private PageDetections locateAndVerify(PageWork work) throws Exception {
+        int page = work.page;
+        PageDetections invoices = locateWithVisionModel(work.tempImagePath, page, work.taskId);
         
-        // 异步处理
-        final String finalTempFilePath = tempFilePath;
-        final String finalContentType = file.getContentType();
-        final String finalOriginalFilename = file.getOriginalFilename();
-        
-        CompletableFuture.supplyAsync(() -> {
-            try {
-                taskStatus.setStatus("PROCESSING");
-                taskStatus.setProgress(10);
-                
-                // 从临时文件重新创建 MultipartFile
-                // 注意：MockMultipartFile是spring-test包中的类，在生产代码中使用它虽然可行（实现了MultipartFile接口），
-                // 但更好的做法是创建自定义的MultipartFile实现。这里使用MockMultipartFile是为了简化代码。
-                Path tempFile = Paths.get(finalTempFilePath);
-                byte[] fileBytes = Files.readAllBytes(tempFile);
-                String contentType = finalContentType != null ? finalContentType : "application/octet-stream";
-                
-                // 创建临时 MultipartFile
-                MockMultipartFile tempMultipartFile = new MockMultipartFile(
-                    "file", finalOriginalFilename, contentType, fileBytes
-                );
-                
-                InvoiceRecognizeResponse result = recognizeAndCrop(
-                    tempMultipartFile, cropPadding, outputFormat, taskId);
-                
-                // 清理临时文件
-                try {
-                    Files.deleteIfExists(Paths.get(finalTempFilePath));
-                } catch (IOException e) {
-                    log.warn("删除临时文件失败: {}", finalTempFilePath);
+        // AI 自我校验逻辑
+        if (volcengineConfig.isEnableSelfVerify() && !invoices.isEmpty()) {
+            log.info("本地环境已开启第 {} 页 AI 自我校验...", page);
+            for (Detection invoice : invoices) {
+                checkCancelled(work.taskId);
+                if (isPastDeadline(work.taskId)) {
+                    // 校验只是修正，截止时间已过时保留已有结果
+                    log.warn("第 {} 页已超过处理截止时间，跳过剩余的 AI 自我校验", page);
+                    break;
                 }
-                
-                return result;
-            } catch (Exception e) {
-                log.error("异步任务处理失败", e);
-                taskStatus.setStatus("FAILED");
-                taskStatus.setProgress(0);
-                // 清理临时文件
                 try {
-                    Files.deleteIfExists(Paths.get(finalTempFilePath));
-                } catch (IOException ex) {
-                    log.warn("删除临时文件失败: {}", finalTempFilePath);
+                    apiService.selfVerifyBbox(work.tempImagePath, invoice, work.taskId, deadlineOf(work.taskId));
+                } catch (Exception e) {
+                    log.warn("第 {} 页 AI 自我校验执行失败: {}", page, e.getMessage());
                 }
-                return null;
             }
-        });
-        
-        return taskId;
+        }
+        return invoices;
     }
     
     /**
-     * 查询任务状态
+     * 解析阶段：将模型坐标换算为像素坐标，并把二维码解码出的发票字段合并到对应的发票中
      */
-    public TaskStatusResponse getTaskStatus(String taskId) {
-        TaskStatusResponse taskStatus = taskStore.get(taskId);
-        if (taskStatus == null) {
-            throw new IllegalArgumentException("任务不存在: " + taskId);
+    private PageWork parsePage(PageWork work) {
+        if (!work.pixelCoordinates) {
+            // 检查并缩放坐标
+            work.invoices = normalizeBboxCoordinates(work.invoices, work.page,
+                work.width, work.height);
         }
-        return taskStatus;
+        if (work.invoices != work.qrCodes) {
+            qrCodeService.attachMetadata(work.invoices, work.qrCodes);
+        }
+        return work;
     }
     
     /**
-     * 从图片中裁切多张发票
-     * 
-     * @param image 要裁切的图片
-     * @param invoices 发票列表（包含坐标信息）
-     * @param taskId 任务ID
-     * @param imageId 图片唯一ID（格式：taskId_page）
-     * @param page 页码
-     * @param padding 边距
-     * @param outputFormat 输出格式
-     * @return 发票信息列表
-     */
-    private List<InvoiceInfo> cropInvoicesFromImage(BufferedImage image,
-                                                   List<Map<String, Object>> invoices,
-                                                   String taskId,
-                                                   String imageId,
-                                                   int page,
-                                                   int padding,
-                                                   String outputFormat) throws IOException {
-        List<InvoiceInfo> result = new ArrayList<>();
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+     * 调用视觉模型定位发票，返回未归一化的坐标
+     * 结构化输出模式失败（接口不支持或返回内容不符合 Schema）时回退到自由文本模式
+     */
+    private PageDetections locateWithVisionModel(String tempImagePath, int page, String taskId) throws Exception {
+        if (volcengineConfig.isStructuredOutput()) {
+            VisionLocateResult result = apiService.callStructuredVisionApi(tempImagePath, page, taskId,
+                deadlineOf(taskId));
+            if (result != null) {
+                return responseParser.fromStructuredResult(result, page);
+            }
+        }
+        
+        // 解析API响应
+        String apiResponse = apiService.callVolcengineVisionApi(tempImagePath, null, page, taskId,
+            deadlineOf(taskId));
+        return responseParser.parseApiResponse(apiResponse, page);
+    }
+    
+    /**
+     * 裁切阶段：读回临时图片，按定位结果裁切出每张发票（仅在内存中，由保存阶段写入文件）
+     */
+    private PageWork cropPage(PageWork work) throws IOException {
+        BufferedImage image = readTempImage(work.tempImagePath);
+        String imageId = String.format("%s_%d", work.taskId, work.page);
         log.info("开始裁切发票，图片ID: {}, 图片尺寸: {}x{}, 发票数量: {}", 
-            imageId, imageWidth, imageHeight, invoices.size());
+            imageId, image.getWidth(), image.getHeight(), work.invoices.size());
         
-        for (int idx = 0; idx < invoices.size(); idx++) {
-            Map<String, Object> invoiceData = invoices.get(idx);
+        work.crops = new ArrayList<>(work.invoices.size());
+        for (int idx = 0; idx < work.invoices.size(); idx++) {
+            Detection invoice = work.invoices.get(idx);
             try {
-                @SuppressWarnings("unchecked")
-                List<Integer> bbox = (List<Integer>) invoiceData.get("bbox");
-                Double confidence = (Double) invoiceData.getOrDefault("confidence", 0.9);
-                String merchantName = (String) invoiceData.getOrDefault("merchantName", null);
-                
-                int invoicePage = (Integer) invoiceData.getOrDefault("page", page);
                 log.info("准备裁切发票 {} (页码 {}): bbox={}, 图片尺寸={}x{}, padding={}, 图片ID={}", 
-                    idx, invoicePage, bbox, imageWidth, imageHeight, padding, imageId);
-                
+                    idx, invoice.getPage(), invoice.boxToString(), image.getWidth(), image.getHeight(),
+                    work.cropPadding, imageId);
+                work.crops.add(imageCropService.cropInvoice(image, invoice, work.cropPadding, null));
+            } catch (Exception e) {
+                log.warn("裁切发票失败，索引: {}, 错误: {}", idx, e.getMessage());
+                work.crops.add(null);
+            }
+        }
+        return work;
+    }
+    
+    /**
+     * 保存阶段：写入裁切后的发票图片，记录任务日志并更新进度
+     */
+    private List<InvoiceInfo> persistPage(PageWork work) {
+        checkCancelled(work.taskId);
+        String imageId = String.format("%s_%d", work.taskId, work.page);
+        List<InvoiceInfo> result = new ArrayList<>(work.crops.size());
+        for (int idx = 0; idx < work.crops.size(); idx++) {
+            BufferedImage cropped = work.crops.get(idx);
+            if (cropped == null) {
+                continue;
+            }
+            try {
                 // 生成文件名：{图片唯一ID}_invoice_{页码}_{索引}.{格式}
-                String filename = String.format("%s_invoice_%d_%d.%s", imageId, page, idx, outputFormat);
-                String outputPath = croppedStorageLocation.resolve(filename).toString();
-                
-                BufferedImage cropped = imageCropService.cropInvoice(image, bbox, padding, outputPath);
+                String filename = String.format("%s_invoice_%d_%d.%s", imageId, work.page, idx, work.outputFormat);
+                imageCropService.saveCropped(cropped, croppedStorageLocation.resolve(filename).toString());
                 log.info("裁切完成: 图片ID={}, 发票索引={}, 文件名={}, 裁切后尺寸={}x{}", 
                     imageId, idx, filename, cropped.getWidth(), cropped.getHeight());
                 
-                // 创建发票信息
-                InvoiceInfo invoiceInfo = new InvoiceInfo();
-                invoiceInfo.setIndex(idx);
-                invoiceInfo.setPage(invoicePage);  // 使用API返回的页码
-                invoiceInfo.setBbox(bbox);
-                invoiceInfo.setConfidence(confidence);
-                invoiceInfo.setMerchantName(merchantName);
-                invoiceInfo.setFilename(filename);  // 使用实际生成的文件名
-                
-                result.add(invoiceInfo);
-                
+                result.add(toInvoiceInfo(work.invoices.get(idx), idx, filename, work.taskId));
             } catch (Exception e) {
-                log.warn("裁切发票失败，索引: {}, 错误: {}", idx, e.getMessage());
+                log.warn("保存发票图片失败，索引: {}, 错误: {}", idx, e.getMessage());
             }
         }
+        taskJournal.pageCompleted(work.taskId, work.page, work.totalPages, result);
+        taskEvents.pageCompleted(work.taskId, work.page, result);
         
+        // 更新进度
+        int done = work.completedPages.incrementAndGet();
+        taskStore.addInvoices(work.taskId, result);
+        taskEvents.progress(taskStore.update(work.taskId, status -> {
+            TaskStore.setPage(status, PageState.done(work.page, result.size()));
+            // 进度从 10% 到 90%
+            status.setProgress(10 + (int)((double)done / work.totalPages * 80));
+            status.setStatusMessage("已完成 " + done + "/" + work.totalPages + " 页的识别");
+        }));
         return result;
     }
     
+    /**
+     * 定位结果转换为对外返回的发票信息（含预览与下载 URL，逐页发布后客户端即可直接使用）
+     */
+    private InvoiceInfo toInvoiceInfo(Detection invoice, int index, String filename, String taskId) {
+        InvoiceInfo invoiceInfo = new InvoiceInfo();
+        invoiceInfo.setIndex(index);
+        invoiceInfo.setPage(invoice.getPage());
+        invoiceInfo.setBbox(invoice.toBboxList());
+        invoiceInfo.setConfidence(invoice.getConfidence());
+        invoiceInfo.setMerchantName(invoice.getMerchantName());
+        invoiceInfo.setFilename(filename);  // 使用实际生成的文件名
+        
+        // 二维码或 OFD 标签中的发票字段
+        invoiceInfo.setInvoiceType(invoice.getInvoiceType());
+        invoiceInfo.setInvoiceCode(invoice.getInvoiceCode());
+        invoiceInfo.setInvoiceNumber(invoice.getInvoiceNumber());
+        invoiceInfo.setAmount(invoice.getAmount());
+        invoiceInfo.setInvoiceDate(invoice.getInvoiceDate());
+        invoiceInfo.setCheckCode(invoice.getCheckCode());
+        fillUrls(invoiceInfo, taskId);
+        return invoiceInfo;
+    }
+    
+    /**
+     * 设置裁切后图片的预览、下载 URL 与原始图片预览 URL
+     */
+    private void fillUrls(InvoiceInfo invoiceInfo, String taskId) {
+        invoiceInfo.setImageUrl(String.format("%s/preview/cropped/%s", 
+            API_BASE_URL, invoiceInfo.getFilename()));
+        invoiceInfo.setDownloadUrl(String.format("%s/download/%s", 
+            API_BASE_URL, invoiceInfo.getFilename()));
+        invoiceInfo.setOriginalImageUrl(String.format("%s/preview/original/%s?page=%d", 
+            API_BASE_URL, taskId, invoiceInfo.getPage()));
+    }
+    
     /**
      * 保存原始文件
+     * 上传内容已由容器写入磁盘时直接移动到原始文件目录，不经过内存复制
      */
-    private String saveOriginalFile(MultipartFile file, String taskId) throws IOException {
-        String extension = getFileExtension(file.getOriginalFilename());
-        String filename = String.format("%s_original.%s", taskId, extension);
-        Path targetLocation = originalStorageLocation.resolve(filename);
-        Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-        return filename;
+    private SourceFile saveOriginalFile(String taskId, MultipartFile file) throws IOException {
+        Path targetLocation = originalStorageLocation.resolve(originalFilename(taskId, file.getOriginalFilename()));
+        file.transferTo(targetLocation.toFile());
+        return new SourceFile(targetLocation, file.getOriginalFilename(), file.getContentType(),
+            Files.size(targetLocation));
+    }
+    
+    private String originalFilename(String taskId, String uploadFilename) {
+        return String.format("%s_original.%s", taskId, getFileExtension(uploadFilename));
     }
     
     /**
@@ -512,8 +1694,11 @@ public class InvoiceService {
     
     /**
      * 保存临时图片（确保尺寸一致）
+     * 
+     * @param digest 不为 null 时同时计算写入内容的摘要
      */
-    private String saveTempImage(BufferedImage image, String taskId, int page) throws IOException {
+    private String saveTempImage(BufferedImage image, String taskId, int page, MessageDigest digest)
+            throws IOException {
         String filename = String.format("%s_temp_%d.jpg", taskId, page);
         Path targetLocation = tempStorageLocation.resolve(filename);
         
@@ -531,7 +1716,9 @@ public class InvoiceService {
             param.setCompressionQuality(1.0f); // 最高质量
         }
         
-        try (FileImageOutputStream output = new FileImageOutputStream(targetLocation.toFile())) {
+        OutputStream file = Files.newOutputStream(targetLocation);
+        try (OutputStream out = digest != null ? new DigestOutputStream(file, digest) : file;
+             ImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
             writer.setOutput(output);
             writer.write(null, new IIOImage(rgbImage, null, null), param);
         } finally {
@@ -559,6 +1746,17 @@ public class InvoiceService {
         return targetLocation.toString();
     }
     
+    /**
+     * 读取临时图片（与API看到的图片完全一致）
+     */
+    private BufferedImage readTempImage(String tempImagePath) throws IOException {
+        BufferedImage tempImage = ImageIO.read(new File(tempImagePath));
+        if (tempImage == null) {
+            throw new IOException("无法读取临时图片文件: " + tempImagePath);
+        }
+        return tempImage;
+    }
+    
     /**
      * BufferedImage 转字节数组
      * 确保图片转换为标准RGB格式，避免颜色空间问题，并使用最高质量保存
@@ -666,73 +1864,76 @@ public class InvoiceService {
      * 归一化边界框坐标
      * 如果API返回的是归一化坐标（0-1000），则转换为实际像素坐标
      * 
-     * @param invoices 发票列表
+     * @param invoices 当前页的定位结果
      * @param page 页码
      * @param imageWidth 图片宽度
      * @param imageHeight 图片高度
+     * @return 缩放后的定位结果，缩放后坐标无效的发票被丢弃
      */
-    private void normalizeBboxCoordinates(List<Map<String, Object>> invoices, int page, 
-                                         int imageWidth, int imageHeight) {
-        for (Map<String, Object> invoice : invoices) {
-            invoice.put("page", page);
-            @SuppressWarnings("unchecked")
-            List<Integer> bbox = (List<Integer>) invoice.get("bbox");
-            if (bbox != null && bbox.size() == 4) {
-                int x1 = bbox.get(0);
-                int y1 = bbox.get(1);
-                int x2 = bbox.get(2);
-                int y2 = bbox.get(3);
-                int maxCoord = Math.max(Math.max(x1, y1), Math.max(x2, y2));
+    private PageDetections normalizeBboxCoordinates(PageDetections invoices, int page, 
+                                                   int imageWidth, int imageHeight) {
+        PageDetections normalized = new PageDetections(page, invoices.size());
+        for (Detection invoice : invoices) {
+            int x1 = invoice.getX1();
+            int y1 = invoice.getY1();
+            int x2 = invoice.getX2();
+            int y2 = invoice.getY2();
+            int maxCoord = Math.max(Math.max(x1, y1), Math.max(x2, y2));
+            
+            // 判断是否为归一化坐标（0-1000范围）
+            // 条件1: 坐标在0-1005范围内（允许一点点溢出）
+            // 条件2: 满足以下任一情况：
+            //   a) 坐标超出图片边界（强烈证据）
+            //   b) 图片尺寸较大（>1200）且坐标明显小于图片尺寸（归一化坐标特征）
+            //   c) 坐标最大值接近1000（归一化坐标特征）
+            boolean isNormalized = maxCoord <= 1005 && (
+                x2 > imageWidth || y2 > imageHeight ||  // 坐标越界
+                (imageWidth > 1200 && imageHeight > 1200 && maxCoord < Math.min(imageWidth, imageHeight) * 0.8) ||  // 大图且坐标明显小于图片
+                (maxCoord >= 900 && maxCoord <= 1005)  // 接近1000的归一化坐标
+            );
+            
+            if (isNormalized) {
+                String reason = (x2 > imageWidth || y2 > imageHeight) ? "坐标越界" : 
+                               (maxCoord >= 900) ? "接近1000的归一化坐标" : "大图归一化坐标";
+                log.info("检测到归一化坐标系统 (0-1000)，触发原因: {}，原始: {}, 图片尺寸: {}x{}", 
+                    reason, invoice.boxToString(), imageWidth, imageHeight);
                 
-                // 判断是否为归一化坐标（0-1000范围）
-                // 条件1: 坐标在0-1005范围内（允许一点点溢出）
-                // 条件2: 满足以下任一情况：
-                //   a) 坐标超出图片边界（强烈证据）
-                //   b) 图片尺寸较大（>1200）且坐标明显小于图片尺寸（归一化坐标特征）
-                //   c) 坐标最大值接近1000（归一化坐标特征）
-                boolean isNormalized = maxCoord <= 1005 && (
-                    x2 > imageWidth || y2 > imageHeight ||  // 坐标越界
-                    (imageWidth > 1200 && imageHeight > 1200 && maxCoord < Math.min(imageWidth, imageHeight) * 0.8) ||  // 大图且坐标明显小于图片
-                    (maxCoord >= 900 && maxCoord <= 1005)  // 接近1000的归一化坐标
-                );
+                // 将0-1000范围的归一化坐标转换为实际像素坐标
+                // 先归一化到0-1范围，再乘以实际图片尺寸
+                double normX1 = Math.max(0, Math.min(1000, x1)) / 1000.0;
+                double normY1 = Math.max(0, Math.min(1000, y1)) / 1000.0;
+                double normX2 = Math.max(0, Math.min(1000, x2)) / 1000.0;
+                double normY2 = Math.max(0, Math.min(1000, y2)) / 1000.0;
                 
-                if (isNormalized) {
-                    String reason = (x2 > imageWidth || y2 > imageHeight) ? "坐标越界" : 
-                                   (maxCoord >= 900) ? "接近1000的归一化坐标" : "大图归一化坐标";
-                    log.info("检测到归一化坐标系统 (0-1000)，触发原因: {}，原始: {}, 图片尺寸: {}x{}", 
-                        reason, bbox, imageWidth, imageHeight);
-                    
-                    // 将0-1000范围的归一化坐标转换为实际像素坐标
-                    // 先归一化到0-1范围，再乘以实际图片尺寸
-                    double normX1 = Math.max(0, Math.min(1000, x1)) / 1000.0;
-                    double normY1 = Math.max(0, Math.min(1000, y1)) / 1000.0;
-                    double normX2 = Math.max(0, Math.min(1000, x2)) / 1000.0;
-                    double normY2 = Math.max(0, Math.min(1000, y2)) / 1000.0;
-                    
-                    List<Integer> scaledBbox = Arrays.asList(
+                try {
+                    invoice.setBox(
                         (int) Math.round(normX1 * imageWidth),
                         (int) Math.round(normY1 * imageHeight),
                         (int) Math.round(normX2 * imageWidth),
                         (int) Math.round(normY2 * imageHeight)
                     );
-                    
-                    log.info("坐标缩放完成: 原始={} -> 归一化比例=[{},{},{},{}] -> 实际像素={}", 
-                        bbox, 
-                        String.format("%.3f", normX1), String.format("%.3f", normY1),
-                        String.format("%.3f", normX2), String.format("%.3f", normY2),
-                        scaledBbox);
-                    invoice.put("bbox", scaledBbox);
-                } else {
-                    // 验证像素坐标是否在合理范围内
-                    if (x1 < 0 || y1 < 0 || x2 > imageWidth * 1.1 || y2 > imageHeight * 1.1) {
-                        log.warn("像素坐标可能超出图片范围: bbox={}, 图片尺寸: {}x{}", 
-                            bbox, imageWidth, imageHeight);
-                    }
-                    log.debug("识别为像素坐标: bbox={}, 图片尺寸: {}x{}", 
-                        bbox, imageWidth, imageHeight);
+                } catch (IllegalArgumentException e) {
+                    log.warn("缩放后的坐标无效，已忽略该发票: {}", e.getMessage());
+                    continue;
+                }
+                
+                log.info("坐标缩放完成: 原始=[{}, {}, {}, {}] -> 归一化比例=[{},{},{},{}] -> 实际像素={}", 
+                    x1, y1, x2, y2, 
+                    String.format("%.3f", normX1), String.format("%.3f", normY1),
+                    String.format("%.3f", normX2), String.format("%.3f", normY2),
+                    invoice.boxToString());
+            } else {
+                // 验证像素坐标是否在合理范围内
+                if (x1 < 0 || y1 < 0 || x2 > imageWidth * 1.1 || y2 > imageHeight * 1.1) {
+                    log.warn("像素坐标可能超出图片范围: bbox={}, 图片尺寸: {}x{}", 
+                        invoice.boxToString(), imageWidth, imageHeight);
                 }
+                log.debug("识别为像素坐标: bbox={}, 图片尺寸: {}x{}", 
+                    invoice.boxToString(), imageWidth, imageHeight);
             }
+            normalized.add(invoice);
         }
+        return normalized;
     }
     
     private String getFileExtension(String filename) {
@@ -742,5 +1943,84 @@ public class InvoiceService {
         int lastDot = filename.lastIndexOf('.');
         return lastDot > 0 ? filename.substring(lastDot + 1) : "bin";
     }
+    
+    /**
+     * 已提交到任务队列的同步识别请求
+     */
+    public static class InteractiveTask {
+        private final String taskId;
+        private final JobQueue.Ticket<InvoiceRecognizeResponse> ticket;
+        
+        InteractiveTask(String taskId, JobQueue.Ticket<InvoiceRecognizeResponse> ticket) {
+            this.taskId = taskId;
+            this.ticket = ticket;
+        }
+        
+        public String getTaskId() { return taskId; }
+        public CompletableFuture<InvoiceRecognizeResponse> getFuture() { return ticket.getFuture(); }
+        
+        /**
+         * 等待任务完成，任务抛出的异常原样抛出
+         */
+        public InvoiceRecognizeResponse await() throws Exception { return ticket.await(); }
+    }
+    
+    /**
+     * 原始文件已保存、等待提交到任务队列的异步任务
+     */
+    public static class StagedTask {
+        private final String taskId;
+        private final SourceFile source;
+        private final int cropPadding;
+        private final String outputFormat;
+        
+        StagedTask(String taskId, SourceFile source, int cropPadding, String outputFormat) {
+            this.taskId = taskId;
+            this.source = source;
+            this.cropPadding = cropPadding;
+            this.outputFormat = outputFormat;
+        }
+        
+        public String getTaskId() { return taskId; }
+        public SourceFile getSource() { return source; }
+        public String getFilename() { return source.getFilename(); }
+        public long getSize() { return source.getSize(); }
+        public int getCropPadding() { return cropPadding; }
+        public String getOutputFormat() { return outputFormat; }
+    }
+    
+    /**
+     * 流水线中一页的处理状态，依次由各阶段填充
+     */
+    private static class PageWork {
+        final String taskId;
+        final int page;
+        final int totalPages;
+        final PageDetections textLayerInvoices;
+        final int cropPadding;
+        final String outputFormat;
+        final AtomicInteger completedPages;
+        
+        BufferedImage image;            // 渲染结果，编码后释放
+        String tempImagePath;           // 用于API调用与裁切的临时图片（等待识别期间不在内存中保留位图）
+        int width;                      // 临时图片尺寸
+        int height;
+        PageDetections qrCodes;
+        PageDetections invoices;
+        String coalesceKey;             // 相同页面合并识别的键，未开启合并或已改为单独识别时为 null
+        boolean pixelCoordinates;       // 定位结果已是像素坐标（文本层、二维码）
+        List<BufferedImage> crops;      // 与 invoices 一一对应，裁切失败为 null
+        
+        PageWork(String taskId, int page, int totalPages, BufferedImage image, PageDetections textLayerInvoices,
+                 int cropPadding, String outputFormat, AtomicInteger completedPages) {
+            this.taskId = taskId;
+            this.page = page;
+            this.totalPages = totalPages;
+            this.image = image;
+            this.textLayerInvoices = textLayerInvoices;
+            this.cropPadding = cropPadding;
+            this.outputFormat = outputFormat;
+            this.completedPages = completedPages;
+        }
+    }
 }
-
@@ -0,0 +1,354 @@
+package com.invoice.service;
+
+import com.invoice.exception.QueueFullException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 识别任务队列
+ * 有界深度 + 两个优先级：同步请求（INTERACTIVE）优先于异步上传（BULK）。
+ * 异步任务在队列深度达到 max-depth 时被拒绝，同步请求额外保留 interactive-reserve 个名额；
+ * 被拒绝时抛出 {@link QueueFullException}，由接口返回 429 与 Retry-After。
+ * 批量任务通过 {@link #reserve} 整体占用一个名额，其子任务经该名额提交，不再单独计入队列深度。
+ *
+ * 分发线程每取出一个任务就为它启动一个线程（虚拟线程模式下为虚拟线程），同时运行的任务数由信号量限制：
+ * 平台线程时为 workers，虚拟线程时为 virtual-workers。
+ * 任务线程大部分时间在等待页面结果，页面的并发与公平由 {@link FairPageScheduler} 控制；
+ * 这里的上限只是线程数的保护，应远大于同时处理的大文件数，否则几个大文件占满名额后，
+ * 随后提交的小文件要等到任务级名额空出才能进入页面调度器。
+ */
+@Slf4j
+@Service
+public class JobQueue {
+
+    public enum Priority {
+        INTERACTIVE,
+        BULK
+    }
+
+    private final PriorityBlockingQueue<Job<?>> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger queuedInteractive = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // 已预留的名额，以及经预留名额提交、尚在排队的任务数（由 this 同步）
+    private int reservations;
+    private int queuedReserved;
+    private final ExecutorService workerPool;
+    private final Semaphore workerPermits;
+
+    private final int maxDepth;
+    private final int interactiveReserve;
+    private final int workers;
+
+    // 任务平均耗时（指数移动平均），用于估算等待时间
+    private volatile double averageJobSeconds;
+
+    public JobQueue(@Value("${app.queue.max-depth:50}") int maxDepth,
+                    @Value("${app.queue.interactive-reserve:10}") int interactiveReserve,
+                    @Value("${app.queue.workers:32}") int workers,
+                    @Value("${app.queue.virtual-workers:256}") int virtualWorkers,
+                    @Value("${app.queue.initial-job-seconds:30}") double initialJobSeconds,
+                    PipelineExecutors executors) {
+        this.maxDepth = maxDepth;
+        this.interactiveReserve = interactiveReserve;
+        this.workers = executors.isVirtualThreads() ? virtualWorkers : workers;
+        this.averageJobSeconds = initialJobSeconds;
+
+        this.workerPermits = new Semaphore(this.workers);
+        this.workerPool = executors.blockingExecutor("job-");
+        workerPool.execute(this::dispatchLoop);
+        log.info("任务队列初始化完成，最大深度: {}, 同步保留: {}, 同时处理: {}", maxDepth, interactiveReserve, this.workers);
+    }
+
+    /**
+     * 提交任务，队列已满时立即拒绝
+     *
+     * @param label 任务标识（用于日志）
+     * @throws QueueFullException 队列已满
+     */
+    public synchronized <T> Ticket<T> submit(String label, Priority priority, Callable<T> work) {
+        checkCapacity(label, priority);
+        return enqueue(label, priority, work);
+    }
+
+    /**
+     * 检查队列是否还能接收该优先级的任务，用于在保存上传文件前尽早拒绝
+     *
+     * @throws QueueFullException 队列已满
+     */
+    public synchronized void checkCapacity(String label, Priority priority) {
+        int depth = depth();
+        int limit = priority == Priority.INTERACTIVE ? maxDepth + interactiveReserve : maxDepth;
+        if (depth >= limit) {
+            rejectedCount.incrementAndGet();
+            int retryAfter = Math.max(1, estimateWaitSeconds(priority));
+            log.warn("任务队列已满，拒绝任务: {}, 优先级: {}, 队列深度: {}, 建议 {} 秒后重试",
+                label, priority, depth, retryAfter);
+            throw new QueueFullException("服务繁忙，队列已满，请 " + retryAfter + " 秒后重试", retryAfter);
+        }
+    }
+
+    /**
+     * 提交任务，不检查队列深度（用于重启后恢复的任务）
+     */
+    public synchronized <T> Ticket<T> submitUnbounded(String label, Priority priority, Callable<T> work) {
+        return enqueue(label, priority, work);
+    }
+
+    /**
+     * 预留一个名额，释放前计入队列深度（批量任务整体占用一个名额）
+     *
+     * @throws QueueFullException 队列已满
+     */
+    public synchronized Reservation reserve(String label, Priority priority) {
+        checkCapacity(label, priority);
+        reservations++;
+        log.info("已预留排队名额: {}, 优先级: {}, 队列深度: {}", label, priority, depth());
+        return new Reservation(label, priority);
+    }
+
+    /**
+     * 经预留的名额提交任务，不检查、也不增加队列深度
+     */
+    public synchronized <T> Ticket<T> submit(Reservation reservation, String label, Callable<T> work) {
+        if (reservation.released) {
+            throw new IllegalStateException("排队名额已释放: " + reservation.label);
+        }
+        return enqueue(label, reservation.priority, work, true);
+    }
+
+    private <T> Ticket<T> enqueue(String label, Priority priority, Callable<T> work) {
+        return enqueue(label, priority, work, false);
+    }
+
+    private <T> Ticket<T> enqueue(String label, Priority priority, Callable<T> work, boolean reserved) {
+        int waitSeconds = estimateWaitSeconds(priority);
+        Job<T> job = new Job<>(label, priority, sequence.incrementAndGet(), work, reserved);
+        if (priority == Priority.INTERACTIVE) {
+            queuedInteractive.incrementAndGet();
+        }
+        if (reserved) {
+            queuedReserved++;
+        }
+        queue.add(job);
+        log.info("任务已入队: {}, 优先级: {}, 队列深度: {}, 预计等待 {} 秒", label, priority, depth(), waitSeconds);
+        return new Ticket<>(job.future, waitSeconds + (int) Math.ceil(averageJobSeconds));
+    }
+
+    /**
+     * 队列深度：排队中的任务（经预留名额提交的除外）加已预留的名额
+     */
+    private synchronized int depth() {
+        return queue.size() - queuedReserved + reservations;
+    }
+
+    /**
+     * 移除尚未开始的任务，其 future 以取消结束
+     *
+     * @return 是否已移除；任务已开始或不存在时返回 false
+     */
+    public synchronized boolean cancel(String label) {
+        for (Job<?> job : queue) {
+            if (job.label.equals(label) && queue.remove(job)) {
+                if (job.priority == Priority.INTERACTIVE) {
+                    queuedInteractive.decrementAndGet();
+                }
+                if (job.reserved) {
+                    queuedReserved--;
+                }
+                job.future.cancel(false);
+                log.info("已移除排队中的任务: {}, 队列深度: {}", label, depth());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 估算新任务的等待时间：排在前面的任务数 / 工作线程数 × 平均耗时
+     */
+    public int estimateWaitSeconds(Priority priority) {
+        int ahead = running.get() + (priority == Priority.INTERACTIVE ? queuedInteractive.get() : queue.size());
+        return (int) Math.ceil((double) ahead / workers * averageJobSeconds);
+    }
+
+    public int getDepth() {
+        return depth();
+    }
+
+    public int getRunning() {
+        return running.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 分发线程：拿到运行许可后才从队列取任务，保证排队中的任务仍按优先级出队
+     */
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job<?> job;
+            try {
+                workerPermits.acquire();
+                job = takeJob();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                workerPool.execute(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                // 正在关闭
+                job.future.cancel(false);
+                return;
+            }
+        }
+    }
+
+    private Job<?> takeJob() throws InterruptedException {
+        try {
+            Job<?> job = queue.take();
+            if (job.priority == Priority.INTERACTIVE) {
+                queuedInteractive.decrementAndGet();
+            }
+            if (job.reserved) {
+                synchronized (this) {
+                    queuedReserved--;
+                }
+            }
+            running.incrementAndGet();
+            return job;
+        } catch (InterruptedException e) {
+            workerPermits.release();
+            throw e;
+        }
+    }
+
+    private void run(Job<?> job) {
+        long start = System.currentTimeMillis();
+        try {
+            job.run();
+        } finally {
+            running.decrementAndGet();
+            workerPermits.release();
+            double seconds = (System.currentTimeMillis() - start) / 1000.0;
+            averageJobSeconds = averageJobSeconds * 0.8 + seconds * 0.2;
+            log.debug("任务完成: {}, 耗时 {} 秒", job.label, seconds);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workerPool.shutdownNow();
+    }
+
+    private static class Job<T> implements Comparable<Job<?>> {
+        private final String label;
+        private final Priority priority;
+        private final long sequence;
+        private final Callable<T> work;
+        private final boolean reserved;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Job(String label, Priority priority, long sequence, Callable<T> work, boolean reserved) {
+            this.label = label;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+            this.reserved = reserved;
+        }
+
+        void run() {
+            try {
+                future.complete(work.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * 预留的排队名额，release 后归还（重复调用无影响）
+     */
+    public class Reservation {
+        private final String label;
+        private final Priority priority;
+        private boolean released;
+
+        Reservation(String label, Priority priority) {
+            this.label = label;
+            this.priority = priority;
+        }
+
+        public void release() {
+            synchronized (JobQueue.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                reservations--;
+            }
+            log.info("已释放排队名额: {}, 队列深度: {}", label, getDepth());
+        }
+    }
+
+    /**
+     * 入队凭据
+     */
+    public static class Ticket<T> {
+        private final CompletableFuture<T> future;
+        private final int estimatedSeconds;
+
+        Ticket(CompletableFuture<T> future, int estimatedSeconds) {
+            this.future = future;
+            this.estimatedSeconds = estimatedSeconds;
+        }
+
+        public CompletableFuture<T> getFuture() {
+            return future;
+        }
+
+        /**
+         * 预计完成时间（秒）：等待时间 + 平均处理时间
+         */
+        public int getEstimatedSeconds() {
+            return estimatedSeconds;
+        }
+
+        /**
+         * 等待任务完成，任务抛出的异常原样抛出
+         */
+        public T await() throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception exception) {
+                    throw exception;
+                }
+                throw e;
+            }
+        }
+    }
+}
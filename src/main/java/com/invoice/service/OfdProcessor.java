@@ -0,0 +1,734 @@
+package com.invoice.service;
+
+import com.invoice.model.Detection;
+import com.invoice.util.InvoiceTextHeuristics;
+import com.invoice.util.InvoiceTextHeuristics.Glyph;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.ImageIO;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * OFD 电子发票处理
+ * 直接解析 OFD 压缩包中的 XML 页面结构，从矢量内容中获得发票区域、文字和结构化字段，
+ * 只渲染发票区域本身，不需要视觉模型，也不需要整页 300 DPI 渲染
+ */
+@Slf4j
+@Service
+public class OfdProcessor {
+
+    private static final double MM_PER_INCH = 25.4;
+
+    // OFD 自定义标签（GB/T 38540 电子发票）到发票字段的映射
+    private static final Map<String, String> CUSTOM_TAG_FIELDS = Map.of(
+        "SellerName", "merchantName",
+        "InvoiceCode", "invoiceCode",
+        "InvoiceNo", "invoiceNumber",
+        "IssueDate", "invoiceDate",
+        "TaxExclusiveTotalAmount", "amount"
+    );
+
+    @Value("${image.ofd.dpi:300}")
+    private int dpi;
+
+    @Value("${image.ofd.preview-dpi:96}")
+    private int previewDpi;
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    public int getPreviewDpi() {
+        return previewDpi;
+    }
+
+    /**
+     * 判断是否为 OFD 文件
+     */
+    public boolean isOfd(String filename, String contentType) {
+        if (contentType != null && contentType.toLowerCase().contains("ofd")) {
+            return true;
+        }
+        return filename != null && filename.toLowerCase().endsWith(".ofd");
+    }
+
+    /**
+     * 解析 OFD 文件的所有页面
+     */
+    public List<OfdPage> loadPages(String ofdPath) throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<OfdPage> pages = new ArrayList<>();
+
+        try (ZipFile zip = new ZipFile(new File(ofdPath))) {
+            Element ofdRoot = readXml(zip, "OFD.xml");
+            String docRootLoc = firstText(ofdRoot, "DocRoot");
+            if (docRootLoc == null) {
+                throw new IOException("OFD 文件缺少 DocRoot");
+            }
+            String docPath = resolve("", docRootLoc);
+            String docDir = parentOf(docPath);
+            Element docRoot = readXml(zip, docPath);
+
+            Rectangle2D defaultBox = parseBox(firstText(docRoot, "PhysicalBox"));
+            Map<String, String> fonts = new HashMap<>();
+            Map<String, String> media = new HashMap<>();
+            for (Element resLoc : children(docRoot, "PublicRes", "DocumentRes")) {
+                loadResources(zip, resolve(docDir, resLoc.getTextContent().trim()), fonts, media);
+            }
+
+            Map<String, String> templates = new HashMap<>();
+            for (Element template : descendants(docRoot, "TemplatePage")) {
+                templates.put(template.getAttribute("ID"), resolve(docDir, template.getAttribute("BaseLoc")));
+            }
+
+            Map<String, Map<String, String>> objectTags = loadCustomTags(zip, docRoot, docDir);
+
+            int pageNumber = 0;
+            for (Element pageRef : descendants(docRoot, "Page")) {
+                pageNumber++;
+                String pagePath = resolve(docDir, pageRef.getAttribute("BaseLoc"));
+                Element pageRoot = readXml(zip, pagePath);
+
+                Rectangle2D pageBox = parseBox(firstText(pageRoot, "PhysicalBox"));
+                OfdPage page = new OfdPage(pageNumber, pageBox != null ? pageBox : defaultBox);
+
+                // 模板（背景）中通常包含发票框线和固定标签
+                for (Element templateRef : children(pageRoot, "Template")) {
+                    String templatePath = templates.get(templateRef.getAttribute("TemplateID"));
+                    if (templatePath != null && zip.getEntry(templatePath) != null) {
+                        collectObjects(zip, readXml(zip, templatePath), fonts, media, page);
+                    }
+                }
+                collectObjects(zip, pageRoot, fonts, media, page);
+                applyCustomTags(page, objectTags);
+                pages.add(page);
+            }
+        }
+
+        log.info("OFD 解析完成，共 {} 页，耗时: {} ms", pages.size(), System.currentTimeMillis() - startTime);
+        return pages;
+    }
+
+    /**
+     * 确定页面中的发票区域（单位 mm）
+     * OFD 电子发票一页即一张发票，取所有可见内容的范围
+     */
+    public Rectangle2D locateInvoice(OfdPage page) {
+        Rectangle2D bounds = null;
+        for (Drawable drawable : page.drawables) {
+            if (bounds == null) {
+                bounds = (Rectangle2D) drawable.bounds.clone();
+            } else {
+                bounds.add(drawable.bounds);
+            }
+        }
+        Rectangle2D pageBox = page.getPhysicalBox();
+        if (bounds == null) {
+            return pageBox;
+        }
+        return pageBox != null ? bounds.createIntersection(pageBox) : bounds;
+    }
+
+    /**
+     * 提取发票字段：优先使用自定义标签，商家名称缺失时根据版面文字推断
+     *
+     * @return 仅含发票字段的定位结果，坐标由调用方按渲染结果设置
+     */
+    public Detection extractFields(OfdPage page) {
+        Map<String, Object> tags = page.tagFields;
+        Detection fields = new Detection();
+        fields.setSource("ofd");
+        fields.setConfidence(1.0);
+        fields.setInvoiceType(tagText(tags, "invoiceType"));
+        fields.setInvoiceCode(tagText(tags, "invoiceCode"));
+        fields.setInvoiceNumber(tagText(tags, "invoiceNumber"));
+        fields.setAmount((BigDecimal) tags.get("amount"));
+        fields.setInvoiceDate(tagText(tags, "invoiceDate"));
+        fields.setCheckCode(tagText(tags, "checkCode"));
+        String merchantName = tagText(tags, "merchantName");
+        fields.setMerchantName(merchantName != null
+            ? merchantName : InvoiceTextHeuristics.extractMerchantName(page.glyphs));
+        return fields;
+    }
+
+    private static String tagText(Map<String, Object> tags, String field) {
+        Object value = tags.get(field);
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * 只渲染页面中的指定区域
+     *
+     * @param region 区域（单位 mm，页面坐标）
+     * @param renderDpi 渲染分辨率
+     */
+    public BufferedImage renderRegion(OfdPage page, Rectangle2D region, int renderDpi) {
+        double scale = renderDpi / MM_PER_INCH;
+        int width = Math.max(1, (int) Math.round(region.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(region.getHeight() * scale));
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.scale(scale, scale);
+            g.translate(-region.getX(), -region.getY());
+            g.clip(region);
+
+            for (Drawable drawable : page.drawables) {
+                if (drawable.bounds.intersects(region)) {
+                    drawable.draw(g);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    // ------------------------------------------------------------------
+    // 页面对象解析
+    // ------------------------------------------------------------------
+
+    private void collectObjects(ZipFile zip, Element root, Map<String, String> fonts,
+                                Map<String, String> media, OfdPage page) {
+        Element content = firstChild(root, "Content");
+        if (content == null) {
+            return;
+        }
+        for (Element layer : children(content, "Layer")) {
+            collectBlock(zip, layer, fonts, media, page);
+        }
+    }
+
+    private void collectBlock(ZipFile zip, Element block, Map<String, String> fonts,
+                              Map<String, String> media, OfdPage page) {
+        for (Element element : children(block)) {
+            try {
+                switch (element.getLocalName()) {
+                    case "PageBlock":
+                        collectBlock(zip, element, fonts, media, page);
+                        break;
+                    case "PathObject":
+                        addPath(element, page);
+                        break;
+                    case "TextObject":
+                        addText(element, fonts, page);
+                        break;
+                    case "ImageObject":
+                        addImage(zip, element, media, page);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (Exception e) {
+                log.debug("跳过无法解析的 OFD 对象 {}: {}", element.getAttribute("ID"), e.getMessage());
+            }
+        }
+    }
+
+    private void addPath(Element element, OfdPage page) {
+        Rectangle2D boundary = parseBox(element.getAttribute("Boundary"));
+        String data = firstText(element, "AbbreviatedData");
+        if (boundary == null || data == null) {
+            return;
+        }
+
+        GeneralPath path = parseAbbreviatedData(data);
+        AffineTransform transform = objectTransform(element, boundary);
+        boolean stroke = !"false".equals(element.getAttribute("Stroke"));
+        boolean fill = "true".equals(element.getAttribute("Fill"));
+        float lineWidth = parseFloat(element.getAttribute("LineWidth"), 0.353f);
+        Color strokeColor = parseColor(firstChild(element, "StrokeColor"), Color.BLACK);
+        Color fillColor = parseColor(firstChild(element, "FillColor"), Color.BLACK);
+
+        java.awt.Shape shape = transform.createTransformedShape(path);
+        page.drawables.add(new Drawable(boundary, g -> {
+            if (fill) {
+                g.setColor(fillColor);
+                g.fill(shape);
+            }
+            if (stroke) {
+                g.setColor(strokeColor);
+                g.setStroke(new BasicStroke(lineWidth));
+                g.draw(shape);
+            }
+        }));
+    }
+
+    private void addText(Element element, Map<String, String> fonts, OfdPage page) {
+        Rectangle2D boundary = parseBox(element.getAttribute("Boundary"));
+        if (boundary == null) {
+            return;
+        }
+        float size = parseFloat(element.getAttribute("Size"), 3.5f);
+        String fontName = fonts.getOrDefault(element.getAttribute("Font"), Font.SERIF);
+        Font font = new Font(fontName, Font.PLAIN, 1).deriveFont(size);
+        Color color = parseColor(firstChild(element, "FillColor"), Color.BLACK);
+        AffineTransform transform = objectTransform(element, boundary);
+
+        List<float[]> positions = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        float x = 0;
+        float y = 0;
+        for (Element textCode : children(element, "TextCode")) {
+            String codeText = textCode.getTextContent();
+            if (!textCode.getAttribute("X").isEmpty()) {
+                x = parseFloat(textCode.getAttribute("X"), 0);
+            }
+            if (!textCode.getAttribute("Y").isEmpty()) {
+                y = parseFloat(textCode.getAttribute("Y"), 0);
+            }
+            float[] deltaX = parseDeltas(textCode.getAttribute("DeltaX"));
+            float[] deltaY = parseDeltas(textCode.getAttribute("DeltaY"));
+
+            int[] codePoints = codeText.codePoints().toArray();
+            for (int i = 0; i < codePoints.length; i++) {
+                if (i > 0) {
+                    x += i - 1 < deltaX.length ? deltaX[i - 1] : size;
+                    y += i - 1 < deltaY.length ? deltaY[i - 1] : 0;
+                }
+                String ch = new String(Character.toChars(codePoints[i]));
+                text.append(ch);
+                positions.add(new float[] {x, y});
+
+                // 以页面坐标记录字形，供商家名称等版面规则使用
+                if (!ch.isBlank()) {
+                    double[] origin = {x, y - size * 0.85, x + size, y};
+                    transform.transform(origin, 0, origin, 0, 2);
+                    page.glyphs.add(new Glyph(ch, (float) origin[0], (float) origin[1],
+                        (float) (origin[2] - origin[0]), (float) (origin[3] - origin[1])));
+                }
+            }
+            x += codePoints.length > 0 && deltaX.length >= codePoints.length ? deltaX[codePoints.length - 1] : size;
+        }
+
+        String id = element.getAttribute("ID");
+        if (!id.isEmpty()) {
+            page.objectText.merge(id, text.toString(), String::concat);
+        }
+
+        String content = text.toString();
+        page.drawables.add(new Drawable(boundary, g -> {
+            AffineTransform saved = g.getTransform();
+            g.transform(transform);
+            g.setFont(font);
+            g.setColor(color);
+            int index = 0;
+            for (int offset = 0; offset < content.length(); ) {
+                int codePoint = content.codePointAt(offset);
+                float[] position = positions.get(index++);
+                g.drawString(new String(Character.toChars(codePoint)), position[0], position[1]);
+                offset += Character.charCount(codePoint);
+            }
+            g.setTransform(saved);
+        }));
+    }
+
+    private void addImage(ZipFile zip, Element element, Map<String, String> media, OfdPage page) throws IOException {
+        Rectangle2D boundary = parseBox(element.getAttribute("Boundary"));
+        String mediaPath = media.get(element.getAttribute("ResourceID"));
+        if (boundary == null || mediaPath == null) {
+            return;
+        }
+        ZipEntry entry = zip.getEntry(mediaPath);
+        if (entry == null) {
+            return;
+        }
+        BufferedImage image;
+        try (InputStream in = zip.getInputStream(entry)) {
+            image = ImageIO.read(in);
+        }
+        if (image == null) {
+            return;
+        }
+
+        // 图片对象的 CTM 将单位正方形映射到对象空间
+        AffineTransform transform = objectTransform(element, boundary);
+        transform.scale(1.0 / image.getWidth(), 1.0 / image.getHeight());
+        page.drawables.add(new Drawable(boundary, g -> g.drawImage(image, transform, null)));
+    }
+
+    /**
+     * 对象坐标 -> 页面坐标：先应用 CTM，再平移到 Boundary 左上角
+     */
+    private AffineTransform objectTransform(Element element, Rectangle2D boundary) {
+        AffineTransform transform = AffineTransform.getTranslateInstance(boundary.getX(), boundary.getY());
+        float[] ctm = parseDeltas(element.getAttribute("CTM"));
+        if (ctm.length == 6) {
+            transform.concatenate(new AffineTransform(ctm[0], ctm[1], ctm[2], ctm[3], ctm[4], ctm[5]));
+        } else if (element.getLocalName().equals("ImageObject")) {
+            transform.scale(boundary.getWidth(), boundary.getHeight());
+        }
+        return transform;
+    }
+
+    /**
+     * 解析路径缩略数据：S/M 起点，L 直线，Q 二次曲线，B 三次曲线，A 圆弧（按直线近似），C 闭合
+     */
+    private GeneralPath parseAbbreviatedData(String data) {
+        GeneralPath path = new GeneralPath();
+        String[] tokens = data.trim().split("\\s+");
+        boolean started = false;
+        int i = 0;
+        while (i < tokens.length) {
+            String command = tokens[i++];
+            switch (command) {
+                case "S":
+                case "M":
+                    path.moveTo(Float.parseFloat(tokens[i]), Float.parseFloat(tokens[i + 1]));
+                    started = true;
+                    i += 2;
+                    break;
+                case "L":
+                    lineOrMove(path, started, Float.parseFloat(tokens[i]), Float.parseFloat(tokens[i + 1]));
+                    started = true;
+                    i += 2;
+                    break;
+                case "Q":
+                    path.quadTo(Float.parseFloat(tokens[i]), Float.parseFloat(tokens[i + 1]),
+                        Float.parseFloat(tokens[i + 2]), Float.parseFloat(tokens[i + 3]));
+                    i += 4;
+                    break;
+                case "B":
+                    path.curveTo(Float.parseFloat(tokens[i]), Float.parseFloat(tokens[i + 1]),
+                        Float.parseFloat(tokens[i + 2]), Float.parseFloat(tokens[i + 3]),
+                        Float.parseFloat(tokens[i + 4]), Float.parseFloat(tokens[i + 5]));
+                    i += 6;
+                    break;
+                case "A":
+                    lineOrMove(path, started, Float.parseFloat(tokens[i + 5]), Float.parseFloat(tokens[i + 6]));
+                    started = true;
+                    i += 7;
+                    break;
+                case "C":
+                    if (started) {
+                        path.closePath();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return path;
+    }
+
+    private void lineOrMove(GeneralPath path, boolean started, float x, float y) {
+        if (started) {
+            path.lineTo(x, y);
+        } else {
+            path.moveTo(x, y);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // 资源与自定义标签
+    // ------------------------------------------------------------------
+
+    private void loadResources(ZipFile zip, String resPath, Map<String, String> fonts,
+                               Map<String, String> media) throws IOException {
+        if (zip.getEntry(resPath) == null) {
+            return;
+        }
+        Element res = readXml(zip, resPath);
+        String baseDir = resolve(parentOf(resPath), res.getAttribute("BaseLoc"));
+
+        for (Element font : descendants(res, "Font")) {
+            String family = font.getAttribute("FamilyName");
+            fonts.put(font.getAttribute("ID"), family.isEmpty() ? font.getAttribute("FontName") : family);
+        }
+        for (Element multiMedia : descendants(res, "MultiMedia")) {
+            String mediaFile = firstText(multiMedia, "MediaFile");
+            if (mediaFile != null) {
+                media.put(multiMedia.getAttribute("ID"), resolve(baseDir, mediaFile));
+            }
+        }
+    }
+
+    /**
+     * 读取自定义标签，返回 对象ID -> (字段名 -> 字段名) 的映射
+     */
+    private Map<String, Map<String, String>> loadCustomTags(ZipFile zip, Element docRoot, String docDir) {
+        Map<String, Map<String, String>> objectTags = new HashMap<>();
+        String customTagsLoc = firstText(docRoot, "CustomTags");
+        if (customTagsLoc == null) {
+            return objectTags;
+        }
+        try {
+            String customTagsPath = resolve(docDir, customTagsLoc);
+            Element customTags = readXml(zip, customTagsPath);
+            for (Element customTag : descendants(customTags, "CustomTag")) {
+                String fileLoc = firstText(customTag, "FileLoc");
+                if (fileLoc == null) {
+                    continue;
+                }
+                Element tagRoot = readXml(zip, resolve(parentOf(customTagsPath), fileLoc));
+                for (Map.Entry<String, String> mapping : CUSTOM_TAG_FIELDS.entrySet()) {
+                    for (Element tag : descendants(tagRoot, mapping.getKey())) {
+                        for (Element objectRef : descendants(tag, "ObjectRef")) {
+                            objectTags.computeIfAbsent(objectRef.getTextContent().trim(), k -> new HashMap<>())
+                                .put(mapping.getValue(), mapping.getValue());
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.debug("OFD 自定义标签解析失败: {}", e.getMessage());
+        }
+        return objectTags;
+    }
+
+    private void applyCustomTags(OfdPage page, Map<String, Map<String, String>> objectTags) {
+        for (Map.Entry<String, String> entry : page.objectText.entrySet()) {
+            Map<String, String> tags = objectTags.get(entry.getKey());
+            if (tags == null) {
+                continue;
+            }
+            String value = entry.getValue().trim();
+            for (String field : tags.keySet()) {
+                if ("amount".equals(field)) {
+                    try {
+                        page.tagFields.put(field, new BigDecimal(value.replaceAll("[^0-9.\\-]", "")));
+                    } catch (NumberFormatException e) {
+                        log.debug("OFD 金额无法解析: {}", value);
+                    }
+                } else if ("invoiceDate".equals(field)) {
+                    String digits = value.replaceAll("\\D", "");
+                    page.tagFields.put(field, digits.length() == 8
+                        ? digits.substring(0, 4) + "-" + digits.substring(4, 6) + "-" + digits.substring(6, 8)
+                        : value);
+                } else {
+                    page.tagFields.merge(field, value, (a, b) -> a.toString() + b);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // XML 工具
+    // ------------------------------------------------------------------
+
+    private Element readXml(ZipFile zip, String path) throws IOException {
+        ZipEntry entry = zip.getEntry(path);
+        if (entry == null) {
+            throw new IOException("OFD 文件缺少: " + path);
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            Document document = builder.parse(in);
+            return document.getDocumentElement();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("OFD XML 解析失败: " + path, e);
+        }
+    }
+
+    private static List<Element> children(Element parent, String... names) {
+        List<Element> result = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && matches((Element) node, names)) {
+                result.add((Element) node);
+            }
+        }
+        return result;
+    }
+
+    private static List<Element> descendants(Element parent, String name) {
+        List<Element> result = new ArrayList<>();
+        NodeList nodes = parent.getElementsByTagNameNS("*", name);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            result.add((Element) nodes.item(i));
+        }
+        return result;
+    }
+
+    private static boolean matches(Element element, String... names) {
+        if (names.length == 0) {
+            return true;
+        }
+        for (String name : names) {
+            if (name.equals(element.getLocalName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Element firstChild(Element parent, String name) {
+        List<Element> found = children(parent, name);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private static String firstText(Element parent, String name) {
+        List<Element> found = descendants(parent, name);
+        return found.isEmpty() ? null : found.get(0).getTextContent().trim();
+    }
+
+    /**
+     * 解析 OFD 内部路径：以 / 开头为包内绝对路径，否则相对于引用文件所在目录
+     */
+    private static String resolve(String baseDir, String loc) {
+        if (loc == null || loc.isEmpty()) {
+            return baseDir;
+        }
+        String path = loc.startsWith("/") ? loc.substring(1) : (baseDir.isEmpty() ? loc : baseDir + "/" + loc);
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else {
+                segments.add(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash > 0 ? path.substring(0, slash) : "";
+    }
+
+    private static Rectangle2D parseBox(String value) {
+        float[] numbers = parseDeltas(value);
+        if (numbers.length != 4) {
+            return null;
+        }
+        return new Rectangle2D.Float(numbers[0], numbers[1], numbers[2], numbers[3]);
+    }
+
+    /**
+     * 解析空格分隔的数值列表，支持 "g 次数 值" 的重复写法
+     */
+    private static float[] parseDeltas(String value) {
+        if (value == null || value.isBlank()) {
+            return new float[0];
+        }
+        String[] tokens = value.trim().split("\\s+");
+        List<Float> numbers = new ArrayList<>();
+        for (int i = 0; i < tokens.length; i++) {
+            if ("g".equals(tokens[i]) && i + 2 < tokens.length) {
+                int count = Integer.parseInt(tokens[i + 1]);
+                float repeated = Float.parseFloat(tokens[i + 2]);
+                for (int j = 0; j < count; j++) {
+                    numbers.add(repeated);
+                }
+                i += 2;
+            } else {
+                numbers.add(Float.parseFloat(tokens[i]));
+            }
+        }
+        float[] result = new float[numbers.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = numbers.get(i);
+        }
+        return result;
+    }
+
+    private static float parseFloat(String value, float defaultValue) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Color parseColor(Element colorElement, Color defaultColor) {
+        if (colorElement == null) {
+            return defaultColor;
+        }
+        float[] rgb = parseDeltas(colorElement.getAttribute("Value"));
+        if (rgb.length < 3) {
+            return defaultColor;
+        }
+        return new Color(clampColor(rgb[0]), clampColor(rgb[1]), clampColor(rgb[2]));
+    }
+
+    private static int clampColor(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    // ------------------------------------------------------------------
+    // 页面模型
+    // ------------------------------------------------------------------
+
+    /**
+     * 解析后的 OFD 页面，坐标单位为 mm，原点为页面左上角
+     */
+    public static class OfdPage {
+        private final int pageNumber;
+        private final Rectangle2D physicalBox;
+        private final List<Drawable> drawables = new ArrayList<>();
+        private final List<Glyph> glyphs = new ArrayList<>();
+        private final Map<String, String> objectText = new HashMap<>();
+        private final Map<String, Object> tagFields = new HashMap<>();
+
+        OfdPage(int pageNumber, Rectangle2D physicalBox) {
+            this.pageNumber = pageNumber;
+            this.physicalBox = physicalBox;
+        }
+
+        public int getPageNumber() { return pageNumber; }
+        public Rectangle2D getPhysicalBox() { return physicalBox; }
+    }
+
+    private static class Drawable {
+        private final Rectangle2D bounds;
+        private final java.util.function.Consumer<Graphics2D> painter;
+
+        Drawable(Rectangle2D bounds, java.util.function.Consumer<Graphics2D> painter) {
+            this.bounds = bounds;
+            this.painter = painter;
+        }
+
+        void draw(Graphics2D g) {
+            painter.accept(g);
+        }
+    }
+}
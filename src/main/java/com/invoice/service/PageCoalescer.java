@@ -0,0 +1,100 @@
+package com.invoice.service;
+
+import com.invoice.model.PageDetections;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 页面识别合并（single-flight）
+ *
+ * 多个任务同时识别内容相同的页面（如同一份 PDF 被几个人先后上传）时，
+ * 只有第一个发起模型调用，其余任务等待并使用其结果的副本。
+ * 调用结束即移除，不缓存结果：之后再提交的相同页面会重新识别。
+ */
+@Slf4j
+@Service
+public class PageCoalescer {
+
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, CompletableFuture<PageDetections>> inflight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public PageCoalescer(@Value("${app.coalesce.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        log.info("页面识别合并: {}", enabled ? "开启" : "关闭");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 加入相同页面的识别
+     *
+     * @param key 页面内容摘要与识别参数
+     * @return 没有进行中的相同识别时由调用方负责识别（leader），结束后必须调用 complete 或 fail
+     */
+    public Flight acquire(String key) {
+        CompletableFuture<PageDetections> created = new CompletableFuture<>();
+        CompletableFuture<PageDetections> existing = inflight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return new Flight(key, existing, false);
+        }
+        return new Flight(key, created, true);
+    }
+
+    /**
+     * 被合并（未发起模型调用）的页面数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * 一次进行中的页面识别
+     */
+    public class Flight {
+        private final String key;
+        private final CompletableFuture<PageDetections> future;
+        private final boolean leader;
+
+        private Flight(String key, CompletableFuture<PageDetections> future, boolean leader) {
+            this.key = key;
+            this.future = future;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * 发布识别结果（保存副本，调用方可继续修改自己的结果）
+         */
+        public void complete(PageDetections result) {
+            inflight.remove(key, future);
+            future.complete(result.copy());
+        }
+
+        /**
+         * 识别失败，等待中的任务各自重新识别
+         */
+        public void fail(Throwable e) {
+            inflight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+
+        /**
+         * 等待识别结果，每次得到独立的副本
+         */
+        public CompletableFuture<PageDetections> result() {
+            return future.thenApply(PageDetections::copy);
+        }
+    }
+}
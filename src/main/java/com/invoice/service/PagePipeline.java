@@ -0,0 +1,137 @@
+package com.invoice.service;
+
+import com.invoice.dto.PipelineStatsResponse;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * 页面流水线（分阶段处理，SEDA）
+ * 渲染 → 编码 → 识别 → 解析 → 裁切 → 保存，每个阶段有独立的线程池与有界队列，
+ * 第 N 页等待模型响应时，第 N+1 页可以同时渲染和编码。
+ * 识别阶段使用页面调度器（按任务轮询、受模型 API 限流约束），不在这里创建线程池；
+ * 其队列不限长度，排队的页面只保留临时图片路径，位图在编码后释放、裁切时再读回，
+ * 因此渲染领先识别再多，内存中的整页位图也只有编码与裁切阶段正在处理和排队的那些。
+ */
+@Slf4j
+@Service
+public class PagePipeline {
+
+    private final PipelineStage render;
+    private final PipelineStage encode;
+    private final PipelineStage parse;
+    private final PipelineStage crop;
+    private final PipelineStage persist;
+    private final FairPageScheduler pageScheduler;
+
+    public PagePipeline(@Value("${app.pipeline.queue-capacity:16}") int queueCapacity,
+                        @Value("${app.pipeline.render-threads:0}") int renderThreads,
+                        @Value("${app.pipeline.encode-threads:0}") int encodeThreads,
+                        @Value("${app.pipeline.parse-threads:1}") int parseThreads,
+                        @Value("${app.pipeline.crop-threads:0}") int cropThreads,
+                        @Value("${app.pipeline.persist-threads:2}") int persistThreads,
+                        PipelineExecutors executors,
+                        FairPageScheduler pageScheduler) {
+        int cpuThreads = executors.getCpuThreads();
+        this.render = new PipelineStage("render", orDefault(renderThreads, cpuThreads), queueCapacity,
+            executors.cpuThreadFactory("render-"));
+        this.encode = new PipelineStage("encode", orDefault(encodeThreads, cpuThreads), queueCapacity,
+            executors.cpuThreadFactory("encode-"));
+        this.parse = new PipelineStage("parse", orDefault(parseThreads, 1), queueCapacity,
+            executors.cpuThreadFactory("parse-"));
+        this.crop = new PipelineStage("crop", orDefault(cropThreads, cpuThreads), queueCapacity,
+            executors.cpuThreadFactory("crop-"));
+        // 保存阶段以本地文件写入为主，耗时短，同样使用固定大小的平台线程池
+        this.persist = new PipelineStage("persist", orDefault(persistThreads, 2), queueCapacity,
+            executors.cpuThreadFactory("persist-"));
+        this.pageScheduler = pageScheduler;
+        log.info("页面流水线初始化完成，队列长度: {}", queueCapacity);
+    }
+
+    public PipelineStage getRender() {
+        return render;
+    }
+
+    public PipelineStage getEncode() {
+        return encode;
+    }
+
+    public PipelineStage getParse() {
+        return parse;
+    }
+
+    public PipelineStage getCrop() {
+        return crop;
+    }
+
+    public PipelineStage getPersist() {
+        return persist;
+    }
+
+    public PipelineStatsResponse stats() {
+        PipelineStatsResponse response = new PipelineStatsResponse();
+        List<PipelineStatsResponse.Stage> stages = response.getStages();
+        stages.add(render.stats());
+        stages.add(encode.stats());
+        stages.add(pageScheduler.stats());
+        stages.add(parse.stats());
+        stages.add(crop.stats());
+        stages.add(persist.stats());
+        return response;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        render.shutdown();
+        encode.shutdown();
+        parse.shutdown();
+        crop.shutdown();
+        persist.shutdown();
+    }
+
+    /**
+     * 包装会抛出受检异常的阶段函数，供 CompletableFuture 链使用
+     */
+    public static <T, R> Function<T, R> unchecked(StageFunction<T, R> function) {
+        return input -> {
+            try {
+                return function.apply(input);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+    }
+
+    /**
+     * 等待 future 完成，阶段中抛出的异常原样抛出
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            throw e;
+        }
+    }
+
+    private static int orDefault(int threads, int defaultThreads) {
+        return threads > 0 ? threads : Math.max(1, defaultThreads);
+    }
+
+    @FunctionalInterface
+    public interface StageFunction<T, R> {
+        R apply(T input) throws Exception;
+    }
+}
@@ -1,13 +1,26 @@
 package com.invoice.service;
 
+import com.invoice.model.Detection;
+import com.invoice.model.PageDetections;
+import com.invoice.util.InvoiceTextHeuristics;
+import com.invoice.util.InvoiceTextHeuristics.Glyph;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.contentstream.PDFGraphicsStreamEngine;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -17,7 +30,13 @@ import javax.imageio.ImageWriter;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.IIOImage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 @Slf4j
 @Service
@@ -26,6 +45,12 @@ public class PdfProcessor {
     @Value("${image.pdf.dpi:300}")
     private int dpi;
     
+    @Value("${image.pdf.text-layer.enabled:true}")
+    private boolean textLayerEnabled;
+    
+    @Value("${image.pdf.text-layer.min-chars:20}")
+    private int textLayerMinChars;
+    
     /**
      * 将 PDF 转换为图片数组
      */
@@ -88,6 +113,46 @@ public class PdfProcessor {
         return images;
     }
     
+    /**
+     * 逐页渲染 PDF，每渲染完一页立即交给 consumer，不在内存中保留整个文档的图片
+     *
+     * @return 总页数
+     */
+    public int renderPages(String pdfPath, PageConsumer consumer) throws Exception {
+        try (PDDocument document = Loader.loadPDF(new File(pdfPath))) {
+            PDFRenderer pdfRenderer = new PDFRenderer(document);
+            int totalPages = document.getNumberOfPages();
+            
+            for (int pageNum = 0; pageNum < totalPages; pageNum++) {
+                BufferedImage image = pdfRenderer.renderImageWithDPI(
+                    pageNum, dpi, ImageType.RGB);
+                consumer.accept(pageNum + 1, totalPages, image);
+            }
+            return totalPages;
+        }
+    }
+    
+    /**
+     * 只渲染指定的页面（页码从 1 开始，超出总页数的页码忽略），用于重试
+     *
+     * @return 总页数
+     */
+    public int renderPages(String pdfPath, Set<Integer> pages, PageConsumer consumer) throws Exception {
+        try (PDDocument document = Loader.loadPDF(new File(pdfPath))) {
+            PDFRenderer pdfRenderer = new PDFRenderer(document);
+            int totalPages = document.getNumberOfPages();
+            
+            for (int page : new TreeSet<>(pages)) {
+                if (page < 1 || page > totalPages) {
+                    continue;
+                }
+                BufferedImage image = pdfRenderer.renderImageWithDPI(page - 1, dpi, ImageType.RGB);
+                consumer.accept(page, totalPages, image);
+            }
+            return totalPages;
+        }
+    }
+    
     /**
      * 将 PDF 转换为 BufferedImage 列表（从字节数组）
      */
@@ -106,6 +171,399 @@ public class PdfProcessor {
         
         return images;
     }
-}
-
+    
+    /**
+     * 基于文本层与矢量框线定位发票（数电发票等原生电子 PDF，无需调用视觉模型）
+     * 坐标已换算为按 {@code image.pdf.dpi} 渲染后的像素坐标，与 pdfToBufferedImages 的结果一致
+     * 
+     * @return 页码（从1开始） -> 该页定位结果；没有可用文本层或无法定位的页面不会出现在结果中
+     */
+    public Map<Integer, PageDetections> detectInvoicesFromTextLayer(String pdfPath) throws IOException {
+        Map<Integer, PageDetections> result = new HashMap<>();
+        if (!textLayerEnabled) {
+            return result;
+        }
+        
+        try (PDDocument document = Loader.loadPDF(new File(pdfPath))) {
+            for (int pageIndex = 0; pageIndex < document.getNumberOfPages(); pageIndex++) {
+                int page = pageIndex + 1;
+                try {
+                    PageDetections invoices = detectPage(document, pageIndex);
+                    if (!invoices.isEmpty()) {
+                        result.put(page, invoices);
+                        log.info("第 {} 页通过文本层定位到 {} 张发票", page, invoices.size());
+                    }
+                } catch (Exception e) {
+                    log.warn("第 {} 页文本层定位失败，回退到视觉模型: {}", page, e.getMessage());
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    private PageDetections detectPage(PDDocument document, int pageIndex) throws IOException {
+        PageDetections invoices = new PageDetections(pageIndex + 1);
+        PDPage page = document.getPage(pageIndex);
+        if (page.getRotation() % 360 != 0) {
+            // 旋转页面的坐标换算与渲染结果不一致，交给视觉模型处理
+            log.debug("第 {} 页存在旋转 ({}°)，跳过文本层定位", pageIndex + 1, page.getRotation());
+            return invoices;
+        }
+        
+        GlyphCollector glyphCollector = new GlyphCollector();
+        glyphCollector.setSortByPosition(true);
+        glyphCollector.setStartPage(pageIndex + 1);
+        glyphCollector.setEndPage(pageIndex + 1);
+        glyphCollector.getText(document);
+        List<Glyph> glyphs = glyphCollector.glyphs;
+        if (glyphs.size() < textLayerMinChars) {
+            return invoices;
+        }
+        
+        PDRectangle cropBox = page.getCropBox();
+        float pageWidth = cropBox.getWidth();
+        float pageHeight = cropBox.getHeight();
+        
+        FrameCollector frameCollector = new FrameCollector(page);
+        frameCollector.processPage(page);
+        List<Rectangle2D> regions = locateRegions(frameCollector, glyphs, pageWidth, pageHeight);
+        
+        // 没有框线但文本明显是发票时，以全部文本范围作为一张发票
+        if (regions.isEmpty() && InvoiceTextHeuristics.looksLikeInvoice(glyphs)) {
+            Rectangle2D textBounds = null;
+            for (Glyph glyph : glyphs) {
+                textBounds = union(textBounds, glyphBounds(glyph));
+            }
+            regions.add(textBounds);
+        }
+        
+        float scale = dpi / 72f;
+        float margin = 6f; // 约 2mm 的安全边距
+        for (Rectangle2D region : regions) {
+            List<Glyph> regionGlyphs = new ArrayList<>();
+            for (Glyph glyph : glyphs) {
+                if (region.contains(glyph.getCenterX(), glyph.getCenterY())) {
+                    regionGlyphs.add(glyph);
+                }
+            }
+            
+            double x1 = Math.max(0, region.getMinX() - margin);
+            double y1 = Math.max(0, region.getMinY() - margin);
+            double x2 = Math.min(pageWidth, region.getMaxX() + margin);
+            double y2 = Math.min(pageHeight, region.getMaxY() + margin);
+            
+            Detection invoice = new Detection(
+                (int) Math.round(x1 * scale),
+                (int) Math.round(y1 * scale),
+                (int) Math.round(x2 * scale),
+                (int) Math.round(y2 * scale)
+            );
+            invoice.setConfidence(1.0);
+            invoice.setSource("text-layer");
+            invoice.setMerchantName(InvoiceTextHeuristics.extractMerchantName(regionGlyphs));
+            invoices.add(invoice);
+        }
+        return invoices;
+    }
+    
+    /**
+     * 以发票外框为基础确定每张发票的区域，并将框外就近的标题、开票人等文字并入
+     */
+    private List<Rectangle2D> locateRegions(FrameCollector collector, List<Glyph> glyphs,
+                                            float pageWidth, float pageHeight) {
+        List<Rectangle2D> frames = locateFrames(collector, pageWidth, pageHeight);
+        List<Rectangle2D> regions = new ArrayList<>();
+        int[] glyphsInFrame = new int[frames.size()];
+        for (Rectangle2D frame : frames) {
+            regions.add((Rectangle2D) frame.clone());
+        }
+        
+        for (Glyph glyph : glyphs) {
+            int nearest = -1;
+            double nearestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < frames.size(); i++) {
+                Rectangle2D frame = frames.get(i);
+                if (glyph.getCenterX() < frame.getMinX() || glyph.getCenterX() > frame.getMaxX()) {
+                    continue;
+                }
+                if (frame.contains(glyph.getCenterX(), glyph.getCenterY())) {
+                    glyphsInFrame[i]++;
+                    nearest = -1;
+                    break;
+                }
+                // 标题、票号等位于外框上方，开票人等位于外框下方
+                double distance;
+                if (glyph.getCenterY() < frame.getMinY()) {
+                    distance = frame.getMinY() - glyph.getCenterY();
+                    if (distance > frame.getHeight() * 0.35) {
+                        continue;
+                    }
+                } else {
+                    distance = glyph.getCenterY() - frame.getMaxY();
+                    if (distance > frame.getHeight() * 0.15) {
+                        continue;
+                    }
+                }
+                if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearest = i;
+                }
+            }
+            if (nearest >= 0) {
+                regions.get(nearest).add(glyphBounds(glyph));
+            }
+        }
+        
+        // 框内几乎没有文字的多半是装饰框或印章，不作为发票
+        List<Rectangle2D> result = new ArrayList<>();
+        for (int i = 0; i < frames.size(); i++) {
+            if (glyphsInFrame[i] >= 5) {
+                result.add(regions.get(i));
+            }
+        }
+        return result;
+    }
+    
+    private List<Rectangle2D> locateFrames(FrameCollector collector, float pageWidth, float pageHeight) {
+        double pageArea = (double) pageWidth * pageHeight;
+        List<Rectangle2D> candidates = new ArrayList<>();
+        for (Rectangle2D path : collector.paintedPaths) {
+            boolean largeEnough = path.getWidth() >= pageWidth * 0.4 && path.getHeight() >= pageHeight * 0.1;
+            // 排除整页背景填充
+            boolean background = path.getWidth() * path.getHeight() >= pageArea * 0.95;
+            if (largeEnough && !background) {
+                candidates.add(path);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.addAll(framesFromRules(collector.segments, pageWidth, pageHeight));
+        }
+        
+        // 去掉嵌套在其他外框中的内部表格以及重复的框
+        List<Rectangle2D> frames = new ArrayList<>();
+        for (Rectangle2D candidate : candidates) {
+            boolean redundant = false;
+            for (Rectangle2D other : candidates) {
+                if (other != candidate && containsWithTolerance(other, candidate)
+                        && (area(other) > area(candidate) || candidates.indexOf(other) < candidates.indexOf(candidate))) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                frames.add(candidate);
+            }
+        }
+        frames.sort(Comparator.comparingDouble(Rectangle2D::getMinY));
+        return frames;
+    }
+    
+    /**
+     * 外框由独立横线绘制时，将左右对齐、上下相邻的长横线聚合为外框
+     */
+    private List<Rectangle2D> framesFromRules(List<Rectangle2D> segments, float pageWidth, float pageHeight) {
+        List<Rectangle2D> rules = new ArrayList<>();
+        for (Rectangle2D segment : segments) {
+            if (segment.getWidth() >= pageWidth * 0.4 && segment.getHeight() <= 3) {
+                rules.add(segment);
+            }
+        }
+        rules.sort(Comparator.comparingDouble(Rectangle2D::getMinY));
+        
+        List<Rectangle2D> frames = new ArrayList<>();
+        Rectangle2D cluster = null;
+        int ruleCount = 0;
+        for (Rectangle2D rule : rules) {
+            boolean aligned = cluster != null
+                && Math.abs(rule.getMinX() - cluster.getMinX()) <= 6
+                && Math.abs(rule.getMaxX() - cluster.getMaxX()) <= 6
+                && rule.getMinY() - cluster.getMaxY() <= pageHeight * 0.25;
+            if (aligned) {
+                cluster.add(rule);
+                ruleCount++;
+            } else {
+                if (cluster != null && ruleCount >= 2 && cluster.getHeight() >= pageHeight * 0.1) {
+                    frames.add(cluster);
+                }
+                cluster = (Rectangle2D) rule.clone();
+                ruleCount = 1;
+            }
+        }
+        if (cluster != null && ruleCount >= 2 && cluster.getHeight() >= pageHeight * 0.1) {
+            frames.add(cluster);
+        }
+        return frames;
+    }
+    
+    private static boolean containsWithTolerance(Rectangle2D outer, Rectangle2D inner) {
+        double tolerance = 2;
+        return inner.getMinX() >= outer.getMinX() - tolerance
+            && inner.getMinY() >= outer.getMinY() - tolerance
+            && inner.getMaxX() <= outer.getMaxX() + tolerance
+            && inner.getMaxY() <= outer.getMaxY() + tolerance;
+    }
+    
+    private static double area(Rectangle2D rect) {
+        return rect.getWidth() * rect.getHeight();
+    }
+    
+    private static Rectangle2D glyphBounds(Glyph glyph) {
+        return new Rectangle2D.Float(glyph.getX(), glyph.getY(), glyph.getWidth(), glyph.getHeight());
+    }
+    
+    private static Rectangle2D union(Rectangle2D current, Rectangle2D addition) {
+        if (current == null) {
+            return (Rectangle2D) addition.clone();
+        }
+        current.add(addition);
+        return current;
+    }
+    
+    /**
+     * 收集页面字形，坐标为裁剪框左上角原点的 pt
+     */
+    private static class GlyphCollector extends PDFTextStripper {
+        private final List<Glyph> glyphs = new ArrayList<>();
+        
+        @Override
+        protected void writeString(String text, List<TextPosition> textPositions) {
+            for (TextPosition position : textPositions) {
+                String unicode = position.getUnicode();
+                if (unicode == null || unicode.isBlank()) {
+                    continue;
+                }
+                float height = position.getHeightDir();
+                glyphs.add(new Glyph(unicode.substring(0, 1), position.getXDirAdj(),
+                    position.getYDirAdj() - height, position.getWidthDirAdj(), height));
+            }
+        }
+    }
+    
+    /**
+     * 收集页面中实际绘制的矢量路径范围，坐标换算为裁剪框左上角原点的 pt
+     */
+    private static class FrameCollector extends PDFGraphicsStreamEngine {
+        private final float offsetX;
+        private final float upperY;
+        private final List<Rectangle2D> paintedPaths = new ArrayList<>();
+        private final List<Rectangle2D> segments = new ArrayList<>();
+        private final List<Rectangle2D> pendingSegments = new ArrayList<>();
+        private final Point2D.Float currentPoint = new Point2D.Float();
+        private Rectangle2D currentPath;
+        
+        FrameCollector(PDPage page) {
+            super(page);
+            PDRectangle cropBox = page.getCropBox();
+            this.offsetX = cropBox.getLowerLeftX();
+            this.upperY = cropBox.getUpperRightY();
+        }
+        
+        private Point2D.Float toPage(double x, double y) {
+            return new Point2D.Float((float) x - offsetX, upperY - (float) y);
+        }
+        
+        private void addToPath(Point2D.Float point) {
+            if (currentPath == null) {
+                currentPath = new Rectangle2D.Float(point.x, point.y, 0, 0);
+            } else {
+                currentPath.add(point);
+            }
+        }
+        
+        @Override
+        public void appendRectangle(Point2D p0, Point2D p1, Point2D p2, Point2D p3) {
+            Rectangle2D rect = null;
+            for (Point2D point : new Point2D[] {p0, p1, p2, p3}) {
+                Point2D.Float pagePoint = toPage(point.getX(), point.getY());
+                addToPath(pagePoint);
+                rect = union(rect, new Rectangle2D.Float(pagePoint.x, pagePoint.y, 0, 0));
+            }
+            pendingSegments.add(rect);
+        }
+        
+        @Override
+        public void moveTo(float x, float y) {
+            Point2D.Float point = toPage(x, y);
+            addToPath(point);
+            currentPoint.setLocation(x, y);
+        }
+        
+        @Override
+        public void lineTo(float x, float y) {
+            Point2D.Float from = toPage(currentPoint.x, currentPoint.y);
+            Point2D.Float to = toPage(x, y);
+            addToPath(to);
+            Rectangle2D segment = new Rectangle2D.Float(from.x, from.y, 0, 0);
+            segment.add(to);
+            pendingSegments.add(segment);
+            currentPoint.setLocation(x, y);
+        }
+        
+        @Override
+        public void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            addToPath(toPage(x3, y3));
+            currentPoint.setLocation(x3, y3);
+        }
+        
+        @Override
+        public Point2D getCurrentPoint() {
+            return currentPoint;
+        }
+        
+        @Override
+        public void closePath() {
+        }
+        
+        @Override
+        public void endPath() {
+            // 仅用于裁剪的路径不会被绘制
+            currentPath = null;
+            pendingSegments.clear();
+        }
+        
+        @Override
+        public void strokePath() {
+            commitPath();
+        }
+        
+        @Override
+        public void fillPath(int windingRule) {
+            commitPath();
+        }
+        
+        @Override
+        public void fillAndStrokePath(int windingRule) {
+            commitPath();
+        }
+        
+        private void commitPath() {
+            if (currentPath != null) {
+                paintedPaths.add(currentPath);
+            }
+            segments.addAll(pendingSegments);
+            currentPath = null;
+            pendingSegments.clear();
+        }
+        
+        @Override
+        public void drawImage(PDImage pdImage) {
+        }
+        
+        @Override
+        public void clip(int windingRule) {
+        }
+        
+        @Override
+        public void shadingFill(COSName shadingName) {
+        }
+    }
 
+    /**
+     * 接收渲染完成的页面（页码从 1 开始）
+     */
+    @FunctionalInterface
+    public interface PageConsumer {
+        void accept(int page, int totalPages, BufferedImage image) throws Exception;
+    }
+}
@@ -0,0 +1,105 @@
+package com.invoice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 识别流水线使用的线程
+ * - 阻塞型工作（任务等待页面结果、页面等待模型 API）：每个任务、每次模型调用一个线程，并发数由调用方的信号量限制；
+ *   app.execution.virtual-threads 开启且 JVM 支持时为虚拟线程（Executors.newThreadPerTaskExecutor），
+ *   否则为按需创建、空闲回收的平台线程
+ * - CPU 密集型工作（PDF 渲染、JPEG 编码、裁切、保存）：固定大小的平台线程池，默认线程数与 CPU 核数相同
+ *
+ * 项目以 Java 17 编译，虚拟线程通过反射创建（需要 Java 21 及以上运行时）
+ */
+@Slf4j
+@Service
+public class PipelineExecutors {
+
+    private final boolean virtualThreads;
+    private final int cpuThreads;
+    private final Method virtualName;
+    private final Method virtualFactory;
+    private final Object virtualBuilder;
+    private final Method threadPerTaskExecutor;
+
+    public PipelineExecutors(@Value("${app.execution.virtual-threads:false}") boolean virtualThreadsRequested,
+                             @Value("${app.execution.cpu-threads:0}") int cpuThreads) {
+        Object builder = null;
+        Method name = null;
+        Method factory = null;
+        Method perTask = null;
+        if (virtualThreadsRequested) {
+            try {
+                builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                name = builderType.getMethod("name", String.class, long.class);
+                factory = builderType.getMethod("factory");
+                perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            } catch (ReflectiveOperationException e) {
+                log.warn("当前 JVM ({}) 不支持虚拟线程，使用平台线程", System.getProperty("java.version"));
+                builder = null;
+            }
+        }
+        this.virtualBuilder = builder;
+        this.virtualName = name;
+        this.virtualFactory = factory;
+        this.threadPerTaskExecutor = perTask;
+        this.virtualThreads = builder != null;
+
+        this.cpuThreads = cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors();
+        log.info("流水线线程初始化完成，阻塞型工作: {}, CPU 线程数: {}",
+            virtualThreads ? "虚拟线程" : "平台线程", this.cpuThreads);
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * 阻塞型工作的执行器：每次提交启动一个新线程（虚拟线程模式下为虚拟线程），不排队、不限制线程数，
+     * 调用方用信号量控制同时运行的任务数或模型调用数
+     */
+    public ExecutorService blockingExecutor(String prefix) {
+        if (virtualThreads) {
+            try {
+                Object named = virtualName.invoke(virtualBuilder, prefix, 1L);
+                ThreadFactory factory = (ThreadFactory) virtualFactory.invoke(named);
+                return (ExecutorService) threadPerTaskExecutor.invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                log.warn("创建虚拟线程执行器失败，使用平台线程: {}", e.getMessage());
+            }
+        }
+        return Executors.newCachedThreadPool(platformThreadFactory(prefix));
+    }
+
+    /**
+     * CPU 密集型阶段的默认线程数
+     */
+    public int getCpuThreads() {
+        return cpuThreads;
+    }
+
+    /**
+     * 固定大小的流水线阶段（CPU 密集型工作与文件写入）的线程工厂（平台线程）
+     */
+    public ThreadFactory cpuThreadFactory(String prefix) {
+        return platformThreadFactory(prefix);
+    }
+
+    private static ThreadFactory platformThreadFactory(String prefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package com.invoice.service;
+
+import com.invoice.dto.PipelineStatsResponse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 页面流水线中的一个阶段：固定线程数 + 有界队列
+ * 队列满时提交方等待空位（背压），上游阶段因此不会无限堆积页面图片
+ */
+public class PipelineStage implements Executor {
+
+    private final String name;
+    private final int threads;
+    private final int capacity;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong blockedSubmitCount = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    public PipelineStage(String name, int threads, int capacity, ThreadFactory threadFactory) {
+        this.name = name;
+        this.threads = threads;
+        this.capacity = capacity;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity), threadFactory, this::waitForSpace);
+    }
+
+    @Override
+    public void execute(Runnable work) {
+        pool.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                work.run();
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                completedCount.incrementAndGet();
+            }
+        });
+        maxQueueDepth.accumulateAndGet(pool.getQueue().size(), Math::max);
+    }
+
+    /**
+     * 在本阶段异步执行，任务抛出的异常使返回的 future 异常完成
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, this);
+    }
+
+    /**
+     * 在本阶段执行并等待结果，任务抛出的异常原样抛出
+     */
+    public <T> T call(Callable<T> work) throws Exception {
+        return PagePipeline.await(supply(work));
+    }
+
+    public PipelineStatsResponse.Stage stats() {
+        PipelineStatsResponse.Stage stats = new PipelineStatsResponse.Stage();
+        stats.setName(name);
+        stats.setThreads(threads);
+        stats.setActiveThreads(pool.getActiveCount());
+        stats.setQueueDepth(pool.getQueue().size());
+        stats.setQueueCapacity(capacity);
+        stats.setMaxQueueDepth(maxQueueDepth.get());
+        long completed = completedCount.get();
+        stats.setCompletedCount(completed);
+        stats.setBlockedSubmitCount(blockedSubmitCount.get());
+        stats.setAverageMillis(completed == 0 ? 0 : busyNanos.get() / 1_000_000.0 / completed);
+        return stats;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private void waitForSpace(Runnable work, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("流水线阶段已关闭: " + name);
+        }
+        blockedSubmitCount.incrementAndGet();
+        try {
+            executor.getQueue().put(work);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("等待流水线阶段 " + name + " 队列空位时被中断", e);
+        }
+        maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+    }
+}
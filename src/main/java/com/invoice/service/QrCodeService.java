@@ -0,0 +1,216 @@
+package com.invoice.service;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+import com.invoice.model.Detection;
+import com.invoice.model.PageDetections;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 发票二维码识别
+ * 增值税发票左上角的二维码包含发票代码、号码、金额、日期等信息，
+ * 本地解码后既可作为发票定位锚点，也可直接填充结构化字段
+ */
+@Slf4j
+@Service
+public class QrCodeService {
+
+    @Value("${image.qr.enabled:true}")
+    private boolean enabled;
+
+    @Value("${image.qr.max-scan-size:1600}")
+    private int maxScanSize;
+
+    @Value("${image.qr.skip-vision-when-anchored:false}")
+    private boolean skipVisionWhenAnchored;
+
+    // 发票版式比例（以二维码边长为单位，相对二维码左上角）
+    @Value("${image.qr.layout.left:0.5}")
+    private double layoutLeft;
+
+    @Value("${image.qr.layout.top:0.5}")
+    private double layoutTop;
+
+    @Value("${image.qr.layout.width:10.5}")
+    private double layoutWidth;
+
+    @Value("${image.qr.layout.height:7.0}")
+    private double layoutHeight;
+
+    /**
+     * 识别页面中的发票二维码，返回以二维码为锚点推算出的发票区域（像素坐标）及解码出的字段
+     *
+     * @param image 页面图片
+     * @param page 页码
+     * @return 当前页的定位结果，anchorX/anchorY 为二维码中心；未识别到时返回空结果
+     */
+    public PageDetections detect(BufferedImage image, int page) {
+        PageDetections invoices = new PageDetections(page);
+        if (!enabled || image == null) {
+            return invoices;
+        }
+
+        long startTime = System.currentTimeMillis();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        // 在缩小后的副本上识别，二维码在 300 DPI 下足够大，缩小后仍可解码
+        double scale = Math.min(1.0, (double) maxScanSize / Math.max(width, height));
+        BufferedImage scanImage = scale < 1.0 ? downsample(image, scale) : image;
+
+        Result[] results;
+        try {
+            LuminanceSource source = new BufferedImageLuminanceSource(scanImage);
+            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+            Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, Collections.singletonList(BarcodeFormat.QR_CODE));
+            hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+            hints.put(DecodeHintType.CHARACTER_SET, "UTF-8");
+            results = new QRCodeMultiReader().decodeMultiple(bitmap, hints);
+        } catch (NotFoundException e) {
+            log.debug("第 {} 页未发现二维码，耗时: {} ms", page, System.currentTimeMillis() - startTime);
+            return invoices;
+        } catch (Exception e) {
+            log.warn("第 {} 页二维码识别失败: {}", page, e.getMessage());
+            return invoices;
+        }
+
+        for (Result result : results) {
+            Detection invoice = parseInvoiceQrCode(result.getText());
+            if (invoice == null || result.getResultPoints() == null || result.getResultPoints().length < 3) {
+                log.debug("第 {} 页二维码不是发票二维码: {}", page, result.getText());
+                continue;
+            }
+
+            // 结果点为定位图案中心，向外扩展得到二维码边框
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = 0, maxY = 0;
+            for (ResultPoint point : result.getResultPoints()) {
+                minX = Math.min(minX, point.getX());
+                minY = Math.min(minY, point.getY());
+                maxX = Math.max(maxX, point.getX());
+                maxY = Math.max(maxY, point.getY());
+            }
+            double span = Math.max(maxX - minX, maxY - minY);
+            double expand = span * 0.17;
+            double qrX1 = (minX - expand) / scale;
+            double qrY1 = (minY - expand) / scale;
+            double qrSize = (span + expand * 2) / scale;
+
+            int x1 = clamp(qrX1 - qrSize * layoutLeft, width);
+            int y1 = clamp(qrY1 - qrSize * layoutTop, height);
+            int x2 = clamp(qrX1 + qrSize * layoutWidth, width);
+            int y2 = clamp(qrY1 + qrSize * layoutHeight, height);
+            if (x2 <= x1 || y2 <= y1) {
+                log.debug("第 {} 页二维码推算的发票区域为空，已忽略", page);
+                continue;
+            }
+            invoice.setBox(x1, y1, x2, y2);
+            invoice.setAnchorX(clamp(qrX1 + qrSize / 2, width));
+            invoice.setAnchorY(clamp(qrY1 + qrSize / 2, height));
+            invoice.setConfidence(0.8);
+            invoice.setSource("qr");
+            invoices.add(invoice);
+        }
+
+        log.info("第 {} 页识别到 {} 个发票二维码，耗时: {} ms",
+            page, invoices.size(), System.currentTimeMillis() - startTime);
+        return invoices;
+    }
+
+    /**
+     * 将二维码字段合并到包含该二维码的发票中
+     */
+    public void attachMetadata(PageDetections invoices, PageDetections qrCodes) {
+        for (Detection qrCode : qrCodes) {
+            for (Detection invoice : invoices) {
+                if (invoice.hasInvoiceFields()) {
+                    continue;
+                }
+                if (invoice.contains(qrCode.getAnchorX(), qrCode.getAnchorY())) {
+                    invoice.copyFieldsFrom(qrCode);
+                    break;
+                }
+            }
+        }
+    }
+
+    public boolean isSkipVisionWhenAnchored() {
+        return skipVisionWhenAnchored;
+    }
+
+    /**
+     * 解析增值税发票二维码
+     * 格式：01,发票种类代码,发票代码,发票号码,金额(不含税),开票日期(yyyyMMdd),校验码,加密串
+     *
+     * @return 仅含发票字段的定位结果（坐标未设置），不是发票二维码时返回 null
+     */
+    Detection parseInvoiceQrCode(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] parts = text.trim().split(",", -1);
+        if (parts.length < 6 || !"01".equals(parts[0])) {
+            return null;
+        }
+
+        String date = parts[5].trim();
+        String number = parts[3].trim();
+        if (!date.matches("\\d{8}") || !number.matches("\\d+")) {
+            return null;
+        }
+
+        Detection fields = new Detection();
+        fields.setInvoiceType(parts[1].trim());
+        if (!parts[2].trim().isEmpty()) {
+            fields.setInvoiceCode(parts[2].trim());
+        }
+        fields.setInvoiceNumber(number);
+        try {
+            fields.setAmount(new BigDecimal(parts[4].trim()));
+        } catch (NumberFormatException e) {
+            log.debug("二维码金额格式无法解析: {}", parts[4]);
+        }
+        fields.setInvoiceDate(date.substring(0, 4) + "-" + date.substring(4, 6) + "-" + date.substring(6, 8));
+        if (parts.length > 6 && !parts[6].trim().isEmpty()) {
+            fields.setCheckCode(parts[6].trim());
+        }
+        return fields;
+    }
+
+    private BufferedImage downsample(BufferedImage image, double scale) {
+        int scaledWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int scaledHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static int clamp(double value, int max) {
+        return (int) Math.round(Math.max(0, Math.min(max, value)));
+    }
+}
@@ -0,0 +1,276 @@
+package com.invoice.service;
+
+import com.invoice.dto.TaskProgressEvent;
+import com.invoice.dto.TaskStatusResponse;
+import com.invoice.model.InvoiceInfo;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 任务进度推送（Server-Sent Events），替代前端轮询任务状态
+ *
+ * 事件：
+ * - status：订阅时的任务状态快照
+ * - progress：进度、当前页、状态说明变化
+ * - page：某页识别完成，附带该页的发票
+ * - done：任务完成或失败，附带完整的任务状态，随后关闭连接
+ * - not-found：任务不存在或已过期
+ *
+ * 每个连接有自己的待发送队列，由发送线程池逐个连接依次发送，流水线线程不会因客户端网络慢而阻塞；
+ * 一个连接的发送阻塞只占用一个发送线程，不影响其他连接。
+ * 待发送事件超过 max-pending 的连接（客户端长时间不读取）会被关闭，浏览器重连后重新获得状态快照。
+ */
+@Slf4j
+@Service
+public class TaskEventService {
+
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService sender;
+    private final ScheduledExecutorService heartbeat;
+    private final long timeoutMillis;
+    private final int maxPending;
+
+    public TaskEventService(@Value("${app.events.timeout:30m}") Duration timeout,
+                            @Value("${app.events.heartbeat-seconds:15}") int heartbeatSeconds,
+                            @Value("${app.events.sender-threads:4}") int senderThreads,
+                            @Value("${app.events.max-pending:256}") int maxPending) {
+        this.timeoutMillis = timeout.toMillis();
+        this.maxPending = maxPending;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "task-events-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "task-events-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 定期发送注释行，避免代理因连接空闲而断开
+        heartbeat.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 订阅任务事件
+     * 连接先登记再读取任务状态，读取与登记之间结束的任务也能收到 done 事件
+     *
+     * @param status 读取当前任务状态，任务不存在时返回 null
+     */
+    public SseEmitter subscribe(String taskId, Supplier<TaskStatusResponse> status) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(taskId, emitter);
+        // 状态快照是该连接的第一个事件，之后广播的事件排在它后面
+        subscriber.pending.add(() -> {
+            TaskStatusResponse current = status.get();
+            if (current == null) {
+                subscriber.send("not-found", "任务不存在: " + taskId);
+                subscriber.close();
+            } else if (isFinished(current)) {
+                subscriber.send("done", current);
+                subscriber.close();
+            } else {
+                subscriber.send("status", current);
+            }
+        });
+
+        subscribers.computeIfAbsent(taskId, id -> new CopyOnWriteArrayList<>()).add(subscriber);
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(e -> unsubscribe(subscriber));
+        subscriber.schedule();
+        return emitter;
+    }
+
+    /**
+     * 推送进度变化
+     */
+    public void progress(TaskStatusResponse status) {
+        if (status == null || !subscribers.containsKey(status.getTaskId())) {
+            return;
+        }
+        TaskProgressEvent event = new TaskProgressEvent();
+        event.setTaskId(status.getTaskId());
+        event.setStatus(status.getStatus());
+        event.setProgress(status.getProgress());
+        event.setCurrentPage(status.getCurrentPage());
+        event.setTotalPages(status.getTotalPages());
+        event.setStatusMessage(status.getStatusMessage());
+        broadcast(status.getTaskId(), "progress", event, false);
+    }
+
+    /**
+     * 推送单页识别结果
+     */
+    public void pageCompleted(String taskId, int page, List<InvoiceInfo> invoices) {
+        if (!subscribers.containsKey(taskId)) {
+            return;
+        }
+        TaskProgressEvent event = new TaskProgressEvent();
+        event.setTaskId(taskId);
+        event.setPage(page);
+        event.setInvoices(invoices);
+        broadcast(taskId, "page", event, false);
+    }
+
+    /**
+     * 推送最终状态并关闭该任务的所有连接
+     */
+    public void finished(TaskStatusResponse status) {
+        if (status == null || !subscribers.containsKey(status.getTaskId())) {
+            return;
+        }
+        broadcast(status.getTaskId(), "done", status, true);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        sender.shutdownNow();
+        subscribers.values().forEach(list -> list.forEach(subscriber -> subscriber.emitter.complete()));
+        subscribers.clear();
+    }
+
+    private void broadcast(String taskId, String name, Object data, boolean complete) {
+        List<Subscriber> list = subscribers.get(taskId);
+        if (list == null) {
+            return;
+        }
+        for (Subscriber subscriber : list) {
+            subscriber.offer(() -> {
+                subscriber.send(name, data);
+                if (complete) {
+                    subscriber.close();
+                }
+            });
+        }
+    }
+
+    private void heartbeat() {
+        subscribers.values().forEach(list -> list.forEach(subscriber -> subscriber.offer(subscriber::ping)));
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscriber.closed = true;
+        subscribers.computeIfPresent(subscriber.taskId, (id, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private static boolean isFinished(TaskStatusResponse status) {
+        return "COMPLETED".equals(status.getStatus()) || "FAILED".equals(status.getStatus())
+            || "CANCELLED".equals(status.getStatus());
+    }
+
+    /**
+     * 一个连接：待发送的事件按顺序发送，同一时间最多一个发送线程在处理
+     */
+    private class Subscriber {
+        private final String taskId;
+        private final SseEmitter emitter;
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        Subscriber(String taskId, SseEmitter emitter) {
+            this.taskId = taskId;
+            this.emitter = emitter;
+            pendingCount.incrementAndGet();
+        }
+
+        void offer(Runnable event) {
+            if (closed) {
+                return;
+            }
+            if (pendingCount.incrementAndGet() > maxPending) {
+                log.warn("任务事件连接积压超过 {} 条，关闭连接: taskId={}", maxPending, taskId);
+                close();
+                return;
+            }
+            pending.add(event);
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // 正在关闭
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            Runnable event;
+            while (!closed && (event = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                event.run();
+            }
+            if (closed) {
+                pending.clear();
+            }
+            scheduled.set(false);
+            // 释放标记后到达的事件
+            if (!closed && !pending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        void send(String name, Object data) {
+            if (closed) {
+                return;
+            }
+            try {
+                emitter.send(SseEmitter.event().name(name).data(data));
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开
+                log.debug("推送任务事件失败: taskId={}, event={}, error={}", taskId, name, e.getMessage());
+                unsubscribe(this);
+            }
+        }
+
+        void ping() {
+            if (closed) {
+                return;
+            }
+            try {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            } catch (IOException | IllegalStateException e) {
+                unsubscribe(this);
+            }
+        }
+
+        void close() {
+            unsubscribe(this);
+            emitter.complete();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.invoice.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.invoice.model.InvoiceInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务日志（本地追加写文件，每行一条 JSON 记录）
+ * 记录任务提交、逐页结果（成功或失败）和最终状态，服务重启后据此恢复任务状态，未完成的任务从最后完成的页继续。
+ *
+ * 写入由单独的线程批量完成：一批记录写完后只执行一次 fsync（组提交），调用方不等待落盘。
+ * 启动时回放日志并压缩：已淘汰或已取消的任务、超过保留期的已完成任务不再写回；
+ * 运行中日志超过 compact-min-size 且比上次压缩后增长一倍时，由写入线程在两批记录之间同样压缩。
+ */
+@Slf4j
+@Service
+public class TaskJournal {
+
+    public static final String SUBMITTED = "SUBMITTED";
+    public static final String PAGE_DONE = "PAGE_DONE";
+    public static final String PAGE_FAILED = "PAGE_FAILED";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+    public static final String EVICTED = "EVICTED";
+    public static final String CANCELLED = "CANCELLED";
+
+    private static final Entry STOP = new Entry();
+
+    @Value("${app.journal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.journal.path:data/task-journal.log}")
+    private String journalPath;
+
+    @Value("${app.journal.fsync:true}")
+    private boolean fsync;
+
+    @Value("${app.journal.max-batch:256}")
+    private int maxBatch;
+
+    @Value("${app.journal.compact-min-size:16MB}")
+    private DataSize compactMinSize;
+
+    @Value("${app.task-store.completed-ttl:1h}")
+    private Duration completedTtl;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+    private Path path;
+    private FileChannel channel;
+    private Thread writer;
+    // 上次压缩后的日志大小，仅由写入线程访问
+    private long compactedSize;
+    private List<RecoveredTask> recoveredTasks = Collections.emptyList();
+
+    // 写入统计
+    private final AtomicLong appendCount = new AtomicLong();
+    private final AtomicLong fsyncCount = new AtomicLong();
+    private final AtomicLong fsyncNanos = new AtomicLong();
+    private final AtomicLong compactCount = new AtomicLong();
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            log.info("任务日志已禁用，重启后任务状态不会恢复");
+            return;
+        }
+        path = Paths.get(journalPath).toAbsolutePath().normalize();
+        Files.createDirectories(path.getParent());
+
+        recoveredTasks = replay(path);
+        compactedSize = compact(path, recoveredTasks);
+
+        channel = openChannel();
+        writer = new Thread(this::writeLoop, "task-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("任务日志已打开: {}, 恢复任务 {} 个, fsync: {}", path, recoveredTasks.size(), fsync);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        queue.add(STOP);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            channel.close();
+        } catch (Exception e) {
+            log.warn("关闭任务日志失败: {}", e.getMessage());
+        }
+        log.info("任务日志已关闭，共写入 {} 条记录，fsync {} 次，平均耗时 {} μs",
+            appendCount.get(), fsyncCount.get(), averageFsyncMicros());
+    }
+
+    /**
+     * 启动时回放得到的任务（按提交顺序）
+     */
+    public List<RecoveredTask> getRecoveredTasks() {
+        return recoveredTasks;
+    }
+
+    public void submitted(String taskId, String filename, String contentType, String sourcePath,
+                          int cropPadding, String outputFormat, String createdAt) {
+        Entry entry = new Entry(SUBMITTED, taskId);
+        entry.setFilename(filename);
+        entry.setContentType(contentType);
+        entry.setSourcePath(sourcePath);
+        entry.setCropPadding(cropPadding);
+        entry.setOutputFormat(outputFormat);
+        entry.setTime(createdAt);
+        append(entry);
+    }
+
+    public void pageCompleted(String taskId, int page, int totalPages, List<InvoiceInfo> invoices) {
+        Entry entry = new Entry(PAGE_DONE, taskId);
+        entry.setPage(page);
+        entry.setTotalPages(totalPages);
+        entry.setInvoices(invoices);
+        append(entry);
+    }
+
+    public void pageFailed(String taskId, int page, Integer totalPages, String message) {
+        Entry entry = new Entry(PAGE_FAILED, taskId);
+        entry.setPage(page);
+        entry.setTotalPages(totalPages);
+        entry.setMessage(message);
+        append(entry);
+    }
+
+    public void completed(String taskId, String completedAt) {
+        Entry entry = new Entry(COMPLETED, taskId);
+        entry.setTime(completedAt);
+        append(entry);
+    }
+
+    public void failed(String taskId, String message) {
+        Entry entry = new Entry(FAILED, taskId);
+        entry.setMessage(message);
+        append(entry);
+    }
+
+    public void evicted(String taskId) {
+        append(new Entry(EVICTED, taskId));
+    }
+
+    public void cancelled(String taskId) {
+        append(new Entry(CANCELLED, taskId));
+    }
+
+    public long getAppendCount() {
+        return appendCount.get();
+    }
+
+    public long getFsyncCount() {
+        return fsyncCount.get();
+    }
+
+    public long getCompactCount() {
+        return compactCount.get();
+    }
+
+    public long averageFsyncMicros() {
+        long count = fsyncCount.get();
+        return count == 0 ? 0 : fsyncNanos.get() / count / 1000;
+    }
+
+    private void append(Entry entry) {
+        if (writer == null) {
+            return;
+        }
+        if (entry.getTime() == null) {
+            entry.setTime(Instant.now().toString());
+        }
+        queue.add(entry);
+    }
+
+    /**
+     * 写入线程：阻塞取出第一条后把队列中已有的记录一并写入，整批只 fsync 一次
+     */
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(maxBatch);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+
+                StringBuilder lines = new StringBuilder();
+                for (Entry entry : batch) {
+                    if (entry == STOP) {
+                        running = false;
+                        continue;
+                    }
+                    lines.append(objectMapper.writeValueAsString(entry)).append('\n');
+                }
+                if (lines.length() > 0) {
+                    OutputStream out = Channels.newOutputStream(channel);
+                    out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    if (fsync) {
+                        long start = System.nanoTime();
+                        channel.force(false);
+                        fsyncNanos.addAndGet(System.nanoTime() - start);
+                        fsyncCount.incrementAndGet();
+                    }
+                    appendCount.addAndGet(running ? batch.size() : batch.size() - 1);
+                }
+                if (running) {
+                    compactIfGrown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Exception e) {
+                log.error("写入任务日志失败，丢弃 {} 条记录: {}", batch.size(), e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 运行中压缩：日志超过下限且比上次压缩后增长一倍时，回放当前文件并重写
+     * 只在写入线程中调用，压缩期间新记录在队列中等待
+     */
+    private void compactIfGrown() throws IOException {
+        long size = channel.size();
+        if (size < compactMinSize.toBytes() || size < compactedSize * 2) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        channel.close();
+        List<RecoveredTask> tasks;
+        try {
+            tasks = replay(path);
+            compactedSize = compact(path, tasks);
+        } catch (IOException e) {
+            // 压缩失败不影响继续追加，等日志再增长一倍后重试
+            compactedSize = size;
+            log.warn("压缩任务日志失败: {}", e.getMessage());
+            return;
+        } finally {
+            channel = openChannel();
+        }
+        compactCount.incrementAndGet();
+        log.info("任务日志已压缩: {} -> {} 字节，保留任务 {} 个，耗时 {} ms",
+            size, compactedSize, tasks.size(), System.currentTimeMillis() - start);
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 回放日志，末尾写了一半的记录（崩溃导致）会被跳过
+     */
+    private List<RecoveredTask> replay(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return Collections.emptyList();
+        }
+        Map<String, RecoveredTask> tasks = new LinkedHashMap<>();
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Entry entry;
+                try {
+                    entry = objectMapper.readValue(line, Entry.class);
+                } catch (IOException e) {
+                    skipped++;
+                    continue;
+                }
+                if (SUBMITTED.equals(entry.getType())) {
+                    RecoveredTask task = new RecoveredTask();
+                    task.submitted = entry;
+                    tasks.put(entry.getTaskId(), task);
+                    continue;
+                }
+                RecoveredTask task = tasks.get(entry.getTaskId());
+                if (task == null) {
+                    continue;
+                }
+                switch (entry.getType()) {
+                    // 重试成功的页面以 PAGE_DONE 覆盖之前的 PAGE_FAILED
+                    case PAGE_DONE, PAGE_FAILED -> task.pages.put(entry.getPage(), entry);
+                    case COMPLETED, FAILED -> task.terminal = entry;
+                    case EVICTED, CANCELLED -> tasks.remove(entry.getTaskId());
+                    default -> { }
+                }
+            }
+        }
+        if (skipped > 0) {
+            log.warn("任务日志中有 {} 条记录无法解析，已跳过", skipped);
+        }
+
+        // 超过保留期的已完成任务不再恢复
+        Instant cutoff = Instant.now().minus(completedTtl);
+        tasks.values().removeIf(task -> task.terminal != null
+            && Instant.parse(task.terminal.getTime()).isBefore(cutoff));
+        return new ArrayList<>(tasks.values());
+    }
+
+    /**
+     * 用回放结果重写日志，丢弃已淘汰任务的记录
+     *
+     * @return 压缩后的日志大小
+     */
+    private long compact(Path path, Collection<RecoveredTask> tasks) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".compact");
+        StringBuilder lines = new StringBuilder();
+        for (RecoveredTask task : tasks) {
+            lines.append(objectMapper.writeValueAsString(task.submitted)).append('\n');
+            for (Entry page : task.pages.values()) {
+                lines.append(objectMapper.writeValueAsString(page)).append('\n');
+            }
+            if (task.terminal != null) {
+                lines.append(objectMapper.writeValueAsString(task.terminal)).append('\n');
+            }
+        }
+        try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(StandardCharsets.UTF_8.encode(lines.toString()));
+            out.force(true);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(path);
+    }
+
+    /**
+     * 日志记录
+     */
+    @Data
+    public static class Entry {
+        private String type;
+        private String taskId;
+        private String time;
+        private String filename;
+        private String contentType;
+        private String sourcePath;
+        private Integer cropPadding;
+        private String outputFormat;
+        private Integer page;
+        private Integer totalPages;
+        private List<InvoiceInfo> invoices;
+        private String message;
+
+        public Entry() {
+        }
+
+        Entry(String type, String taskId) {
+            this.type = type;
+            this.taskId = taskId;
+        }
+    }
+
+    /**
+     * 回放得到的任务
+     */
+    public static class RecoveredTask {
+        private Entry submitted;
+        private final Map<Integer, Entry> pages = new TreeMap<>();
+        private Entry terminal;
+
+        public Entry getSubmitted() { return submitted; }
+        public Entry getTerminal() { return terminal; }
+
+        public boolean isFinished() {
+            return terminal != null;
+        }
+
+        /**
+         * 已完成页面的发票，页码 -> 发票列表
+         */
+        public Map<Integer, List<InvoiceInfo>> getCompletedPages() {
+            Map<Integer, List<InvoiceInfo>> result = new TreeMap<>();
+            for (Entry page : pages.values()) {
+                if (PAGE_DONE.equals(page.getType())) {
+                    result.put(page.getPage(), page.getInvoices() != null ? page.getInvoices() : List.of());
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 失败的页面，页码 -> 失败原因
+         */
+        public Map<Integer, String> getFailedPages() {
+            Map<Integer, String> result = new TreeMap<>();
+            for (Entry page : pages.values()) {
+                if (PAGE_FAILED.equals(page.getType())) {
+                    result.put(page.getPage(), page.getMessage());
+                }
+            }
+            return result;
+        }
+
+        public Integer getTotalPages() {
+            return pages.isEmpty() ? null : pages.values().iterator().next().getTotalPages();
+        }
+    }
+}
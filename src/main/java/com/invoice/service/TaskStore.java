@@ -0,0 +1,278 @@
+package com.invoice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.invoice.dto.PageState;
+import com.invoice.dto.TaskStatusResponse;
+import com.invoice.dto.TaskStoreStatsResponse;
+import com.invoice.model.InvoiceInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务状态存储
+ * 有界缓存：未完成任务按 active-ttl 保留，完成/失败后按 completed-ttl 过期；
+ * 总权重超出上限时淘汰已结束的任务（未结束任务权重为 0，不会因超限被淘汰，避免处理中的文件被删除），
+ * 淘汰（过期或超限）时同步删除该任务的文件，并在任务日志中记录，重启后不再恢复
+ *
+ * 存储的是不可变快照：{@link #update} 复制当前快照、修改后以新版本号整体替换，已发布的快照不再修改，
+ * 读取方（查询接口、进度推送）拿到的对象不会被工作线程并发改动。过期时间与权重在每次替换时重新计算。
+ *
+ * 版本号全局递增，初始值取启动时间（微秒），重启后的版本号大于重启前发出的版本号
+ */
+@Slf4j
+@Service
+public class TaskStore {
+
+    private final Cache<String, TaskStatusResponse> cache;
+    private final FileCleanupService fileCleanupService;
+    private final TaskJournal taskJournal;
+    private final long maxWeight;
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong deletedFileCount = new AtomicLong();
+
+    public TaskStore(@Value("${app.task-store.max-weight:20000}") long maxWeight,
+                     @Value("${app.task-store.completed-ttl:1h}") Duration completedTtl,
+                     @Value("${app.task-store.active-ttl:24h}") Duration activeTtl,
+                     FileCleanupService fileCleanupService,
+                     TaskJournal taskJournal) {
+        this.fileCleanupService = fileCleanupService;
+        this.taskJournal = taskJournal;
+        this.maxWeight = maxWeight;
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(maxWeight)
+            .weigher((String taskId, TaskStatusResponse task) -> weigh(task))
+            .expireAfter(new TaskExpiry(completedTtl.toNanos(), activeTtl.toNanos()))
+            .scheduler(Scheduler.systemScheduler())  // 无读写时也能及时清理过期任务
+            .removalListener((String taskId, TaskStatusResponse task, RemovalCause cause) -> onRemoval(taskId, cause))
+            .recordStats()
+            .build();
+        log.info("任务状态存储初始化完成，权重上限: {}, 完成后保留: {}, 未完成保留: {}",
+            maxWeight, completedTtl, activeTtl);
+    }
+
+    /**
+     * 新增任务（写入后不应再修改该对象）
+     */
+    public void put(TaskStatusResponse task) {
+        task.setVersion(versions.incrementAndGet());
+        stampInvoices(task);
+        cache.put(task.getTaskId(), task);
+    }
+
+    /**
+     * 基于当前快照生成新版本并替换
+     *
+     * @return 新快照，任务不存在时返回 null
+     */
+    public TaskStatusResponse update(String taskId, Consumer<TaskStatusResponse> change) {
+        return cache.asMap().computeIfPresent(taskId, (id, current) -> {
+            TaskStatusResponse next = current.copy();
+            next.setVersion(versions.incrementAndGet());
+            change.accept(next);
+            stampInvoices(next);
+            return next;
+        });
+    }
+
+    /**
+     * 追加已完成页面的发票，处理中即可查询到；列表按页码、页内序号排序
+     *
+     * @return 新快照，任务不存在时返回 null
+     */
+    public TaskStatusResponse addInvoices(String taskId, List<InvoiceInfo> invoices) {
+        return update(taskId, next -> {
+            List<InvoiceInfo> all = next.getInvoices() != null ? next.getInvoices() : new ArrayList<>();
+            all.addAll(invoices);
+            all.sort(Comparator.comparing(InvoiceInfo::getPage, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(InvoiceInfo::getIndex, Comparator.nullsLast(Comparator.naturalOrder())));
+            next.setInvoices(all);
+            next.setTotalInvoices(all.size());
+        });
+    }
+
+    /**
+     * 初始化逐页状态：已完成的页面为 DONE（保留已有的完成状态），其余为 PENDING
+     *
+     * @return 新快照，任务不存在时返回 null
+     */
+    public TaskStatusResponse initPages(String taskId, int totalPages, Set<Integer> donePages) {
+        return update(taskId, next -> {
+            Map<Integer, PageState> existing = new HashMap<>();
+            if (next.getPages() != null) {
+                next.getPages().forEach(state -> existing.put(state.getPage(), state));
+            }
+            List<PageState> pages = new ArrayList<>(totalPages);
+            for (int page = 1; page <= totalPages; page++) {
+                PageState state = existing.get(page);
+                if (!donePages.contains(page)) {
+                    state = PageState.of(page, PageState.PENDING);
+                } else if (state == null || !PageState.DONE.equals(state.getStatus())) {
+                    state = PageState.of(page, PageState.DONE);
+                }
+                pages.add(state);
+            }
+            next.setPages(pages);
+            next.setFailedPages(0);
+            next.setCutPages(null);
+        });
+    }
+
+    /**
+     * 替换单页状态，失败页数与未处理页码随之重新统计
+     *
+     * @return 新快照，任务不存在时返回 null
+     */
+    public TaskStatusResponse updatePage(String taskId, PageState state) {
+        return update(taskId, next -> setPage(next, state));
+    }
+
+    /**
+     * 在待发布的快照上替换单页状态（供 {@link #update} 的修改函数中使用）
+     */
+    static void setPage(TaskStatusResponse next, PageState state) {
+        List<PageState> pages = next.getPages() != null ? next.getPages() : new ArrayList<>();
+        pages.removeIf(page -> page.getPage() == state.getPage());
+        pages.add(state);
+        pages.sort(Comparator.comparingInt(PageState::getPage));
+        next.setPages(pages);
+        next.setFailedPages((int) pages.stream()
+            .filter(page -> PageState.FAILED.equals(page.getStatus()))
+            .count());
+        List<Integer> cutPages = pages.stream()
+            .filter(page -> PageState.CUT.equals(page.getStatus()))
+            .map(PageState::getPage)
+            .toList();
+        next.setCutPages(cutPages.isEmpty() ? null : cutPages);
+    }
+
+    public TaskStatusResponse get(String taskId) {
+        return cache.getIfPresent(taskId);
+    }
+
+    /**
+     * 读取任务状态但不计入命中统计，供处理过程中的检查点使用
+     */
+    public TaskStatusResponse peek(String taskId) {
+        return cache.asMap().get(taskId);
+    }
+
+    /**
+     * 主动移除任务（不删除文件）
+     */
+    public void remove(String taskId) {
+        cache.invalidate(taskId);
+    }
+
+    public TaskStoreStatsResponse stats() {
+        CacheStats stats = cache.stats();
+        TaskStoreStatsResponse response = new TaskStoreStatsResponse();
+        response.setSize(cache.estimatedSize());
+        response.setWeight(cache.policy().eviction()
+            .map(eviction -> eviction.weightedSize().orElse(0L))
+            .orElse(0L));
+        response.setMaxWeight(maxWeight);
+        response.setHitCount(stats.hitCount());
+        response.setMissCount(stats.missCount());
+        response.setHitRate(stats.hitRate());
+        response.setExpiredCount(expiredCount.get());
+        response.setEvictedCount(evictedCount.get());
+        response.setDeletedFileCount(deletedFileCount.get());
+        return response;
+    }
+
+    private void onRemoval(String taskId, RemovalCause cause) {
+        if (!cause.wasEvicted()) {
+            return;
+        }
+        if (cause == RemovalCause.EXPIRED) {
+            expiredCount.incrementAndGet();
+        } else {
+            evictedCount.incrementAndGet();
+        }
+        taskJournal.evicted(taskId);
+        int deleted = fileCleanupService.deleteTaskFiles(taskId);
+        deletedFileCount.addAndGet(deleted);
+        log.info("任务已淘汰: taskId={}, 原因: {}, 删除文件 {} 个", taskId, cause, deleted);
+    }
+
+    /**
+     * 为首次加入快照的发票记录版本号，用于增量查询
+     */
+    private static void stampInvoices(TaskStatusResponse task) {
+        if (task.getInvoices() == null) {
+            return;
+        }
+        for (InvoiceInfo invoice : task.getInvoices()) {
+            if (invoice.getAddedVersion() == 0) {
+                invoice.setAddedVersion(task.getVersion());
+            }
+        }
+    }
+
+    /**
+     * 已结束的任务按发票数计重；未结束的任务为 0，Caffeine 不会按权重淘汰，结束后替换快照时重新计重
+     */
+    private static int weigh(TaskStatusResponse task) {
+        if (!isFinished(task)) {
+            return 0;
+        }
+        return 1 + (task.getInvoices() != null ? task.getInvoices().size() : 0);
+    }
+
+    /**
+     * 任务是否已结束（完成、失败或已取消）
+     */
+    static boolean isFinished(TaskStatusResponse task) {
+        return "COMPLETED".equals(task.getStatus()) || "FAILED".equals(task.getStatus())
+            || "CANCELLED".equals(task.getStatus());
+    }
+
+    /**
+     * 按任务状态决定过期时间，每次写入时重新计算
+     */
+    private static class TaskExpiry implements Expiry<String, TaskStatusResponse> {
+        private final long completedTtlNanos;
+        private final long activeTtlNanos;
+
+        TaskExpiry(long completedTtlNanos, long activeTtlNanos) {
+            this.completedTtlNanos = completedTtlNanos;
+            this.activeTtlNanos = activeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(String taskId, TaskStatusResponse task, long currentTime) {
+            return isFinished(task) ? completedTtlNanos : activeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String taskId, TaskStatusResponse task,
+                                      long currentTime, long currentDuration) {
+            return isFinished(task) ? completedTtlNanos : activeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(String taskId, TaskStatusResponse task,
+                                    long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
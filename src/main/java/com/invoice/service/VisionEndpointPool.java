@@ -0,0 +1,405 @@
+package com.invoice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.invoice.config.VolcengineConfig;
+import com.invoice.dto.PipelineStatsResponse;
+import com.invoice.exception.DeadlineExceededException;
+import com.invoice.exception.TaskCancelledException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 视觉模型接入点池
+ *
+ * 每个接入点有独立的地址、API Key、模型、权重、并发上限与每分钟调用数上限。
+ * 每次调用选择可用接入点中（进行中调用数 + 1）/ 权重最小的一个，相同时选剩余配额多的；
+ * 全部接入点都已满时等待，直到有调用结束或配额窗口滑过。
+ * 连续失败达到阈值的接入点暂停使用一段时间，返回 429 的接入点按 Retry-After 暂停。
+ * 任务取消时唤醒等待中的调用，已取消任务的调用不再分配接入点。
+ */
+@Slf4j
+@Service
+public class VisionEndpointPool {
+
+    private static final long WINDOW_MILLIS = 60_000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    // 已取消的任务：等待接入点的调用被唤醒后结束；取消前已通过检查点、稍后才来取接入点的调用同样拒绝
+    private final Cache<String, Boolean> cancelledTasks = Caffeine.newBuilder()
+        .expireAfterWrite(Duration.ofMinutes(10))
+        .build();
+    private final int failureThreshold;
+    private final long cooldownMillis;
+
+    public VisionEndpointPool(VolcengineConfig config) {
+        this.failureThreshold = Math.max(1, config.getHealth().getFailureThreshold());
+        this.cooldownMillis = config.getHealth().getCooldown().toMillis();
+        if (config.getEndpoints().isEmpty()) {
+            endpoints.add(new Endpoint("default", config.getBaseUrl(), config.getArkApiKey(),
+                config.getModel().getName(), 1, 0, 0));
+        } else {
+            for (int i = 0; i < config.getEndpoints().size(); i++) {
+                VolcengineConfig.EndpointConfig endpoint = config.getEndpoints().get(i);
+                endpoints.add(new Endpoint(
+                    endpoint.getName() != null ? endpoint.getName() : "endpoint-" + (i + 1),
+                    endpoint.getBaseUrl() != null ? endpoint.getBaseUrl() : config.getBaseUrl(),
+                    endpoint.getArkApiKey() != null ? endpoint.getArkApiKey() : config.getArkApiKey(),
+                    endpoint.getModel() != null ? endpoint.getModel() : config.getModel().getName(),
+                    Math.max(1, endpoint.getWeight()),
+                    Math.max(0, endpoint.getMaxConcurrency()),
+                    Math.max(0, endpoint.getRequestsPerMinute())));
+            }
+        }
+        for (Endpoint endpoint : endpoints) {
+            log.info("模型接入点: {}, Base URL: {}, 模型: {}, 权重: {}, 并发上限: {}, 每分钟调用上限: {}",
+                endpoint.name, endpoint.baseUrl, endpoint.model, endpoint.weight,
+                endpoint.maxConcurrency == 0 ? "不限" : endpoint.maxConcurrency,
+                endpoint.requestsPerMinute == 0 ? "不限" : endpoint.requestsPerMinute);
+        }
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * 全部接入点可同时进行的调用数（不限并发的接入点按 1 计），用于确定页面工作线程数
+     */
+    public int getTotalConcurrency() {
+        return endpoints.stream().mapToInt(endpoint -> Math.max(1, endpoint.maxConcurrency)).sum();
+    }
+
+    /**
+     * 使用的模型（逗号分隔），识别结果与模型有关
+     */
+    public String getModelNames() {
+        TreeSet<String> models = new TreeSet<>();
+        endpoints.forEach(endpoint -> models.add(endpoint.model));
+        return String.join(",", models);
+    }
+
+    /**
+     * 是否还有接入点支持结构化输出（response_format）
+     */
+    public boolean supportsStructuredOutput() {
+        lock.lock();
+        try {
+            return endpoints.stream().anyMatch(endpoint -> !endpoint.structuredOutputUnsupported);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录接入点不支持结构化输出，之后的结构化调用不再分配到该接入点
+     */
+    public void markStructuredOutputUnsupported(Endpoint endpoint) {
+        lock.lock();
+        try {
+            if (!endpoint.structuredOutputUnsupported) {
+                endpoint.structuredOutputUnsupported = true;
+                log.warn("模型接入点 {} 不支持结构化输出，之后使用自由文本模式", endpoint.name);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取得一个接入点的调用许可，没有可用接入点时等待；调用结束后必须 release
+     *
+     * @param structured 结构化输出调用，只分配到支持结构化输出的接入点
+     * @param taskId 所属任务，任务取消后不再等待；为 null 时不检查
+     * @param deadlineAt 任务截止时间（epoch 毫秒），0 表示不限
+     * @return 接入点；结构化输出调用且已没有接入点支持时返回 null
+     * @throws DeadlineExceededException 到截止时间仍没有可用接入点
+     * @throws TaskCancelledException 任务已取消
+     */
+    public Endpoint acquire(boolean structured, String taskId, long deadlineAt) throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (true) {
+                if (taskId != null && cancelledTasks.getIfPresent(taskId) != null) {
+                    throw new TaskCancelledException(taskId);
+                }
+                if (structured && endpoints.stream().allMatch(endpoint -> endpoint.structuredOutputUnsupported)) {
+                    return null;
+                }
+                long now = System.currentTimeMillis();
+                Endpoint endpoint = select(null, structured, now);
+                if (endpoint != null) {
+                    endpoint.start(now);
+                    return endpoint;
+                }
+                if (deadlineAt > 0 && now >= deadlineAt) {
+                    throw new DeadlineExceededException();
+                }
+                long wakeAt = nextAvailableAt(now);
+                if (deadlineAt > 0 && (wakeAt == 0 || deadlineAt < wakeAt)) {
+                    wakeAt = deadlineAt;
+                }
+                if (wakeAt == 0) {
+                    released.await();
+                } else {
+                    released.awaitNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, wakeAt - now)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待模型接入点时被中断");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 任务取消：唤醒等待接入点的调用，该任务之后的调用不再分配接入点
+     */
+    public void cancel(String taskId) {
+        lock.lock();
+        try {
+            cancelledTasks.put(taskId, Boolean.TRUE);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 立即取得 exclude 以外的接入点（调用失败后换用其他接入点），没有可用接入点时返回 null
+     */
+    public Endpoint tryAcquire(Endpoint exclude, boolean structured) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            Endpoint endpoint = select(exclude, structured, now);
+            if (endpoint != null) {
+                endpoint.start(now);
+            }
+            return endpoint;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还调用许可并记录结果
+     *
+     * @param retryAfterMillis 429 响应的 Retry-After，未提供时为 0
+     */
+    public void release(Endpoint endpoint, Outcome outcome, long retryAfterMillis) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            endpoint.outstanding--;
+            switch (outcome) {
+                case SUCCESS -> {
+                    endpoint.completedCount++;
+                    endpoint.consecutiveFailures = 0;
+                }
+                case FAILURE -> {
+                    endpoint.failedCount++;
+                    endpoint.consecutiveFailures++;
+                    if (endpoint.consecutiveFailures >= failureThreshold) {
+                        endpoint.unavailableUntil = now + cooldownMillis;
+                        log.warn("模型接入点 {} 连续失败 {} 次，暂停使用 {} 秒",
+                            endpoint.name, endpoint.consecutiveFailures, cooldownMillis / 1000);
+                    }
+                }
+                case RATE_LIMITED -> {
+                    endpoint.rateLimitedCount++;
+                    long pause = retryAfterMillis > 0 ? retryAfterMillis : cooldownMillis;
+                    endpoint.unavailableUntil = Math.max(endpoint.unavailableUntil, now + pause);
+                    log.warn("模型接入点 {} 触发限流，暂停使用 {} ms", endpoint.name, pause);
+                }
+                case ABORTED -> {
+                    // 取消或到达截止时间，与接入点状态无关
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按 HTTP 状态码判断调用结果：429 为限流；401/403（Key 无效或欠费）与 5xx 为接入点故障；
+     * 其他状态（如不支持结构化输出的 400）说明接入点本身可用
+     */
+    public static Outcome outcomeOf(int statusCode) {
+        if (statusCode == 429) {
+            return Outcome.RATE_LIMITED;
+        }
+        if (statusCode == 401 || statusCode == 403 || statusCode >= 500) {
+            return Outcome.FAILURE;
+        }
+        return Outcome.SUCCESS;
+    }
+
+    public List<PipelineStatsResponse.Endpoint> stats() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            List<PipelineStatsResponse.Endpoint> stats = new ArrayList<>(endpoints.size());
+            for (Endpoint endpoint : endpoints) {
+                endpoint.trimWindow(now);
+                PipelineStatsResponse.Endpoint item = new PipelineStatsResponse.Endpoint();
+                item.setName(endpoint.name);
+                item.setModel(endpoint.model);
+                item.setWeight(endpoint.weight);
+                item.setOutstanding(endpoint.outstanding);
+                item.setMaxConcurrency(endpoint.maxConcurrency);
+                item.setRequestsPerMinute(endpoint.requestsPerMinute);
+                item.setRequestsLastMinute(endpoint.window.size());
+                item.setHealthy(now >= endpoint.unavailableUntil);
+                item.setConsecutiveFailures(endpoint.consecutiveFailures);
+                item.setCompletedCount(endpoint.completedCount);
+                item.setFailedCount(endpoint.failedCount);
+                item.setRateLimitedCount(endpoint.rateLimitedCount);
+                item.setStructuredOutput(!endpoint.structuredOutputUnsupported);
+                stats.add(item);
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 选择负载最低的可用接入点（调用方持有锁）
+     */
+    private Endpoint select(Endpoint exclude, boolean structured, long now) {
+        Endpoint best = null;
+        double bestLoad = 0;
+        double bestQuota = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == exclude || now < endpoint.unavailableUntil
+                    || (structured && endpoint.structuredOutputUnsupported)) {
+                continue;
+            }
+            if (endpoint.maxConcurrency > 0 && endpoint.outstanding >= endpoint.maxConcurrency) {
+                continue;
+            }
+            endpoint.trimWindow(now);
+            if (endpoint.requestsPerMinute > 0 && endpoint.window.size() >= endpoint.requestsPerMinute) {
+                continue;
+            }
+            double load = (endpoint.outstanding + 1) / (double) endpoint.weight;
+            double quota = endpoint.requestsPerMinute > 0
+                ? 1 - endpoint.window.size() / (double) endpoint.requestsPerMinute
+                : 1;
+            if (best == null || load < bestLoad || (load == bestLoad && quota > bestQuota)) {
+                best = endpoint;
+                bestLoad = load;
+                bestQuota = quota;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 最早有接入点恢复可用（暂停结束或配额窗口滑过）的时间；只能等待调用结束时返回 0
+     */
+    private long nextAvailableAt(long now) {
+        long wakeAt = 0;
+        for (Endpoint endpoint : endpoints) {
+            long at = 0;
+            if (now < endpoint.unavailableUntil) {
+                at = endpoint.unavailableUntil;
+            } else if (endpoint.requestsPerMinute > 0 && endpoint.window.size() >= endpoint.requestsPerMinute) {
+                at = endpoint.window.peekFirst() + WINDOW_MILLIS;
+            }
+            if (at > 0 && (wakeAt == 0 || at < wakeAt)) {
+                wakeAt = at;
+            }
+        }
+        return wakeAt;
+    }
+
+    /**
+     * 调用结果
+     */
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        RATE_LIMITED,
+        ABORTED
+    }
+
+    /**
+     * 一个接入点及其负载状态（状态字段由池的锁保护）
+     */
+    public static class Endpoint {
+        private final String name;
+        private final String baseUrl;
+        private final String apiKey;
+        private final String model;
+        private final int weight;
+        private final int maxConcurrency;
+        private final int requestsPerMinute;
+
+        // 最近一分钟内各次调用的开始时间
+        private final ArrayDeque<Long> window = new ArrayDeque<>();
+        private int outstanding;
+        private int consecutiveFailures;
+        private long unavailableUntil;
+        private long completedCount;
+        private long failedCount;
+        private long rateLimitedCount;
+        private boolean structuredOutputUnsupported;
+
+        private Endpoint(String name, String baseUrl, String apiKey, String model,
+                         int weight, int maxConcurrency, int requestsPerMinute) {
+            this.name = name;
+            this.baseUrl = baseUrl;
+            this.apiKey = apiKey;
+            this.model = model;
+            this.weight = weight;
+            this.maxConcurrency = maxConcurrency;
+            this.requestsPerMinute = requestsPerMinute;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getApiKey() {
+            return apiKey;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getChatCompletionsUrl() {
+            return baseUrl.endsWith("/") ? baseUrl + "chat/completions" : baseUrl + "/chat/completions";
+        }
+
+        private void start(long now) {
+            outstanding++;
+            if (requestsPerMinute > 0) {
+                window.addLast(now);
+            }
+        }
+
+        private void trimWindow(long now) {
+            while (!window.isEmpty() && window.peekFirst() <= now - WINDOW_MILLIS) {
+                window.pollFirst();
+            }
+        }
+    }
+}
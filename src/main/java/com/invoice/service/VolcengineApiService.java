@@ -1,8 +1,14 @@
 package com.invoice.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.invoice.config.VolcengineConfig;
+import com.invoice.dto.PipelineStatsResponse;
+import com.invoice.dto.VisionLocateResult;
+import com.invoice.exception.DeadlineExceededException;
+import com.invoice.exception.TaskCancelledException;
+import com.invoice.model.Detection;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,6 +16,9 @@ import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
@@ -19,9 +28,7 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class VolcengineApiService {
     
-    private final String apiKey;
-    private final String baseUrl;
-    private final String modelName;
+    private final VisionEndpointPool endpointPool;
     private final OkHttpClient httpClient;
     private final ObjectMapper objectMapper;
     
@@ -46,19 +53,57 @@ public class VolcengineApiService {
         "使用归一化坐标 (0-1000)。\n" +
         "严禁输出整图坐标 [0, 0, 1000, 1000]，除非发票真的占满全图。";
     
+    /**
+     * 结构化输出模式的提示词，格式约束由 response_format 承担，只保留定位要求
+     */
+    private static final String STRUCTURED_PROMPT =
+        "识别图片中所有发票或收据，返回每张的商家名称和边界框（归一化坐标 0-1000）。\n" +
+        "边界框宁大勿小：右侧完整包含金额和侧边小字，顶部完整包含 Logo 和标题。\n" +
+        "除非发票占满全图，不要返回 [0, 0, 1000, 1000]。";
+    
+    private static final String STRUCTURED_SCHEMA =
+        "{\"type\":\"json_schema\",\"json_schema\":{\"name\":\"invoice_locations\",\"strict\":true," +
+        "\"schema\":{\"type\":\"object\",\"properties\":{\"invoices\":{\"type\":\"array\",\"items\":{" +
+        "\"type\":\"object\",\"properties\":{" +
+        "\"merchantName\":{\"type\":\"string\"}," +
+        "\"bbox\":{\"type\":\"array\",\"items\":{\"type\":\"integer\"},\"minItems\":4,\"maxItems\":4}}," +
+        "\"required\":[\"merchantName\",\"bbox\"],\"additionalProperties\":false}}}," +
+        "\"required\":[\"invoices\"],\"additionalProperties\":false}}}";
+    
+    private final JsonNode structuredResponseFormat;
+    
     @Autowired
-    public VolcengineApiService(VolcengineConfig config) {
-        this.apiKey = config.getArkApiKey();
-        this.baseUrl = config.getBaseUrl();
-        this.modelName = config.getModel().getName();
+    public VolcengineApiService(VolcengineConfig config, VisionEndpointPool endpointPool) {
+        this.endpointPool = endpointPool;
         this.objectMapper = new ObjectMapper();
+        VolcengineConfig.TimeoutConfig timeout = config.getTimeout();
         this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
-                .readTimeout(300, TimeUnit.SECONDS) // 增加到5分钟，视觉模型处理可能较慢
+                .connectTimeout(timeout.getConnect())
+                .writeTimeout(timeout.getWrite())
+                .readTimeout(timeout.getRead())
                 .build();
+        try {
+            this.structuredResponseFormat = objectMapper.readTree(STRUCTURED_SCHEMA);
+        } catch (IOException e) {
+            throw new IllegalStateException("结构化输出 Schema 定义错误", e);
+        }
         
-        log.info("VolcengineApiService 初始化完成，使用 Base URL: {}", this.baseUrl);
+        log.info("VolcengineApiService 初始化完成，接入点数: {}, 返回格式: {}", 
+            endpointPool.size(), config.getResponseMode());
+    }
+    
+    /**
+     * 使用的模型（逗号分隔）
+     */
+    public String getModelNames() {
+        return endpointPool.getModelNames();
+    }
+    
+    /**
+     * 各接入点的负载与健康状态
+     */
+    public List<PipelineStatsResponse.Endpoint> endpointStats() {
+        return endpointPool.stats();
     }
     
     /**
@@ -79,108 +124,350 @@ public class VolcengineApiService {
      * 调用视觉模型 API（使用自定义 prompt）
      */
     public String callVolcengineVisionApi(String imagePath, String customPrompt, int pageNumber) throws Exception {
+        return callVolcengineVisionApi(imagePath, customPrompt, pageNumber, null, 0);
+    }
+    
+    /**
+     * 调用视觉模型 API（请求标记所属任务，任务取消时可中断）
+     * 
+     * @param deadlineAt 任务截止时间（epoch 毫秒），整个调用不超过剩余时间；0 表示不限
+     */
+    public String callVolcengineVisionApi(String imagePath, String customPrompt, int pageNumber,
+                                          String taskId, long deadlineAt) throws Exception {
+        String basePrompt = customPrompt != null ? customPrompt : DEFAULT_PROMPT;
         try {
-            // 读取图片尺寸
-            java.awt.image.BufferedImage img = javax.imageio.ImageIO.read(new File(imagePath));
-            int imageWidth = img != null ? img.getWidth() : 0;
-            int imageHeight = img != null ? img.getHeight() : 0;
-            
-            // 准备图片 - 转换为 base64
-            byte[] imageBytes = Files.readAllBytes(Paths.get(imagePath));
-            String imageBase64 = Base64.getEncoder().encodeToString(imageBytes);
-            String imageDataUrl = "data:image/jpeg;base64," + imageBase64;
-            
-            // 构建 Prompt
-            String basePrompt = customPrompt != null ? customPrompt : DEFAULT_PROMPT;
-            String pageInfo = pageNumber > 1 
-                ? String.format("\n\n重要提示：这是第 %d 页图片，实际尺寸为 %dx%d 像素。请确保返回的归一化坐标（0-1000）是基于这个实际尺寸计算的。", 
-                    pageNumber, imageWidth, imageHeight)
-                : String.format("\n\n重要提示：当前图片的实际尺寸为 %dx%d 像素。请确保返回的归一化坐标（0-1000）是基于这个实际尺寸计算的。",
-                    imageWidth, imageHeight);
-            String prompt = basePrompt + pageInfo;
-            
-            // 构建 OpenAI 格式的请求
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", modelName);
-            requestBody.put("temperature", 0.0); // 设置温度为0，减少识别结果的随机性
-            
-            List<Map<String, Object>> messages = new ArrayList<>();
-            Map<String, Object> userMessage = new HashMap<>();
-            userMessage.put("role", "user");
-            
-            List<Map<String, Object>> content = new ArrayList<>();
-            Map<String, Object> textPart = new HashMap<>();
-            textPart.put("type", "text");
-            textPart.put("text", prompt);
-            content.add(textPart);
-            
-            Map<String, Object> imagePart = new HashMap<>();
-            imagePart.put("type", "image_url");
-            Map<String, String> imageUrl = new HashMap<>();
-            imageUrl.put("url", imageDataUrl);
-            imagePart.put("image_url", imageUrl);
-            content.add(imagePart);
-            
-            userMessage.put("content", content);
-            messages.add(userMessage);
-            requestBody.put("messages", messages);
-            
+            return callChatCompletion(imagePath, basePrompt, null, pageNumber, taskId, deadlineAt);
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("API 调用异常: {}", e.getMessage(), e);
+            throw e;
+        }
+    }
+    
+    /**
+     * 以结构化输出模式调用视觉模型，返回内容直接绑定为对象
+     * 
+     * @return 定位结果；接入点不支持 response_format 或返回内容不符合 Schema 时返回 null，
+     *         由调用方回退到自由文本模式
+     */
+    public VisionLocateResult callStructuredVisionApi(String imagePath, int pageNumber) throws Exception {
+        return callStructuredVisionApi(imagePath, pageNumber, null, 0);
+    }
+    
+    /**
+     * 以结构化输出模式调用视觉模型（请求标记所属任务，任务取消时可中断）
+     * 
+     * @param deadlineAt 任务截止时间（epoch 毫秒），整个调用不超过剩余时间；0 表示不限
+     */
+    public VisionLocateResult callStructuredVisionApi(String imagePath, int pageNumber,
+                                                      String taskId, long deadlineAt) throws Exception {
+        if (!endpointPool.supportsStructuredOutput()) {
+            return null;
+        }
+        String content;
+        try {
+            content = callChatCompletion(imagePath, STRUCTURED_PROMPT, structuredResponseFormat, pageNumber,
+                taskId, deadlineAt);
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (StructuredOutputUnsupportedException e) {
+            log.info("第 {} 页回退到自由文本模式: {}", pageNumber, e.getMessage());
+            return null;
+        } catch (Exception e) {
+            log.error("API 调用异常: {}", e.getMessage(), e);
+            throw e;
+        }
+        
+        try {
+            VisionLocateResult result = objectMapper.readValue(content, VisionLocateResult.class);
+            if (result == null || result.getInvoices() == null) {
+                log.warn("结构化输出缺少 invoices 字段，回退到自由文本模式");
+                return null;
+            }
+            return result;
+        } catch (JsonProcessingException e) {
+            log.warn("结构化输出解析失败，回退到自由文本模式: {}", e.getOriginalMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 发送 chat/completions 请求
+     * 由接入点池选择负载最低的接入点；接入点故障、限流或无法连接时换用另一个空闲接入点重试一次
+     * 
+     * @param responseFormat 结构化输出约束，为 null 时为自由文本
+     * @param taskId 所属任务，用于取消；为 null 时不标记
+     * @param deadlineAt 任务截止时间（epoch 毫秒），0 表示不限
+     * @return 模型返回的 content
+     * @throws DeadlineExceededException 调用前已超过截止时间，或调用因到达截止时间被中断
+     * @throws TaskCancelledException 等待接入点期间任务被取消
+     */
+    private String callChatCompletion(String imagePath, String basePrompt, JsonNode responseFormat,
+                                      int pageNumber, String taskId, long deadlineAt) throws IOException {
+        long startTime = System.currentTimeMillis();
+        if (deadlineAt > 0 && startTime >= deadlineAt) {
+            throw new DeadlineExceededException();
+        }
+        
+        // 读取图片尺寸
+        java.awt.image.BufferedImage img = javax.imageio.ImageIO.read(new File(imagePath));
+        int imageWidth = img != null ? img.getWidth() : 0;
+        int imageHeight = img != null ? img.getHeight() : 0;
+        
+        // 准备图片 - 转换为 base64
+        byte[] imageBytes = Files.readAllBytes(Paths.get(imagePath));
+        String imageBase64 = Base64.getEncoder().encodeToString(imageBytes);
+        String imageDataUrl = "data:image/jpeg;base64," + imageBase64;
+        
+        // 构建 Prompt
+        String pageInfo = pageNumber > 1 
+            ? String.format("\n\n重要提示：这是第 %d 页图片，实际尺寸为 %dx%d 像素。请确保返回的归一化坐标（0-1000）是基于这个实际尺寸计算的。", 
+                pageNumber, imageWidth, imageHeight)
+            : String.format("\n\n重要提示：当前图片的实际尺寸为 %dx%d 像素。请确保返回的归一化坐标（0-1000）是基于这个实际尺寸计算的。",
+                imageWidth, imageHeight);
+        String prompt = basePrompt + pageInfo;
+        
+        // 构建 OpenAI 格式的请求（model 由接入点决定）
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("temperature", 0.0); // 设置温度为0，减少识别结果的随机性
+        if (responseFormat != null) {
+            requestBody.put("response_format", responseFormat);
+        }
+        
+        List<Map<String, Object>> messages = new ArrayList<>();
+        Map<String, Object> userMessage = new HashMap<>();
+        userMessage.put("role", "user");
+        
+        List<Map<String, Object>> content = new ArrayList<>();
+        Map<String, Object> textPart = new HashMap<>();
+        textPart.put("type", "text");
+        textPart.put("text", prompt);
+        content.add(textPart);
+        
+        Map<String, Object> imagePart = new HashMap<>();
+        imagePart.put("type", "image_url");
+        Map<String, String> imageUrl = new HashMap<>();
+        imageUrl.put("url", imageDataUrl);
+        imagePart.put("image_url", imageUrl);
+        content.add(imagePart);
+        
+        userMessage.put("content", content);
+        messages.add(userMessage);
+        requestBody.put("messages", messages);
+        
+        VisionEndpointPool.Endpoint endpoint = endpointPool.acquire(responseFormat != null, taskId, deadlineAt);
+        if (endpoint == null) {
+            throw new StructuredOutputUnsupportedException("所有接入点都不支持结构化输出");
+        }
+        try {
+            return send(endpoint, requestBody, imagePath, responseFormat != null, taskId, deadlineAt, startTime);
+        } catch (IOException e) {
+            if (!shouldFailover(e) || (deadlineAt > 0 && System.currentTimeMillis() >= deadlineAt)) {
+                throw e;
+            }
+            VisionEndpointPool.Endpoint other = endpointPool.tryAcquire(endpoint, responseFormat != null);
+            if (other == null) {
+                throw e;
+            }
+            log.warn("接入点 {} 调用失败，改用接入点 {} 重试: {}", endpoint.getName(), other.getName(), e.getMessage());
+            return send(other, requestBody, imagePath, responseFormat != null, taskId, deadlineAt, startTime);
+        }
+    }
+    
+    /**
+     * 通过指定接入点发送请求，结束后归还接入点并记录调用结果
+     */
+    private String send(VisionEndpointPool.Endpoint endpoint, Map<String, Object> requestBody, String imagePath,
+                        boolean structured, String taskId, long deadlineAt, long startTime) throws IOException {
+        VisionEndpointPool.Outcome outcome = VisionEndpointPool.Outcome.FAILURE;
+        long retryAfterMillis = 0;
+        Call call = null;
+        try {
+            requestBody.put("model", endpoint.getModel());
             String json = objectMapper.writeValueAsString(requestBody);
             
             // 发送请求
-            String url = baseUrl.endsWith("/") ? baseUrl + "chat/completions" : baseUrl + "/chat/completions";
-            log.info("调用 API: {}, 模型: {}, 图片: {}", url, modelName, imagePath);
+            String url = endpoint.getChatCompletionsUrl();
+            log.info("调用 API: {}, 接入点: {}, 模型: {}, 图片: {}, 结构化输出: {}", 
+                url, endpoint.getName(), endpoint.getModel(), imagePath, structured);
             
             Request request = new Request.Builder()
                     .url(url)
-                    .addHeader("Authorization", "Bearer " + apiKey)
+                    .addHeader("Authorization", "Bearer " + endpoint.getApiKey())
                     .post(RequestBody.create(json, MediaType.parse("application/json")))
+                    .tag(String.class, taskId)
                     .build();
             
-            try (Response response = httpClient.newCall(request).execute()) {
+            call = httpClient.newCall(request);
+            if (deadlineAt > 0) {
+                // 整个调用（连接、上传、等待模型输出）不超过任务剩余时间
+                call.timeout().timeout(Math.max(1, deadlineAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+            try (Response response = call.execute()) {
                 if (!response.isSuccessful()) {
                     String errorBody = response.body() != null ? response.body().string() : "empty body";
-                    log.error("API 调用失败: HTTP {}, Body: {}", response.code(), errorBody);
-                    throw new IOException("API 错误: " + response.code() + " " + errorBody);
+                    log.error("API 调用失败: HTTP {}, 接入点: {}, Body: {}", response.code(), endpoint.getName(), errorBody);
+                    outcome = VisionEndpointPool.outcomeOf(response.code());
+                    retryAfterMillis = parseRetryAfter(response.header("Retry-After"));
+                    if (structured && isStructuredOutputRejected(response.code(), errorBody)) {
+                        endpointPool.markStructuredOutputUnsupported(endpoint);
+                        throw new StructuredOutputUnsupportedException("接入点 " + endpoint.getName()
+                            + " 不支持 response_format: " + errorBody);
+                    }
+                    throw new ApiStatusException(response.code(), "API 错误: " + response.code() + " " + errorBody);
                 }
                 
                 String responseBody = response.body().string();
                 JsonNode root = objectMapper.readTree(responseBody);
                 String contentResult = root.path("choices").get(0).path("message").path("content").asText();
+                outcome = VisionEndpointPool.Outcome.SUCCESS;
                 
-                log.info("API 调用成功，返回内容长度: {}", contentResult.length());
+                log.info("API 调用成功，返回内容长度: {}, 输出 token: {}, 耗时: {} ms", 
+                    contentResult.length(), 
+                    root.path("usage").path("completion_tokens").asInt(-1),
+                    System.currentTimeMillis() - startTime);
                 return contentResult;
+            } catch (InterruptedIOException e) {
+                if (deadlineAt > 0 && System.currentTimeMillis() >= deadlineAt) {
+                    log.warn("API 调用到达任务截止时间，已中断，任务ID: {}", taskId);
+                    outcome = VisionEndpointPool.Outcome.ABORTED;
+                    throw new DeadlineExceededException();
+                }
+                throw e;
             }
-            
-        } catch (Exception e) {
-            log.error("API 调用异常: {}", e.getMessage(), e);
-            throw e;
+        } finally {
+            if (call != null && call.isCanceled()) {
+                outcome = VisionEndpointPool.Outcome.ABORTED;
+            }
+            endpointPool.release(endpoint, outcome, retryAfterMillis);
+        }
+    }
+    
+    /**
+     * 是否换用其他接入点重试：接入点故障或限流，以及未能建立连接（请求尚未发出）；
+     * 读取超时等请求可能已被模型处理的情况不重试
+     */
+    private static boolean shouldFailover(IOException e) {
+        if (e instanceof ApiStatusException statusException) {
+            return VisionEndpointPool.outcomeOf(statusException.getStatusCode())
+                != VisionEndpointPool.Outcome.SUCCESS;
+        }
+        return e instanceof ConnectException || e instanceof UnknownHostException;
+    }
+    
+    /**
+     * 400 错误是否因为接入点不支持 response_format
+     * 其他 400（图片无效、请求过大等）换成自由文本同样会失败，不回退
+     */
+    private static boolean isStructuredOutputRejected(int statusCode, String errorBody) {
+        if (statusCode != 400 || errorBody == null) {
+            return false;
+        }
+        String body = errorBody.toLowerCase();
+        return body.contains("response_format") || body.contains("json_schema");
+    }
+    
+    /**
+     * 解析 Retry-After（秒数），无法解析时返回 0
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * 中断指定任务正在进行的 API 调用，被中断的调用抛出 IOException；
+     * 正在等待接入点的调用抛出 TaskCancelledException，不再调用模型
+     * 
+     * @return 中断的调用数
+     */
+    public int cancelCalls(String taskId) {
+        endpointPool.cancel(taskId);
+        int cancelled = 0;
+        Dispatcher dispatcher = httpClient.dispatcher();
+        List<Call> calls = new ArrayList<>(dispatcher.runningCalls());
+        calls.addAll(dispatcher.queuedCalls());
+        for (Call call : calls) {
+            if (taskId.equals(call.request().tag(String.class))) {
+                call.cancel();
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+    
+    /**
+     * API 返回非 2xx 状态码
+     */
+    static class ApiStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        private final int statusCode;
+        
+        ApiStatusException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+        
+        int getStatusCode() {
+            return statusCode;
+        }
+    }
+    
+    /**
+     * 接入点不支持结构化输出（response_format），由调用方回退到自由文本模式
+     */
+    static class StructuredOutputUnsupportedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        StructuredOutputUnsupportedException(String message) {
+            super(message);
         }
     }
 
     /**
-     * AI 自我校验：检查识别结果并进行修正
+     * AI 自我校验：检查识别结果并进行修正（就地更新坐标）
      */
-    public List<Integer> selfVerifyBbox(String originalImagePath, List<Integer> bbox) throws Exception {
-        log.info("执行 AI 自我校验，原始 bbox: {}", bbox);
+    public void selfVerifyBbox(String originalImagePath, Detection detection) throws Exception {
+        selfVerifyBbox(originalImagePath, detection, null, 0);
+    }
+    
+    /**
+     * AI 自我校验（请求标记所属任务，任务取消时可中断）
+     * 
+     * @param deadlineAt 任务截止时间（epoch 毫秒），0 表示不限
+     */
+    public void selfVerifyBbox(String originalImagePath, Detection detection, String taskId,
+                               long deadlineAt) throws Exception {
+        log.info("执行 AI 自我校验，原始 bbox: {}", detection.boxToString());
         String verifyPrompt = String.format(
             "请作为校验员复核该发票范围：\n" +
             "当前范围是 %s (归一化坐标 0-1000)。\n" +
             "重点检查：右侧金额是否完整？顶部Logo是否被切？\n" +
             "如果发现切断，请给出一个更宽大的 bbox 确保 100%% 完整。\n" +
-            "格式：<bbox>x1 y1 x2 y2</bbox>", bbox.toString());
+            "格式：<bbox>x1 y1 x2 y2</bbox>", detection.boxToString());
         
-        String response = callVolcengineVisionApi(originalImagePath, verifyPrompt, 1);
+        String response = callVolcengineVisionApi(originalImagePath, verifyPrompt, 1, taskId, deadlineAt);
         java.util.regex.Matcher m = java.util.regex.Pattern.compile("<bbox>\\s*([\\d.]+)[,\\s]+([\\d.]+)[,\\s]+([\\d.]+)[,\\s]+([\\d.]+)\\s*</bbox>").matcher(response);
         if (m.find()) {
-            return Arrays.asList(
-                (int) Math.round(Double.parseDouble(m.group(1))),
-                (int) Math.round(Double.parseDouble(m.group(2))),
-                (int) Math.round(Double.parseDouble(m.group(3))),
-                (int) Math.round(Double.parseDouble(m.group(4)))
-            );
-        }
-        return bbox;
+            try {
+                detection.setBox(
+                    (int) Math.round(Double.parseDouble(m.group(1))),
+                    (int) Math.round(Double.parseDouble(m.group(2))),
+                    (int) Math.round(Double.parseDouble(m.group(3))),
+                    (int) Math.round(Double.parseDouble(m.group(4)))
+                );
+            } catch (IllegalArgumentException e) {
+                log.warn("校验返回的坐标无效，保留原坐标: {}", e.getMessage());
+            }
+        }
     }
 }
 
@@ -1,212 +1,373 @@
 package com.invoice.util;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.invoice.dto.VisionLocateResult;
+import com.invoice.model.Detection;
+import com.invoice.model.PageDetections;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
 @Slf4j
 public class ApiResponseParser {
-    
+
+    private static final char[] BBOX_OPEN = "<bbox>".toCharArray();
+    private static final char[] BBOX_CLOSE = "</bbox>".toCharArray();
+
     private final ObjectMapper objectMapper;
-    private static final java.util.regex.Pattern JSON_PATTERN = 
-        java.util.regex.Pattern.compile("\\{.*\\}", java.util.regex.Pattern.DOTALL);
-    private static final java.util.regex.Pattern BBOX_PATTERN = 
-        java.util.regex.Pattern.compile("\\[([\\d.]+),\\s*([\\d.]+),\\s*([\\d.]+),\\s*([\\d.]+)\\]");
-    
-    // 匹配格式：商家名称 发票...<bbox>x1 y1 x2 y2</bbox>
-    private static final java.util.regex.Pattern INVOICE_NAME_BBOX_PATTERN = 
-        java.util.regex.Pattern.compile("(.+?)\\s*发票.*?<bbox>\\s*([\\d.]+)[,\\s]+([\\d.]+)[,\\s]+([\\d.]+)[,\\s]+([\\d.]+)\\s*</bbox>", java.util.regex.Pattern.CASE_INSENSITIVE);
-    
-    // 匹配通用的 <bbox>x1 y1 x2 y2</bbox> 格式
-    private static final java.util.regex.Pattern GENERIC_BBOX_TAG_PATTERN = 
-        java.util.regex.Pattern.compile("<bbox>\\s*([\\d.]+)[,\\s]+([\\d.]+)[,\\s]+([\\d.]+)[,\\s]+([\\d.]+)\\s*</bbox>", java.util.regex.Pattern.CASE_INSENSITIVE);
-    
+
     public ApiResponseParser() {
         this.objectMapper = new ObjectMapper();
     }
-    
+
     /**
      * 解析 API 返回的文本，提取发票定位信息
-     * 
+     *
+     * 单次扫描同时识别三种格式，按优先级取结果：
+     * 1. JSON 对象中的 invoices 数组
+     * 2. {@code 商家名称 发票：<bbox>x1 y1 x2 y2</bbox>} 标签（商家名称可省略）
+     * 3. 兜底的 {@code [x1, y1, x2, y2]} 数组
+     *
+     * 缺少坐标或坐标顺序非法的结果在此处丢弃，不进入后续裁剪流程
+     *
      * @param apiResponse API返回的文本内容
      * @param pageNumber 页码（从1开始），用于关联坐标到正确的页面
-     * @return 发票列表，每个发票包含bbox、confidence、page等信息
+     * @return 当前页的发票定位结果（坐标尚未映射到图片像素）
      */
-    public List<Map<String, Object>> parseApiResponse(String apiResponse, int pageNumber) {
-        List<Map<String, Object>> invoices = new ArrayList<>();
-        
+    public PageDetections parseApiResponse(String apiResponse, int pageNumber) {
+        PageDetections invoices = new PageDetections(pageNumber);
+
         if (apiResponse == null || apiResponse.trim().isEmpty()) {
             log.warn("API 返回内容为空，页码: {}", pageNumber);
             return invoices;
         }
-        
+
         log.debug("解析API响应，页码: {}", pageNumber);
-        
-        // 尝试直接解析 JSON
+
+        ScanResult scan = scan(apiResponse.toCharArray());
+
+        if (!scan.jsonBoxes.isEmpty()) {
+            for (RawBox box : scan.jsonBoxes) {
+                if (!box.hasBbox) {
+                    log.warn("JSON 结果缺少 bbox，已忽略，页码: {}", pageNumber);
+                    continue;
+                }
+                Detection detection = toDetection(box, scan.hasDecimalPoint, pageNumber);
+                if (detection != null) {
+                    detection.setConfidence(box.confidence);
+                    log.debug("解析到的归一化bbox坐标: {}", detection.boxToString());
+                    invoices.add(detection);
+                }
+            }
+            log.info("成功解析到 {} 张发票 (JSON格式)", invoices.size());
+            return invoices;
+        }
+
+        List<RawBox> fallback = !scan.tagBoxes.isEmpty() ? scan.tagBoxes : scan.arrayBoxes;
+        for (RawBox box : fallback) {
+            Detection detection = toDetection(box, scan.hasDecimalPoint, pageNumber);
+            if (detection != null) {
+                invoices.add(detection);
+                log.debug("解析到发票：商家={}, bbox={}, 页码={}",
+                    box.merchantName, detection.boxToString(), pageNumber);
+            }
+        }
+
+        if (!invoices.isEmpty()) {
+            log.info("通过文本扫描提取到 {} 张发票", invoices.size());
+        }
+
+        return invoices;
+    }
+
+    /**
+     * 转换结构化输出模式的返回结果
+     * 坐标与自由文本模式一致，为 0-1000 的归一化坐标，由 normalizeBboxCoordinates 映射到像素
+     *
+     * @param result 已绑定的模型返回内容
+     * @param pageNumber 页码（从1开始）
+     * @return 当前页的发票定位结果
+     */
+    public PageDetections fromStructuredResult(VisionLocateResult result, int pageNumber) {
+        PageDetections invoices = new PageDetections(pageNumber, result.getInvoices().size());
+        for (VisionLocateResult.Item item : result.getInvoices()) {
+            double[] bbox = item.getBbox();
+            if (bbox == null || bbox.length != 4) {
+                log.warn("结构化结果 bbox 格式错误，已忽略，页码: {}", pageNumber);
+                continue;
+            }
+            RawBox box = new RawBox();
+            box.x1 = bbox[0];
+            box.y1 = bbox[1];
+            box.x2 = bbox[2];
+            box.y2 = bbox[3];
+            String merchantName = item.getMerchantName();
+            box.merchantName = merchantName == null || merchantName.isBlank() ? null : merchantName.trim();
+            Detection detection = toDetection(box, false, pageNumber);
+            if (detection != null) {
+                invoices.add(detection);
+            }
+        }
+        log.info("成功解析到 {} 张发票 (结构化输出)", invoices.size());
+        return invoices;
+    }
+
+    /**
+     * 原始坐标转换为定位结果，坐标非法时返回 null
+     */
+    private Detection toDetection(RawBox box, boolean hasDecimalPoint, int pageNumber) {
         try {
-            java.util.regex.Matcher jsonMatcher = JSON_PATTERN.matcher(apiResponse);
-            if (jsonMatcher.find()) {
-                String jsonStr = jsonMatcher.group();
-                JsonNode data = objectMapper.readTree(jsonStr);
-                
-                if (data.has("invoices")) {
-                    JsonNode invoicesNode = data.get("invoices");
-                    if (invoicesNode.isArray()) {
-                        for (JsonNode invoice : invoicesNode) {
-                            Map<String, Object> invoiceMap = new HashMap<>();
-                            
-                            if (invoice.has("bbox") && invoice.get("bbox").isArray()) {
-                                double[] raw = new double[4];
-                                int i = 0;
-                                for (JsonNode coord : invoice.get("bbox")) {
-                                    if (i < 4) raw[i++] = coord.asDouble();
-                                }
-                                List<Integer> bbox = processRawCoordinates(raw[0], raw[1], raw[2], raw[3], apiResponse);
-                                log.debug("解析到的归一化bbox坐标: {}", bbox);
-                                invoiceMap.put("bbox", bbox);
-                            }
-                            
-                            if (invoice.has("confidence")) {
-                                invoiceMap.put("confidence", invoice.get("confidence").asDouble());
-                            } else {
-                                invoiceMap.put("confidence", 0.9);
-                            }
-                            
-                            // 优先使用API返回的页码，如果没有则使用传入的页码
-                            if (invoice.has("page")) {
-                                int apiPage = invoice.get("page").asInt();
-                                if (apiPage <= 1 && pageNumber > 1) {
-                                    invoiceMap.put("page", pageNumber);
-                                } else {
-                                    invoiceMap.put("page", apiPage);
-                                }
-                            } else {
-                                invoiceMap.put("page", pageNumber);
-                            }
-                            
-                            if (invoice.has("merchantName")) {
-                                invoiceMap.put("merchantName", invoice.get("merchantName").asText());
-                            }
-                            
-                            invoices.add(invoiceMap);
-                        }
+            Detection detection = processRawCoordinates(box, hasDecimalPoint);
+            detection.setMerchantName(box.merchantName);
+            detection.setSource("vision");
+            return detection;
+        } catch (IllegalArgumentException e) {
+            log.warn("忽略非法坐标，页码: {}, {}", pageNumber, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 单次扫描响应文本
+     * 顶层 JSON 对象在闭合时交给 Jackson 解析（直接基于字符数组区间，不截取子串），
+     * {@code <bbox>} 标签与坐标数组在扫描过程中就地解析数值
+     */
+    private ScanResult scan(char[] text) {
+        ScanResult result = new ScanResult();
+        int length = text.length;
+
+        // JSON 对象状态
+        int depth = 0;
+        int objectStart = -1;
+        boolean inString = false;
+        boolean escaped = false;
+
+        // 商家名称所在片段的起点（行首或上一个标签之后）
+        int segmentStart = 0;
+        int invoiceWordIndex = -1;
+
+        int[] end = new int[1];
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+
+            if (c == '.') {
+                result.hasDecimalPoint = true;
+            } else if (c == '\n' || c == '\r') {
+                segmentStart = i + 1;
+                invoiceWordIndex = -1;
+            } else if (c == '发' && invoiceWordIndex < 0 && i + 1 < length && text[i + 1] == '票') {
+                invoiceWordIndex = i;
+            }
+
+            // 跟踪顶层 JSON 对象的范围
+            if (depth > 0 && inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '{') {
+                if (depth++ == 0) {
+                    objectStart = i;
+                }
+            } else if (c == '}' && depth > 0) {
+                if (--depth == 0) {
+                    parseJsonObject(text, objectStart, i + 1 - objectStart, result);
+                }
+            } else if (c == '"' && depth > 0) {
+                inString = true;
+            }
+
+            if (c == '<' && regionMatchesIgnoreCase(text, i, BBOX_OPEN)) {
+                RawBox box = new RawBox();
+                if (parseCoordinates(text, i + BBOX_OPEN.length, BBOX_CLOSE, box, end)) {
+                    // 商家名称：片段起点到「发票」之间的文字
+                    if (invoiceWordIndex > segmentStart) {
+                        String name = new String(text, segmentStart, invoiceWordIndex - segmentStart).trim();
+                        box.merchantName = name.isEmpty() ? null : name;
                     }
+                    result.tagBoxes.add(box);
+                    // 标签内容被整体跳过，小数点需要单独记录
+                    result.hasDecimalPoint |= box.hasDecimalPoint;
+                    i = end[0] - 1;
+                    segmentStart = end[0];
+                    invoiceWordIndex = -1;
                 }
-                
-                if (!invoices.isEmpty()) {
-                    log.info("成功解析到 {} 张发票 (JSON格式)", invoices.size());
-                    return invoices;
+            } else if (c == '[') {
+                RawBox box = new RawBox();
+                if (parseCoordinates(text, i + 1, null, box, end)) {
+                    result.arrayBoxes.add(box);
                 }
             }
-        } catch (Exception e) {
-            log.warn("JSON 解析失败，尝试正则提取: {}", e.getMessage());
         }
-        
-        // 如果直接解析失败，尝试正则提取
-        if (invoices.isEmpty()) {
-            // 1. 尝试匹配：商家名称 发票...<bbox>x1 y1 x2 y2</bbox>
-            java.util.regex.Matcher nameBboxMatcher = INVOICE_NAME_BBOX_PATTERN.matcher(apiResponse);
-            int index = 0;
-            while (nameBboxMatcher.find()) {
-                String merchantName = nameBboxMatcher.group(1).trim();
-                double x1_r = Double.parseDouble(nameBboxMatcher.group(2));
-                double y1_r = Double.parseDouble(nameBboxMatcher.group(3));
-                double x2_r = Double.parseDouble(nameBboxMatcher.group(4));
-                double y2_r = Double.parseDouble(nameBboxMatcher.group(5));
-                
-                List<Integer> bbox = processRawCoordinates(x1_r, y1_r, x2_r, y2_r, apiResponse);
-                
-                Map<String, Object> invoice = new HashMap<>();
-                invoice.put("bbox", bbox);
-                invoice.put("confidence", 0.9);
-                invoice.put("page", pageNumber);
-                invoice.put("index", index++);
-                invoice.put("merchantName", merchantName);
-                invoices.add(invoice);
-                log.debug("解析到发票：商家={}, bbox={}, 页码={}", merchantName, bbox, pageNumber);
+
+        return result;
+    }
+
+    /**
+     * 解析 JSON 对象中的 invoices 数组
+     */
+    private void parseJsonObject(char[] text, int offset, int length, ScanResult result) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(text, offset, length)) {
+            JsonNode data = objectMapper.readTree(parser);
+            if (data == null || !data.has("invoices") || !data.get("invoices").isArray()) {
+                return;
             }
-            
-            // 2. 如果没匹配到，尝试通用的 <bbox> 标签匹配
-            if (invoices.isEmpty()) {
-                java.util.regex.Matcher genericMatcher = GENERIC_BBOX_TAG_PATTERN.matcher(apiResponse);
-                while (genericMatcher.find()) {
-                    double x1_r = Double.parseDouble(genericMatcher.group(1));
-                    double y1_r = Double.parseDouble(genericMatcher.group(2));
-                    double x2_r = Double.parseDouble(genericMatcher.group(3));
-                    double y2_r = Double.parseDouble(genericMatcher.group(4));
-                    
-                    List<Integer> bbox = processRawCoordinates(x1_r, y1_r, x2_r, y2_r, apiResponse);
-                    
-                    Map<String, Object> invoice = new HashMap<>();
-                    invoice.put("bbox", bbox);
-                    invoice.put("confidence", 0.9);
-                    invoice.put("page", pageNumber);
-                    invoice.put("index", index++);
-                    invoices.add(invoice);
-                    log.debug("解析到通用标签发票：bbox={}, 页码={}", bbox, pageNumber);
+            for (JsonNode invoice : data.get("invoices")) {
+                RawBox box = new RawBox();
+
+                if (invoice.has("bbox") && invoice.get("bbox").isArray()) {
+                    double[] raw = new double[4];
+                    int i = 0;
+                    for (JsonNode coord : invoice.get("bbox")) {
+                        if (i < 4) raw[i++] = coord.asDouble();
+                    }
+                    box.x1 = raw[0];
+                    box.y1 = raw[1];
+                    box.x2 = raw[2];
+                    box.y2 = raw[3];
+                    box.hasBbox = true;
                 }
+
+                // 页码以当前请求的页为准，模型返回的 page 字段不可靠
+                box.confidence = invoice.has("confidence") ? invoice.get("confidence").asDouble() : 0.9;
+
+                if (invoice.has("merchantName")) {
+                    box.merchantName = invoice.get("merchantName").asText();
+                }
+
+                result.jsonBoxes.add(box);
             }
-            
-            // 3. 兜底尝试匹配旧的JSON数组格式 [x1, y1, x2, y2]
-            if (invoices.isEmpty()) {
-                java.util.regex.Matcher bboxMatcher = BBOX_PATTERN.matcher(apiResponse);
-                while (bboxMatcher.find()) {
-                    double x1_r = Double.parseDouble(bboxMatcher.group(1));
-                    double y1_r = Double.parseDouble(bboxMatcher.group(2));
-                    double x2_r = Double.parseDouble(bboxMatcher.group(3));
-                    double y2_r = Double.parseDouble(bboxMatcher.group(4));
-                    
-                    List<Integer> bbox = processRawCoordinates(x1_r, y1_r, x2_r, y2_r, apiResponse);
-                    
-                    Map<String, Object> invoice = new HashMap<>();
-                    invoice.put("bbox", bbox);
-                    invoice.put("confidence", 0.9);
-                    invoice.put("page", pageNumber);
-                    invoice.put("index", index++);
-                    invoices.add(invoice);
+        } catch (Exception e) {
+            log.debug("候选 JSON 对象解析失败，继续文本扫描: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 就地解析四个坐标数值
+     * 标签格式：数值以空白或逗号分隔，以 closing 结束；数组格式（closing 为 null）：以逗号分隔，以 ] 结束
+     *
+     * @param end 解析成功时写入结束位置（不含）
+     * @return 是否解析成功
+     */
+    private boolean parseCoordinates(char[] text, int start, char[] closing, RawBox box, int[] end) {
+        double[] values = new double[4];
+        int i = start;
+        int length = text.length;
+        for (int n = 0; n < 4; n++) {
+            // 分隔符
+            if (closing != null) {
+                while (i < length && (Character.isWhitespace(text[i]) || (n > 0 && text[i] == ','))) i++;
+            } else if (n > 0) {
+                if (i >= length || text[i] != ',') return false;
+                i++;
+                while (i < length && Character.isWhitespace(text[i])) i++;
+            }
+
+            // 数值：[\d.]+
+            boolean hasDigit = false;
+            double value = 0;
+            double scale = 0;
+            for (; i < length; i++) {
+                char c = text[i];
+                if (c >= '0' && c <= '9') {
+                    hasDigit = true;
+                    if (scale == 0) {
+                        value = value * 10 + (c - '0');
+                    } else {
+                        value += (c - '0') * scale;
+                        scale /= 10;
+                    }
+                } else if (c == '.' && scale == 0) {
+                    scale = 0.1;
+                    box.hasDecimalPoint = true;
+                } else {
+                    break;
                 }
             }
-            
-            if (!invoices.isEmpty()) {
-                log.info("通过正则表达式提取到 {} 张发票", invoices.size());
+            if (!hasDigit || (i < length && text[i] == '.')) {
+                return false;
             }
+            values[n] = value;
         }
-        
-        return invoices;
+
+        if (closing != null) {
+            while (i < length && Character.isWhitespace(text[i])) i++;
+            if (!regionMatchesIgnoreCase(text, i, closing)) return false;
+            i += closing.length;
+        } else {
+            if (i >= length || text[i] != ']') return false;
+            i++;
+        }
+
+        box.x1 = values[0];
+        box.y1 = values[1];
+        box.x2 = values[2];
+        box.y2 = values[3];
+        box.hasBbox = true;
+        end[0] = i;
+        return true;
+    }
+
+    private static boolean regionMatchesIgnoreCase(char[] text, int offset, char[] expected) {
+        if (offset + expected.length > text.length) {
+            return false;
+        }
+        for (int k = 0; k < expected.length; k++) {
+            if (Character.toLowerCase(text[offset + k]) != expected[k]) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private List<Integer> processRawCoordinates(double x1_raw, double y1_raw, double x2_raw, double y2_raw, String apiResponse) {
+    private Detection processRawCoordinates(RawBox box, boolean hasDecimalPoint) {
         // 判定坐标类型：
         // 1. 如果所有坐标都在 0-1 之间（归一化比例坐标），保持为归一化坐标，转换为 0-1000 范围以便后续处理
         // 2. 如果坐标在 0-1000 范围，可能是归一化的像素坐标（相对于1000x1000的图片）
         // 3. 如果坐标很大，可能是实际像素坐标
-        
-        boolean allUnderOne = x1_raw <= 1.001 && y1_raw <= 1.001 && x2_raw <= 1.001 && y2_raw <= 1.001;
-        boolean hasDecimalPoint = apiResponse.contains(".");
-        
+
+        boolean allUnderOne = box.x1 <= 1.001 && box.y1 <= 1.001 && box.x2 <= 1.001 && box.y2 <= 1.001;
+
         // 如果坐标都在 0-1 之间，且是小数，说明是归一化比例坐标
         // 转换为 0-1000 范围的归一化坐标，以便 normalizeBboxCoordinates 正确处理
-        if (allUnderOne && hasDecimalPoint && x1_raw > 0 && y1_raw > 0) {
-            // 归一化比例坐标 (0-1) -> 归一化像素坐标 (0-1000)
-            return Arrays.asList(
-                (int) Math.round(x1_raw * 1000.0),
-                (int) Math.round(y1_raw * 1000.0),
-                (int) Math.round(x2_raw * 1000.0),
-                (int) Math.round(y2_raw * 1000.0)
-            );
-        } else {
-            // 直接使用原始坐标（可能是 0-1000 范围的归一化坐标，也可能是实际像素坐标）
-            // 后续由 normalizeBboxCoordinates 根据图片实际尺寸判断并转换
-            return Arrays.asList(
-                (int) Math.round(x1_raw), 
-                (int) Math.round(y1_raw), 
-                (int) Math.round(x2_raw), 
-                (int) Math.round(y2_raw)
-            );
-        }
+        double factor = allUnderOne && hasDecimalPoint && box.x1 > 0 && box.y1 > 0 ? 1000.0 : 1.0;
+
+        // factor 为 1 时直接使用原始坐标（可能是 0-1000 范围的归一化坐标，也可能是实际像素坐标）
+        // 后续由 normalizeBboxCoordinates 根据图片实际尺寸判断并转换
+        return new Detection(
+            (int) Math.round(box.x1 * factor),
+            (int) Math.round(box.y1 * factor),
+            (int) Math.round(box.x2 * factor),
+            (int) Math.round(box.y2 * factor)
+        );
+    }
+
+    /**
+     * 扫描得到的原始坐标
+     */
+    private static class RawBox {
+        double x1;
+        double y1;
+        double x2;
+        double y2;
+        boolean hasBbox;
+        boolean hasDecimalPoint;
+        double confidence = 0.9;
+        String merchantName;
+    }
+
+    private static class ScanResult {
+        final List<RawBox> jsonBoxes = new ArrayList<>();
+        final List<RawBox> tagBoxes = new ArrayList<>();
+        final List<RawBox> arrayBoxes = new ArrayList<>();
+        boolean hasDecimalPoint;
     }
 }
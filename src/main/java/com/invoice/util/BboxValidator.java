@@ -1,27 +1,16 @@
 package com.invoice.util;
 
-import java.util.List;
-
 public class BboxValidator {
     
     /**
      * 验证边界框坐标是否有效
      */
-    public static BboxValidationResult validateBbox(List<Integer> bbox, 
+    public static BboxValidationResult validateBbox(int x1, int y1, int x2, int y2,
                                                     int imageWidth, 
                                                     int imageHeight) {
-        if (bbox == null || bbox.size() != 4) {
-            return new BboxValidationResult(false, null, "边界框坐标格式错误，应为4个元素");
-        }
-        
-        int x1 = bbox.get(0);
-        int y1 = bbox.get(1);
-        int x2 = bbox.get(2);
-        int y2 = bbox.get(3);
-        
         // 检查坐标顺序
         if (x2 <= x1 || y2 <= y1) {
-            return new BboxValidationResult(false, null, 
+            return BboxValidationResult.invalid(
                 String.format("坐标顺序错误: x2(%d) <= x1(%d) 或 y2(%d) <= y1(%d)", x2, x1, y2, y1));
         }
         
@@ -35,38 +24,49 @@ public class BboxValidator {
             
             // 再次检查顺序
             if (correctedX2 <= correctedX1 || correctedY2 <= correctedY1) {
-                return new BboxValidationResult(false, null, 
+                return BboxValidationResult.invalid(
                     String.format("修正后的坐标无效: [x1=%d, y1=%d, x2=%d, y2=%d]", 
                         correctedX1, correctedY1, correctedX2, correctedY2));
             }
             
             return new BboxValidationResult(true, 
-                List.of(correctedX1, correctedY1, correctedX2, correctedY2),
+                correctedX1, correctedY1, correctedX2, correctedY2,
                 String.format("坐标已修正到图片范围内: [%d,%d,%d,%d] -> [%d,%d,%d,%d]", 
                     x1, y1, x2, y2, correctedX1, correctedY1, correctedX2, correctedY2));
         }
         
-        return new BboxValidationResult(true, bbox, null);
+        return new BboxValidationResult(true, x1, y1, x2, y2, null);
     }
     
     public static class BboxValidationResult {
         private final boolean valid;
-        private final List<Integer> correctedBbox;
+        private final int x1;
+        private final int y1;
+        private final int x2;
+        private final int y2;
         private final String message;
         
-        public BboxValidationResult(boolean valid, List<Integer> correctedBbox, String message) {
+        public BboxValidationResult(boolean valid, int x1, int y1, int x2, int y2, String message) {
             this.valid = valid;
-            this.correctedBbox = correctedBbox;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
             this.message = message;
         }
         
+        static BboxValidationResult invalid(String message) {
+            return new BboxValidationResult(false, 0, 0, 0, 0, message);
+        }
+        
         public boolean isValid() { 
             return valid; 
         }
         
-        public List<Integer> getCorrectedBbox() { 
-            return correctedBbox; 
-        }
+        public int getX1() { return x1; }
+        public int getY1() { return y1; }
+        public int getX2() { return x2; }
+        public int getY2() { return y2; }
         
         public String getMessage() {
             return message;
@@ -90,3 +90,4 @@ public class BboxValidator {
 
 
 
+
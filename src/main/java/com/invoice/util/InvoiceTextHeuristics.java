@@ -0,0 +1,150 @@
+package com.invoice.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 基于文本版面（字形坐标）的发票字段识别规则
+ * 供 PDF 文本层、OFD 等不需要视觉模型的路径共用
+ */
+public class InvoiceTextHeuristics {
+
+    private static final String NAME_LABEL = "名称";
+
+    private InvoiceTextHeuristics() {
+    }
+
+    /**
+     * 判断文本中是否包含发票特征
+     */
+    public static boolean looksLikeInvoice(List<Glyph> glyphs) {
+        for (List<Glyph> line : groupLines(glyphs)) {
+            if (lineText(line).contains("发票")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 提取商家（销售方）名称
+     * 规则：查找所有「名称：」标签，取阅读顺序中的最后一个。
+     * 数电发票中销售方位于购买方右侧，旧版增值税发票中销售方位于底部，二者都是最后出现的。
+     *
+     * @return 商家名称，未识别到时返回 null
+     */
+    public static String extractMerchantName(List<Glyph> glyphs) {
+        String merchantName = null;
+        for (List<Glyph> line : groupLines(glyphs)) {
+            String text = lineText(line);
+            int from = 0;
+            int labelIndex;
+            while ((labelIndex = text.indexOf(NAME_LABEL, from)) >= 0) {
+                from = labelIndex + NAME_LABEL.length();
+                int valueStart = from;
+                while (valueStart < line.size() && line.get(valueStart).getText().isBlank()) {
+                    valueStart++;
+                }
+                // 只接受「名称：」形式的标签，排除「项目名称」等表头
+                if (valueStart >= line.size() || !isColon(line.get(valueStart).getText())) {
+                    continue;
+                }
+                String value = collectValue(line, valueStart + 1);
+                if (!value.isEmpty()) {
+                    merchantName = value;
+                }
+            }
+        }
+        return merchantName;
+    }
+
+    /**
+     * 从标签后开始收集连续的字形，遇到明显间隔或下一个标签时停止
+     */
+    private static String collectValue(List<Glyph> line, int start) {
+        StringBuilder value = new StringBuilder();
+        Glyph previous = null;
+        for (int i = start; i < line.size(); i++) {
+            Glyph glyph = line.get(i);
+            if (previous != null) {
+                float charSize = Math.max(1f, Math.max(previous.getHeight(), previous.getWidth()));
+                if (glyph.getX() - (previous.getX() + previous.getWidth()) > charSize * 2.5f) {
+                    break;
+                }
+            }
+            if (value.length() > 0 && i + 1 < line.size()
+                    && (glyph.getText() + line.get(i + 1).getText()).equals(NAME_LABEL)) {
+                break;
+            }
+            value.append(glyph.getText());
+            previous = glyph;
+        }
+        return value.toString().trim();
+    }
+
+    private static boolean isColon(String text) {
+        return ":".equals(text) || "：".equals(text);
+    }
+
+    /**
+     * 按基线将字形分组为文本行，行内按 x 排序
+     * 字形 text 应为单个字符，以便行内字符索引与字形索引一一对应
+     */
+    public static List<List<Glyph>> groupLines(List<Glyph> glyphs) {
+        List<Glyph> sorted = new ArrayList<>(glyphs);
+        sorted.sort(Comparator.comparingDouble(Glyph::getCenterY));
+
+        List<List<Glyph>> lines = new ArrayList<>();
+        List<Glyph> current = null;
+        float currentCenter = 0;
+        for (Glyph glyph : sorted) {
+            float tolerance = Math.max(1f, glyph.getHeight() * 0.5f);
+            if (current == null || Math.abs(glyph.getCenterY() - currentCenter) > tolerance) {
+                current = new ArrayList<>();
+                lines.add(current);
+                currentCenter = glyph.getCenterY();
+            }
+            current.add(glyph);
+        }
+        for (List<Glyph> line : lines) {
+            line.sort(Comparator.comparingDouble(Glyph::getX));
+        }
+        return lines;
+    }
+
+    private static String lineText(List<Glyph> line) {
+        StringBuilder text = new StringBuilder(line.size());
+        for (Glyph glyph : line) {
+            text.append(glyph.getText().isEmpty() ? " " : glyph.getText().substring(0, 1));
+        }
+        return text.toString();
+    }
+
+    /**
+     * 单个字形，坐标为页面左上角原点，单位与来源一致（PDF 为 pt，OFD 为 mm）
+     */
+    public static class Glyph {
+        private final String text;
+        private final float x;
+        private final float y;
+        private final float width;
+        private final float height;
+
+        public Glyph(String text, float x, float y, float width, float height) {
+            this.text = text;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public String getText() { return text; }
+        public float getX() { return x; }
+        public float getY() { return y; }
+        public float getWidth() { return width; }
+        public float getHeight() { return height; }
+        public float getCenterX() { return x + width / 2; }
+        public float getCenterY() { return y + height / 2; }
+    }
+}
@@ -0,0 +1,138 @@
+package com.invoice.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 上传流检查：在写入磁盘的同时逐块计算 SHA-256、根据文件头识别类型、统计 PDF 页数
+ * 只保留文件头与少量跨块尾部，内存占用与文件大小无关
+ */
+public class UploadInspector {
+
+    private static final int HEADER_SIZE = 8;
+    // 跨块保留的字节数，需大于页面对象标记的最大长度
+    private static final int CARRY_SIZE = 64;
+    // 页面对象：/Type /Page（排除 /Pages）
+    private static final Pattern PAGE_OBJECT = Pattern.compile("/Type\\s*/Page(?![A-Za-z])");
+
+    private final MessageDigest digest;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerLength;
+    private long size;
+    private String carry = "";
+    private int pdfPages;
+
+    public UploadInspector() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 处理一块已读取的数据
+     */
+    public void update(byte[] buffer, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        digest.update(buffer, offset, length);
+        if (headerLength < HEADER_SIZE) {
+            int copied = Math.min(HEADER_SIZE - headerLength, length);
+            System.arraycopy(buffer, offset, header, headerLength, copied);
+            headerLength += copied;
+        }
+        size += length;
+        if ("pdf".equals(detectType(null))) {
+            countPages(new String(buffer, offset, length, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * 统计新数据中的页面对象
+     * 以匹配后一个字符的位置判定是否属于新数据，跨块的标记只计一次；
+     * 压缩对象流（PDF 1.5+）中的页面不可见，此时页数只是下限，最终以解析结果为准
+     */
+    private void countPages(String chunk) {
+        String text = carry + chunk;
+        Matcher matcher = PAGE_OBJECT.matcher(text);
+        while (matcher.find()) {
+            int next = matcher.end();
+            if (next >= carry.length() && next < text.length()) {
+                pdfPages++;
+            }
+        }
+        carry = text.substring(Math.max(0, text.length() - CARRY_SIZE));
+    }
+
+    /**
+     * 根据文件头识别类型
+     *
+     * @param filename 上传时的文件名，用于区分 OFD（ZIP 格式）；可为 null
+     * @return 文件扩展名（pdf/ofd/jpg/png/bmp/gif），文件头尚不完整或无法识别时返回 null
+     */
+    public String detectType(String filename) {
+        if (startsWith('%', 'P', 'D', 'F')) {
+            return "pdf";
+        }
+        if (startsWith(0xFF, 0xD8, 0xFF)) {
+            return "jpg";
+        }
+        if (startsWith(0x89, 'P', 'N', 'G')) {
+            return "png";
+        }
+        if (startsWith('G', 'I', 'F', '8')) {
+            return "gif";
+        }
+        if (startsWith('B', 'M')) {
+            return "bmp";
+        }
+        if (startsWith('P', 'K', 0x03, 0x04) && filename != null
+                && filename.toLowerCase().endsWith(".ofd")) {
+            return "ofd";
+        }
+        return null;
+    }
+
+    /**
+     * 文件头是否已读取完整（或文件本身不足文件头长度）
+     */
+    public boolean isHeaderComplete() {
+        return headerLength >= HEADER_SIZE;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 已发现的 PDF 页面数（非 PDF 为 0）
+     */
+    public int getPdfPages() {
+        return pdfPages;
+    }
+
+    /**
+     * 全部数据的 SHA-256（十六进制），调用后不应再更新
+     */
+    public String getSha256() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private boolean startsWith(int... magic) {
+        if (headerLength < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
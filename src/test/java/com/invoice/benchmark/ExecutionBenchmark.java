@@ -0,0 +1,87 @@
+package com.invoice.benchmark;
+
+import com.invoice.service.FairPageScheduler;
+import com.invoice.service.JobQueue;
+import com.invoice.service.PipelineExecutors;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同时进行的任务数与每个任务的内存占用
+ *
+ * 提交 N 个任务，每个任务把一个页面交给页面调度器并等待其结果，页面休眠模拟等待模型 API；
+ * 任务数与模型调用并发均设为 N，全部任务处于等待状态时统计线程数、堆内存和 RSS 的增量。
+ *
+ * 运行（virtual 需要 Java 21 及以上运行时）：
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.invoice.benchmark.ExecutionBenchmark [platform|virtual] [任务数]
+ */
+public class ExecutionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        boolean virtual = args.length > 0 && "virtual".equals(args[0]);
+        int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        PipelineExecutors executors = new PipelineExecutors(virtual, 0);
+        FairPageScheduler scheduler = new FairPageScheduler(tasks, 1, executors, null);
+        JobQueue queue = new JobQueue(tasks, 0, tasks, tasks, 1, executors);
+
+        System.gc();
+        long heapBefore = usedHeap();
+        long rssBefore = rss();
+        int threadsBefore = Thread.activeCount();
+
+        CountDownLatch inFlight = new CountDownLatch(tasks);
+        CountDownLatch release = new CountDownLatch(1);
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            String taskId = "task-" + i;
+            futures.add(queue.submit(taskId, JobQueue.Priority.BULK, () -> CompletableFuture.runAsync(() -> {
+                inFlight.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, scheduler.forTask(taskId)).get()).getFuture());
+        }
+        if (!inFlight.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("任务未能全部进入等待状态，剩余 " + inFlight.getCount());
+        }
+        long startMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.gc();
+        long heapDelta = usedHeap() - heapBefore;
+        long rssDelta = rss() - rssBefore;
+        int threads = Thread.activeCount() - threadsBefore;
+
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        queue.shutdown();
+        scheduler.shutdown();
+
+        System.out.printf("%s，任务数 %d，全部进入等待耗时 %d ms%n", virtual ? "虚拟线程" : "平台线程", tasks, startMillis);
+        System.out.printf("新增平台线程: %d%n", threads);
+        System.out.printf("每个任务: 堆 %.1f KB，RSS %.1f KB%n", heapDelta / 1024.0 / tasks, rssDelta / 1024.0 / tasks);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long rss() throws Exception {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,117 @@
+package com.invoice.benchmark;
+
+import com.invoice.model.InvoiceInfo;
+import com.invoice.service.TaskJournal;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务日志写入耗时：逐条 fsync（max-batch=1）与组提交（max-batch=256）
+ *
+ * 多个线程同时写入逐页结果（每页 3 张发票），统计调用方耗时、全部落盘耗时与 fsync 次数。
+ * 日志写在临时目录，结果与磁盘有关，需在与部署环境相同的磁盘上运行。
+ *
+ * 运行：
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.invoice.benchmark.JournalBenchmark [线程数] [记录数] [临时目录]
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Path parent = args.length > 2 ? Path.of(args[2]) : Path.of(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("线程数 %d，记录数 %d，目录 %s%n", threads, records, parent);
+        System.out.printf("%-10s %10s %12s %14s %14s%n", "max-batch", "fsync 次数", "全部落盘 ms", "调用方 us/条", "fsync 平均 us");
+        for (int maxBatch : new int[] {1, 256}) {
+            run(parent, maxBatch, threads, records);
+        }
+    }
+
+    private static void run(Path parent, int maxBatch, int threads, int records) throws Exception {
+        Path dir = Files.createTempDirectory(parent, "journal-benchmark");
+        TaskJournal journal = new TaskJournal();
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "journalPath", dir.resolve("task-journal.log").toString());
+        ReflectionTestUtils.setField(journal, "fsync", true);
+        ReflectionTestUtils.setField(journal, "maxBatch", maxBatch);
+        ReflectionTestUtils.setField(journal, "compactMinSize", DataSize.ofGigabytes(1));
+        ReflectionTestUtils.setField(journal, "completedTtl", Duration.ofHours(1));
+        journal.open();
+
+        List<String> taskIds = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String taskId = "task-" + t;
+            taskIds.add(taskId);
+            journal.submitted(taskId, taskId + ".pdf", "application/pdf", "/tmp/" + taskId + ".pdf", 10, "jpg",
+                Instant.now().toString());
+        }
+        awaitAppends(journal, threads);
+        long fsyncBefore = journal.getFsyncCount();
+        List<InvoiceInfo> invoices = List.of(invoice(1), invoice(2), invoice(3));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong callerNanos = new AtomicLong();
+        int perThread = records / threads;
+        for (String taskId : taskIds) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long begin = System.nanoTime();
+                for (int page = 1; page <= perThread; page++) {
+                    journal.pageCompleted(taskId, page, perThread, invoices);
+                }
+                callerNanos.addAndGet(System.nanoTime() - begin);
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        awaitAppends(journal, threads + (long) perThread * threads);
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        pool.shutdown();
+
+        System.out.printf("%-10d %10d %12d %14.1f %14d%n", maxBatch, journal.getFsyncCount() - fsyncBefore,
+            totalMillis, callerNanos.get() / 1000.0 / (perThread * threads), journal.averageFsyncMicros());
+        journal.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static void awaitAppends(TaskJournal journal, long count) throws InterruptedException {
+        while (journal.getAppendCount() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static InvoiceInfo invoice(int index) {
+        InvoiceInfo invoice = new InvoiceInfo();
+        invoice.setMerchantName("测试商户" + index);
+        invoice.setInvoiceNumber("2431200000001234567" + index);
+        invoice.setAmount(new BigDecimal("1234.56"));
+        invoice.setBbox(List.of(100, 100 + index * 500, 1800, 550 + index * 500));
+        return invoice;
+    }
+}
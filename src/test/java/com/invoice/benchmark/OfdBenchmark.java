@@ -0,0 +1,92 @@
+package com.invoice.benchmark;
+
+import com.invoice.service.OfdProcessor;
+
+import javax.imageio.ImageIO;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * OFD 原生处理耗时
+ *
+ * 对比每页的两种处理方式（均不含模型调用）：
+ * - 原生：解析 OFD，渲染 96 DPI 预览和 300 DPI 的发票区域，编码为 JPEG
+ * - 整页栅格化：渲染 300 DPI 整页并编码为 JPEG（PDF/图片路径在调用视觉模型前的工作）
+ *
+ * 运行：
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.invoice.benchmark.OfdBenchmark [页数] [轮数]
+ */
+public class OfdBenchmark {
+
+    private static final int DPI = 300;
+    private static final int PREVIEW_DPI = 96;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Path file = OfdSamples.write(Files.createTempFile("benchmark", ".ofd"), pages);
+        OfdProcessor processor = new OfdProcessor();
+        try {
+            // 预热
+            for (int i = 0; i < 2; i++) {
+                runNative(processor, file);
+                runFullPage(processor, file);
+            }
+            long nativeNanos = Long.MAX_VALUE;
+            long fullPageNanos = Long.MAX_VALUE;
+            long parseNanos = Long.MAX_VALUE;
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                processor.loadPages(file.toString());
+                parseNanos = Math.min(parseNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                runNative(processor, file);
+                nativeNanos = Math.min(nativeNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                runFullPage(processor, file);
+                fullPageNanos = Math.min(fullPageNanos, System.nanoTime() - start);
+            }
+            System.out.printf("页数 %d，%d 轮取最小值%n", pages, rounds);
+            System.out.printf("OFD 解析:            %8.2f ms/页%n", parseNanos / 1e6 / pages);
+            System.out.printf("原生（区域渲染）:     %8.2f ms/页%n", nativeNanos / 1e6 / pages);
+            System.out.printf("整页 300 DPI 栅格化:  %8.2f ms/页%n", fullPageNanos / 1e6 / pages);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long runNative(OfdProcessor processor, Path file) throws IOException {
+        long bytes = 0;
+        List<OfdProcessor.OfdPage> pages = processor.loadPages(file.toString());
+        for (OfdProcessor.OfdPage page : pages) {
+            Rectangle2D region = processor.locateInvoice(page);
+            bytes += jpegSize(processor.renderRegion(page, page.getPhysicalBox(), PREVIEW_DPI));
+            bytes += jpegSize(processor.renderRegion(page, region, DPI));
+            processor.extractFields(page);
+        }
+        return bytes;
+    }
+
+    private static long runFullPage(OfdProcessor processor, Path file) throws IOException {
+        long bytes = 0;
+        List<OfdProcessor.OfdPage> pages = processor.loadPages(file.toString());
+        for (OfdProcessor.OfdPage page : pages) {
+            bytes += jpegSize(processor.renderRegion(page, page.getPhysicalBox(), DPI));
+        }
+        return bytes;
+    }
+
+    private static long jpegSize(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.size();
+    }
+}
@@ -0,0 +1,107 @@
+package com.invoice.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 生成结构与增值税电子发票相近的 OFD 文件（A4 页面，上半页为发票框线、表格与文字，带 SellerName 自定义标签）
+ * 发票外框为 (10, 10) - (200, 150) mm，所有内容都在框内
+ */
+public final class OfdSamples {
+
+    public static final String SELLER_NAME = "上海测试科技有限公司";
+
+    private static final String NS = "xmlns:ofd=\"http://www.ofdspec.org/2016\"";
+
+    private OfdSamples() {
+    }
+
+    /**
+     * @param pages 页数，每页一张发票
+     */
+    public static Path write(Path file, int pages) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            put(zip, "OFD.xml", "<ofd:OFD " + NS + " Version=\"1.1\" DocType=\"OFD\"><ofd:DocBody>"
+                + "<ofd:DocInfo><ofd:DocID>sample</ofd:DocID></ofd:DocInfo>"
+                + "<ofd:DocRoot>Doc_0/Document.xml</ofd:DocRoot></ofd:DocBody></ofd:OFD>");
+
+            StringBuilder document = new StringBuilder("<ofd:Document " + NS + "><ofd:CommonData>"
+                + "<ofd:MaxUnitID>100000</ofd:MaxUnitID>"
+                + "<ofd:PageArea><ofd:PhysicalBox>0 0 210 297</ofd:PhysicalBox></ofd:PageArea>"
+                + "<ofd:PublicRes>PublicRes.xml</ofd:PublicRes></ofd:CommonData><ofd:Pages>");
+            for (int i = 0; i < pages; i++) {
+                document.append("<ofd:Page ID=\"").append(i + 1).append("\" BaseLoc=\"Pages/Page_")
+                    .append(i).append("/Content.xml\"/>");
+            }
+            document.append("</ofd:Pages><ofd:CustomTags>Tags/CustomTags.xml</ofd:CustomTags></ofd:Document>");
+            put(zip, "Doc_0/Document.xml", document.toString());
+
+            put(zip, "Doc_0/PublicRes.xml", "<ofd:Res " + NS + " BaseLoc=\"Res\"><ofd:Fonts>"
+                + "<ofd:Font ID=\"1\" FontName=\"SimSun\" FamilyName=\"Serif\"/></ofd:Fonts></ofd:Res>");
+            put(zip, "Doc_0/Tags/CustomTags.xml", "<ofd:CustomTags " + NS + "><ofd:CustomTag NameSpace=\"fp\">"
+                + "<ofd:FileLoc>Tag_Invoice.xml</ofd:FileLoc></ofd:CustomTag></ofd:CustomTags>");
+
+            StringBuilder tags = new StringBuilder("<fp:eInvoice xmlns:fp=\"http://www.edrm.org.cn/schema/e-invoice/2019\">");
+            for (int i = 0; i < pages; i++) {
+                tags.append("<fp:SellerName><fp:ObjectRef PageRef=\"").append(i + 1).append("\">")
+                    .append(sellerObjectId(i)).append("</fp:ObjectRef></fp:SellerName>");
+            }
+            tags.append("</fp:eInvoice>");
+            put(zip, "Doc_0/Tags/Tag_Invoice.xml", tags.toString());
+
+            for (int i = 0; i < pages; i++) {
+                put(zip, "Doc_0/Pages/Page_" + i + "/Content.xml", page(i));
+            }
+        }
+        return file;
+    }
+
+    private static String sellerObjectId(int page) {
+        return String.valueOf(page * 1000 + 999);
+    }
+
+    private static String page(int index) {
+        StringBuilder content = new StringBuilder("<ofd:Page " + NS + "><ofd:Content><ofd:Layer ID=\"")
+            .append(index * 1000).append("\">");
+        int id = index * 1000 + 1;
+        // 发票外框：10,10 - 200,150
+        content.append(path(id++, 10, 10, 190, 140, "M 0 0 L 190 0 L 190 140 L 0 140 C"));
+        // 表格横线与竖线
+        for (int row = 1; row < 12; row++) {
+            content.append(path(id++, 10, 10 + row * 11, 190, 0.5f, "M 0 0 L 190 0"));
+        }
+        for (int col = 1; col < 6; col++) {
+            content.append(path(id++, 10 + col * 30, 43, 0.5f, 97, "M 0 0 L 0 97"));
+        }
+        // 表格文字
+        for (int row = 0; row < 10; row++) {
+            for (int col = 0; col < 6; col++) {
+                content.append(text(id++, 12 + col * 30, 45 + row * 9, 25, "明细项目" + row + col));
+            }
+        }
+        content.append(text(sellerObjectId(index), 20, 20, 60, "名称：" + SELLER_NAME));
+        content.append("</ofd:Layer></ofd:Content></ofd:Page>");
+        return content.toString();
+    }
+
+    private static String path(int id, float x, float y, float width, float height, String data) {
+        return String.format("<ofd:PathObject ID=\"%d\" Boundary=\"%s %s %s %s\" LineWidth=\"0.25\">"
+            + "<ofd:AbbreviatedData>%s</ofd:AbbreviatedData></ofd:PathObject>",
+            id, x, y, Math.max(width, 0.5f), Math.max(height, 0.5f), data);
+    }
+
+    private static String text(Object id, float x, float y, float width, String value) {
+        return String.format("<ofd:TextObject ID=\"%s\" Boundary=\"%s %s %s 5\" Font=\"1\" Size=\"3.5\">"
+            + "<ofd:TextCode X=\"0\" Y=\"3.5\">%s</ofd:TextCode></ofd:TextObject>", id, x, y, width, value);
+    }
+
+    private static void put(ZipOutputStream zip, String name, String xml) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
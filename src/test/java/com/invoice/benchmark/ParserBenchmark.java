@@ -0,0 +1,89 @@
+package com.invoice.benchmark;
+
+import com.invoice.util.ApiResponseParser;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * 模型响应解析耗时：单次扫描（ApiResponseParser）与改写前的多轮正则（LegacyApiResponseParser）
+ *
+ * 输入：
+ * - text：自由文本模式的典型返回，3 张发票的 {@code 商家 发票：<bbox>} 标签
+ * - json：包在 Markdown 代码块中的 invoices JSON
+ * - rambling：模型没有按格式输出，大量提到“发票”但没有 bbox（旧正则在这里回溯）
+ *
+ * 运行：
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.invoice.benchmark.ParserBenchmark [rambling 字符数]
+ */
+public class ParserBenchmark {
+
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    public static void main(String[] args) {
+        int ramblingChars = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        ApiResponseParser parser = new ApiResponseParser();
+        LegacyApiResponseParser legacy = new LegacyApiResponseParser();
+
+        String[][] inputs = {
+            {"text", textResponse()},
+            {"json", jsonResponse()},
+            {"rambling", ramblingResponse(ramblingChars)},
+        };
+        System.out.printf("%-10s %10s %14s %14s %8s%n", "输入", "字符数", "单次扫描 us", "多轮正则 us", "倍数");
+        for (String[] input : inputs) {
+            String response = input[1];
+            double scan = measure(text -> parser.parseApiResponse(text, 2).size(), response);
+            double regex = measure(text -> legacy.parseApiResponse(text, 2).size(), response);
+            System.out.printf("%-10s %10d %14.1f %14.1f %8.1f%n", input[0], response.length(), scan, regex, regex / scan);
+        }
+    }
+
+    /**
+     * 预热后在固定时长内重复解析，返回平均每次耗时（微秒）
+     */
+    private static double measure(ToIntFunction<String> parse, String response) {
+        long sink = 0;
+        long warmupEnd = System.nanoTime() + MEASURE_NANOS / 2;
+        while (System.nanoTime() < warmupEnd) {
+            sink += parse.applyAsInt(response);
+        }
+        int iterations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += parse.applyAsInt(response);
+            iterations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        if (sink == Long.MIN_VALUE) {
+            System.out.println(sink);
+        }
+        return elapsed / 1e3 / iterations;
+    }
+
+    static String textResponse() {
+        return "图片中共有 3 张发票，定位结果如下：\n"
+            + "上海测试餐饮有限公司 发票：<bbox>102 85 488 431</bbox>\n"
+            + "北京示例出租汽车公司 发票：<bbox>512 90 903 402</bbox>\n"
+            + "深圳样例便利店 发票：<bbox>118 520 471 958</bbox>\n"
+            + "以上坐标均为归一化坐标 (0-1000)，已按要求向右和向上留出余量。";
+    }
+
+    static String jsonResponse() {
+        return "```json\n{\"invoices\": ["
+            + "{\"merchantName\": \"上海测试餐饮有限公司\", \"bbox\": [102, 85, 488, 431], \"confidence\": 0.95},"
+            + "{\"merchantName\": \"北京示例出租汽车公司\", \"bbox\": [512, 90, 903, 402], \"confidence\": 0.93},"
+            + "{\"merchantName\": \"深圳样例便利店\", \"bbox\": [118, 520, 471, 958], \"confidence\": 0.91}"
+            + "]}\n```";
+    }
+
+    static String ramblingResponse(int chars) {
+        StringBuilder text = new StringBuilder(chars + 64);
+        String sentence = "这张发票的右侧金额区域较模糊，发票抬头{可能}被遮挡，请参考发票上方的标题。";
+        while (text.length() < chars) {
+            text.append(sentence);
+        }
+        return text.substring(0, chars);
+    }
+}
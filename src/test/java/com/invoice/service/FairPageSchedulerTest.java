@@ -0,0 +1,98 @@
+package com.invoice.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairPageSchedulerTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> order = new CopyOnWriteArrayList<>();
+    private FairPageScheduler scheduler;
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void interleavesPagesOfConcurrentTasks() throws Exception {
+        scheduler = new FairPageScheduler(1, 1, new PipelineExecutors(false, 1), null);
+        occupyWorker();
+        submit("large", 4);
+        submit("small", 2);
+
+        runQueued(6);
+
+        assertEquals(List.of("large-1", "small-1", "large-2", "small-2", "large-3", "large-4"), order);
+    }
+
+    @Test
+    void givesEachTaskQuantumPagesPerRound() throws Exception {
+        scheduler = new FairPageScheduler(1, 2, new PipelineExecutors(false, 1), null);
+        occupyWorker();
+        submit("large", 5);
+        submit("small", 3);
+
+        runQueued(8);
+
+        assertEquals(List.of("large-1", "large-2", "small-1", "small-2", "large-3", "large-4", "small-3",
+            "large-5"), order);
+    }
+
+    @Test
+    void cancelReturnsQueuedPagesOfTheTask() throws Exception {
+        scheduler = new FairPageScheduler(1, 1, new PipelineExecutors(false, 1), null);
+        occupyWorker();
+        submit("cancelled", 3);
+        submit("other", 1);
+
+        assertEquals(3, scheduler.cancel("cancelled").size());
+        assertEquals(1, scheduler.getQueuedPages());
+
+        runQueued(1);
+        assertEquals(List.of("other-1"), order);
+    }
+
+    /**
+     * 让唯一的工作线程阻塞，之后提交的页面都留在队列中
+     */
+    private void occupyWorker() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.forTask("blocker").execute(() -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private void submit(String taskId, int pages) {
+        Executor executor = scheduler.forTask(taskId);
+        for (int i = 1; i <= pages; i++) {
+            String page = taskId + "-" + i;
+            executor.execute(() -> order.add(page));
+        }
+    }
+
+    private void runQueued(int pages) throws InterruptedException {
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (order.size() < pages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(pages, order.size());
+    }
+}
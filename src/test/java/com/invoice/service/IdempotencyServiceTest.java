@@ -0,0 +1,108 @@
+package com.invoice.service;
+
+import com.invoice.dto.TaskStatusResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyServiceTest {
+
+    private final TaskStore taskStore = new TaskStore(20000, Duration.ofHours(1), Duration.ofHours(24),
+        new FileCleanupService(), new TaskJournal());
+    private final IdempotencyService service = new IdempotencyService(Duration.ofHours(1), 1000, true, taskStore);
+
+    @Test
+    void reusesLiveTaskForSameKeyOrContent() {
+        List<String> first = service.keys("order-1", "abc", 10, "jpg");
+        assertEquals(2, first.size());
+        assertNull(service.claim(first, "task-1"));
+        createTask("task-1", "PROCESSING");
+
+        // 相同 Idempotency-Key、不同内容
+        assertEquals("task-1", service.claim(service.keys("order-1", "def", 10, "jpg"), "task-2"));
+        // 没有 Idempotency-Key、相同内容与参数
+        assertEquals("task-1", service.claim(service.keys(null, "abc", 10, "jpg"), "task-3"));
+        // 处理参数不同视为不同的提交
+        assertNull(service.claim(service.keys(null, "abc", 20, "jpg"), "task-4"));
+    }
+
+    @Test
+    void allowsResubmissionAfterFailureOrExpiry() {
+        List<String> keys = service.keys("order-2", null, 10, "jpg");
+        assertNull(service.claim(keys, "task-1"));
+        createTask("task-1", "FAILED");
+        assertNull(service.claim(keys, "task-2"));
+
+        // 已从任务存储中移除（过期或淘汰）
+        List<String> other = service.keys("order-3", null, 10, "jpg");
+        assertNull(service.claim(other, "task-3"));
+        createTask("task-3", "COMPLETED");
+        assertEquals("task-3", service.claim(other, "task-4"));
+        taskStore.remove("task-3");
+        assertNull(service.claim(other, "task-5"));
+    }
+
+    @Test
+    void releaseOnlyRemovesOwnClaim() {
+        List<String> keys = service.keys("order-4", null, 10, "jpg");
+        assertNull(service.claim(keys, "task-1"));
+        createTask("task-1", "PENDING");
+
+        service.release(keys, "task-2");
+        assertEquals("task-1", service.claim(keys, "task-3"));
+
+        service.release(keys, "task-1");
+        assertNull(service.claim(keys, "task-5"));
+    }
+
+    @Test
+    void concurrentClaimsCreateOneTask() throws Exception {
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Set<String> created = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            String taskId = "task-" + i;
+            futures.add(pool.submit(() -> {
+                start.await();
+                List<String> keys = service.keys(null, "same-content", 10, "jpg");
+                if (service.claim(keys, taskId) == null) {
+                    // 登记成功后才创建任务，与提交流程一致
+                    createTask(taskId, "PENDING");
+                    created.add(taskId);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        // 登记后、写入任务存储前到达的相同提交同样复用该任务
+        assertEquals(1, created.size());
+        assertTrue(created.iterator().next().startsWith("task-"));
+    }
+
+    private void createTask(String taskId, String status) {
+        TaskStatusResponse task = new TaskStatusResponse();
+        task.setTaskId(taskId);
+        task.setStatus(status);
+        taskStore.put(task);
+    }
+}
@@ -0,0 +1,180 @@
+package com.invoice.service;
+
+import com.invoice.exception.QueueFullException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobQueueTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private JobQueue queue;
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        queue.shutdown();
+    }
+
+    @Test
+    void rejectsBulkWhenFullButKeepsInteractiveReserve() throws Exception {
+        // 深度 2，同步保留 1，1 个工作线程，平均耗时 10 秒
+        queue = new JobQueue(2, 1, 1, 64, 10, new PipelineExecutors(false, 1));
+        occupyWorker();
+        queue.submit("bulk-1", JobQueue.Priority.BULK, () -> null);
+        queue.submit("bulk-2", JobQueue.Priority.BULK, () -> null);
+
+        QueueFullException rejected = assertThrows(QueueFullException.class,
+            () -> queue.checkCapacity("bulk-3", JobQueue.Priority.BULK));
+        // 前面有 1 个运行中 + 2 个排队，1 个工作线程 × 10 秒
+        assertEquals(30, rejected.getRetryAfterSeconds());
+        assertThrows(QueueFullException.class, () -> queue.submit("bulk-3", JobQueue.Priority.BULK, () -> null));
+        assertEquals(2, queue.getRejectedCount());
+
+        // 同步请求只排在运行中的任务之后
+        queue.checkCapacity("sync-1", JobQueue.Priority.INTERACTIVE);
+        JobQueue.Ticket<Object> ticket = queue.submit("sync-1", JobQueue.Priority.INTERACTIVE, () -> null);
+        assertEquals(20, ticket.getEstimatedSeconds());
+        QueueFullException interactiveRejected = assertThrows(QueueFullException.class,
+            () -> queue.submit("sync-2", JobQueue.Priority.INTERACTIVE, () -> null));
+        assertEquals(20, interactiveRejected.getRetryAfterSeconds());
+        assertEquals(3, queue.getDepth());
+    }
+
+    @Test
+    void runsInteractiveBeforeQueuedBulk() throws Exception {
+        queue = new JobQueue(10, 0, 1, 64, 1, new PipelineExecutors(false, 1));
+        occupyWorker();
+        List<String> order = new CopyOnWriteArrayList<>();
+        queue.submit("bulk-1", JobQueue.Priority.BULK, () -> order.add("bulk-1"));
+        queue.submit("bulk-2", JobQueue.Priority.BULK, () -> order.add("bulk-2"));
+        JobQueue.Ticket<Boolean> last = queue.submit("sync", JobQueue.Priority.INTERACTIVE, () -> order.add("sync"));
+
+        release.countDown();
+        last.getFuture().get(5, TimeUnit.SECONDS);
+        JobQueue.Ticket<Boolean> drained = queue.submit("bulk-3", JobQueue.Priority.BULK, () -> true);
+        drained.getFuture().get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("sync", "bulk-1", "bulk-2"), order);
+    }
+
+    @Test
+    void cancelRemovesQueuedJob() throws Exception {
+        queue = new JobQueue(1, 0, 1, 64, 1, new PipelineExecutors(false, 1));
+        occupyWorker();
+        JobQueue.Ticket<Object> ticket = queue.submit("bulk", JobQueue.Priority.BULK, () -> null);
+
+        assertTrue(queue.cancel("bulk"));
+        assertTrue(ticket.getFuture().isCancelled());
+        // 名额已释放
+        queue.checkCapacity("next", JobQueue.Priority.BULK);
+    }
+
+    @Test
+    void reservationHoldsOneSlotForAllItsJobs() throws Exception {
+        queue = new JobQueue(2, 0, 1, 64, 1, new PipelineExecutors(false, 1));
+        occupyWorker();
+        JobQueue.Reservation batch = queue.reserve("batch", JobQueue.Priority.BULK);
+        for (int i = 0; i < 3; i++) {
+            queue.submit(batch, "child-" + i, () -> null);
+        }
+        assertEquals(1, queue.getDepth());
+
+        queue.submit("bulk", JobQueue.Priority.BULK, () -> null);
+        assertThrows(QueueFullException.class, () -> queue.reserve("another-batch", JobQueue.Priority.BULK));
+
+        batch.release();
+        batch.release();
+        assertEquals(1, queue.getDepth());
+        queue.reserve("another-batch", JobQueue.Priority.BULK);
+    }
+
+    @Test
+    void smallJobReachesPageSchedulerWhileLargeJobsWait() throws Exception {
+        // 默认配置：任务线程主要在等待页面结果，任务级名额远多于同时处理的大文件数
+        queue = new JobQueue(50, 10, 32, 256, 30, new PipelineExecutors(false, 1));
+        FairPageScheduler scheduler = new FairPageScheduler(1, 1, new PipelineExecutors(false, 1), null);
+        try {
+            List<String> order = new CopyOnWriteArrayList<>();
+            CountDownLatch pageStarted = new CountDownLatch(1);
+            scheduler.forTask("blocker").execute(() -> {
+                pageStarted.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(pageStarted.await(5, TimeUnit.SECONDS));
+
+            // 4 个大文件（原默认的任务级名额数）各 25 页，全部在页面调度器中排队
+            List<JobQueue.Ticket<Object>> large = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                large.add(queue.submit("large-" + i, JobQueue.Priority.BULK,
+                    pagesJob(scheduler, "large-" + i, 25, order)));
+            }
+            awaitQueuedPages(scheduler, 100);
+            JobQueue.Ticket<Object> small = queue.submit("small", JobQueue.Priority.BULK,
+                pagesJob(scheduler, "small", 1, order));
+            awaitQueuedPages(scheduler, 101);
+
+            release.countDown();
+            small.getFuture().get(5, TimeUnit.SECONDS);
+            for (JobQueue.Ticket<Object> ticket : large) {
+                ticket.getFuture().get(5, TimeUnit.SECONDS);
+            }
+            // 小文件的页面在第一轮轮询内执行，而不是排在 100 个大文件页面之后
+            assertTrue(order.indexOf("small") < 5, "小文件页面排在第 " + order.indexOf("small") + " 位");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * 把 pages 个页面交给页面调度器并等待全部完成的任务
+     */
+    private static Callable<Object> pagesJob(FairPageScheduler scheduler, String taskId, int pages,
+                                             List<String> order) {
+        return () -> {
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (int i = 0; i < pages; i++) {
+                futures.add(CompletableFuture.runAsync(() -> order.add(taskId),
+                    scheduler.forTask(taskId)));
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        };
+    }
+
+    private static void awaitQueuedPages(FairPageScheduler scheduler, int pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getQueuedPages() < pages) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("页面未进入调度器，排队 " + scheduler.getQueuedPages() + " 页");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * 让唯一的工作线程阻塞，之后提交的任务都留在队列中
+     */
+    private void occupyWorker() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        queue.submit("blocker", JobQueue.Priority.BULK, () -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,50 @@
+package com.invoice.service;
+
+import com.invoice.benchmark.OfdSamples;
+import com.invoice.model.Detection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OfdProcessorTest {
+
+    private final OfdProcessor processor = new OfdProcessor();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void locatesInvoiceFrameAndReadsCustomTags() throws Exception {
+        Path file = OfdSamples.write(tempDir.resolve("sample.ofd"), 3);
+
+        List<OfdProcessor.OfdPage> pages = processor.loadPages(file.toString());
+
+        assertEquals(3, pages.size());
+        Rectangle2D region = processor.locateInvoice(pages.get(1));
+        assertEquals(10, region.getMinX(), 0.5);
+        assertEquals(10, region.getMinY(), 0.5);
+        assertEquals(200, region.getMaxX(), 0.5);
+        assertEquals(150, region.getMaxY(), 0.5);
+
+        Detection fields = processor.extractFields(pages.get(1));
+        assertEquals("名称：" + OfdSamples.SELLER_NAME, fields.getMerchantName());
+    }
+
+    @Test
+    void rendersOnlyTheRequestedRegion() throws Exception {
+        Path file = OfdSamples.write(tempDir.resolve("sample.ofd"), 1);
+        OfdProcessor.OfdPage page = processor.loadPages(file.toString()).get(0);
+
+        BufferedImage image = processor.renderRegion(page, processor.locateInvoice(page), 254);
+
+        // 254 DPI 下 1 mm = 10 像素
+        assertEquals(1900, image.getWidth());
+        assertEquals(1400, image.getHeight());
+    }
+}
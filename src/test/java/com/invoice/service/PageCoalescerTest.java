@@ -0,0 +1,79 @@
+package com.invoice.service;
+
+import com.invoice.model.Detection;
+import com.invoice.model.PageDetections;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCoalescerTest {
+
+    private final PageCoalescer coalescer = new PageCoalescer(true);
+
+    @Test
+    void followersShareLeaderResultAsCopies() throws Exception {
+        PageCoalescer.Flight leader = coalescer.acquire("page");
+        PageCoalescer.Flight first = coalescer.acquire("page");
+        PageCoalescer.Flight second = coalescer.acquire("page");
+        assertTrue(leader.isLeader());
+        assertFalse(first.isLeader());
+        assertFalse(second.isLeader());
+        assertEquals(2, coalescer.getCoalescedCount());
+
+        CompletableFuture<PageDetections> firstResult = first.result();
+        assertFalse(firstResult.isDone());
+        PageDetections detections = detections(1);
+        leader.complete(detections);
+        // 发布后 leader 继续修改自己的结果，不影响等待方
+        detections.get(0).setBox(0, 0, 1, 1);
+
+        PageDetections shared = firstResult.get();
+        assertEquals(100, shared.get(0).getX2());
+        assertNotSame(shared.get(0), second.result().get().get(0));
+    }
+
+    @Test
+    void completedFlightIsNotCached() {
+        PageCoalescer.Flight leader = coalescer.acquire("page");
+        leader.complete(detections(1));
+
+        assertTrue(coalescer.acquire("page").isLeader());
+    }
+
+    @Test
+    void failurePropagatesAndReleasesKey() {
+        PageCoalescer.Flight leader = coalescer.acquire("page");
+        PageCoalescer.Flight follower = coalescer.acquire("page");
+        CompletableFuture<PageDetections> result = follower.result();
+
+        leader.fail(new IOException("模型调用失败"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, result::get);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertTrue(coalescer.acquire("page").isLeader());
+    }
+
+    @Test
+    void differentKeysDoNotCoalesce() {
+        assertTrue(coalescer.acquire("page-1").isLeader());
+        assertTrue(coalescer.acquire("page-2").isLeader());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    private static PageDetections detections(int page) {
+        PageDetections detections = new PageDetections(page);
+        Detection detection = new Detection(10, 10, 100, 100);
+        detection.setPage(page);
+        detections.add(detection);
+        return detections;
+    }
+}
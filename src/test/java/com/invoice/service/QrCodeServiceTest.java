@@ -0,0 +1,172 @@
+package com.invoice.service;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.invoice.model.Detection;
+import com.invoice.model.PageDetections;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QrCodeServiceTest {
+
+    private static final String INVOICE = "01,10,3100223130,12345678,1234.56,20240315,12345678901234567890,ABCD";
+    private static final String DIGITAL_INVOICE = "01,31,,24312000000012345678,100.00,20240315,,";
+
+    private final QrCodeService service = qrCodeService();
+
+    @Test
+    void parsesInvoicePayload() {
+        Detection fields = service.parseInvoiceQrCode(" " + INVOICE + "\n");
+
+        assertNotNull(fields);
+        assertEquals("10", fields.getInvoiceType());
+        assertEquals("3100223130", fields.getInvoiceCode());
+        assertEquals("12345678", fields.getInvoiceNumber());
+        assertEquals(new BigDecimal("1234.56"), fields.getAmount());
+        assertEquals("2024-03-15", fields.getInvoiceDate());
+        assertEquals("12345678901234567890", fields.getCheckCode());
+    }
+
+    @Test
+    void rejectsNonInvoicePayloads() {
+        assertNull(service.parseInvoiceQrCode(null));
+        assertNull(service.parseInvoiceQrCode("https://example.com/pay?id=1"));
+        // 版本号不是 01
+        assertNull(service.parseInvoiceQrCode("02,10,3100223130,12345678,1234.56,20240315,,"));
+        // 字段不足
+        assertNull(service.parseInvoiceQrCode("01,10,3100223130,12345678,1234.56"));
+    }
+
+    @Test
+    void rejectsMalformedDateOrNumber() {
+        assertNull(service.parseInvoiceQrCode("01,10,3100223130,12345678,1234.56,2024-03-15,,"));
+        assertNull(service.parseInvoiceQrCode("01,10,3100223130,1234A678,1234.56,20240315,,"));
+        assertNull(service.parseInvoiceQrCode("01,10,3100223130,,1234.56,20240315,,"));
+
+        // 金额无法解析时保留其他字段
+        Detection fields = service.parseInvoiceQrCode("01,10,3100223130,12345678,N/A,20240315,,");
+        assertNotNull(fields);
+        assertNull(fields.getAmount());
+        assertEquals("12345678", fields.getInvoiceNumber());
+    }
+
+    @Test
+    void parsesFullyDigitalInvoiceWithoutCode() {
+        // 数电发票没有发票代码，号码为 20 位，也没有校验码
+        Detection fields = service.parseInvoiceQrCode(DIGITAL_INVOICE);
+
+        assertNotNull(fields);
+        assertEquals("31", fields.getInvoiceType());
+        assertNull(fields.getInvoiceCode());
+        assertEquals("24312000000012345678", fields.getInvoiceNumber());
+        assertNull(fields.getCheckCode());
+    }
+
+    @Test
+    void derivesInvoiceBoxFromQrPosition() throws Exception {
+        // 页面宽度超过 max-scan-size，在缩小的副本上识别后换算回原图坐标
+        BufferedImage page = blankPage(2000, 900);
+        int size = drawQrCode(page, DIGITAL_INVOICE, 400, 300);
+
+        PageDetections detections = service.detect(page, 2);
+
+        assertEquals(1, detections.size());
+        Detection invoice = detections.get(0);
+        assertEquals("qr", invoice.getSource());
+        assertEquals("24312000000012345678", invoice.getInvoiceNumber());
+        // 发票区域：二维码左上角向左、向上各 0.5 个边长，宽 10.5、高 7 个边长
+        assertNear(400 - size * 0.5, invoice.getX1(), size * 0.1);
+        assertNear(300 - size * 0.5, invoice.getY1(), size * 0.1);
+        assertNear(400 + size * 10.5, invoice.getX2(), size * 0.3);
+        // 超出页面的部分截断到页面边界
+        assertEquals(900, invoice.getY2());
+        assertNear(400 + size / 2.0, invoice.getAnchorX(), size * 0.1);
+        assertNear(300 + size / 2.0, invoice.getAnchorY(), size * 0.1);
+    }
+
+    @Test
+    void clampsBoxAtPageOrigin() throws Exception {
+        BufferedImage page = blankPage(1200, 1200);
+        int size = drawQrCode(page, DIGITAL_INVOICE, 20, 20);
+
+        PageDetections detections = service.detect(page, 1);
+
+        assertEquals(1, detections.size());
+        Detection invoice = detections.get(0);
+        assertEquals(0, invoice.getX1());
+        assertEquals(0, invoice.getY1());
+        assertEquals(1200, invoice.getX2());
+        assertNear(20 + size * 7.0, invoice.getY2(), size * 0.3);
+    }
+
+    @Test
+    void ignoresNonInvoiceQrCode() throws Exception {
+        BufferedImage page = blankPage(1200, 1200);
+        drawQrCode(page, "https://example.com/pay?id=1", 300, 300);
+
+        assertTrue(service.detect(page, 1).isEmpty());
+    }
+
+    private static QrCodeService qrCodeService() {
+        QrCodeService service = new QrCodeService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "maxScanSize", 1600);
+        ReflectionTestUtils.setField(service, "layoutLeft", 0.5);
+        ReflectionTestUtils.setField(service, "layoutTop", 0.5);
+        ReflectionTestUtils.setField(service, "layoutWidth", 10.5);
+        ReflectionTestUtils.setField(service, "layoutHeight", 7.0);
+        return service;
+    }
+
+    private static BufferedImage blankPage(int width, int height) {
+        BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return page;
+    }
+
+    /**
+     * 在 (x, y) 处按每个模块 4 像素绘制版本 3（29 × 29 模块）的二维码，不含静区。
+     * 该版本的定位图案位置与推算二维码边框时的假设基本一致，边框误差在 2% 以内
+     *
+     * @return 二维码边长（像素）
+     */
+    private static int drawQrCode(BufferedImage page, String text, int x, int y) throws Exception {
+        int moduleSize = 4;
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.QR_VERSION, 3);
+        ByteMatrix matrix = Encoder.encode(text, ErrorCorrectionLevel.L, hints).getMatrix();
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.BLACK);
+        for (int row = 0; row < matrix.getHeight(); row++) {
+            for (int col = 0; col < matrix.getWidth(); col++) {
+                if (matrix.get(col, row) == 1) {
+                    g.fillRect(x + col * moduleSize, y + row * moduleSize, moduleSize, moduleSize);
+                }
+            }
+        }
+        g.dispose();
+        return matrix.getWidth() * moduleSize;
+    }
+
+    private static void assertNear(double expected, int actual, double tolerance) {
+        assertTrue(Math.abs(expected - actual) <= tolerance,
+            "期望约 " + Math.round(expected) + "，实际 " + actual);
+    }
+}
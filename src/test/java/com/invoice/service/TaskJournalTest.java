@@ -0,0 +1,159 @@
+package com.invoice.service;
+
+import com.invoice.model.InvoiceInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<TaskJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        opened.forEach(TaskJournal::close);
+    }
+
+    @Test
+    void replaysPagesAndFinalState() throws Exception {
+        TaskJournal journal = open(DataSize.ofMegabytes(16));
+        journal.submitted("a", "a.pdf", "application/pdf", "/tmp/a.pdf", 10, "jpg", Instant.now().toString());
+        journal.pageFailed("a", 1, 3, "超时");
+        journal.pageCompleted("a", 2, 3, List.of(invoice("甲公司")));
+        journal.pageCompleted("a", 1, 3, List.of(invoice("乙公司")));
+        journal.submitted("b", "b.pdf", "application/pdf", "/tmp/b.pdf", 10, "jpg", Instant.now().toString());
+        journal.pageCompleted("b", 1, 1, List.of());
+        journal.completed("b", Instant.now().toString());
+        journal.submitted("c", "c.pdf", "application/pdf", "/tmp/c.pdf", 10, "jpg", Instant.now().toString());
+        journal.cancelled("c");
+        journal.close();
+        opened.remove(journal);
+
+        List<TaskJournal.RecoveredTask> tasks = open(DataSize.ofMegabytes(16)).getRecoveredTasks();
+
+        assertEquals(2, tasks.size());
+        TaskJournal.RecoveredTask a = tasks.get(0);
+        assertEquals("a", a.getSubmitted().getTaskId());
+        assertFalse(a.isFinished());
+        assertEquals(3, a.getTotalPages());
+        // 重试成功的第 1 页覆盖之前的失败记录
+        assertEquals("乙公司", a.getCompletedPages().get(1).get(0).getMerchantName());
+        assertTrue(a.getFailedPages().isEmpty());
+        assertTrue(tasks.get(1).isFinished());
+    }
+
+    @Test
+    void recoversTaskSubmittedButNeverStarted() throws Exception {
+        TaskJournal journal = open(DataSize.ofMegabytes(16));
+        journal.submitted("queued", "queued.pdf", "application/pdf", "/tmp/queued_original.pdf", 20, "png",
+            Instant.now().toString());
+        journal.close();
+        opened.remove(journal);
+
+        List<TaskJournal.RecoveredTask> tasks = open(DataSize.ofMegabytes(16)).getRecoveredTasks();
+
+        // 排队中的任务只有提交记录，重启后据此重新进入任务队列
+        assertEquals(1, tasks.size());
+        TaskJournal.RecoveredTask queued = tasks.get(0);
+        assertFalse(queued.isFinished());
+        assertTrue(queued.getCompletedPages().isEmpty());
+        assertTrue(queued.getFailedPages().isEmpty());
+        assertEquals("/tmp/queued_original.pdf", queued.getSubmitted().getSourcePath());
+        assertEquals(20, queued.getSubmitted().getCropPadding());
+        assertEquals("png", queued.getSubmitted().getOutputFormat());
+    }
+
+    @Test
+    void skipsTornLastRecord() throws Exception {
+        TaskJournal journal = open(DataSize.ofMegabytes(16));
+        journal.submitted("a", "a.pdf", "application/pdf", "/tmp/a.pdf", 10, "jpg", Instant.now().toString());
+        journal.close();
+        opened.remove(journal);
+        Files.writeString(journalFile(), "{\"type\":\"PAGE_DO", java.nio.file.StandardOpenOption.APPEND);
+
+        List<TaskJournal.RecoveredTask> tasks = open(DataSize.ofMegabytes(16)).getRecoveredTasks();
+
+        assertEquals(1, tasks.size());
+        assertNull(tasks.get(0).getTotalPages());
+    }
+
+    @Test
+    void compactsWhileRunning() throws Exception {
+        TaskJournal journal = open(DataSize.ofKilobytes(4));
+        journal.submitted("live", "live.pdf", "application/pdf", "/tmp/live.pdf", 10, "jpg",
+            Instant.now().toString());
+        for (int i = 0; i < 200; i++) {
+            String taskId = "gone-" + i;
+            journal.submitted(taskId, taskId + ".pdf", "application/pdf", "/tmp/" + taskId + ".pdf", 10, "jpg",
+                Instant.now().toString());
+            journal.pageCompleted(taskId, 1, 1, List.of(invoice("丙公司")));
+            journal.evicted(taskId);
+            // 逐条等待写入，让写入线程在多批之间检查大小
+            awaitAppends(journal, 3L * (i + 1) + 1);
+        }
+        journal.pageCompleted("live", 1, 2, List.of(invoice("丁公司")));
+        awaitAppends(journal, 602);
+
+        assertTrue(journal.getCompactCount() > 0);
+        // 压缩后新记录仍然追加到新文件
+        List<String> lines = Files.readAllLines(journalFile());
+        assertTrue(lines.size() < 100, "压缩后仍有 " + lines.size() + " 行");
+        assertTrue(lines.get(lines.size() - 1).contains("丁公司"));
+
+        journal.close();
+        opened.remove(journal);
+        List<TaskJournal.RecoveredTask> tasks = open(DataSize.ofMegabytes(16)).getRecoveredTasks();
+        assertEquals(1, tasks.size());
+        assertEquals("丁公司", tasks.get(0).getCompletedPages().get(1).get(0).getMerchantName());
+    }
+
+    private TaskJournal open(DataSize compactMinSize) throws Exception {
+        TaskJournal journal = new TaskJournal();
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "journalPath", journalFile().toString());
+        ReflectionTestUtils.setField(journal, "fsync", false);
+        ReflectionTestUtils.setField(journal, "maxBatch", 256);
+        ReflectionTestUtils.setField(journal, "compactMinSize", compactMinSize);
+        ReflectionTestUtils.setField(journal, "completedTtl", Duration.ofHours(1));
+        journal.open();
+        opened.add(journal);
+        return journal;
+    }
+
+    private Path journalFile() {
+        return tempDir.resolve("task-journal.log");
+    }
+
+    private static void awaitAppends(TaskJournal journal, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.getAppendCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("写入超时，已写入 " + journal.getAppendCount());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static InvoiceInfo invoice(String merchantName) {
+        InvoiceInfo invoice = new InvoiceInfo();
+        invoice.setMerchantName(merchantName);
+        return invoice;
+    }
+}
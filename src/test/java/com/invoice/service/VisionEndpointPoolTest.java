@@ -0,0 +1,156 @@
+package com.invoice.service;
+
+import com.invoice.config.VolcengineConfig;
+import com.invoice.exception.DeadlineExceededException;
+import com.invoice.exception.TaskCancelledException;
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VisionEndpointPoolTest {
+
+    @Test
+    void spreadsCallsByWeight() throws Exception {
+        VisionEndpointPool pool = pool(endpoint("heavy", 3, 0, 0), endpoint("light", 1, 0, 0));
+
+        List<String> picked = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            picked.add(pool.acquire(false, null, 0).getName());
+        }
+
+        // (进行中 + 1) / 权重 最小者优先：heavy 承担 3/4
+        assertEquals(6, picked.stream().filter("heavy"::equals).count());
+        assertEquals(2, picked.stream().filter("light"::equals).count());
+    }
+
+    @Test
+    void prefersEndpointWithMoreQuotaLeftOnTie() throws Exception {
+        VisionEndpointPool pool = pool(endpoint("a", 1, 0, 10), endpoint("b", 1, 0, 10));
+        VisionEndpointPool.Endpoint first = pool.acquire(false, null, 0);
+        pool.release(first, VisionEndpointPool.Outcome.SUCCESS, 0);
+
+        // 两者进行中都为 0，first 本分钟已用掉一次配额
+        VisionEndpointPool.Endpoint second = pool.acquire(false, null, 0);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    void skipsFullAndPausedEndpoints() throws Exception {
+        VisionEndpointPool pool = pool(endpoint("a", 1, 1, 0), endpoint("b", 1, 1, 0));
+        VisionEndpointPool.Endpoint a = pool.acquire(false, null, 0);
+        VisionEndpointPool.Endpoint b = pool.acquire(false, null, 0);
+        assertNull(pool.tryAcquire(null, false));
+
+        // 限流的接入点按 Retry-After 暂停，另一个结束后可用
+        pool.release(a, VisionEndpointPool.Outcome.RATE_LIMITED, 60_000);
+        assertNull(pool.tryAcquire(null, false));
+        pool.release(b, VisionEndpointPool.Outcome.SUCCESS, 0);
+        assertSame(b, pool.tryAcquire(null, false));
+        assertNull(pool.tryAcquire(b, false));
+    }
+
+    @Test
+    void pausesEndpointAfterConsecutiveFailures() throws Exception {
+        VisionEndpointPool pool = pool(endpoint("a", 1, 0, 0));
+        for (int i = 0; i < 3; i++) {
+            pool.release(pool.acquire(false, null, 0), VisionEndpointPool.Outcome.FAILURE, 0);
+        }
+        assertNull(pool.tryAcquire(null, false));
+        assertFalse(pool.stats().get(0).isHealthy());
+    }
+
+    @Test
+    void acquireWaitsForReleaseAndGivesUpAtDeadline() throws Exception {
+        VisionEndpointPool pool = pool(endpoint("a", 1, 1, 0));
+        VisionEndpointPool.Endpoint held = pool.acquire(false, null, 0);
+
+        long start = System.currentTimeMillis();
+        assertThrows(DeadlineExceededException.class, () -> pool.acquire(false, null, start + 100));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue(waited >= 100 && waited < 2000, "等待了 " + waited + " ms");
+
+        CompletableFuture<VisionEndpointPool.Endpoint> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire(false, null, System.currentTimeMillis() + 5000);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        pool.release(held, VisionEndpointPool.Outcome.SUCCESS, 0);
+        assertSame(held, waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelWakesWaitingCallsOfTheTask() throws Exception {
+        VisionEndpointPool pool = pool(endpoint("a", 1, 1, 0));
+        VisionEndpointPool.Endpoint held = pool.acquire(false, "other", 0);
+
+        // 不限截止时间的等待只能由取消结束
+        CompletableFuture<VisionEndpointPool.Endpoint> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire(false, "cancelled", 0);
+            } catch (InterruptedIOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        pool.cancel("cancelled");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TaskCancelledException.class, e.getCause());
+        // 取消之后才来取接入点的调用同样拒绝，其他任务不受影响
+        pool.release(held, VisionEndpointPool.Outcome.SUCCESS, 0);
+        assertThrows(TaskCancelledException.class, () -> pool.acquire(false, "cancelled", 0));
+        assertSame(held, pool.acquire(false, "other", 0));
+    }
+
+    @Test
+    void structuredCallsAvoidUnsupportedEndpoints() throws Exception {
+        VisionEndpointPool pool = pool(endpoint("a", 1, 0, 0), endpoint("b", 1, 0, 0));
+        VisionEndpointPool.Endpoint a = pool.acquire(true, null, 0);
+        pool.release(a, VisionEndpointPool.Outcome.SUCCESS, 0);
+        pool.markStructuredOutputUnsupported(a);
+
+        for (int i = 0; i < 3; i++) {
+            assertNotSame(a, pool.acquire(true, null, 0));
+        }
+        pool.markStructuredOutputUnsupported(pool.tryAcquire(a, true));
+        assertFalse(pool.supportsStructuredOutput());
+        assertNull(pool.acquire(true, null, 0));
+    }
+
+    private static VisionEndpointPool pool(VolcengineConfig.EndpointConfig... endpoints) {
+        VolcengineConfig config = new VolcengineConfig();
+        config.setBaseUrl("http://localhost");
+        config.getHealth().setFailureThreshold(3);
+        config.getHealth().setCooldown(Duration.ofMinutes(1));
+        config.getEndpoints().addAll(List.of(endpoints));
+        return new VisionEndpointPool(config);
+    }
+
+    private static VolcengineConfig.EndpointConfig endpoint(String name, int weight, int maxConcurrency,
+                                                            int requestsPerMinute) {
+        VolcengineConfig.EndpointConfig endpoint = new VolcengineConfig.EndpointConfig();
+        endpoint.setName(name);
+        endpoint.setWeight(weight);
+        endpoint.setMaxConcurrency(maxConcurrency);
+        endpoint.setRequestsPerMinute(requestsPerMinute);
+        return endpoint;
+    }
+}
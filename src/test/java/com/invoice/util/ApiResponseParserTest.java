@@ -0,0 +1,78 @@
+package com.invoice.util;
+
+import com.invoice.model.Detection;
+import com.invoice.model.PageDetections;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ApiResponseParserTest {
+
+    private final ApiResponseParser parser = new ApiResponseParser();
+
+    @Test
+    void parsesNamedBboxTags() {
+        PageDetections invoices = parser.parseApiResponse(
+            "共 2 张：\n上海测试餐饮有限公司 发票：<bbox>102 85 488 431</bbox>\n<bbox>512,90,903,402</bbox>", 3);
+
+        assertEquals(2, invoices.size());
+        assertBox(invoices.get(0), 102, 85, 488, 431);
+        assertEquals("上海测试餐饮有限公司", invoices.get(0).getMerchantName());
+        assertEquals(3, invoices.get(0).getPage());
+        assertBox(invoices.get(1), 512, 90, 903, 402);
+        assertNull(invoices.get(1).getMerchantName());
+    }
+
+    @Test
+    void prefersJsonInvoicesOverTextFormats() {
+        PageDetections invoices = parser.parseApiResponse("```json\n{\"invoices\": ["
+            + "{\"merchantName\": \"便利店\", \"bbox\": [118, 520, 471, 958], \"confidence\": 0.8}]}\n```"
+            + "\n<bbox>1 2 3 4</bbox>", 1);
+
+        assertEquals(1, invoices.size());
+        assertBox(invoices.get(0), 118, 520, 471, 958);
+        assertEquals("便利店", invoices.get(0).getMerchantName());
+        assertEquals(0.8, invoices.get(0).getConfidence(), 1e-9);
+    }
+
+    @Test
+    void fallsBackToBareArrays() {
+        PageDetections invoices = parser.parseApiResponse("位置 [10, 20, 300, 400] 和 [500, 20, 900, 400]", 1);
+
+        assertEquals(2, invoices.size());
+        assertBox(invoices.get(1), 500, 20, 900, 400);
+    }
+
+    @Test
+    void scalesFractionalCoordinatesToThousandths() {
+        PageDetections invoices = parser.parseApiResponse("<bbox>0.1 0.2 0.55 0.9</bbox>", 1);
+
+        assertBox(invoices.get(0), 100, 200, 550, 900);
+    }
+
+    @Test
+    void dropsMalformedAndInvertedBoxes() {
+        PageDetections invoices = parser.parseApiResponse(
+            "<bbox>1.2.3 5 6 7</bbox>\n<bbox>500 500 100 100</bbox>\n<bbox>10 10 20 20</bbox>", 1);
+
+        assertEquals(1, invoices.size());
+        assertBox(invoices.get(0), 10, 10, 20, 20);
+    }
+
+    @Test
+    void ignoresBracesInProseWithoutBoxes() {
+        PageDetections invoices = parser.parseApiResponse(
+            "这张发票的抬头{可能}被遮挡，发票金额{看不清}。".repeat(200), 1);
+
+        assertTrue(invoices.isEmpty());
+    }
+
+    private static void assertBox(Detection detection, int x1, int y1, int x2, int y2) {
+        assertEquals(x1, detection.getX1());
+        assertEquals(y1, detection.getY1());
+        assertEquals(x2, detection.getX2());
+        assertEquals(y2, detection.getY2());
+    }
+}